@@ -10,6 +10,7 @@ import ch.se.inf.ethz.jcd.batman.cli.command.DeleteCommand;
 import ch.se.inf.ethz.jcd.batman.cli.command.DestroyCommand;
 import ch.se.inf.ethz.jcd.batman.cli.command.ExportCommand;
 import ch.se.inf.ethz.jcd.batman.cli.command.ImportCommand;
+import ch.se.inf.ethz.jcd.batman.cli.command.IndexCommand;
 import ch.se.inf.ethz.jcd.batman.cli.command.ListMembersCommand;
 import ch.se.inf.ethz.jcd.batman.cli.command.LoadCommand;
 import ch.se.inf.ethz.jcd.batman.cli.command.MoveCommand;
@@ -45,6 +46,7 @@ public class Main {
 		cli.attachCommand(new MoveCommand());
 		cli.attachCommand(new CopyCommand());
 		cli.attachCommand(new SearchCommand());
+		cli.attachCommand(new IndexCommand());
 
 		// start command line interface
 		cli.start();
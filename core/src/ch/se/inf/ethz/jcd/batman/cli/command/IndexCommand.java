@@ -0,0 +1,49 @@
+package ch.se.inf.ethz.jcd.batman.cli.command;
+
+import java.io.IOException;
+
+import ch.se.inf.ethz.jcd.batman.cli.Command;
+import ch.se.inf.ethz.jcd.batman.cli.CommandLine;
+import ch.se.inf.ethz.jcd.batman.io.VDiskFile;
+import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDisk;
+
+/**
+ * Provides a command to create or delete the name index of the loaded disk,
+ * which is used by the search command. Takes "on" or "off" as argument, without
+ * an argument it is shown whether the disk has a name index.
+ * 
+ */
+public class IndexCommand implements Command {
+	private static final String[] COMMAND_STRINGS = { "index" };
+
+	@Override
+	public String[] getAliases() {
+		return IndexCommand.COMMAND_STRINGS;
+	}
+
+	@Override
+	public void execute(CommandLine caller, String alias, String... params) {
+		VDiskFile curLocation = caller.getCurrentLocation();
+		if (curLocation == null) {
+			caller.writeln("no disk loaded.");
+			return;
+		}
+
+		IVirtualDisk disk = curLocation.getDisk();
+		try {
+			if (params.length == 0) {
+				caller.writeln("name index is %s",
+						(disk.getNameIndex() == null) ? "off" : "on");
+			} else if (params.length == 1 && params[0].equals("on")) {
+				disk.createNameIndex();
+			} else if (params.length == 1 && params[0].equals("off")) {
+				disk.deleteNameIndex();
+			} else {
+				caller.writeln("expected 'on' or 'off'");
+			}
+		} catch (IOException e) {
+			caller.write(e);
+		}
+	}
+
+}
@@ -1,11 +1,15 @@
 package ch.se.inf.ethz.jcd.batman.cli.command;
 
 import java.io.IOException;
-import java.util.List;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import ch.se.inf.ethz.jcd.batman.cli.Command;
 import ch.se.inf.ethz.jcd.batman.cli.CommandLine;
 import ch.se.inf.ethz.jcd.batman.io.VDiskFile;
+import ch.se.inf.ethz.jcd.batman.vdisk.search.ContentSearchListener;
+import ch.se.inf.ethz.jcd.batman.vdisk.search.SearchResultListener;
 import ch.se.inf.ethz.jcd.batman.vdisk.search.Settings;
 import ch.se.inf.ethz.jcd.batman.vdisk.search.VirtualDiskSearch;
 
@@ -13,12 +17,20 @@ import ch.se.inf.ethz.jcd.batman.vdisk.search.VirtualDiskSearch;
  * Implements a simple search command.
  * 
  * This command allows to search inside file and directory names for a given
- * string. The matching is case insensitive.
+ * string. The matching is case insensitive. The found entries are printed as
+ * soon as they are found. An optional second parameter limits the number of
+ * printed entries.
+ * 
+ * With the flag "-c" the given string is searched inside the data of the files
+ * instead, with the flag "-x" the given regular expression. Every match is
+ * printed as the path of the file and the offset of the match.
  * 
  */
 public class SearchCommand implements Command {
 
 	private static final String[] COMMAND_STRINGS = { "search" };
+	private static final String CONTENT_FLAG = "-c";
+	private static final String CONTENT_PATTERN_FLAG = "-x";
 
 	private final Settings searchSettings;
 
@@ -36,20 +48,75 @@ public class SearchCommand implements Command {
 	}
 
 	@Override
-	public void execute(CommandLine caller, String alias, String... params) {
-		if (params.length == 1) {
+	public void execute(final CommandLine caller, String alias,
+			String... params) {
+		String flag = null;
+		if (params.length > 0
+				&& (params[0].equals(CONTENT_FLAG) || params[0]
+						.equals(CONTENT_PATTERN_FLAG))) {
+			flag = params[0];
+			params = Arrays.copyOfRange(params, 1, params.length);
+		}
+		if (params.length == 1 || params.length == 2) {
+			int maxResults = 0;
+			if (params.length == 2) {
+				try {
+					maxResults = Integer.parseInt(params[1]);
+				} catch (NumberFormatException e) {
+					caller.writeln("invalid maximum number of results: %s",
+							params[1]);
+					return;
+				}
+			}
+			searchSettings.setMaxResults(Math.max(maxResults, 0));
 			try {
-				List<VDiskFile> results = VirtualDiskSearch.searchName(
-						searchSettings, params[0], caller.getCurrentLocation());
-
-				for (VDiskFile entry : results) {
-					caller.writeln("%s", entry.getPath());
+				if (flag == null) {
+					VirtualDiskSearch.searchName(searchSettings, params[0],
+							new SearchResultListener() {
+								@Override
+								public boolean entryFound(VDiskFile entry) {
+									caller.writeln("%s", entry.getPath());
+									return true;
+								}
+							}, caller.getCurrentLocation());
+				} else {
+					searchContent(caller, flag, params[0]);
 				}
 			} catch (IOException e) {
 				caller.write(e);
 			}
 		} else {
-			caller.writeln("expected one parameter, %s given", params.length);
+			caller.writeln("expected one or two parameters, %s given",
+					params.length);
+		}
+	}
+
+	private void searchContent(final CommandLine caller, String flag,
+			String term) throws IOException {
+		ContentSearchListener listener = new ContentSearchListener() {
+			@Override
+			public boolean matchFound(VDiskFile file, long offset) {
+				caller.writeln("%s:%s", file.getPath(), offset);
+				return true;
+			}
+		};
+		if (flag.equals(CONTENT_FLAG)) {
+			if (term.isEmpty()) {
+				caller.writeln("search term must not be empty");
+				return;
+			}
+			VirtualDiskSearch.searchContent(searchSettings, term, listener,
+					caller.getCurrentLocation());
+		} else {
+			Pattern pattern;
+			try {
+				pattern = Pattern.compile(term);
+			} catch (PatternSyntaxException e) {
+				caller.writeln("invalid regular expression: %s", term);
+				return;
+			}
+			VirtualDiskSearch.searchContent(searchSettings, pattern,
+					listener, caller.getCurrentLocation());
 		}
 	}
 
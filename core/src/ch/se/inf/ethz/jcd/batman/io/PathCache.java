@@ -0,0 +1,225 @@
+package ch.se.inf.ethz.jcd.batman.io;
+
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDirectory;
+import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDisk;
+import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDiskEntry;
+
+/**
+ * Cache of the resolved paths of a {@link IVirtualDisk} (dentry cache).
+ * 
+ * The cache maps a path to the {@link IVirtualDiskEntry} it belongs to. Paths
+ * which don't exist are cached as well (negative entries), so
+ * {@link VDiskFile#exists()} of a not yet existing path does not walk the
+ * directories either. A path which is not cached is resolved from the cached
+ * entry of its parent path.
+ * 
+ * A cached entry is only used while it exists and is still the member with
+ * the same name of the entry cached for the parent path. A path which does
+ * not exist is only cached until its parent directory is changed, see
+ * {@link IVirtualDirectory#getModificationCount()}. So the cache stays valid
+ * if entries are created, deleted or moved directly on the disk, without a
+ * {@link VDiskFile}. {@link VDiskFile} additionally updates the cache whenever
+ * it changes an entry. Entries are held by soft references and the least
+ * recently used paths are removed from the cache, so it never keeps a disk or
+ * many entries alive.
+ */
+final class PathCache {
+
+	private static final String PATH_SEPARATOR = String
+			.valueOf(IVirtualDisk.PATH_SEPARATOR);
+
+	private static final int MAX_ENTRIES = 4096;
+
+	private static final Map<IVirtualDisk, PathCache> CACHES = new WeakHashMap<IVirtualDisk, PathCache>();
+
+	/**
+	 * Returns the cache of the given disk.
+	 * 
+	 * @param disk
+	 *            the disk to which the cache belongs
+	 * @return the cache of the disk
+	 */
+	static PathCache getCache(IVirtualDisk disk) {
+		synchronized (CACHES) {
+			PathCache cache = CACHES.get(disk);
+			if (cache == null) {
+				cache = new PathCache();
+				CACHES.put(disk, cache);
+			}
+			return cache;
+		}
+	}
+
+	/**
+	 * A cached path. For a path which does not exist the parent directory and
+	 * its modification count at the time of the lookup are kept.
+	 */
+	private static final class CachedPath {
+		private final SoftReference<IVirtualDiskEntry> entry;
+		private final SoftReference<IVirtualDirectory> parent;
+		private final long parentModificationCount;
+
+		private CachedPath(IVirtualDiskEntry entry, IVirtualDirectory parent) {
+			if (entry != null) {
+				this.entry = new SoftReference<IVirtualDiskEntry>(entry);
+				this.parent = null;
+				this.parentModificationCount = 0;
+			} else {
+				this.entry = null;
+				this.parent = new SoftReference<IVirtualDirectory>(parent);
+				this.parentModificationCount = parent.getModificationCount();
+			}
+		}
+
+		/**
+		 * Returns true if the cached path is still valid for the member with
+		 * the given name of the given directory.
+		 */
+		private boolean isValid(IVirtualDirectory directory, String name) {
+			if (entry == null) {
+				return parent.get() == directory
+						&& directory.getModificationCount() == parentModificationCount;
+			}
+			IVirtualDiskEntry cachedEntry = entry.get();
+			return cachedEntry != null && cachedEntry.exists()
+					&& cachedEntry.getParent() == directory
+					&& name.equals(cachedEntry.getName());
+		}
+
+		private IVirtualDiskEntry getEntry() {
+			return (entry == null) ? null : entry.get();
+		}
+	}
+
+	/**
+	 * Holds the cached paths in access order.
+	 */
+	private final Map<String, CachedPath> entries = new LinkedHashMap<String, CachedPath>(
+			16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(
+				Map.Entry<String, CachedPath> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	private PathCache() {
+	}
+
+	/**
+	 * Returns the entry of the given path.
+	 * 
+	 * @param disk
+	 *            the disk to which the path belongs
+	 * @param path
+	 *            the absolute path of the entry
+	 * @return the entry or null if the path does not exist
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	synchronized IVirtualDiskEntry getEntry(IVirtualDisk disk, String path)
+			throws IOException {
+		return getNormalizedEntry(disk, normalize(path));
+	}
+
+	private IVirtualDiskEntry getNormalizedEntry(IVirtualDisk disk,
+			String path) throws IOException {
+		if (path.isEmpty()) {
+			return disk.getRootDirectory();
+		}
+		int lastSeparatorIndex = path.lastIndexOf(PATH_SEPARATOR);
+		String name = path.substring(lastSeparatorIndex + 1);
+		IVirtualDiskEntry parent = getNormalizedEntry(disk,
+				path.substring(0, Math.max(lastSeparatorIndex, 0)));
+		if (!(parent instanceof IVirtualDirectory)) {
+			// the parent does not exist, so neither does the path
+			return null;
+		}
+		IVirtualDirectory directory = (IVirtualDirectory) parent;
+		CachedPath cachedPath = entries.get(path);
+		if (cachedPath != null && cachedPath.isValid(directory, name)) {
+			return cachedPath.getEntry();
+		}
+		IVirtualDiskEntry entry = directory.getMember(name);
+		entries.put(path, new CachedPath(entry, directory));
+		return entry;
+	}
+
+	/**
+	 * Stores the entry of the given path, e.g. after the entry was created.
+	 * 
+	 * @param path
+	 *            the absolute path of the entry
+	 * @param entry
+	 *            the entry of the path
+	 */
+	synchronized void update(String path, IVirtualDiskEntry entry) {
+		String normalizedPath = normalize(path);
+		if (entry == null || entry.getParent() == null) {
+			entries.remove(normalizedPath);
+		} else {
+			entries.put(normalizedPath, new CachedPath(entry, null));
+		}
+	}
+
+	/**
+	 * Removes the given path from the cache.
+	 * 
+	 * @param path
+	 *            the absolute path to remove
+	 */
+	synchronized void invalidate(String path) {
+		entries.remove(normalize(path));
+	}
+
+	/**
+	 * Removes the given path and all paths below it from the cache. This is
+	 * needed if a directory is moved or deleted.
+	 * 
+	 * @param path
+	 *            the absolute path to remove
+	 */
+	synchronized void invalidateTree(String path) {
+		String normalizedPath = normalize(path);
+		String prefix = normalizedPath + PATH_SEPARATOR;
+		for (Iterator<String> it = entries.keySet().iterator(); it.hasNext();) {
+			String cachedPath = it.next();
+			if (cachedPath.equals(normalizedPath)
+					|| cachedPath.startsWith(prefix)) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Removes duplicate and trailing separators, the root directory is
+	 * represented by the empty string.
+	 */
+	private static String normalize(String path) {
+		StringBuilder builder = new StringBuilder(path.length());
+		char previous = 0;
+		for (int i = 0; i < path.length(); i++) {
+			char c = path.charAt(i);
+			if (c != IVirtualDisk.PATH_SEPARATOR
+					|| previous != IVirtualDisk.PATH_SEPARATOR) {
+				builder.append(c);
+			}
+			previous = c;
+		}
+		int end = builder.length();
+		if (end > 0 && builder.charAt(end - 1) == IVirtualDisk.PATH_SEPARATOR) {
+			builder.setLength(end - 1);
+		}
+		return builder.toString();
+	}
+
+}
@@ -1,17 +1,17 @@
 package ch.se.inf.ethz.jcd.batman.io;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.LinkedList;
+import java.util.List;
 
 import ch.se.inf.ethz.jcd.batman.vdisk.FileAlreadyExistsException;
 import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDirectory;
 import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDisk;
 import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDiskEntry;
 import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualFile;
+import ch.se.inf.ethz.jcd.batman.vdisk.VirtualDiskEntryInfo;
 import ch.se.inf.ethz.jcd.batman.vdisk.VirtualDiskException;
 import ch.se.inf.ethz.jcd.batman.vdisk.util.VirtualDiskUtil;
 
@@ -27,8 +27,6 @@ public class VDiskFile {
 	private static final String PATH_SEPARATOR = String
 			.valueOf(IVirtualDisk.PATH_SEPARATOR);
 
-	private static final int BUFFER_SIZE = 1024 * 1024; // 1 MiB
-
 	// fields
 	private String pathname;
 	private final IVirtualDisk disk;
@@ -122,7 +120,8 @@ public class VDiskFile {
 	}
 
 	/**
-	 * Returns a IVirtualDiskEntry for the given path.
+	 * Returns a IVirtualDiskEntry for the given path. The path is resolved by
+	 * the {@link PathCache} of the disk.
 	 * 
 	 * @param path
 	 *            path for which to return a IVirtualDiskEntry
@@ -130,54 +129,15 @@ public class VDiskFile {
 	 *         the path is not valid or no disk entry exists yet
 	 */
 	private IVirtualDiskEntry getDiskEntry(String path) {
-		// split path into entry names
-		String[] pathParts = path.split(PATH_SEPARATOR);
-		if (pathParts.length == 0) {
-			return disk.getRootDirectory();
-		}
-
-		/*
-		 * go down to the second to last entry name (the should all be
-		 * directories)
-		 */
-		IVirtualDiskEntry currentEntry = disk.getRootDirectory();
-		for (int curPartIndex = 1; curPartIndex < (pathParts.length - 1); curPartIndex++) {
-			String pathPartName = pathParts[curPartIndex];
-
-			// go one step deeper
-			try {
-				currentEntry = VirtualDiskUtil.getDirectoryMember(
-						(IVirtualDirectory) currentEntry, pathPartName);
-			} catch (IOException e) {
-				return null;
-			}
-
-			// check if we got an entry
-			if (currentEntry == null) {
-				return null;
-			}
-
-			// check that it still is a directory
-			if (!(currentEntry instanceof IVirtualDirectory)) {
-				return null;
-			}
-		}
-
-		/*
-		 * we are now at the second to last name in the given file path.
-		 * Therefore currentEntry is still a directory (we checked above) but
-		 * it's child, that we search, does not have to be
-		 */
-		String lastPart = pathParts[pathParts.length - 1];
 		try {
-			currentEntry = VirtualDiskUtil.getDirectoryMember(
-					(IVirtualDirectory) currentEntry, lastPart);
+			return getPathCache().getEntry(disk, path);
 		} catch (IOException e) {
 			return null;
 		}
+	}
 
-		return currentEntry;
-
+	private PathCache getPathCache() {
+		return PathCache.getCache(disk);
 	}
 
 	/**
@@ -336,6 +296,52 @@ public class VDiskFile {
 		return files.toArray(new VDiskFile[0]);
 	}
 
+	/**
+	 * Returns the meta data of all child elements, read in a single pass over
+	 * the directory.
+	 * 
+	 * This does only work for directories. If it's not a directory or the
+	 * directory contains no children this method will return an empty array.
+	 * 
+	 * @return meta data of each child element
+	 * @throws IOException
+	 */
+	public VirtualDiskEntryInfo[] listEntries() throws IOException {
+		if (isDirectory()) {
+			List<VirtualDiskEntryInfo> entries = ((IVirtualDirectory) pathDiskEntry)
+					.listMembers();
+			return entries.toArray(new VirtualDiskEntryInfo[entries.size()]);
+		}
+		return new VirtualDiskEntryInfo[0];
+	}
+
+	/**
+	 * Returns the meta data of at most maxEntries child elements, starting
+	 * after the child at the given cursor position. The cursor of the next page
+	 * is the position of the last returned child.
+	 * 
+	 * This does only work for directories. If it's not a directory this method
+	 * will return an empty array.
+	 * 
+	 * @param cursor
+	 *            the position of the child after which the listing continues
+	 *            or 0 to start with the first child
+	 * @param maxEntries
+	 *            the maximum number of returned children
+	 * @return meta data of each child element of the page
+	 * @throws IOException
+	 * @see IVirtualDirectory#listMembers(long, int)
+	 */
+	public VirtualDiskEntryInfo[] listEntries(long cursor, int maxEntries)
+			throws IOException {
+		if (isDirectory()) {
+			List<VirtualDiskEntryInfo> entries = ((IVirtualDirectory) pathDiskEntry)
+					.listMembers(cursor, maxEntries);
+			return entries.toArray(new VirtualDiskEntryInfo[entries.size()]);
+		}
+		return new VirtualDiskEntryInfo[0];
+	}
+
 	/**
 	 * Creates a directory for the path represented by the VDiskFile.
 	 * 
@@ -357,6 +363,7 @@ public class VDiskFile {
 			} catch (IOException e) {
 				return false;
 			}
+			getPathCache().update(pathname, pathDiskEntry);
 
 			return pathDiskEntry != null;
 		}
@@ -418,6 +425,23 @@ public class VDiskFile {
 		IVirtualDirectory oldParentDir = (IVirtualDirectory) getParentFile().pathDiskEntry;
 		IVirtualDirectory newParentDir = (IVirtualDirectory) newParent.pathDiskEntry;
 
+		// the cached paths are resolved again, whatever the outcome is
+		getPathCache().invalidateTree(this.pathname);
+		getPathCache().invalidateTree(dest.getPath());
+
+		if (oldParentDir.getPosition() == newParentDir.getPosition()) {
+			// renamed in place, so the entry keeps its place in the member list
+			// and listings continue after it
+			try {
+				this.pathDiskEntry.setName(dest.getName());
+			} catch (IOException e) {
+				return false;
+			}
+			this.pathname = dest.getPath();
+			getPathCache().update(this.pathname, this.pathDiskEntry);
+			return true;
+		}
+
 		try {
 			oldParentDir.removeMember(this.pathDiskEntry);
 		} catch (IOException e) {
@@ -449,6 +473,7 @@ public class VDiskFile {
 		}
 
 		this.pathname = dest.getPath();
+		getPathCache().update(this.pathname, this.pathDiskEntry);
 		return true;
 	}
 
@@ -458,6 +483,9 @@ public class VDiskFile {
 	 * Note that only files can be copied, not directories or other virtual disk
 	 * objects.
 	 * 
+	 * The copy shares the data of this file, the data is only copied when one
+	 * of the files is changed (copy-on-write).
+	 * 
 	 * @param targetFile
 	 *            target for the file
 	 * @return true if copy was created successfully, otherwise false
@@ -480,25 +508,15 @@ public class VDiskFile {
 
 		if (this.isFile()) {
 			try {
-				targetFile.createNewFile(((IVirtualFile) this.pathDiskEntry)
-						.getSize());
-
-				InputStream reader = new VDiskFileInputStream(this);
-				OutputStream writer = new VDiskFileOutputStream(targetFile,
-						false);
-
-				byte[] buffer = new byte[BUFFER_SIZE];
-				int readAmount = 0;
-				do {
-					readAmount = reader.read(buffer);
-					if (readAmount > 0) {
-						writer.write(buffer, 0, readAmount);
-					}
-				} while (readAmount > 0);
-
-				reader.close();
-				writer.close();
-
+				VDiskFile parent = targetFile.getParentFile();
+				if (!parent.isDirectory()) {
+					return false;
+				}
+				targetFile.pathDiskEntry = this.disk.createFileCopy(
+						(IVirtualDirectory) parent.getDiskEntry(),
+						targetFile.getName(), (IVirtualFile) this.pathDiskEntry);
+				getPathCache().update(targetFile.pathname,
+						targetFile.pathDiskEntry);
 				return true;
 			} catch (IOException e) {
 				return false;
@@ -548,6 +566,7 @@ public class VDiskFile {
 		} catch (FileAlreadyExistsException e) {
 			return false;
 		}
+		getPathCache().update(this.pathname, this.pathDiskEntry);
 		return true;
 	}
 
@@ -653,15 +672,20 @@ public class VDiskFile {
 	public boolean delete() {
 		if (exists()) {
 			try {
-				if (isDirectory()) {
-					// Check if directory is empty
-					IVirtualDirectory directory = (IVirtualDirectory) this.pathDiskEntry;
-					if (directory.getFirstMember() != null) {
-						return false;
-					}
+				boolean directory = isDirectory();
+				if (directory
+						&& ((IVirtualDirectory) this.pathDiskEntry)
+								.getFirstMember() != null) {
+					// The directory is not empty
+					return false;
 				}
 				this.pathDiskEntry.delete();
 				this.pathDiskEntry = null;
+				if (directory) {
+					getPathCache().invalidateTree(this.pathname);
+				} else {
+					getPathCache().invalidate(this.pathname);
+				}
 				return true;
 			} catch (IOException e) {
 				return false;
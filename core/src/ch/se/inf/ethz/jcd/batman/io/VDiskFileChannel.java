@@ -0,0 +1,287 @@
+package ch.se.inf.ethz.jcd.batman.io;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonReadableChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualFile;
+
+/**
+ * Implements {@link SeekableByteChannel} for files on the Batman Virtual Disk.
+ *
+ * Like a {@link java.nio.channels.FileChannel} the channel has its own
+ * position and additionally offers reads and writes at a given position, which
+ * do not change the position of the channel. The offset of the file itself is
+ * never changed, so several channels and streams can use the same file at
+ * once. Reads and transfers at a given position run in parallel, the file
+ * only locks its data for writes and size changes. Appends and truncations
+ * lock the file as well, so the size does not change between the size check
+ * and the access. The position of the channel is guarded by the channel.
+ *
+ */
+public class VDiskFileChannel implements SeekableByteChannel {
+	// fields
+	private final IVirtualFile file;
+	private final boolean readable;
+	private final boolean writable;
+	private final boolean append;
+	private long position;
+	private volatile boolean open = true;
+
+	// constructors
+
+	/**
+	 * Creates a VDiskFileChannel which reads the given file.
+	 *
+	 * @param file
+	 *            the file to read
+	 * @throws IOException
+	 *             if the file does not exist
+	 */
+	public VDiskFileChannel(VDiskFile file) throws IOException {
+		this(file, true, false, false);
+	}
+
+	/**
+	 * Creates a VDiskFileChannel for the given file.
+	 *
+	 * @param file
+	 *            the file to access
+	 * @param readable
+	 *            true if the channel is allowed to read
+	 * @param writable
+	 *            true if the channel is allowed to write
+	 * @param append
+	 *            true if the data written without a position should be
+	 *            appended to the current data
+	 * @throws IOException
+	 *             if the file does not exist
+	 */
+	public VDiskFileChannel(VDiskFile file, boolean readable,
+			boolean writable, boolean append) throws IOException {
+		if (!file.exists() || !file.isFile()) {
+			throw new FileNotFoundException();
+		}
+
+		this.file = (IVirtualFile) file.getDiskEntry();
+		this.readable = readable;
+		this.writable = writable;
+		this.append = append;
+	}
+
+	// public methods
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public void close() throws IOException {
+		open = false;
+	}
+
+	@Override
+	public int read(ByteBuffer dst) throws IOException {
+		checkReadable();
+		synchronized (this) {
+			int bytesRead = read(dst, position);
+			if (bytesRead > 0) {
+				position += bytesRead;
+			}
+			return bytesRead;
+		}
+	}
+
+	/**
+	 * Reads bytes from the file starting at the given position into the
+	 * remaining space of the buffer. The position of the channel is not
+	 * changed.
+	 *
+	 * @param dst
+	 *            the buffer into which the data is read
+	 * @param position
+	 *            the offset in the file at which the data is read
+	 * @return the number of bytes read or -1 if the position is at or beyond
+	 *         the end of the file
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * @see java.nio.channels.FileChannel#read(ByteBuffer, long)
+	 */
+	public int read(ByteBuffer dst, long position) throws IOException {
+		checkPosition(position);
+		checkReadable();
+		if (position >= file.getSize()) {
+			return -1;
+		}
+		return file.read(position, dst);
+	}
+
+	@Override
+	public int write(ByteBuffer src) throws IOException {
+		checkWritable();
+		synchronized (this) {
+			int bytesWritten;
+			if (append) {
+				synchronized (file) {
+					position = file.getSize();
+					bytesWritten = write(src, position);
+				}
+			} else {
+				bytesWritten = write(src, position);
+			}
+			position += bytesWritten;
+			return bytesWritten;
+		}
+	}
+
+	/**
+	 * Writes the remaining bytes of the buffer to the file starting at the
+	 * given position. If the position is behind the end of the file, the file
+	 * is extended and the content of the gap is not defined. The position of
+	 * the channel is not changed.
+	 *
+	 * @param src
+	 *            the buffer holding the data
+	 * @param position
+	 *            the offset in the file at which the data is written
+	 * @return the number of bytes written
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * @see java.nio.channels.FileChannel#write(ByteBuffer, long)
+	 */
+	public int write(ByteBuffer src, long position) throws IOException {
+		checkPosition(position);
+		checkWritable();
+		int bytesWritten = src.remaining();
+		file.write(position, src);
+		return bytesWritten;
+	}
+
+	/**
+	 * Transfers up to count bytes from the given channel into the file,
+	 * starting at the given position. The data is passed on to the storage of
+	 * the disk without copying it into a buffer, so a transfer from a
+	 * {@link java.nio.channels.FileChannel} is done by the operating system.
+	 * Unlike a {@link java.nio.channels.FileChannel} the file is extended if
+	 * the position is behind its end. The position of the channel is not
+	 * changed.
+	 *
+	 * @param src
+	 *            the channel from which the data is read
+	 * @param position
+	 *            the offset in the file at which the data is written
+	 * @param count
+	 *            the maximum number of bytes to transfer
+	 * @return the number of bytes transferred
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * @see java.nio.channels.FileChannel#transferFrom(ReadableByteChannel,
+	 *      long, long)
+	 */
+	public long transferFrom(ReadableByteChannel src, long position,
+			long count) throws IOException {
+		checkPosition(position);
+		checkPosition(count);
+		checkWritable();
+		return file.transferFrom(src, position, count);
+	}
+
+	/**
+	 * Transfers up to count bytes of the file, starting at the given
+	 * position, to the given channel. The data is passed on by the storage of
+	 * the disk without copying it into a buffer. The position of the channel
+	 * is not changed.
+	 *
+	 * @param position
+	 *            the offset in the file at which the data is read
+	 * @param count
+	 *            the maximum number of bytes to transfer
+	 * @param target
+	 *            the channel to which the data is written
+	 * @return the number of bytes transferred, which is 0 if the position is
+	 *         at or beyond the end of the file
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * @see java.nio.channels.FileChannel#transferTo(long, long,
+	 *      WritableByteChannel)
+	 */
+	public long transferTo(long position, long count,
+			WritableByteChannel target) throws IOException {
+		checkPosition(position);
+		checkPosition(count);
+		checkReadable();
+		return file.transferTo(position, count, target);
+	}
+
+	@Override
+	public synchronized long position() throws IOException {
+		checkOpen();
+		return position;
+	}
+
+	@Override
+	public synchronized VDiskFileChannel position(long newPosition)
+			throws IOException {
+		checkPosition(newPosition);
+		checkOpen();
+		position = newPosition;
+		return this;
+	}
+
+	@Override
+	public long size() throws IOException {
+		checkOpen();
+		return file.getSize();
+	}
+
+	@Override
+	public VDiskFileChannel truncate(long size) throws IOException {
+		checkPosition(size);
+		checkWritable();
+		synchronized (this) {
+			synchronized (file) {
+				if (size < file.getSize()) {
+					file.setSize(size);
+				}
+			}
+			position = Math.min(position, size);
+		}
+		return this;
+	}
+
+	// private methods
+
+	private void checkOpen() throws ClosedChannelException {
+		if (!open) {
+			throw new ClosedChannelException();
+		}
+	}
+
+	private void checkReadable() throws ClosedChannelException {
+		checkOpen();
+		if (!readable) {
+			throw new NonReadableChannelException();
+		}
+	}
+
+	private void checkWritable() throws ClosedChannelException {
+		checkOpen();
+		if (!writable) {
+			throw new NonWritableChannelException();
+		}
+	}
+
+	private static void checkPosition(long position) {
+		if (position < 0) {
+			throw new IllegalArgumentException("Negative position");
+		}
+	}
+
+}
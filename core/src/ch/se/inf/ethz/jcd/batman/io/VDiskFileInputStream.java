@@ -6,6 +6,8 @@ package ch.se.inf.ethz.jcd.batman.io;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 
 import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDisk;
 import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualFile;
@@ -13,11 +15,37 @@ import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualFile;
 /**
  * Implements {@link java.io.InputStream} for files on the Batman Virtual Disk
  * 
+ * The data is read ahead into an internal buffer, which is reused for all
+ * reads. The amount read ahead starts at {@value #MIN_READ_AHEAD} bytes and
+ * is doubled with every sequential refill of the buffer up to
+ * {@value #MAX_READ_AHEAD} bytes. Reads of at least the current read-ahead
+ * size are read directly into the array of the caller. The file is read at
+ * positions, so the offset of the file is not changed by the stream.
+ * 
+ * The rest of the file can be transferred to a channel with
+ * {@link #transferTo(WritableByteChannel)}, which passes the data on without
+ * reading it into the buffer.
+ * 
  */
 public class VDiskFileInputStream extends InputStream {
 	// fields
+	private static final int MIN_READ_AHEAD = 8 * 1024;
+	private static final int MAX_READ_AHEAD = 1024 * 1024;
+	private static final byte[] EMPTY_BUFFER = new byte[0];
+
 	private final IVirtualFile file;
 	private long currentPosition;
+	/**
+	 * The size of the file when the buffer was filled the last time.
+	 */
+	private long fileSize;
+	private byte[] buffer = EMPTY_BUFFER;
+	/**
+	 * The offset in the file of the first byte in the buffer.
+	 */
+	private long bufferPosition;
+	private int bufferLength;
+	private int readAhead = MIN_READ_AHEAD;
 
 	// constructors
 
@@ -52,89 +80,130 @@ public class VDiskFileInputStream extends InputStream {
 
 		this.file = (IVirtualFile) file.getDiskEntry();
 		this.currentPosition = 0;
+		this.fileSize = this.file.getSize();
 	}
 
 	// public methods
 
 	@Override
 	public int available() throws IOException {
-		long bytesToGo = this.file.getSize() - this.file.getDataPosition();
+		long bytesToGo = this.file.getSize() - this.currentPosition;
 
 		if (bytesToGo > Integer.MAX_VALUE) {
 			return Integer.MAX_VALUE;
 		} else {
-			return (int) bytesToGo;
+			return (int) Math.max(bytesToGo, 0);
 		}
 	}
 
 	@Override
 	public void close() throws IOException {
-		// we do not need to close because of the underlying disk
+		// we do not need to close because of the underlying disk, only the
+		// buffer is released
+		this.buffer = EMPTY_BUFFER;
+		this.bufferLength = 0;
 	}
 
 	@Override
 	public int read() throws IOException {
-		if (currentPosition < this.file.getSize()) {
-			this.file.seek(currentPosition);
-			int readValue = this.file.read() & 0xFF;
-			this.currentPosition = this.file.getFilePointer();
-
-			return readValue;
-		} else {
+		if (getBufferedCount() == 0 && !fillBuffer()) {
 			return -1;
 		}
+
+		int readValue = this.buffer[getBufferOffset()] & 0xFF;
+		this.currentPosition++;
+
+		return readValue;
 	}
 
 	@Override
 	public int read(byte[] b) throws IOException {
-		if (currentPosition < this.file.getSize()) {
-			this.file.seek(currentPosition);
-			int readAmount = this.file.read(b);
-			this.currentPosition = this.file.getFilePointer();
-
-			return readAmount;
-		} else {
-			return -1;
-		}
+		return read(b, 0, b.length);
 	}
 
 	@Override
 	public int read(byte[] b, int off, int len) throws IOException {
-		if (currentPosition < this.file.getSize()) {
-			this.file.seek(currentPosition);
-
-			byte[] readBytes = new byte[len];
-			int readCount = this.file.read(readBytes);
-
-			for (int i = off; i < off + len; i++) {
-				b[i] = readBytes[i - off];
-			}
+		if (off < 0 || len < 0 || len > b.length - off) {
+			throw new IndexOutOfBoundsException();
+		} else if (len == 0) {
+			return 0;
+		}
 
-			this.currentPosition = this.file.getFilePointer();
+		// first use the data which is still in the buffer
+		int readCount = Math.min(getBufferedCount(), len);
+		if (readCount > 0) {
+			System.arraycopy(this.buffer, getBufferOffset(), b, off, readCount);
+			this.currentPosition += readCount;
+		}
 
-			return readCount;
-		} else {
-			return -1;
+		int remaining = len - readCount;
+		if (remaining >= this.readAhead) {
+			// large reads bypass the buffer
+			int directCount = this.file.read(this.currentPosition, b, off
+					+ readCount, remaining);
+			this.currentPosition += directCount;
+			readCount += directCount;
+		} else if (remaining > 0 && fillBuffer()) {
+			int bufferedCount = Math.min(getBufferedCount(), remaining);
+			System.arraycopy(this.buffer, getBufferOffset(), b, off
+					+ readCount, bufferedCount);
+			this.currentPosition += bufferedCount;
+			readCount += bufferedCount;
 		}
+
+		return (readCount == 0) ? -1 : readCount;
 	}
 
 	@Override
 	public long skip(long n) throws IOException {
-		long oldPosition = this.currentPosition;
-		long newPosition = oldPosition + n;
+		if (n <= 0) {
+			return 0;
+		}
 		long fileSize = this.file.getSize();
+		long skipped = Math.max(Math.min(n, fileSize - this.currentPosition),
+				0);
+		this.currentPosition += skipped;
+		if (getBufferedCount() == 0) {
+			// the reads are not sequential anymore
+			this.readAhead = MIN_READ_AHEAD;
+		}
 
-		if (newPosition > fileSize) {
-			this.file.seek(fileSize);
-			this.currentPosition = this.file.getFilePointer();
+		return skipped;
+	}
 
-			return fileSize - oldPosition;
-		} else {
-			this.file.seek(newPosition);
-			this.currentPosition = this.file.getFilePointer();
+	/**
+	 * Transfers all remaining bytes of the stream to the given channel. The
+	 * bytes which are already buffered are written first, the rest of the file
+	 * is transferred by the disk without copying it into the buffer. After the
+	 * transfer the stream is at the end of the file.
+	 * 
+	 * @param target
+	 *            the channel to which the data is written
+	 * @return the number of bytes transferred
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public long transferTo(WritableByteChannel target) throws IOException {
+		long transferred = 0;
+		int bufferedCount = getBufferedCount();
+		if (bufferedCount > 0) {
+			ByteBuffer data = ByteBuffer.wrap(this.buffer, getBufferOffset(),
+					bufferedCount);
+			while (data.hasRemaining()) {
+				target.write(data);
+			}
+			this.currentPosition += bufferedCount;
+			transferred += bufferedCount;
+		}
 
-			return n;
+		long count = this.file.getSize() - this.currentPosition;
+		if (count > 0) {
+			long directCount = this.file.transferTo(this.currentPosition,
+					count, target);
+			this.currentPosition += directCount;
+			transferred += directCount;
 		}
+		return transferred;
 	}
 
 	/**
@@ -172,4 +241,51 @@ public class VDiskFileInputStream extends InputStream {
 
 	// private methods
 
+	/**
+	 * Returns the number of bytes in the buffer behind the current position.
+	 */
+	private int getBufferedCount() {
+		long offset = this.currentPosition - this.bufferPosition;
+		if (offset < 0 || offset >= this.bufferLength) {
+			return 0;
+		}
+		return (int) (this.bufferLength - offset);
+	}
+
+	private int getBufferOffset() {
+		return (int) (this.currentPosition - this.bufferPosition);
+	}
+
+	/**
+	 * Fills the buffer with the data starting at the current position. If the
+	 * buffer is filled directly behind the previous data, the amount read
+	 * ahead is doubled.
+	 * 
+	 * @return false if the end of the file is reached
+	 */
+	private boolean fillBuffer() throws IOException {
+		if (this.currentPosition == this.bufferPosition + this.bufferLength
+				&& this.bufferLength > 0) {
+			this.readAhead = Math.min(2 * this.readAhead, MAX_READ_AHEAD);
+		} else {
+			this.readAhead = MIN_READ_AHEAD;
+		}
+		if (this.buffer.length < this.readAhead) {
+			this.buffer = new byte[this.readAhead];
+		}
+		if (this.currentPosition >= this.fileSize) {
+			// the file may have grown in the meantime
+			this.fileSize = this.file.getSize();
+		}
+		int length = (int) Math.min(this.readAhead, this.fileSize
+				- this.currentPosition);
+		this.bufferPosition = this.currentPosition;
+		this.bufferLength = Math.max(length, 0);
+		if (this.bufferLength > 0) {
+			this.bufferLength = this.file.read(this.currentPosition,
+					this.buffer, 0, this.bufferLength);
+		}
+		return this.bufferLength > 0;
+	}
+
 }
@@ -3,7 +3,7 @@ package ch.se.inf.ethz.jcd.batman.io;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.Arrays;
+import java.nio.channels.ReadableByteChannel;
 
 import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDisk;
 import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualFile;
@@ -11,11 +11,45 @@ import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualFile;
 /**
  * Implements {@link java.io.OutputStream} for files on the Batman Virtual Disk.
  * 
+ * A stream created with a buffer size collects the written data and writes it
+ * in chunks of the buffer size, which are aligned to multiples of the buffer
+ * size inside the file. Instead of extending the file for every chunk, the
+ * stream grows the file to the given size hint or, if the hint is exceeded,
+ * doubles the amount it grows the file by. Space reserved this way which was
+ * not written is released again when the stream is closed, until then the
+ * file may be larger than the written data. Streams created without a buffer
+ * size write the data directly to the file.
+ * 
+ * Data can also be transferred from a channel with
+ * {@link #transferFrom(ReadableByteChannel, long)}, which passes it on to the
+ * disk without copying it into the buffer.
+ * 
+ * {@link #flush()} and {@link #close()} write the buffered data to the file
+ * on the disk. Forcing the data to the host file is left to
+ * {@link IVirtualDisk#flush()}. A stream which is not closed is not written
+ * by the garbage collector, its buffered data is lost.
+ * 
  */
 public class VDiskFileOutputStream extends OutputStream {
 	// fields
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+	private static final long MAX_GROWTH = 64 * 1024 * 1024;
+
 	private final IVirtualFile file;
+	/**
+	 * The offset in the file at which the buffered data is written.
+	 */
 	private long currentPosition;
+	private byte[] buffer;
+	private int bufferLength;
+	private final long sizeHint;
+	/**
+	 * The size of the file before the stream reserved any space.
+	 */
+	private final long initialSize;
+	private long fileSize;
+	private boolean reserved;
+	private boolean closed;
 
 	// constructors
 
@@ -65,13 +99,47 @@ public class VDiskFileOutputStream extends OutputStream {
 	 */
 	public VDiskFileOutputStream(VDiskFile file, boolean append)
 			throws IOException {
+		this(file, append, 0, 0);
+	}
+
+	/**
+	 * Creates a buffered VDiskFileOutputStream by using the given VDiskFile
+	 * file.
+	 * 
+	 * @param file
+	 *            the file to write into
+	 * @param append
+	 *            true if the written content should be appended to the current
+	 *            data.
+	 * @param bufferSize
+	 *            the size of the chunks in which the data is written, 0 to
+	 *            write the data directly.
+	 * @param sizeHint
+	 *            the expected size of the file after all data is written, 0 if
+	 *            unknown.
+	 * @throws FileNotFoundException
+	 *             if the file doesn't exist or is a directory
+	 * @throws IOException
+	 *             if the size of the file can't be read
+	 */
+	public VDiskFileOutputStream(VDiskFile file, boolean append,
+			int bufferSize, long sizeHint) throws IOException {
+		if (bufferSize < 0 || sizeHint < 0) {
+			throw new IllegalArgumentException();
+		}
 		if (!file.exists() || !file.isFile()) {
 			throw new FileNotFoundException();
 		}
 
 		this.file = (IVirtualFile) file.getDiskEntry();
+		this.initialSize = this.file.getSize();
+		this.fileSize = this.initialSize;
+		this.sizeHint = sizeHint;
+		if (bufferSize > 0) {
+			this.buffer = new byte[bufferSize];
+		}
 		if (append) {
-			this.currentPosition = this.file.getSize();
+			this.currentPosition = this.initialSize;
 		} else {
 			this.currentPosition = 0;
 		}
@@ -80,50 +148,169 @@ public class VDiskFileOutputStream extends OutputStream {
 	// public methods
 	@Override
 	public void close() throws IOException {
-		/*
-		 * not needed as virtual disk has no buffer or anything else that would
-		 * need to be closed.
-		 */
+		if (closed) {
+			return;
+		}
+		flushBuffer();
+		closed = true;
+		buffer = null;
+		// release the space which was reserved but not written
+		if (reserved && fileSize > currentPosition) {
+			this.file.setSize(Math.max(currentPosition, initialSize));
+		}
 	}
 
+	/**
+	 * Writes the buffered data to the file. The disk is not flushed, see
+	 * {@link IVirtualDisk#flush()}.
+	 */
 	@Override
 	public void flush() throws IOException {
-		// not needed as virtual disk has no buffer
+		flushBuffer();
 	}
 
 	@Override
 	public void write(int b) throws IOException {
-		this.file.seek(currentPosition);
-		this.file.write((byte) b);
-
-		this.currentPosition = this.file.getFilePointer();
+		checkOpen();
+		if (buffer == null) {
+			writeData(new byte[] { (byte) b }, 0, 1);
+		} else {
+			if (bufferLength == getChunkSize()) {
+				flushBuffer();
+			}
+			buffer[bufferLength++] = (byte) b;
+		}
 	}
 
 	@Override
 	public void write(byte[] b) throws IOException {
-		this.file.seek(currentPosition);
-		this.file.write(b);
-
-		this.currentPosition = this.file.getFilePointer();
+		write(b, 0, b.length);
 	}
 
 	@Override
 	public void write(byte[] b, int off, int len) throws IOException {
-		this.file.seek(currentPosition);
-
-		byte[] toBeWritten = Arrays.copyOfRange(b, off, off + len);
-		this.file.write(toBeWritten);
+		if (off < 0 || len < 0 || len > b.length - off) {
+			throw new IndexOutOfBoundsException();
+		}
+		checkOpen();
+		if (buffer == null) {
+			writeData(b, off, len);
+			return;
+		}
 
-		this.currentPosition = this.file.getFilePointer();
+		while (len > 0) {
+			int chunkSize = getChunkSize();
+			if (bufferLength == 0 && len >= chunkSize) {
+				// whole chunks are written without copying them
+				int directLength = chunkSize + (len - chunkSize)
+						/ buffer.length * buffer.length;
+				writeData(b, off, directLength);
+				off += directLength;
+				len -= directLength;
+			} else {
+				int copyLength = Math.min(len, chunkSize - bufferLength);
+				System.arraycopy(b, off, buffer, bufferLength, copyLength);
+				bufferLength += copyLength;
+				off += copyLength;
+				len -= copyLength;
+				if (bufferLength == chunkSize) {
+					flushBuffer();
+				}
+			}
+		}
 	}
 
-	// protected methods
-	@Override
-	protected void finalize() throws Throwable {
-		this.close();
-		super.finalize();
+	/**
+	 * Transfers up to count bytes from the given channel to the current
+	 * position of the stream. The buffered data is flushed first, then the
+	 * data is passed on to the disk without copying it into the buffer. A
+	 * buffered stream reserves the space like for the written data.
+	 * 
+	 * @param src
+	 *            the channel from which the data is read
+	 * @param count
+	 *            the maximum number of bytes to transfer
+	 * @return the number of bytes transferred, which is less than count if
+	 *         the channel has less bytes remaining
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public long transferFrom(ReadableByteChannel src, long count)
+			throws IOException {
+		if (count < 0) {
+			throw new IllegalArgumentException();
+		}
+		flushBuffer();
+		if (count == 0) {
+			return 0;
+		}
+		if (buffer != null) {
+			reserve(currentPosition + count);
+		}
+		long transferred = this.file.transferFrom(src, currentPosition, count);
+		currentPosition += transferred;
+		fileSize = Math.max(fileSize, currentPosition);
+		return transferred;
 	}
 
 	// private methods
 
+	private void checkOpen() throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed");
+		}
+	}
+
+	/**
+	 * Writes the buffered data to the file.
+	 */
+	private void flushBuffer() throws IOException {
+		checkOpen();
+		if (bufferLength > 0) {
+			int length = bufferLength;
+			bufferLength = 0;
+			writeData(buffer, 0, length);
+		}
+	}
+
+	/**
+	 * Returns the size of the chunk which starts at the current position. The
+	 * chunk ends at the next multiple of the buffer size.
+	 */
+	private int getChunkSize() {
+		return buffer.length - (int) (currentPosition % buffer.length);
+	}
+
+	private void writeData(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return;
+		}
+		if (buffer != null) {
+			reserve(currentPosition + len);
+		}
+		this.file.write(currentPosition, b, off, len);
+		currentPosition += len;
+		fileSize = Math.max(fileSize, currentPosition);
+	}
+
+	/**
+	 * Grows the file, so that it contains at least the given number of bytes.
+	 * The file is grown to the size hint or by the size of the file, but at
+	 * least by the buffer size and at most by {@value #MAX_GROWTH} bytes.
+	 */
+	private void reserve(long size) throws IOException {
+		if (size <= fileSize) {
+			return;
+		}
+		long newSize = sizeHint;
+		if (newSize < size) {
+			long growth = Math.min(Math.max(fileSize, buffer.length),
+					MAX_GROWTH);
+			newSize = Math.max(size, fileSize + growth);
+		}
+		this.file.setSize(newSize);
+		fileSize = newSize;
+		reserved = true;
+	}
+
 }
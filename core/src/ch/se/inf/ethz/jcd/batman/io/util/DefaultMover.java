@@ -1,12 +1,23 @@
 package ch.se.inf.ethz.jcd.batman.io.util;
 
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+
+import ch.se.inf.ethz.jcd.batman.io.VDiskFileInputStream;
+import ch.se.inf.ethz.jcd.batman.io.VDiskFileOutputStream;
 
 /**
  * Moves files without applying any transformations to the data.
  * 
+ * If the data is moved between a file of the host and a file of the virtual
+ * disk, it is transferred by the channels of the host file. The operating
+ * system then copies the data directly between the host file and the file of
+ * the virtual disk, without moving it through a buffer on the heap.
+ * 
  * @see HostBridge
  * 
  */
@@ -47,7 +58,9 @@ public class DefaultMover implements DataMover {
 	}
 
 	/**
-	 * Reads data from reader and writes them into the writer.
+	 * Reads data from reader and writes them into the writer. Data moved from
+	 * a host file into a virtual file or the other way round is transferred
+	 * without a buffer.
 	 * 
 	 * @param reader
 	 *            source to read from
@@ -57,6 +70,19 @@ public class DefaultMover implements DataMover {
 	 */
 	public static void move(InputStream reader, OutputStream writer)
 			throws IOException {
+		if (reader instanceof FileInputStream
+				&& writer instanceof VDiskFileOutputStream) {
+			FileChannel source = ((FileInputStream) reader).getChannel();
+			((VDiskFileOutputStream) writer).transferFrom(source,
+					source.size() - source.position());
+			return;
+		} else if (reader instanceof VDiskFileInputStream
+				&& writer instanceof FileOutputStream) {
+			((VDiskFileInputStream) reader)
+					.transferTo(((FileOutputStream) writer).getChannel());
+			return;
+		}
+
 		byte[] buffer = new byte[BUFFER_SIZE];
 
 		int readAmount = 0;
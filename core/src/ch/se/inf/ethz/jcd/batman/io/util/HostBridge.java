@@ -192,11 +192,12 @@ public class HostBridge {
 			throw new FileNotFoundException("Parent does not exists");
 		}
 
-		virtualFile.createNewFile(hostFile.length());
+		virtualFile.createNewFile();
 
 		FileInputStream reader = new FileInputStream(hostFile);
 		VDiskFileOutputStream writer = new VDiskFileOutputStream(virtualFile,
-				false);
+				false, VDiskFileOutputStream.DEFAULT_BUFFER_SIZE,
+				hostFile.length());
 
 		mover.importMove(reader, writer);
 	}
@@ -207,12 +208,12 @@ public class HostBridge {
 		assert virtualDir.isDirectory();
 
 		VDiskFile targetFile = new VDiskFile(virtualDir, hostFile.getName());
-		long hostFileSize = hostFile.length();
-		targetFile.createNewFile(hostFileSize < 1L ? 1L : hostFileSize);
+		targetFile.createNewFile();
 
 		FileInputStream reader = new FileInputStream(hostFile);
 		VDiskFileOutputStream writer = new VDiskFileOutputStream(targetFile,
-				false);
+				false, VDiskFileOutputStream.DEFAULT_BUFFER_SIZE,
+				hostFile.length());
 
 		mover.importMove(reader, writer);
 	}
@@ -0,0 +1,87 @@
+package ch.se.inf.ethz.jcd.batman.nio;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import ch.se.inf.ethz.jcd.batman.vdisk.VirtualDiskEntryInfo;
+
+/**
+ * {@link DirectoryStream} over the members of a directory on a virtual disk.
+ *
+ * The members are listed at once when the stream is opened, so the stream
+ * does not change if the directory is changed while iterating. The returned
+ * paths keep the meta data of the listing for the first read of their
+ * attributes.
+ *
+ */
+final class VDiskDirectoryStream implements DirectoryStream<Path> {
+
+	private final VDiskPath directory;
+	private final VirtualDiskEntryInfo[] entries;
+	private final Filter<? super Path> filter;
+	private boolean open = true;
+	private boolean iteratorReturned;
+
+	VDiskDirectoryStream(VDiskPath directory, VirtualDiskEntryInfo[] entries,
+			Filter<? super Path> filter) {
+		this.directory = directory;
+		this.entries = entries;
+		this.filter = filter;
+	}
+
+	@Override
+	public synchronized Iterator<Path> iterator() {
+		if (!open) {
+			throw new IllegalStateException("Directory stream is closed");
+		}
+		if (iteratorReturned) {
+			throw new IllegalStateException(
+					"Iterator has already been returned");
+		}
+		iteratorReturned = true;
+		return new Iterator<Path>() {
+			private int index;
+			private Path next;
+
+			@Override
+			public boolean hasNext() {
+				while (next == null && open && index < entries.length) {
+					Path entry = directory.resolve(entries[index++]);
+					try {
+						if (filter == null || filter.accept(entry)) {
+							next = entry;
+						}
+					} catch (IOException e) {
+						throw new DirectoryIteratorException(e);
+					}
+				}
+				return next != null;
+			}
+
+			@Override
+			public Path next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				Path result = next;
+				next = null;
+				return result;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		open = false;
+	}
+
+}
@@ -0,0 +1,40 @@
+package ch.se.inf.ethz.jcd.batman.nio;
+
+import java.io.IOException;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * {@link BasicFileAttributeView} of an entry on a virtual disk. Only the time
+ * of the last modification can be changed, the other times are ignored.
+ *
+ */
+final class VDiskFileAttributeView implements BasicFileAttributeView {
+
+	private final VDiskPath path;
+
+	VDiskFileAttributeView(VDiskPath path) {
+		this.path = path;
+	}
+
+	@Override
+	public String name() {
+		return "basic";
+	}
+
+	@Override
+	public VDiskFileAttributes readAttributes() throws IOException {
+		return path.getFileSystem().provider()
+				.readAttributes(path, VDiskFileAttributes.class);
+	}
+
+	@Override
+	public void setTimes(FileTime lastModifiedTime, FileTime lastAccessTime,
+			FileTime createTime) throws IOException {
+		if (lastModifiedTime != null) {
+			path.getFileSystem().provider()
+					.setLastModifiedTime(path, lastModifiedTime);
+		}
+	}
+
+}
@@ -0,0 +1,156 @@
+package ch.se.inf.ethz.jcd.batman.nio;
+
+import java.io.IOException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDiskEntry;
+import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualFile;
+import ch.se.inf.ethz.jcd.batman.vdisk.VirtualDiskEntryInfo;
+
+/**
+ * Snapshot of the {@link BasicFileAttributes} of an entry on a virtual disk.
+ *
+ * The entries only store the time of the last modification, which is returned
+ * as creation and last access time as well. The offset position of the entry
+ * on the disk is used as file key.
+ *
+ */
+final class VDiskFileAttributes implements BasicFileAttributes {
+
+	static final String LAST_MODIFIED_TIME = "lastModifiedTime";
+	static final String LAST_ACCESS_TIME = "lastAccessTime";
+	static final String CREATION_TIME = "creationTime";
+	static final String SIZE = "size";
+	static final String IS_REGULAR_FILE = "isRegularFile";
+	static final String IS_DIRECTORY = "isDirectory";
+	static final String IS_SYMBOLIC_LINK = "isSymbolicLink";
+	static final String IS_OTHER = "isOther";
+	static final String FILE_KEY = "fileKey";
+
+	private final FileTime lastModifiedTime;
+	private final long size;
+	private final boolean regularFile;
+	private final long position;
+
+	private VDiskFileAttributes(long timestamp, long size,
+			boolean regularFile, long position) {
+		this.lastModifiedTime = FileTime.from(timestamp, TimeUnit.MILLISECONDS);
+		this.size = size;
+		this.regularFile = regularFile;
+		this.position = position;
+	}
+
+	/**
+	 * Reads the attributes of the given entry.
+	 *
+	 * @param entry
+	 *            the entry of which the attributes are read
+	 * @return the attributes of the entry
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	static VDiskFileAttributes read(IVirtualDiskEntry entry)
+			throws IOException {
+		boolean regularFile = entry instanceof IVirtualFile;
+		long size = regularFile ? ((IVirtualFile) entry).getSize() : 0;
+		return new VDiskFileAttributes(entry.getTimestamp(), size,
+				regularFile, entry.getPosition());
+	}
+
+	/**
+	 * Returns the attributes of the given meta data of a directory listing.
+	 *
+	 * @param info
+	 *            the meta data of the entry, including the size of files
+	 * @return the attributes of the entry
+	 */
+	static VDiskFileAttributes read(VirtualDiskEntryInfo info) {
+		return new VDiskFileAttributes(info.getTimestamp(), info.getSize(),
+				info.isFile(), info.getPosition());
+	}
+
+	/**
+	 * Returns the attributes with the given names, or all attributes if the
+	 * names contain "*".
+	 *
+	 * @param names
+	 *            the names of the attributes
+	 * @return the values of the attributes by their names
+	 * @throws IllegalArgumentException
+	 *             if a name is not known
+	 */
+	Map<String, Object> toMap(String... names) {
+		Map<String, Object> all = new LinkedHashMap<String, Object>();
+		all.put(LAST_MODIFIED_TIME, lastModifiedTime());
+		all.put(LAST_ACCESS_TIME, lastAccessTime());
+		all.put(CREATION_TIME, creationTime());
+		all.put(SIZE, size());
+		all.put(IS_REGULAR_FILE, isRegularFile());
+		all.put(IS_DIRECTORY, isDirectory());
+		all.put(IS_SYMBOLIC_LINK, isSymbolicLink());
+		all.put(IS_OTHER, isOther());
+		all.put(FILE_KEY, fileKey());
+
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		for (String name : names) {
+			if (name.equals("*")) {
+				return all;
+			} else if (!all.containsKey(name)) {
+				throw new IllegalArgumentException("Unknown attribute '"
+						+ name + "'");
+			}
+			result.put(name, all.get(name));
+		}
+		return result;
+	}
+
+	@Override
+	public FileTime lastModifiedTime() {
+		return lastModifiedTime;
+	}
+
+	@Override
+	public FileTime lastAccessTime() {
+		return lastModifiedTime;
+	}
+
+	@Override
+	public FileTime creationTime() {
+		return lastModifiedTime;
+	}
+
+	@Override
+	public boolean isRegularFile() {
+		return regularFile;
+	}
+
+	@Override
+	public boolean isDirectory() {
+		return !regularFile;
+	}
+
+	@Override
+	public boolean isSymbolicLink() {
+		return false;
+	}
+
+	@Override
+	public boolean isOther() {
+		return false;
+	}
+
+	@Override
+	public long size() {
+		return size;
+	}
+
+	@Override
+	public Object fileKey() {
+		return position;
+	}
+
+}
@@ -0,0 +1,237 @@
+package ch.se.inf.ethz.jcd.batman.nio;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.ClosedFileSystemException;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.UserPrincipalLookupService;
+import java.util.Collections;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDisk;
+
+/**
+ * {@link FileSystem} of a virtual disk, which is stored in a file of the host.
+ *
+ * The file system keeps the disk open until it is closed. It has a single
+ * root directory and supports the basic file attribute view.
+ *
+ * @see VDiskFileSystemProvider
+ */
+public final class VDiskFileSystem extends FileSystem {
+
+	private static final String GLOB_SYNTAX = "glob";
+	private static final String REGEX_SYNTAX = "regex";
+	private static final String BASIC_VIEW = "basic";
+
+	private final VDiskFileSystemProvider provider;
+	private final Path hostPath;
+	private final IVirtualDisk disk;
+	private final VDiskPath root;
+	private volatile boolean open = true;
+
+	VDiskFileSystem(VDiskFileSystemProvider provider, Path hostPath,
+			IVirtualDisk disk) {
+		this.provider = provider;
+		this.hostPath = hostPath;
+		this.disk = disk;
+		this.root = new VDiskPath(this,
+				String.valueOf(IVirtualDisk.PATH_SEPARATOR));
+	}
+
+	/**
+	 * Returns the file on the host in which the virtual disk is stored.
+	 *
+	 * @return the path of the disk on the host
+	 */
+	public Path getHostPath() {
+		return hostPath;
+	}
+
+	IVirtualDisk getDisk() {
+		return disk;
+	}
+
+	VDiskPath getRoot() {
+		return root;
+	}
+
+	void checkOpen() {
+		if (!open) {
+			throw new ClosedFileSystemException();
+		}
+	}
+
+	/**
+	 * Returns the URI of the given absolute path on this file system.
+	 */
+	URI toUri(String path) {
+		URI hostUri = hostPath.toUri();
+		try {
+			return new URI(provider.getScheme(), hostUri.getScheme() + ":"
+					+ hostUri.getSchemeSpecificPart()
+					+ VDiskFileSystemProvider.PATH_PREFIX + path, null);
+		} catch (URISyntaxException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public VDiskFileSystemProvider provider() {
+		return provider;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (open) {
+			open = false;
+			provider.removeFileSystem(hostPath);
+			disk.close();
+		}
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public boolean isReadOnly() {
+		return false;
+	}
+
+	@Override
+	public String getSeparator() {
+		return String.valueOf(IVirtualDisk.PATH_SEPARATOR);
+	}
+
+	@Override
+	public Iterable<Path> getRootDirectories() {
+		return Collections.<Path> singleton(root);
+	}
+
+	@Override
+	public Iterable<FileStore> getFileStores() {
+		return Collections.emptyList();
+	}
+
+	@Override
+	public Set<String> supportedFileAttributeViews() {
+		return Collections.singleton(BASIC_VIEW);
+	}
+
+	@Override
+	public VDiskPath getPath(String first, String... more) {
+		StringBuilder builder = new StringBuilder(first);
+		for (String name : more) {
+			if (!name.isEmpty()) {
+				if (builder.length() > 0) {
+					builder.append(IVirtualDisk.PATH_SEPARATOR);
+				}
+				builder.append(name);
+			}
+		}
+		return new VDiskPath(this, builder.toString());
+	}
+
+	@Override
+	public PathMatcher getPathMatcher(String syntaxAndPattern) {
+		int separatorIndex = syntaxAndPattern.indexOf(':');
+		if (separatorIndex <= 0) {
+			throw new IllegalArgumentException(
+					"Syntax and pattern must be separated by ':'");
+		}
+		String syntax = syntaxAndPattern.substring(0, separatorIndex);
+		String pattern = syntaxAndPattern.substring(separatorIndex + 1);
+		final Pattern regex;
+		if (syntax.equalsIgnoreCase(GLOB_SYNTAX)) {
+			regex = Pattern.compile(globToRegex(pattern));
+		} else if (syntax.equalsIgnoreCase(REGEX_SYNTAX)) {
+			regex = Pattern.compile(pattern);
+		} else {
+			throw new UnsupportedOperationException("Syntax '" + syntax
+					+ "' not supported");
+		}
+		return new PathMatcher() {
+			@Override
+			public boolean matches(Path path) {
+				return regex.matcher(path.toString()).matches();
+			}
+		};
+	}
+
+	/**
+	 * Translates a glob to a regular expression. Supported are '*', '**', '?',
+	 * bracket expressions and groups in braces.
+	 */
+	private static String globToRegex(String glob) {
+		StringBuilder regex = new StringBuilder();
+		boolean inGroup = false;
+		for (int i = 0; i < glob.length(); i++) {
+			char c = glob.charAt(i);
+			switch (c) {
+			case '*':
+				if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+					regex.append(".*");
+					i++;
+				} else {
+					regex.append("[^/]*");
+				}
+				break;
+			case '?':
+				regex.append("[^/]");
+				break;
+			case '[':
+				int end = glob.indexOf(']', i + 1);
+				if (end < 0) {
+					throw new IllegalArgumentException("Missing ']' in glob");
+				}
+				String expression = glob.substring(i + 1, end);
+				if (expression.startsWith("!")) {
+					expression = "^" + expression.substring(1);
+				}
+				regex.append('[').append(expression.replace("\\", "\\\\"))
+						.append(']');
+				i = end;
+				break;
+			case '{':
+				regex.append("(?:");
+				inGroup = true;
+				break;
+			case '}':
+				regex.append(inGroup ? ")" : "\\}");
+				inGroup = false;
+				break;
+			case ',':
+				regex.append(inGroup ? "|" : ",");
+				break;
+			case '\\':
+				if (i + 1 < glob.length()) {
+					regex.append(Pattern.quote(String.valueOf(glob
+							.charAt(++i))));
+				}
+				break;
+			default:
+				regex.append(Pattern.quote(String.valueOf(c)));
+			}
+		}
+		return regex.toString();
+	}
+
+	@Override
+	public UserPrincipalLookupService getUserPrincipalLookupService() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public WatchService newWatchService() throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
+}
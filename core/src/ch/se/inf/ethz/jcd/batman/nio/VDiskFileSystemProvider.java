@@ -0,0 +1,563 @@
+package ch.se.inf.ethz.jcd.batman.nio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.AccessMode;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.DirectoryStream.Filter;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ch.se.inf.ethz.jcd.batman.io.VDiskFile;
+import ch.se.inf.ethz.jcd.batman.io.VDiskFileChannel;
+import ch.se.inf.ethz.jcd.batman.io.VDiskFileInputStream;
+import ch.se.inf.ethz.jcd.batman.io.VDiskFileOutputStream;
+import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDirectory;
+import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDisk;
+import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDiskEntry;
+import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualFile;
+import ch.se.inf.ethz.jcd.batman.vdisk.VirtualDiskEntryInfo;
+import ch.se.inf.ethz.jcd.batman.vdisk.impl.VirtualDisk;
+
+/**
+ * {@link FileSystemProvider} for virtual disks with the scheme
+ * {@value #SCHEME}.
+ *
+ * A virtual disk is identified by the URI of its file on the host, the path
+ * inside the disk follows after {@value #PATH_PREFIX}, e.g.
+ * <code>vdisk:file:///home/user/disk.vdisk!/dir/file</code>. A file system
+ * has to be created with {@link java.nio.file.FileSystems#newFileSystem(URI,
+ * Map)} before its paths can be used, the disk is created if the environment
+ * maps "create" to "true".
+ *
+ * Files are read and written by {@link VDiskFileChannel}s. The streams are
+ * the buffered streams of the disk, so {@link Files#copy(Path, Path,
+ * CopyOption...)} between the host and a virtual disk moves the data in large
+ * chunks. A copy inside one disk shares the data blocks of the source until
+ * one of the files is changed.
+ *
+ */
+public class VDiskFileSystemProvider extends FileSystemProvider {
+
+	public static final String SCHEME = "vdisk";
+	public static final String PATH_PREFIX = "!";
+	/**
+	 * The extension of the disks which are opened by
+	 * {@link #newFileSystem(Path, Map)}.
+	 */
+	public static final String DISK_EXTENSION = ".vdisk";
+
+	private static final String CREATE_PROPERTY = "create";
+	private static final String BASIC_VIEW = "basic";
+	private static final int COPY_BUFFER_SIZE = 1024 * 1024; // 1 MiB
+
+	private final Map<Path, VDiskFileSystem> fileSystems = new HashMap<Path, VDiskFileSystem>();
+
+	// file systems
+
+	@Override
+	public String getScheme() {
+		return SCHEME;
+	}
+
+	@Override
+	public VDiskFileSystem newFileSystem(URI uri, Map<String, ?> env)
+			throws IOException {
+		return newFileSystem(getHostPath(uri),
+				env != null && "true".equals(String.valueOf(env
+						.get(CREATE_PROPERTY))));
+	}
+
+	@Override
+	public VDiskFileSystem newFileSystem(Path path, Map<String, ?> env)
+			throws IOException {
+		if (!path.getFileName().toString().endsWith(DISK_EXTENSION)) {
+			throw new UnsupportedOperationException("Not a virtual disk: "
+					+ path);
+		}
+		return newFileSystem(path.toAbsolutePath().normalize(), env != null
+				&& "true".equals(String.valueOf(env.get(CREATE_PROPERTY))));
+	}
+
+	private VDiskFileSystem newFileSystem(Path hostPath, boolean create)
+			throws IOException {
+		synchronized (fileSystems) {
+			if (fileSystems.containsKey(hostPath)) {
+				throw new FileSystemAlreadyExistsException(hostPath.toString());
+			}
+			IVirtualDisk disk;
+			if (Files.exists(hostPath)) {
+				disk = VirtualDisk.load(hostPath.toString());
+			} else if (create) {
+				disk = VirtualDisk.create(hostPath.toString());
+			} else {
+				throw new NoSuchFileException(hostPath.toString());
+			}
+			VDiskFileSystem fileSystem = new VDiskFileSystem(this, hostPath,
+					disk);
+			fileSystems.put(hostPath, fileSystem);
+			return fileSystem;
+		}
+	}
+
+	@Override
+	public VDiskFileSystem getFileSystem(URI uri) {
+		Path hostPath = getHostPath(uri);
+		synchronized (fileSystems) {
+			VDiskFileSystem fileSystem = fileSystems.get(hostPath);
+			if (fileSystem == null) {
+				throw new FileSystemNotFoundException(hostPath.toString());
+			}
+			return fileSystem;
+		}
+	}
+
+	void removeFileSystem(Path hostPath) {
+		synchronized (fileSystems) {
+			fileSystems.remove(hostPath);
+		}
+	}
+
+	@Override
+	public VDiskPath getPath(URI uri) {
+		String path = getPathPart(uri);
+		return getFileSystem(uri).getPath(
+				path.isEmpty() ? String.valueOf(IVirtualDisk.PATH_SEPARATOR)
+						: path);
+	}
+
+	private void checkUri(URI uri) {
+		if (!SCHEME.equalsIgnoreCase(uri.getScheme())) {
+			throw new IllegalArgumentException("URI scheme is not '" + SCHEME
+					+ "'");
+		}
+	}
+
+	/**
+	 * Returns the absolute path of the disk on the host, which is the part of
+	 * the URI before the path inside the disk.
+	 */
+	private Path getHostPath(URI uri) {
+		checkUri(uri);
+		String specificPart = uri.getSchemeSpecificPart();
+		int pathIndex = specificPart.indexOf(PATH_PREFIX
+				+ IVirtualDisk.PATH_SEPARATOR);
+		String hostPart = (pathIndex < 0) ? specificPart : specificPart
+				.substring(0, pathIndex);
+		int schemeIndex = hostPart.indexOf(':');
+		if (schemeIndex < 0) {
+			throw new IllegalArgumentException("URI of the disk is missing");
+		}
+		try {
+			URI hostUri = new URI(hostPart.substring(0, schemeIndex),
+					hostPart.substring(schemeIndex + 1), null);
+			return Paths.get(hostUri).toAbsolutePath().normalize();
+		} catch (URISyntaxException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	private String getPathPart(URI uri) {
+		checkUri(uri);
+		String specificPart = uri.getSchemeSpecificPart();
+		int pathIndex = specificPart.indexOf(PATH_PREFIX
+				+ IVirtualDisk.PATH_SEPARATOR);
+		return (pathIndex < 0) ? "" : specificPart.substring(pathIndex
+				+ PATH_PREFIX.length());
+	}
+
+	private static VDiskPath toVDiskPath(Path path) {
+		if (path == null) {
+			throw new NullPointerException();
+		}
+		if (!(path instanceof VDiskPath)) {
+			throw new ProviderMismatchException();
+		}
+		return (VDiskPath) path;
+	}
+
+	/**
+	 * Returns the existing entry of the path.
+	 */
+	private static IVirtualDiskEntry getEntry(VDiskFile file)
+			throws NoSuchFileException {
+		IVirtualDiskEntry entry = file.getDiskEntry();
+		if (entry == null) {
+			throw new NoSuchFileException(file.getPath());
+		}
+		return entry;
+	}
+
+	// files
+
+	@Override
+	public SeekableByteChannel newByteChannel(Path path,
+			Set<? extends OpenOption> options, FileAttribute<?>... attrs)
+			throws IOException {
+		boolean append = options.contains(StandardOpenOption.APPEND);
+		boolean write = append || options.contains(StandardOpenOption.WRITE);
+		boolean read = options.contains(StandardOpenOption.READ) || !write;
+		if (append && read) {
+			throw new IllegalArgumentException("READ and APPEND not allowed");
+		}
+		VDiskFile file = openFile(toVDiskPath(path), options, write, append);
+		return new VDiskFileChannel(file, read, write, append);
+	}
+
+	@Override
+	public InputStream newInputStream(Path path, OpenOption... options)
+			throws IOException {
+		for (OpenOption option : options) {
+			if (option == StandardOpenOption.APPEND
+					|| option == StandardOpenOption.WRITE) {
+				throw new UnsupportedOperationException("'" + option
+						+ "' not allowed");
+			}
+		}
+		VDiskFile file = openFile(toVDiskPath(path),
+				Collections.<OpenOption> emptySet(), false, false);
+		return new VDiskFileInputStream(file);
+	}
+
+	@Override
+	public OutputStream newOutputStream(Path path, OpenOption... options)
+			throws IOException {
+		Set<OpenOption> optionSet = new HashSet<OpenOption>();
+		if (options.length == 0) {
+			optionSet.add(StandardOpenOption.CREATE);
+			optionSet.add(StandardOpenOption.TRUNCATE_EXISTING);
+		} else {
+			optionSet.addAll(Arrays.asList(options));
+		}
+		if (optionSet.contains(StandardOpenOption.READ)) {
+			throw new IllegalArgumentException("READ not allowed");
+		}
+		boolean append = optionSet.contains(StandardOpenOption.APPEND);
+		VDiskFile file = openFile(toVDiskPath(path), optionSet, true, append);
+		return new VDiskFileOutputStream(file, append, COPY_BUFFER_SIZE, 0);
+	}
+
+	/**
+	 * Returns the file at the given path after applying the options. If the
+	 * file is opened for writing, the file is created or truncated as given by
+	 * the options.
+	 */
+	private VDiskFile openFile(VDiskPath path,
+			Set<? extends OpenOption> options, boolean write, boolean append)
+			throws IOException {
+		VDiskFile file = path.toVDiskFile();
+		IVirtualDiskEntry entry = file.getDiskEntry();
+		if (entry == null) {
+			if (!write
+					|| !(options.contains(StandardOpenOption.CREATE) || options
+							.contains(StandardOpenOption.CREATE_NEW))) {
+				throw new NoSuchFileException(path.toString());
+			}
+			if (!file.createNewFile()) {
+				throw new NoSuchFileException(path.toString(), null,
+						"Parent directory does not exist");
+			}
+		} else if (write && options.contains(StandardOpenOption.CREATE_NEW)) {
+			throw new FileAlreadyExistsException(path.toString());
+		} else if (!(entry instanceof IVirtualFile)) {
+			throw new FileSystemException(path.toString(), null,
+					"Is a directory");
+		} else if (write && !append
+				&& options.contains(StandardOpenOption.TRUNCATE_EXISTING)) {
+			((IVirtualFile) entry).setSize(0);
+		}
+		return file;
+	}
+
+	// directories
+
+	@Override
+	public DirectoryStream<Path> newDirectoryStream(Path dir,
+			Filter<? super Path> filter) throws IOException {
+		VDiskPath directory = toVDiskPath(dir);
+		VDiskFile file = directory.toVDiskFile();
+		if (!(getEntry(file) instanceof IVirtualDirectory)) {
+			throw new NotDirectoryException(dir.toString());
+		}
+		return new VDiskDirectoryStream(directory, file.listEntries(), filter);
+	}
+
+	@Override
+	public void createDirectory(Path dir, FileAttribute<?>... attrs)
+			throws IOException {
+		VDiskFile file = toVDiskPath(dir).toVDiskFile();
+		if (file.getDiskEntry() != null) {
+			throw new FileAlreadyExistsException(dir.toString());
+		}
+		if (!file.mkdir()) {
+			throw new NoSuchFileException(dir.toString(), null,
+					"Parent directory does not exist");
+		}
+	}
+
+	@Override
+	public void delete(Path path) throws IOException {
+		delete(path, toVDiskPath(path).toVDiskFile());
+	}
+
+	/**
+	 * Deletes the resolved file of the given path. The file can be used to
+	 * create the entry again afterwards.
+	 */
+	private void delete(Path path, VDiskFile file) throws IOException {
+		IVirtualDiskEntry entry = getEntry(file);
+		if (file.getParentFile() == null) {
+			throw new FileSystemException(path.toString(), null,
+					"The root directory can't be deleted");
+		}
+		if (entry instanceof IVirtualDirectory
+				&& ((IVirtualDirectory) entry).getFirstMember() != null) {
+			throw new DirectoryNotEmptyException(path.toString());
+		}
+		if (!file.delete()) {
+			throw new FileSystemException(path.toString());
+		}
+	}
+
+	@Override
+	public void copy(Path source, Path target, CopyOption... options)
+			throws IOException {
+		VDiskPath sourcePath = toVDiskPath(source);
+		VDiskPath targetPath = toVDiskPath(target);
+		List<CopyOption> optionList = Arrays.asList(options);
+		VDiskFile sourceFile = sourcePath.toVDiskFile();
+		IVirtualDiskEntry sourceEntry = getEntry(sourceFile);
+		if (sourcePath.toAbsolutePath().normalize()
+				.equals(targetPath.toAbsolutePath().normalize())) {
+			return;
+		}
+		VDiskFile targetFile = prepareTarget(targetPath, optionList);
+
+		if (sourceEntry instanceof IVirtualDirectory) {
+			if (!targetFile.mkdir()) {
+				throw new NoSuchFileException(target.toString(), null,
+						"Parent directory does not exist");
+			}
+		} else if (sourceFile.getDisk() == targetFile.getDisk()) {
+			// the copy shares the data blocks with the source
+			if (!sourceFile.copyTo(targetFile)) {
+				throw new NoSuchFileException(target.toString(), null,
+						"Parent directory does not exist");
+			}
+		} else {
+			copyData(sourceFile, targetPath);
+			targetFile = targetPath.toVDiskFile();
+		}
+		if (optionList.contains(StandardCopyOption.COPY_ATTRIBUTES)) {
+			targetFile.setLastModified(sourceEntry.getTimestamp());
+		}
+	}
+
+	/**
+	 * Copies the data of a file to another disk.
+	 */
+	private void copyData(VDiskFile sourceFile, VDiskPath target)
+			throws IOException {
+		Set<OpenOption> options = new HashSet<OpenOption>();
+		options.add(StandardOpenOption.WRITE);
+		options.add(StandardOpenOption.CREATE_NEW);
+		VDiskFileChannel sourceChannel = new VDiskFileChannel(sourceFile);
+		SeekableByteChannel targetChannel = newByteChannel(target, options);
+		try {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(COPY_BUFFER_SIZE);
+			while (sourceChannel.read(buffer) >= 0) {
+				buffer.flip();
+				while (buffer.hasRemaining()) {
+					targetChannel.write(buffer);
+				}
+				buffer.clear();
+			}
+		} finally {
+			sourceChannel.close();
+			targetChannel.close();
+		}
+	}
+
+	@Override
+	public void move(Path source, Path target, CopyOption... options)
+			throws IOException {
+		VDiskPath sourcePath = toVDiskPath(source);
+		VDiskPath targetPath = toVDiskPath(target);
+		if (sourcePath.getFileSystem() != targetPath.getFileSystem()) {
+			// only the directory itself would be copied to the other disk
+			IVirtualDiskEntry sourceEntry = getEntry(sourcePath.toVDiskFile());
+			if (sourceEntry instanceof IVirtualDirectory
+					&& ((IVirtualDirectory) sourceEntry)
+							.getFirstMember() != null) {
+				throw new DirectoryNotEmptyException(source.toString());
+			}
+			copy(source, target, options);
+			delete(source);
+			return;
+		}
+		VDiskFile sourceFile = sourcePath.toVDiskFile();
+		getEntry(sourceFile);
+		if (sourcePath.toAbsolutePath().normalize()
+				.equals(targetPath.toAbsolutePath().normalize())) {
+			return;
+		}
+		VDiskFile targetFile = prepareTarget(targetPath,
+				Arrays.asList(options));
+		if (!sourceFile.renameTo(targetFile)) {
+			throw new FileSystemException(source.toString(),
+					target.toString(), "Move failed");
+		}
+	}
+
+	/**
+	 * Returns the target of a copy or move, after deleting an existing target
+	 * if it should be replaced.
+	 */
+	private VDiskFile prepareTarget(VDiskPath target, List<CopyOption> options)
+			throws IOException {
+		VDiskFile targetFile = target.toVDiskFile();
+		if (targetFile.getDiskEntry() != null) {
+			if (!options.contains(StandardCopyOption.REPLACE_EXISTING)) {
+				throw new FileAlreadyExistsException(target.toString());
+			}
+			delete(target, targetFile);
+		}
+		return targetFile;
+	}
+
+	@Override
+	public boolean isSameFile(Path path, Path path2) throws IOException {
+		VDiskPath first = toVDiskPath(path);
+		if (first.equals(path2)) {
+			return true;
+		}
+		if (!(path2 instanceof VDiskPath)
+				|| first.getFileSystem() != ((VDiskPath) path2).getFileSystem()) {
+			return false;
+		}
+		IVirtualDiskEntry firstEntry = getEntry(first.toVDiskFile());
+		IVirtualDiskEntry secondEntry = getEntry(((VDiskPath) path2)
+				.toVDiskFile());
+		return firstEntry.getPosition() == secondEntry.getPosition();
+	}
+
+	@Override
+	public boolean isHidden(Path path) throws IOException {
+		return false;
+	}
+
+	@Override
+	public FileStore getFileStore(Path path) throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void checkAccess(Path path, AccessMode... modes) throws IOException {
+		getEntry(toVDiskPath(path).toVDiskFile());
+	}
+
+	// attributes
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <V extends FileAttributeView> V getFileAttributeView(Path path,
+			Class<V> type, LinkOption... options) {
+		if (type == BasicFileAttributeView.class) {
+			return (V) new VDiskFileAttributeView(toVDiskPath(path));
+		}
+		return null;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <A extends BasicFileAttributes> A readAttributes(Path path,
+			Class<A> type, LinkOption... options) throws IOException {
+		if (type != BasicFileAttributes.class
+				&& type != VDiskFileAttributes.class) {
+			throw new UnsupportedOperationException();
+		}
+		VDiskPath vdiskPath = toVDiskPath(path);
+		VirtualDiskEntryInfo info = vdiskPath.takeEntryInfo();
+		if (info != null && info.getSize() >= 0) {
+			// the path has been listed by a directory stream just before
+			return (A) VDiskFileAttributes.read(info);
+		}
+		return (A) VDiskFileAttributes
+				.read(getEntry(vdiskPath.toVDiskFile()));
+	}
+
+	@Override
+	public Map<String, Object> readAttributes(Path path, String attributes,
+			LinkOption... options) throws IOException {
+		String names = attributes;
+		int viewIndex = attributes.indexOf(':');
+		if (viewIndex >= 0) {
+			if (!attributes.substring(0, viewIndex).equals(BASIC_VIEW)) {
+				throw new UnsupportedOperationException("View '"
+						+ attributes.substring(0, viewIndex)
+						+ "' not supported");
+			}
+			names = attributes.substring(viewIndex + 1);
+		}
+		return readAttributes(path, VDiskFileAttributes.class).toMap(
+				names.split(","));
+	}
+
+	@Override
+	public void setAttribute(Path path, String attribute, Object value,
+			LinkOption... options) throws IOException {
+		String name = attribute;
+		if (name.startsWith(BASIC_VIEW + ":")) {
+			name = name.substring(BASIC_VIEW.length() + 1);
+		} else if (name.indexOf(':') >= 0) {
+			throw new UnsupportedOperationException("Attribute '" + attribute
+					+ "' not supported");
+		}
+		if (name.equals(VDiskFileAttributes.LAST_MODIFIED_TIME)) {
+			setLastModifiedTime(toVDiskPath(path), (FileTime) value);
+		} else if (!name.equals(VDiskFileAttributes.LAST_ACCESS_TIME)
+				&& !name.equals(VDiskFileAttributes.CREATION_TIME)) {
+			throw new IllegalArgumentException("Attribute '" + attribute
+					+ "' can't be set");
+		}
+	}
+
+	void setLastModifiedTime(VDiskPath path, FileTime time)
+			throws IOException {
+		getEntry(path.toVDiskFile()).setTimestamp(time.toMillis());
+	}
+
+}
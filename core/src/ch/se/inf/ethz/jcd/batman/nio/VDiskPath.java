@@ -0,0 +1,450 @@
+package ch.se.inf.ethz.jcd.batman.nio;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.WatchEvent.Kind;
+import java.nio.file.WatchEvent.Modifier;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import ch.se.inf.ethz.jcd.batman.io.VDiskFile;
+import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDisk;
+import ch.se.inf.ethz.jcd.batman.vdisk.VirtualDiskEntryInfo;
+
+/**
+ * {@link Path} of an entry on a virtual disk.
+ *
+ * The path is stored as a string whose names are separated by
+ * {@link IVirtualDisk#PATH_SEPARATOR}. Duplicate and trailing separators are
+ * removed when the path is created. Like the paths of the default file
+ * system, the empty path has one empty name.
+ *
+ * The paths returned by a directory stream keep the meta data of the
+ * listing, from which the attributes of the entry are read once instead of
+ * resolving the path on the disk again.
+ *
+ */
+public final class VDiskPath implements Path {
+
+	private static final char SEPARATOR = IVirtualDisk.PATH_SEPARATOR;
+	private static final String PARENT = "..";
+	private static final String CURRENT = ".";
+
+	private final VDiskFileSystem fileSystem;
+	private final String path;
+	/**
+	 * The start index of every name inside the path, created when needed.
+	 */
+	private volatile int[] offsets;
+	/**
+	 * The absolute, normalized path on the disk, created when needed.
+	 */
+	private volatile String diskPath;
+	/**
+	 * The meta data of the entry as listed by a directory stream or null.
+	 */
+	private VirtualDiskEntryInfo entryInfo;
+
+	VDiskPath(VDiskFileSystem fileSystem, String path) {
+		this(fileSystem, path, null);
+	}
+
+	private VDiskPath(VDiskFileSystem fileSystem, String path,
+			VirtualDiskEntryInfo entryInfo) {
+		this.fileSystem = fileSystem;
+		this.path = normalizeSeparators(path);
+		this.entryInfo = entryInfo;
+	}
+
+	private static String normalizeSeparators(String path) {
+		StringBuilder builder = new StringBuilder(path.length());
+		char previous = 0;
+		for (int i = 0; i < path.length(); i++) {
+			char c = path.charAt(i);
+			if (c == '\u0000') {
+				throw new IllegalArgumentException("Invalid character in path");
+			}
+			if (c != SEPARATOR || previous != SEPARATOR) {
+				builder.append(c);
+			}
+			previous = c;
+		}
+		if (builder.length() > 1
+				&& builder.charAt(builder.length() - 1) == SEPARATOR) {
+			builder.setLength(builder.length() - 1);
+		}
+		return builder.toString();
+	}
+
+	private int[] getOffsets() {
+		int[] result = offsets;
+		if (result == null) {
+			List<Integer> starts = new ArrayList<Integer>();
+			if (path.isEmpty()) {
+				starts.add(0);
+			}
+			for (int i = 0; i < path.length(); i++) {
+				if (path.charAt(i) != SEPARATOR
+						&& (i == 0 || path.charAt(i - 1) == SEPARATOR)) {
+					starts.add(i);
+				}
+			}
+			result = new int[starts.size()];
+			for (int i = 0; i < result.length; i++) {
+				result[i] = starts.get(i);
+			}
+			offsets = result;
+		}
+		return result;
+	}
+
+	private String getNameString(int index) {
+		int[] starts = getOffsets();
+		int end = (index + 1 < starts.length) ? starts[index + 1] - 1 : path
+				.length();
+		return path.substring(starts[index], end);
+	}
+
+	private VDiskPath toVDiskPath(Path other) {
+		if (other == null) {
+			throw new NullPointerException();
+		}
+		if (!(other instanceof VDiskPath)) {
+			throw new ProviderMismatchException();
+		}
+		return (VDiskPath) other;
+	}
+
+	private boolean isEmpty() {
+		return path.isEmpty();
+	}
+
+	/**
+	 * Returns the file of the virtual disk at the absolute, normalized path.
+	 * The path is resolved once when the file is created.
+	 */
+	VDiskFile toVDiskFile() throws IOException {
+		fileSystem.checkOpen();
+		String result = diskPath;
+		if (result == null) {
+			result = toAbsolutePath().normalize().toString();
+			diskPath = result;
+		}
+		return new VDiskFile(result, fileSystem.getDisk());
+	}
+
+	/**
+	 * Returns the path of the given member of the directory at this path,
+	 * which keeps the meta data of the member.
+	 */
+	VDiskPath resolve(VirtualDiskEntryInfo member) {
+		return new VDiskPath(fileSystem, isEmpty() ? member.getName() : path
+				+ SEPARATOR + member.getName(), member);
+	}
+
+	/**
+	 * Returns the meta data of the entry as listed by a directory stream and
+	 * forgets it, so later reads see the changes of the entry. Returns null
+	 * if the path was not returned by a directory stream or the meta data has
+	 * been taken already.
+	 */
+	synchronized VirtualDiskEntryInfo takeEntryInfo() {
+		VirtualDiskEntryInfo result = entryInfo;
+		entryInfo = null;
+		return result;
+	}
+
+	@Override
+	public VDiskFileSystem getFileSystem() {
+		return fileSystem;
+	}
+
+	@Override
+	public boolean isAbsolute() {
+		return !path.isEmpty() && path.charAt(0) == SEPARATOR;
+	}
+
+	@Override
+	public VDiskPath getRoot() {
+		return isAbsolute() ? fileSystem.getRoot() : null;
+	}
+
+	@Override
+	public VDiskPath getFileName() {
+		int count = getNameCount();
+		if (count == 0) {
+			return null;
+		} else if (count == 1 && !isAbsolute()) {
+			return this;
+		}
+		return new VDiskPath(fileSystem, getNameString(count - 1));
+	}
+
+	@Override
+	public VDiskPath getParent() {
+		int count = getNameCount();
+		if (count == 0) {
+			return null;
+		} else if (count == 1) {
+			return getRoot();
+		}
+		return new VDiskPath(fileSystem, path.substring(0,
+				getOffsets()[count - 1] - 1));
+	}
+
+	@Override
+	public int getNameCount() {
+		return getOffsets().length;
+	}
+
+	@Override
+	public VDiskPath getName(int index) {
+		if (index < 0 || index >= getNameCount()) {
+			throw new IllegalArgumentException();
+		}
+		return new VDiskPath(fileSystem, getNameString(index));
+	}
+
+	@Override
+	public VDiskPath subpath(int beginIndex, int endIndex) {
+		int count = getNameCount();
+		if (beginIndex < 0 || beginIndex >= count || endIndex > count
+				|| beginIndex >= endIndex) {
+			throw new IllegalArgumentException();
+		}
+		int[] starts = getOffsets();
+		int end = (endIndex < count) ? starts[endIndex] - 1 : path.length();
+		return new VDiskPath(fileSystem, path.substring(starts[beginIndex],
+				end));
+	}
+
+	@Override
+	public boolean startsWith(Path other) {
+		if (!(other instanceof VDiskPath)
+				|| ((VDiskPath) other).fileSystem != fileSystem) {
+			return false;
+		}
+		VDiskPath prefix = (VDiskPath) other;
+		if (prefix.isAbsolute() != isAbsolute()
+				|| prefix.getNameCount() > getNameCount()) {
+			return false;
+		}
+		for (int i = 0; i < prefix.getNameCount(); i++) {
+			if (!prefix.getNameString(i).equals(getNameString(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public boolean startsWith(String other) {
+		return startsWith(fileSystem.getPath(other));
+	}
+
+	@Override
+	public boolean endsWith(Path other) {
+		if (!(other instanceof VDiskPath)
+				|| ((VDiskPath) other).fileSystem != fileSystem) {
+			return false;
+		}
+		VDiskPath suffix = (VDiskPath) other;
+		if (suffix.isAbsolute()) {
+			return equals(suffix);
+		}
+		int offset = getNameCount() - suffix.getNameCount();
+		if (offset < 0) {
+			return false;
+		}
+		for (int i = 0; i < suffix.getNameCount(); i++) {
+			if (!suffix.getNameString(i).equals(getNameString(offset + i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public boolean endsWith(String other) {
+		return endsWith(fileSystem.getPath(other));
+	}
+
+	@Override
+	public VDiskPath normalize() {
+		LinkedList<String> names = new LinkedList<String>();
+		for (int i = 0; i < getNameCount(); i++) {
+			String name = getNameString(i);
+			if (name.equals(CURRENT)) {
+				continue;
+			} else if (name.equals(PARENT)) {
+				if (!names.isEmpty() && !names.getLast().equals(PARENT)) {
+					names.removeLast();
+					continue;
+				} else if (isAbsolute()) {
+					// the parent of the root is the root
+					continue;
+				}
+			}
+			if (!name.isEmpty()) {
+				names.add(name);
+			}
+		}
+		StringBuilder builder = new StringBuilder();
+		if (isAbsolute()) {
+			builder.append(SEPARATOR);
+		}
+		for (String name : names) {
+			if (builder.length() > 0
+					&& builder.charAt(builder.length() - 1) != SEPARATOR) {
+				builder.append(SEPARATOR);
+			}
+			builder.append(name);
+		}
+		String normalized = builder.toString();
+		return normalized.equals(path) ? this : new VDiskPath(fileSystem,
+				normalized);
+	}
+
+	@Override
+	public VDiskPath resolve(Path other) {
+		VDiskPath child = toVDiskPath(other);
+		if (child.isAbsolute()) {
+			return child;
+		} else if (child.isEmpty()) {
+			return this;
+		} else if (isEmpty()) {
+			return child;
+		}
+		return new VDiskPath(fileSystem, path + SEPARATOR + child.path);
+	}
+
+	@Override
+	public VDiskPath resolve(String other) {
+		return resolve(fileSystem.getPath(other));
+	}
+
+	@Override
+	public Path resolveSibling(Path other) {
+		VDiskPath parent = getParent();
+		return (parent == null) ? toVDiskPath(other) : parent.resolve(other);
+	}
+
+	@Override
+	public Path resolveSibling(String other) {
+		return resolveSibling(fileSystem.getPath(other));
+	}
+
+	@Override
+	public VDiskPath relativize(Path other) {
+		VDiskPath target = toVDiskPath(other);
+		if (target.isAbsolute() != isAbsolute()) {
+			throw new IllegalArgumentException(
+					"Only paths of the same type can be relativized");
+		}
+		if (isEmpty()) {
+			return target;
+		}
+		int count = getNameCount();
+		int targetCount = target.isEmpty() ? 0 : target.getNameCount();
+		int common = 0;
+		while (common < count && common < targetCount
+				&& getNameString(common).equals(target.getNameString(common))) {
+			common++;
+		}
+		StringBuilder builder = new StringBuilder();
+		for (int i = common; i < count; i++) {
+			if (builder.length() > 0) {
+				builder.append(SEPARATOR);
+			}
+			builder.append(PARENT);
+		}
+		for (int i = common; i < targetCount; i++) {
+			if (builder.length() > 0) {
+				builder.append(SEPARATOR);
+			}
+			builder.append(target.getNameString(i));
+		}
+		return new VDiskPath(fileSystem, builder.toString());
+	}
+
+	@Override
+	public URI toUri() {
+		return fileSystem.toUri(toAbsolutePath().toString());
+	}
+
+	@Override
+	public VDiskPath toAbsolutePath() {
+		if (isAbsolute()) {
+			return this;
+		}
+		return fileSystem.getRoot().resolve(this);
+	}
+
+	@Override
+	public VDiskPath toRealPath(LinkOption... options) throws IOException {
+		VDiskPath realPath = toAbsolutePath().normalize();
+		fileSystem.provider().checkAccess(realPath);
+		return realPath;
+	}
+
+	@Override
+	public File toFile() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public WatchKey register(WatchService watcher, Kind<?>[] events,
+			Modifier... modifiers) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public WatchKey register(WatchService watcher, Kind<?>... events) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public Iterator<Path> iterator() {
+		List<Path> names = new ArrayList<Path>(getNameCount());
+		for (int i = 0; i < getNameCount(); i++) {
+			names.add(getName(i));
+		}
+		return names.iterator();
+	}
+
+	@Override
+	public int compareTo(Path other) {
+		return path.compareTo(toVDiskPath(other).path);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj instanceof VDiskPath) {
+			VDiskPath otherPath = (VDiskPath) obj;
+
+			return otherPath.fileSystem == fileSystem
+					&& otherPath.path.equals(path);
+		} else {
+			return false;
+		}
+	}
+
+	@Override
+	public int hashCode() {
+		return path.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return path;
+	}
+
+}
@@ -0,0 +1,9 @@
+/**
+ * Contains a <i>java.nio.file</i> file system provider for the virtual disk.
+ * 
+ * The provider makes the files and directories of a virtual disk available as
+ * {@link java.nio.file.Path}s, so they can be used with
+ * {@link java.nio.file.Files} and other standard tooling.
+ */
+
+package ch.se.inf.ethz.jcd.batman.nio;
@@ -1,6 +1,7 @@
 package ch.se.inf.ethz.jcd.batman.vdisk;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Represents a block containing metadata and data on the virtual Disk.
@@ -85,6 +86,23 @@ public interface IDataBlock extends IVirtualBlock {
 	 */
 	void write(long pos, byte[] b, int offset, int length) throws IOException;
 
+	/**
+	 * Writes the remaining bytes of the given buffer into the block starting
+	 * at the provided position pos. The position of the buffer is moved behind
+	 * the written bytes.
+	 * 
+	 * Position pos is relative to the start of the block. Therefore position 0
+	 * would be the first byte of the block.
+	 * 
+	 * @param pos
+	 *            the position to start writing the data into
+	 * @param src
+	 *            the buffer containing the data to write
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	void write(long pos, ByteBuffer src) throws IOException;
+
 	/**
 	 * Reads one byte of data starting at the given position pos.
 	 * 
@@ -140,6 +158,24 @@ public interface IDataBlock extends IVirtualBlock {
 	 */
 	int read(long pos, byte[] b, int offset, int length) throws IOException;
 
+	/**
+	 * Reads data bytes starting at the given position pos until the remaining
+	 * space of the given buffer is full. The position of the buffer is moved
+	 * behind the read bytes.
+	 * 
+	 * The position is relative to the beginning of the block. Therefore
+	 * position 0 is the first byte of the block.
+	 * 
+	 * @param pos
+	 *            position to start reading from
+	 * @param dst
+	 *            the buffer to write the read data into
+	 * @return the amount of bytes read
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	int read(long pos, ByteBuffer dst) throws IOException;
+
 	/**
 	 * Reads a long starting at the provided position pos.
 	 * 
@@ -207,6 +243,26 @@ public interface IDataBlock extends IVirtualBlock {
 	 */
 	void setDataSize(long size) throws IOException;
 
+	/**
+	 * Returns the number of references to the block. A block which is shared
+	 * by copy-on-write copies of a {@link IVirtualDiskSpace} is referenced
+	 * more than once.
+	 * 
+	 * @return the number of references to the block
+	 */
+	int getReferenceCount();
+
+	/**
+	 * Changes the number of references to the block.
+	 * 
+	 * @see #getReferenceCount()
+	 * @param referenceCount
+	 *            the number of references, at least 1
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	void setReferenceCount(int referenceCount) throws IOException;
+
 	/**
 	 * Frees this data blocks on the virtual disk. After freeing the data block
 	 * it can't be used and it's status is invalid.
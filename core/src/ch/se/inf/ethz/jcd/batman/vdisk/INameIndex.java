@@ -0,0 +1,83 @@
+package ch.se.inf.ethz.jcd.batman.vdisk;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.regex.Pattern;
+
+/**
+ * Index of the names of all entries of a {@link IVirtualDisk}. The index is
+ * stored on the disk and kept up to date when entries are created, renamed,
+ * moved or deleted, so entries can be searched by name without walking the
+ * directory tree. The index also contains the time stamps and file sizes of
+ * the entries, which are updated when they change.
+ * 
+ * @see IVirtualDisk#createNameIndex()
+ */
+public interface INameIndex {
+
+	/**
+	 * Returns the absolute paths of all entries whose name contains the given
+	 * term.
+	 * 
+	 * @param term
+	 *            the term to search
+	 * @param caseSensitive
+	 *            true if the case of the term has to match
+	 * @param files
+	 *            true if files should be returned
+	 * @param directories
+	 *            true if directories should be returned
+	 * @return the sorted paths of the found entries
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	List<String> search(String term, boolean caseSensitive, boolean files,
+			boolean directories) throws IOException;
+
+	/**
+	 * Returns the absolute paths of all entries whose name contains a match of
+	 * the given pattern. The literal parts of the pattern are used to narrow
+	 * the names which have to be matched.
+	 * 
+	 * @param pattern
+	 *            the pattern to search
+	 * @param files
+	 *            true if files should be returned
+	 * @param directories
+	 *            true if directories should be returned
+	 * @return the sorted paths of the found entries
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	List<String> search(Pattern pattern, boolean files, boolean directories)
+			throws IOException;
+
+	/**
+	 * Returns all entries whose time stamp and size are inside the given
+	 * ranges. The entries are looked up in a sorted index of the time stamps
+	 * or, if only the size is limited, in an index of the sizes. If the size
+	 * is limited, no directories are returned.
+	 * 
+	 * @param minTimestamp
+	 *            the minimal time stamp, inclusive
+	 * @param maxTimestamp
+	 *            the maximal time stamp, inclusive
+	 * @param minSize
+	 *            the minimal size of the files, inclusive
+	 * @param maxSize
+	 *            the maximal size of the files, inclusive
+	 * @param files
+	 *            true if files should be returned
+	 * @param directories
+	 *            true if directories should be returned
+	 * @return the meta data of the found entries, sorted by their absolute
+	 *         paths
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	SortedMap<String, VirtualDiskEntryInfo> search(long minTimestamp,
+			long maxTimestamp, long minSize, long maxSize, boolean files,
+			boolean directories) throws IOException;
+
+}
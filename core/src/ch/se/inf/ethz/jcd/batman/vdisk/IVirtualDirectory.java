@@ -1,6 +1,7 @@
 package ch.se.inf.ethz.jcd.batman.vdisk;
 
 import java.io.IOException;
+import java.util.List;
 
 /**
  * Represents a directory on the virtual disk.
@@ -41,4 +42,62 @@ public interface IVirtualDirectory extends IVirtualDiskEntry {
 	 *             if an I/O error occurs
 	 */
 	IVirtualDiskEntry getFirstMember() throws IOException;
+
+	/**
+	 * Returns the member with the given name.
+	 * 
+	 * @param name
+	 *            the name of the member
+	 * @return the member with the given name or null if the directory has no
+	 *         such member
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	IVirtualDiskEntry getMember(String name) throws IOException;
+
+	/**
+	 * Returns the meta data of all members in a single pass over the member
+	 * list.
+	 * 
+	 * @return the meta data of the members, empty if the directory has no
+	 *         members
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	List<VirtualDiskEntryInfo> listMembers() throws IOException;
+
+	/**
+	 * Returns the meta data of at most maxMembers members, starting after the
+	 * member at the given cursor position. This allows to list a directory
+	 * with many members page by page.
+	 * 
+	 * The cursor of the next page is the position of the last member returned
+	 * ({@link VirtualDiskEntryInfo#getPosition()}). If less than maxMembers
+	 * members are returned the end of the member list is reached. If the
+	 * member at the cursor position has been removed from the directory since,
+	 * the listing continues with the member which followed it.
+	 * 
+	 * @param cursor
+	 *            the position of the member after which the listing
+	 *            continues or 0 to start with the first member
+	 * @param maxMembers
+	 *            the maximum number of members returned
+	 * @return the meta data of the members
+	 * @throws IOException
+	 *             if an I/O error occurs or the cursor position is not the
+	 *             position of a current or recently removed member of the
+	 *             directory
+	 */
+	List<VirtualDiskEntryInfo> listMembers(long cursor, int maxMembers)
+			throws IOException;
+
+	/**
+	 * Returns a number which changes whenever a member is added to, removed
+	 * from or renamed in this directory. It allows to cache information about
+	 * the members, e.g. that a name is not used, until the directory is
+	 * changed.
+	 * 
+	 * @return the modification count of the member list
+	 */
+	long getModificationCount();
 }
@@ -3,6 +3,10 @@ package ch.se.inf.ethz.jcd.batman.vdisk;
 import java.io.Closeable;
 import java.io.IOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
 
 /**
  * Represents a VirtualDisk.
@@ -33,6 +37,83 @@ public interface IVirtualDisk extends AutoCloseable, Closeable {
 	 */
 	IVirtualDirectory getRootDirectory();
 
+	/**
+	 * Reads the members of the directory stored at the given position. The
+	 * members are read without using the loaded entries of the disk, so this
+	 * method can be called by several threads at the same time, as long as
+	 * the disk is not modified. The size of the files is not read, it is
+	 * returned as -1.
+	 * 
+	 * @param directoryPosition
+	 *            the offset position of the directory
+	 * @return the meta data of the members of the directory
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	List<VirtualDiskEntryInfo> readMembers(long directoryPosition)
+			throws IOException;
+
+	/**
+	 * Reads the members of the directory stored at the given position, like
+	 * {@link #readMembers(long)} does, and optionally the size of the files.
+	 * 
+	 * @param directoryPosition
+	 *            the offset position of the directory
+	 * @param readSizes
+	 *            true if the size of the files should be read, which needs
+	 *            additional reads for every file
+	 * @return the meta data of the members of the directory
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	List<VirtualDiskEntryInfo> readMembers(long directoryPosition,
+			boolean readSizes) throws IOException;
+
+	/**
+	 * Loads the data of the file stored at the given position. The data is
+	 * loaded without using the loaded entries of the disk and is read with
+	 * its own space, so several files can be read by several threads at the
+	 * same time, as long as the disk is not modified.
+	 * 
+	 * @param filePosition
+	 *            the offset position of the file
+	 * @return the space containing the data of the file or null if the file
+	 *         has no data
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	IVirtualDiskSpace loadFileData(long filePosition) throws IOException;
+
+	/**
+	 * Returns the name index of the disk, which is used to search entries by
+	 * name without walking the directory tree.
+	 * 
+	 * @return the name index or null if the disk has no name index
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	INameIndex getNameIndex() throws IOException;
+
+	/**
+	 * Creates the name index of the disk from all existing entries, if the
+	 * disk has no name index yet. The index is stored on the disk and updated
+	 * whenever an entry is created, renamed, moved or deleted.
+	 * 
+	 * @return the name index of the disk
+	 * @throws IOException
+	 *             if an I/O error occurs or the disk has been created without
+	 *             space for a name index
+	 */
+	INameIndex createNameIndex() throws IOException;
+
+	/**
+	 * Deletes the name index of the disk and frees the space it uses.
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	void deleteNameIndex() throws IOException;
+
 	byte[] getAdditionalDiskInformation() throws IOException;
 
 	void saveAdditionalDiskInformation(byte[] information) throws IOException;
@@ -46,6 +127,15 @@ public interface IVirtualDisk extends AutoCloseable, Closeable {
 	 */
 	long getSize() throws IOException;
 
+	/**
+	 * Writes all buffered changes to the host file and forces them to the
+	 * underlying device.
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	void flush() throws IOException;
+
 	/**
 	 * Returns the amount of free space in the virtual disk.
 	 * 
@@ -66,7 +156,8 @@ public interface IVirtualDisk extends AutoCloseable, Closeable {
 
 	/**
 	 * Invalidates the {@link IDataBlock} given by block and marks the space
-	 * previously occupied by the {@link IDataBlock} as free.
+	 * previously occupied by the {@link IDataBlock} as free. If the block is
+	 * referenced more than once, only the number of references is decremented.
 	 * 
 	 * @param block
 	 *            the block to free.
@@ -176,6 +267,73 @@ public interface IVirtualDisk extends AutoCloseable, Closeable {
 	 */
 	int read(long pos, byte[] b, int offset, int length) throws IOException;
 
+	/**
+	 * Writes the remaining bytes of the given buffer to the underlying file at
+	 * the offset given by pos. The position of the buffer is moved behind the
+	 * written bytes.
+	 * 
+	 * @param pos
+	 *            the offset position
+	 * @param src
+	 *            the buffer holding the data
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	void write(long pos, ByteBuffer src) throws IOException;
+
+	/**
+	 * Reads bytes from the underlying file at the offset given by pos into the
+	 * remaining space of the given buffer. The position of the buffer is moved
+	 * behind the read bytes.
+	 * 
+	 * @param pos
+	 *            the offset position
+	 * @param dst
+	 *            the buffer into which the data is read
+	 * @return the number of bytes read or -1 if pos is at or beyond the end of
+	 *         the file
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	int read(long pos, ByteBuffer dst) throws IOException;
+
+	/**
+	 * Transfers up to count bytes from the given channel into the underlying
+	 * file at the offset given by pos. The data is passed on to the storage
+	 * without being copied into a buffer, if the storage supports it.
+	 * 
+	 * @param src
+	 *            the channel from which the data is read
+	 * @param pos
+	 *            the offset position
+	 * @param count
+	 *            the maximum number of bytes to transfer
+	 * @return the number of bytes transferred, which is less than count if
+	 *         the channel has less bytes remaining
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	long transferFrom(ReadableByteChannel src, long pos, long count)
+			throws IOException;
+
+	/**
+	 * Transfers up to count bytes of the underlying file at the offset given
+	 * by pos to the given channel. The data is passed on by the storage
+	 * without being copied into a buffer, if the storage supports it.
+	 * 
+	 * @param pos
+	 *            the offset position
+	 * @param count
+	 *            the maximum number of bytes to transfer
+	 * @param target
+	 *            the channel to which the data is written
+	 * @return the number of bytes transferred
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	long transferTo(long pos, long count, WritableByteChannel target)
+			throws IOException;
+
 	/**
 	 * Creates a directory in the virtual disk with the given name.
 	 * 
@@ -204,6 +362,24 @@ public interface IVirtualDisk extends AutoCloseable, Closeable {
 	IVirtualFile createFile(IVirtualDirectory parent, String name, long size)
 			throws IOException;
 
+	/**
+	 * Creates a copy of the given file in the virtual disk with the given
+	 * name. The copy shares the data of the source file, the data is only
+	 * copied when one of the files changes it (copy-on-write).
+	 * 
+	 * @param parent
+	 *            the parent of the newly created file
+	 * @param name
+	 *            the name of the newly created file
+	 * @param source
+	 *            the file to copy
+	 * @return the created file
+	 * @throws IOException
+	 *             if the file name was invalid or an I/O error occurred
+	 */
+	IVirtualFile createFileCopy(IVirtualDirectory parent, String name,
+			IVirtualFile source) throws IOException;
+
 	/**
 	 * Returns a URI that represents the location of the virtual disk on a host
 	 * system
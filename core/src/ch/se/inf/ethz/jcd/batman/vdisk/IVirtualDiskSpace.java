@@ -1,6 +1,9 @@
 package ch.se.inf.ethz.jcd.batman.vdisk;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * A {@link IVirtualDiskSpace} is a simple abstraction of a list of
@@ -38,8 +41,10 @@ public interface IVirtualDiskSpace {
 	 * Returns the usable size of the disk space.
 	 * 
 	 * @return the usable size of the disk space
+	 * @throws IOException
+	 *             if an I/O error occurs
 	 */
-	long getSize();
+	long getSize() throws IOException;
 
 	/**
 	 * Returns the offset position, measured in bytes from the beginning of the
@@ -129,6 +134,37 @@ public interface IVirtualDiskSpace {
 	 */
 	void write(long pos, byte[] b) throws IOException;
 
+	/**
+	 * Write len bytes of the given part of an array of bytes to the disk
+	 * space at the offset given by pos. The current offset is not changed.
+	 * 
+	 * @param pos
+	 *            the offset position
+	 * @param b
+	 *            the data
+	 * @param off
+	 *            the start offset in b
+	 * @param len
+	 *            the number of bytes to write
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	void write(long pos, byte[] b, int off, int len) throws IOException;
+
+	/**
+	 * Write the remaining bytes of the given buffer to the disk space at the
+	 * offset given by pos. The position of the buffer is moved behind the
+	 * written bytes, the current offset is not changed.
+	 * 
+	 * @param pos
+	 *            the offset position
+	 * @param src
+	 *            the buffer holding the data
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	void write(long pos, ByteBuffer src) throws IOException;
+
 	/**
 	 * Reads a signed eight-bit value from the disk space at the current offset.
 	 * 
@@ -185,6 +221,41 @@ public interface IVirtualDiskSpace {
 	 */
 	int read(long pos, byte[] b) throws IOException;
 
+	/**
+	 * Reads up to len bytes of data from the disk space into the given part
+	 * of an array of bytes starting at the offset given by pos. The current
+	 * offset is not changed.
+	 * 
+	 * @param pos
+	 *            the offset at which the data should be read.
+	 * @param b
+	 *            the buffer into which the data is read.
+	 * @param off
+	 *            the start offset in b at which the data is written.
+	 * @param len
+	 *            the maximum number of bytes to read.
+	 * @return the total number of bytes written into b
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	int read(long pos, byte[] b, int off, int len) throws IOException;
+
+	/**
+	 * Reads bytes from the disk space starting at the offset given by pos into
+	 * the remaining space of the given buffer. The position of the buffer is
+	 * moved behind the read bytes, the current offset is not changed.
+	 * 
+	 * @param pos
+	 *            the offset at which the data should be read.
+	 * @param dst
+	 *            the buffer into which the data is read.
+	 * @return the total number of bytes read into dst, which is less than the
+	 *         remaining space of dst if the end of the space is reached
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	int read(long pos, ByteBuffer dst) throws IOException;
+
 	/**
 	 * Reads a signed 64-bit value from the disk space at the offset given by
 	 * pos.
@@ -197,6 +268,47 @@ public interface IVirtualDiskSpace {
 	 */
 	long readLong(long pos) throws IOException;
 
+	/**
+	 * Transfers up to count bytes from the given channel into the disk space
+	 * starting at the offset given by pos. The data is transferred to the
+	 * disk position of every block it is written to, without copying it into
+	 * a buffer. The space is extended if necessary, but not beyond the bytes
+	 * which were actually transferred. The current offset is not changed.
+	 * 
+	 * @param src
+	 *            the channel from which the data is read
+	 * @param pos
+	 *            the offset at which the data should be written
+	 * @param count
+	 *            the maximum number of bytes to transfer
+	 * @return the number of bytes transferred, which is less than count if
+	 *         the channel has less bytes remaining
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	long transferFrom(ReadableByteChannel src, long pos, long count)
+			throws IOException;
+
+	/**
+	 * Transfers up to count bytes of the disk space starting at the offset
+	 * given by pos to the given channel. The data is transferred from the
+	 * disk position of every block it is read from, without copying it into a
+	 * buffer. The current offset is not changed.
+	 * 
+	 * @param pos
+	 *            the offset at which the data should be read
+	 * @param count
+	 *            the maximum number of bytes to transfer
+	 * @param target
+	 *            the channel to which the data is written
+	 * @return the number of bytes transferred, which is less than count if
+	 *         the end of the space is reached
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	long transferTo(long pos, long count, WritableByteChannel target)
+			throws IOException;
+
 	/**
 	 * Returns the amount of bytes which are needed to represent the disk space
 	 * including all the meta data used to store the data blocks on the virtual
@@ -204,8 +316,10 @@ public interface IVirtualDiskSpace {
 	 * 
 	 * @return the disk space used by the virtual space on the virtual disk in
 	 *         bytes.
+	 * @throws IOException
+	 *             if an I/O error occurs
 	 */
-	long getDiskSize();
+	long getDiskSize() throws IOException;
 
 	/**
 	 * Frees all the DataBlocks used by the disk space. The virtual space can't
@@ -215,4 +329,16 @@ public interface IVirtualDiskSpace {
 	 *             if an I/O error occurs
 	 */
 	void free() throws IOException;
+
+	/**
+	 * Creates a copy of the space which shares the blocks with this space. A
+	 * shared block is only copied when one of the spaces writes to it
+	 * (copy-on-write), so creating the copy takes constant time and no
+	 * additional space.
+	 * 
+	 * @return the copy of the space
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	IVirtualDiskSpace createCopy() throws IOException;
 }
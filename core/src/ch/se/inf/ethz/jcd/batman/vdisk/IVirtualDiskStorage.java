@@ -0,0 +1,115 @@
+package ch.se.inf.ethz.jcd.batman.vdisk;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Represents the storage unit on which a {@link IVirtualDisk} is persisted.
+ * 
+ * The storage is a flat, growable array of bytes. All accesses are positional,
+ * which means a storage has no shared file pointer and the reads and writes of
+ * one caller never influence the position of another caller.
+ * 
+ * @see IVirtualDisk
+ */
+public interface IVirtualDiskStorage extends AutoCloseable, Closeable {
+
+	/**
+	 * Returns the length of the storage in bytes.
+	 * 
+	 * @return the length of the storage in bytes
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	long getLength() throws IOException;
+
+	/**
+	 * Sets the length of the storage. If the new length is smaller than the
+	 * current length the storage is truncated, otherwise it is extended. The
+	 * content of the extended portion is not defined.
+	 * 
+	 * @param newLength
+	 *            the desired length of the storage in bytes
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	void setLength(long newLength) throws IOException;
+
+	/**
+	 * Reads a sequence of bytes from the storage, starting at the offset given
+	 * by pos, into the remaining space of the given buffer. The method returns
+	 * as soon as the buffer is full or the end of the storage is reached.
+	 * 
+	 * @param pos
+	 *            the offset at which the data should be read
+	 * @param dst
+	 *            the buffer into which the data is read
+	 * @return the number of bytes read or -1 if pos is at or beyond the end of
+	 *         the storage
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	int read(long pos, ByteBuffer dst) throws IOException;
+
+	/**
+	 * Writes the remaining bytes of the given buffer to the storage, starting
+	 * at the offset given by pos. The storage is extended if necessary.
+	 * 
+	 * @param pos
+	 *            the offset at which the data should be written
+	 * @param src
+	 *            the buffer holding the data
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	void write(long pos, ByteBuffer src) throws IOException;
+
+	/**
+	 * Transfers up to count bytes from the given channel into the storage,
+	 * starting at the offset given by pos. The storage is extended if
+	 * necessary. Fewer bytes are transferred if the channel has less than
+	 * count bytes remaining.
+	 * 
+	 * @param src
+	 *            the channel from which the data is read
+	 * @param pos
+	 *            the offset at which the data should be written
+	 * @param count
+	 *            the maximum number of bytes to transfer
+	 * @return the number of bytes transferred
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	long transferFrom(ReadableByteChannel src, long pos, long count)
+			throws IOException;
+
+	/**
+	 * Transfers up to count bytes of the storage, starting at the offset given
+	 * by pos, to the given channel. Fewer bytes are transferred if the end of
+	 * the storage is reached.
+	 * 
+	 * @param pos
+	 *            the offset at which the data should be read
+	 * @param count
+	 *            the maximum number of bytes to transfer
+	 * @param target
+	 *            the channel to which the data is written
+	 * @return the number of bytes transferred
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	long transferTo(long pos, long count, WritableByteChannel target)
+			throws IOException;
+
+	/**
+	 * Forces all written data to the underlying device.
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	void flush() throws IOException;
+
+}
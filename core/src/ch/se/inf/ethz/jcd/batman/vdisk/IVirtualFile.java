@@ -1,6 +1,9 @@
 package ch.se.inf.ethz.jcd.batman.vdisk;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * Represents a file on the virtual disk.
@@ -50,6 +53,42 @@ public interface IVirtualFile extends IVirtualDiskEntry {
 	 */
 	int read(byte[] b) throws IOException;
 
+	/**
+	 * Reads up to len bytes from the file into the given part of an array of
+	 * bytes starting at the given offset. The current offset of the file is
+	 * not changed.
+	 * 
+	 * @param position
+	 *            the offset in the file at which the data is read.
+	 * @param b
+	 *            the buffer into which the data is read.
+	 * @param off
+	 *            the start offset in b at which the data is written.
+	 * @param len
+	 *            the maximum number of bytes to read.
+	 * @return the total number of bytes written into b, which is less than
+	 *         len if the end of the file is reached
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	int read(long position, byte[] b, int off, int len) throws IOException;
+
+	/**
+	 * Reads bytes from the file starting at the given offset into the
+	 * remaining space of the given buffer. The position of the buffer is moved
+	 * behind the read bytes, the current offset of the file is not changed.
+	 * 
+	 * @param position
+	 *            the offset in the file at which the data is read.
+	 * @param dst
+	 *            the buffer into which the data is read.
+	 * @return the total number of bytes read into dst, which is less than the
+	 *         remaining space of dst if the end of the file is reached
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	int read(long position, ByteBuffer dst) throws IOException;
+
 	/**
 	 * Reads a signed eight-bit value from the file at the current offset.
 	 * 
@@ -79,6 +118,78 @@ public interface IVirtualFile extends IVirtualDiskEntry {
 	 */
 	void write(byte[] b) throws IOException;
 
+	/**
+	 * Write len bytes of the given part of an array of bytes to the file at
+	 * the given offset. The current offset is not changed. If the data is
+	 * written behind the end of the file, the file is extended.
+	 * 
+	 * @param position
+	 *            the offset in the file at which the data is written.
+	 * @param b
+	 *            the data
+	 * @param off
+	 *            the start offset in b
+	 * @param len
+	 *            the number of bytes to write
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	void write(long position, byte[] b, int off, int len) throws IOException;
+
+	/**
+	 * Write the remaining bytes of the given buffer to the file at the given
+	 * offset. The position of the buffer is moved behind the written bytes,
+	 * the current offset of the file is not changed. If the data is written
+	 * behind the end of the file, the file is extended.
+	 * 
+	 * @param position
+	 *            the offset in the file at which the data is written.
+	 * @param src
+	 *            the buffer holding the data
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	void write(long position, ByteBuffer src) throws IOException;
+
+	/**
+	 * Transfers up to count bytes from the given channel into the file at the
+	 * given offset. The data is passed on to the disk block by block, without
+	 * copying it into a buffer. The current offset is not changed. If the
+	 * data is written behind the end of the file, the file is extended.
+	 * 
+	 * @param src
+	 *            the channel from which the data is read
+	 * @param position
+	 *            the offset in the file at which the data is written.
+	 * @param count
+	 *            the maximum number of bytes to transfer
+	 * @return the number of bytes transferred, which is less than count if
+	 *         the channel has less bytes remaining
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	long transferFrom(ReadableByteChannel src, long position, long count)
+			throws IOException;
+
+	/**
+	 * Transfers up to count bytes of the file starting at the given offset to
+	 * the given channel. The data is passed on by the disk block by block,
+	 * without copying it into a buffer. The current offset is not changed.
+	 * 
+	 * @param position
+	 *            the offset in the file at which the data is read.
+	 * @param count
+	 *            the maximum number of bytes to transfer
+	 * @param target
+	 *            the channel to which the data is written
+	 * @return the number of bytes transferred, which is less than count if
+	 *         the end of the file is reached
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	long transferTo(long position, long count, WritableByteChannel target)
+			throws IOException;
+
 	/**
 	 * Sets the size of this file.
 	 * 
@@ -0,0 +1,76 @@
+package ch.se.inf.ethz.jcd.batman.vdisk;
+
+/**
+ * Snapshot of the meta data of a {@link IVirtualDiskEntry}, as returned by a
+ * directory listing.
+ * 
+ * @see IVirtualDirectory#listMembers()
+ */
+public final class VirtualDiskEntryInfo {
+
+	private final String name;
+	private final boolean directory;
+	private final long size;
+	private final long timestamp;
+	private final long position;
+
+	/**
+	 * Creates the meta data of an entry.
+	 * 
+	 * @param name
+	 *            the name of the entry
+	 * @param directory
+	 *            true if the entry is a directory, false if it is a file
+	 * @param size
+	 *            the size of the file in bytes, -1 if it is unknown, or 0 for
+	 *            a directory
+	 * @param timestamp
+	 *            the time stamp of the entry
+	 * @param position
+	 *            the offset position of the entry on the disk
+	 */
+	public VirtualDiskEntryInfo(String name, boolean directory, long size,
+			long timestamp, long position) {
+		this.name = name;
+		this.directory = directory;
+		this.size = size;
+		this.timestamp = timestamp;
+		this.position = position;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public boolean isDirectory() {
+		return directory;
+	}
+
+	public boolean isFile() {
+		return !directory;
+	}
+
+	/**
+	 * Returns the size of the file in bytes. For directories 0 is returned.
+	 * 
+	 * @return the size of the file or -1 if the size has not been read, see
+	 *         {@link IVirtualDisk#readMembers(long)}
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Returns the offset position of the entry on the disk.
+	 * 
+	 * @return the offset position of the entry
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+}
@@ -0,0 +1,437 @@
+package ch.se.inf.ethz.jcd.batman.vdisk.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDiskStorage;
+
+/**
+ * Implementation of {@link IVirtualDiskStorage} which keeps recently used
+ * pages of another storage in memory.
+ * 
+ * The storage is split into pages of a fixed size, which are cached in a
+ * {@link PageCache} keyed by the page index (offset / page size). Writes are
+ * passed on to the underlying storage immediately and update the cached pages
+ * (write through). Reads which span more than {@link #BYPASS_PAGE_COUNT} pages
+ * are served directly by the underlying storage, so big data transfers don't
+ * evict the meta data pages from the cache. Transfers from and to channels
+ * bypass the cache as well, a transfer into the storage removes the pages it
+ * overwrites.
+ * 
+ * The storage can be used by several threads at the same time. A page is
+ * loaded and updated while holding the lock of its stripe, so accesses to
+ * different pages and the reads of the underlying storage run in parallel.
+ * A write holds the locks of the stripes of all pages it overwrites while it
+ * writes the underlying storage and updates the pages, so overlapping writes
+ * reach the storage and the cache in the same order. The stripes are always
+ * locked in the order of their index. The cache itself is only locked while
+ * a page is looked up, added or removed. Changes of the length, including
+ * writes behind the end, exclude all other accesses.
+ */
+public final class CachedStorage implements IVirtualDiskStorage {
+
+	/**
+	 * The minimum page size in bytes.
+	 */
+	public static final int MIN_PAGE_SIZE = 4 * 1024; // 4 KiB
+	/**
+	 * The maximum page size in bytes.
+	 */
+	public static final int MAX_PAGE_SIZE = 64 * 1024; // 64 KiB
+
+	private static final int BYPASS_PAGE_COUNT = 16;
+	/**
+	 * The number of locks the pages are distributed on, a power of two.
+	 */
+	private static final int STRIPE_COUNT = 64;
+
+	/**
+	 * Wraps the given storage with a page cache.
+	 * 
+	 * @param storage
+	 *            the storage whose pages should be cached
+	 * @param pageSize
+	 *            the size of a page in bytes. Has to be a power of two between
+	 *            {@link #MIN_PAGE_SIZE} and {@link #MAX_PAGE_SIZE}
+	 * @param cacheSize
+	 *            the memory budget of the cache in bytes
+	 * @param policy
+	 *            the policy used to evict pages if the cache is full
+	 * @return the cached storage
+	 */
+	public static CachedStorage wrap(IVirtualDiskStorage storage,
+			int pageSize, long cacheSize, EvictionPolicy policy) {
+		if (pageSize < MIN_PAGE_SIZE || pageSize > MAX_PAGE_SIZE
+				|| Integer.bitCount(pageSize) != 1) {
+			throw new IllegalArgumentException("Invalid page size " + pageSize);
+		}
+		long pageCount = Math.max(1, cacheSize / pageSize);
+		return new CachedStorage(storage, pageSize, PageCache.<Page> create(
+				policy, (int) Math.min(Integer.MAX_VALUE, pageCount)));
+	}
+
+	/**
+	 * A cached page. Only the page at the end of the storage may contain less
+	 * than page size valid bytes.
+	 */
+	private static final class Page {
+		private final byte[] data;
+		private int length;
+
+		private Page(int size) {
+			data = new byte[size];
+		}
+	}
+
+	private final IVirtualDiskStorage storage;
+	private final int pageSize;
+	private final int pageShift;
+	/**
+	 * Guarded by its own monitor.
+	 */
+	private final PageCache<Page> cache;
+	private final Lock[] stripes = new Lock[STRIPE_COUNT];
+	/**
+	 * Shared by the accesses inside the storage, exclusive for changes of the
+	 * length.
+	 */
+	private final ReadWriteLock lengthLock = new ReentrantReadWriteLock();
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+
+	private CachedStorage(IVirtualDiskStorage storage, int pageSize,
+			PageCache<Page> cache) {
+		this.storage = storage;
+		this.pageSize = pageSize;
+		this.pageShift = Integer.numberOfTrailingZeros(pageSize);
+		this.cache = cache;
+		for (int i = 0; i < STRIPE_COUNT; i++) {
+			stripes[i] = new ReentrantLock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getLength() throws IOException {
+		return storage.getLength();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void setLength(long newLength) throws IOException {
+		Lock lock = lengthLock.writeLock();
+		lock.lock();
+		try {
+			long oldLength = storage.getLength();
+			storage.setLength(newLength);
+			// The last page changes in both cases
+			removePagesFrom(Math.min(oldLength, newLength));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int read(long pos, ByteBuffer dst) throws IOException {
+		int readLength = dst.remaining();
+		if (readLength > BYPASS_PAGE_COUNT * pageSize) {
+			return storage.read(pos, dst);
+		}
+		int bytesRead = 0;
+		Lock lock = lengthLock.readLock();
+		lock.lock();
+		try {
+			while (bytesRead < readLength) {
+				long currentPos = pos + bytesRead;
+				long index = currentPos >> pageShift;
+				int offset = (int) (currentPos & (pageSize - 1));
+				Lock stripe = getStripe(index);
+				stripe.lock();
+				try {
+					Page page = getPage(index);
+					if (offset >= page.length) {
+						// End of storage reached
+						break;
+					}
+					int length = Math.min(readLength - bytesRead, page.length
+							- offset);
+					dst.put(page.data, offset, length);
+					bytesRead += length;
+				} finally {
+					stripe.unlock();
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+		return (bytesRead == 0 && readLength > 0) ? -1 : bytesRead;
+	}
+
+	private Lock getStripe(long index) {
+		return stripes[(int) (index & (STRIPE_COUNT - 1))];
+	}
+
+	/**
+	 * Returns true if the stripe with the given number holds one of the pages
+	 * between pos and end.
+	 */
+	private boolean isStripeAffected(int stripe, long pos, long end) {
+		long first = pos >> pageShift;
+		long pageCount = ((end - 1) >> pageShift) - first + 1;
+		return pageCount >= STRIPE_COUNT
+				|| ((stripe - first) & (STRIPE_COUNT - 1)) < pageCount;
+	}
+
+	/**
+	 * Locks the stripes of the pages between pos and end in the order of
+	 * their index.
+	 */
+	private void lockStripes(long pos, long end) {
+		for (int i = 0; i < STRIPE_COUNT; i++) {
+			if (isStripeAffected(i, pos, end)) {
+				stripes[i].lock();
+			}
+		}
+	}
+
+	private void unlockStripes(long pos, long end) {
+		for (int i = STRIPE_COUNT - 1; i >= 0; i--) {
+			if (isStripeAffected(i, pos, end)) {
+				stripes[i].unlock();
+			}
+		}
+	}
+
+	/**
+	 * Returns the page with the given index and loads it if it is not cached.
+	 * The caller has to hold the lock of the stripe of the page.
+	 */
+	private Page getPage(long index) throws IOException {
+		Page page;
+		synchronized (cache) {
+			page = cache.get(index);
+		}
+		if (page == null) {
+			missCount.incrementAndGet();
+			page = new Page(pageSize);
+			int read = storage.read(index << pageShift,
+					ByteBuffer.wrap(page.data));
+			page.length = Math.max(0, read);
+			synchronized (cache) {
+				cache.put(index, page);
+			}
+		} else {
+			hitCount.incrementAndGet();
+		}
+		return page;
+	}
+
+	private void removePagesFrom(long pos) {
+		synchronized (cache) {
+			cache.removeFrom(pos >> pageShift);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void write(long pos, ByteBuffer src) throws IOException {
+		long end = pos + src.remaining();
+		Lock lock = lengthLock.readLock();
+		lock.lock();
+		try {
+			if (end <= storage.getLength()) {
+				if (end > pos) {
+					ByteBuffer data = src.duplicate();
+					lockStripes(pos, end);
+					try {
+						storage.write(pos, src);
+						updatePages(pos, end, data);
+					} finally {
+						unlockStripes(pos, end);
+					}
+				}
+				return;
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		// The write extends the storage
+		lock = lengthLock.writeLock();
+		lock.lock();
+		try {
+			long oldLength = storage.getLength();
+			storage.write(pos, src);
+			removePagesFrom(Math.min(oldLength, pos));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Updates the cached pages with the data written between pos and end. The
+	 * caller has to hold the locks of the stripes of the pages.
+	 */
+	private void updatePages(long pos, long end, ByteBuffer data) {
+		for (long index = pos >> pageShift; (index << pageShift) < end; index++) {
+			long pageStart = index << pageShift;
+			int from = (int) (Math.max(pos, pageStart) - pageStart);
+			int to = (int) (Math.min(end, pageStart + pageSize) - pageStart);
+			Page page;
+			synchronized (cache) {
+				page = cache.get(index);
+				if (page != null && from > page.length) {
+					// The write leaves a gap in the page
+					cache.remove(index);
+					page = null;
+				}
+			}
+			if (page == null) {
+				data.position(data.position() + to - from);
+			} else {
+				data.get(page.data, from, to - from);
+				page.length = Math.max(page.length, to);
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long transferFrom(ReadableByteChannel src, long pos, long count)
+			throws IOException {
+		Lock lock = lengthLock.readLock();
+		lock.lock();
+		try {
+			if (pos + count <= storage.getLength()) {
+				long transferred = storage.transferFrom(src, pos, count);
+				removePages(pos, pos + transferred);
+				return transferred;
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		// The transfer may extend the storage
+		lock = lengthLock.writeLock();
+		lock.lock();
+		try {
+			long oldLength = storage.getLength();
+			long transferred = storage.transferFrom(src, pos, count);
+			removePagesFrom(Math.min(oldLength, pos));
+			removePages(pos, Math.min(pos + transferred, oldLength));
+			return transferred;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes the cached pages which overlap the range between pos and end.
+	 */
+	private void removePages(long pos, long end) {
+		for (long index = pos >> pageShift; (index << pageShift) < end; index++) {
+			Lock stripe = getStripe(index);
+			stripe.lock();
+			try {
+				synchronized (cache) {
+					cache.remove(index);
+				}
+			} finally {
+				stripe.unlock();
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long transferTo(long pos, long count, WritableByteChannel target)
+			throws IOException {
+		// The underlying storage is up to date, because writes are passed on
+		return storage.transferTo(pos, count, target);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void flush() throws IOException {
+		storage.flush();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void close() throws IOException {
+		Lock lock = lengthLock.writeLock();
+		lock.lock();
+		try {
+			synchronized (cache) {
+				cache.clear();
+			}
+			storage.close();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns how many page lookups were served by the cache.
+	 * 
+	 * @return the number of cache hits
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * Returns how many page lookups had to load the page from the underlying
+	 * storage.
+	 * 
+	 * @return the number of cache misses
+	 */
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * Returns how many pages were evicted from the cache.
+	 * 
+	 * @return the number of evicted pages
+	 */
+	public long getEvictionCount() {
+		synchronized (cache) {
+			return cache.getEvictionCount();
+		}
+	}
+
+	/**
+	 * Returns the maximum number of pages the cache can hold.
+	 * 
+	 * @return the capacity of the cache in pages
+	 */
+	public int getCapacity() {
+		return cache.getCapacity();
+	}
+
+}
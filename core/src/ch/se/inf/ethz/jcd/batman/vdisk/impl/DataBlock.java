@@ -1,6 +1,7 @@
 package ch.se.inf.ethz.jcd.batman.vdisk.impl;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import ch.se.inf.ethz.jcd.batman.vdisk.IDataBlock;
 import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualBlock;
@@ -20,6 +21,12 @@ import ch.se.inf.ethz.jcd.batman.vdisk.VirtualDiskException;
  * (maximum of data block size - meta data size) 0xnn n data end 8 byte size and
  * indicator for data block
  * 
+ * The upper 16 bits of the data size hold the number of additional references
+ * to the block. A block is referenced by more than one predecessor if a chain
+ * of blocks is shared by copy-on-write copies of a
+ * {@link ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDiskSpace}. Blocks written
+ * by older versions have no additional references.
+ * 
  * @see IVirtualBlock
  * @see IDataBlock
  */
@@ -40,6 +47,21 @@ public final class DataBlock extends VirtualBlock implements IDataBlock {
 	 * The size of the smallest possible data block.
 	 */
 	public static final long MIN_BLOCK_SIZE = METADATA_SIZE + 1;
+	/**
+	 * The offset of the data relative to the start of the block.
+	 */
+	public static final long DATA_OFFSET = METADATA_START_SIZE;
+	/**
+	 * The size in bytes of the meta data at the start of the block.
+	 */
+	static final int HEADER_SIZE = (int) METADATA_START_SIZE;
+	/**
+	 * The maximum number of references to a block.
+	 */
+	public static final int MAX_REFERENCE_COUNT = 0x8000;
+
+	private static final int REFERENCE_COUNT_SHIFT = 48;
+	private static final long DATA_SIZE_MASK = (1L << REFERENCE_COUNT_SHIFT) - 1;
 
 	/**
 	 * Loads the data block stored at the offset position given by position.
@@ -88,8 +110,75 @@ public final class DataBlock extends VirtualBlock implements IDataBlock {
 		return block;
 	}
 
+	/**
+	 * Returns a data block whose meta data is already known, without reading
+	 * or writing the meta data on the disk. The block must not be shared, it
+	 * is referenced only by its predecessor.
+	 * 
+	 * @param disk
+	 *            the disk on which the block is stored
+	 * @param position
+	 *            the offset position in bytes of the block
+	 * @param size
+	 *            the size of the block
+	 * @param dataSize
+	 *            the size in the block which is used to store data
+	 * @param next
+	 *            the offset position of the next block in the list
+	 * @return the data block
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	static IDataBlock open(final IVirtualDisk disk, final long position,
+			final long size, final long dataSize, final long next)
+			throws IOException {
+		final DataBlock block = new DataBlock(disk, position, size, dataSize,
+				next);
+		block.valid = true;
+		return block;
+	}
+
+	/**
+	 * Returns the number of references to the block stored in the given
+	 * header.
+	 */
+	static int getReferenceCount(final ByteBuffer header) {
+		return decodeReferenceCount(header
+				.getLong((int) (VirtualBlock.METADATA_START_SIZE + NEXT_SIZE)));
+	}
+
+	private static int decodeReferenceCount(final long storedDataSize) {
+		return (int) (storedDataSize >>> REFERENCE_COUNT_SHIFT) + 1;
+	}
+
+	/**
+	 * Returns the size of the block stored in the given header. The header
+	 * holds the first {@link #HEADER_SIZE} bytes of a data block.
+	 */
+	static long getDiskSize(final ByteBuffer header) {
+		return removeMetaFlagFromSize(header.getLong(0));
+	}
+
+	/**
+	 * Returns the offset position of the next block stored in the given
+	 * header.
+	 */
+	static long getNextBlock(final ByteBuffer header) {
+		return header.getLong((int) VirtualBlock.METADATA_START_SIZE);
+	}
+
+	/**
+	 * Returns the data size of the block stored in the given header.
+	 */
+	static long getDataSize(final ByteBuffer header) {
+		return header
+				.getLong((int) (VirtualBlock.METADATA_START_SIZE + NEXT_SIZE))
+				& DATA_SIZE_MASK;
+	}
+
 	private transient long next;
 	private long dataSize;
+	private int referenceCount = 1;
 	private boolean valid;
 
 	private DataBlock(final IVirtualDisk disk, final long position,
@@ -103,8 +192,10 @@ public final class DataBlock extends VirtualBlock implements IDataBlock {
 	protected void readMetadata() throws IOException {
 		super.readMetadata();
 		next = readLongRealPosition(VirtualBlock.METADATA_START_SIZE);
-		dataSize = readLongRealPosition(VirtualBlock.METADATA_START_SIZE
+		long storedDataSize = readLongRealPosition(VirtualBlock.METADATA_START_SIZE
 				+ NEXT_SIZE);
+		dataSize = storedDataSize & DATA_SIZE_MASK;
+		referenceCount = decodeReferenceCount(storedDataSize);
 	}
 
 	protected void updateMetadata() throws IOException {
@@ -119,7 +210,8 @@ public final class DataBlock extends VirtualBlock implements IDataBlock {
 
 	private void updateDataSize() throws IOException {
 		writeRealPosition(VirtualBlock.METADATA_START_SIZE + NEXT_SIZE,
-				dataSize);
+				dataSize
+						| ((long) (referenceCount - 1) << REFERENCE_COUNT_SHIFT));
 	}
 
 	private void checkDataRange(final long pos, final int length) {
@@ -248,6 +340,49 @@ public final class DataBlock extends VirtualBlock implements IDataBlock {
 		return readRealPosition(pos + METADATA_START_SIZE, data, offset, length);
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void write(final long pos, final ByteBuffer src) throws IOException {
+		checkValidTrue();
+		checkDataRange(pos, src.remaining());
+		writeRealPosition(pos + METADATA_START_SIZE, src);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int read(final long pos, final ByteBuffer dst) throws IOException {
+		checkValidTrue();
+		checkDataRange(pos, dst.remaining());
+		return readRealPosition(pos + METADATA_START_SIZE, dst);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int getReferenceCount() {
+		return referenceCount;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void setReferenceCount(final int referenceCount)
+			throws IOException {
+		checkValidTrue();
+		if (referenceCount < 1 || referenceCount > MAX_REFERENCE_COUNT) {
+			throw new IllegalArgumentException("Illegal reference count "
+					+ referenceCount);
+		}
+		this.referenceCount = referenceCount;
+		updateDataSize();
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
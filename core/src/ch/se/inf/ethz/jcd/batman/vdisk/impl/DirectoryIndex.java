@@ -0,0 +1,327 @@
+package ch.se.inf.ethz.jcd.batman.vdisk.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDisk;
+import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDiskEntry;
+import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDiskSpace;
+
+/**
+ * Hashed name index of the members of a {@link VirtualDirectory}.
+ * 
+ * The index is a hash table with open addressing (linear probing) which is
+ * stored in its own {@link IVirtualDiskSpace}. The structure of the data is
+ * as follows:
+ * 
+ * 0x00 8 Number of slots (power of two) 0x08 8 Number of members 0x10 8 Number
+ * of used slots (members and deleted slots) 0x18 n Slots
+ * 
+ * Each slot has the following structure:
+ * 
+ * 0x00 4 Hash of the member name 0x04 8 Offset position of the member 0x0C 8
+ * Offset position of the previous member in the member list of the directory
+ * 
+ * The member list of the directory is only linked in one direction, therefore
+ * the index also stores the previous member, so a member can be removed from
+ * the list without iterating over it.
+ * 
+ * All operations work directly on the disk, so several instances of the same
+ * index can be used at the same time.
+ */
+final class DirectoryIndex {
+
+	/**
+	 * Creates a new empty index on the disk.
+	 * 
+	 * @param disk
+	 *            the disk on which the index is stored
+	 * @return the created index
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	static DirectoryIndex create(IVirtualDisk disk) throws IOException {
+		DirectoryIndex index = new DirectoryIndex(disk,
+				VirtualDiskSpace.create(disk, getSpaceSize(INITIAL_CAPACITY)));
+		index.clear(INITIAL_CAPACITY);
+		return index;
+	}
+
+	/**
+	 * Loads the index stored at the given position.
+	 * 
+	 * @param disk
+	 *            the disk on which the index is stored
+	 * @param position
+	 *            the offset position of the index
+	 * @return the loaded index
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	static DirectoryIndex load(IVirtualDisk disk, long position)
+			throws IOException {
+		return new DirectoryIndex(disk, VirtualDiskSpace.load(disk, position));
+	}
+
+	private static final int INITIAL_CAPACITY = 8;
+
+	private static final int CAPACITY_POS = 0;
+	private static final int MEMBER_COUNT_POS = 8;
+	private static final int USED_COUNT_POS = 16;
+	private static final int SLOTS_POS = 24;
+
+	private static final int HASH_SIZE = 4;
+	private static final int SLOT_SIZE = HASH_SIZE + 2 * LongCodec.LONG_LENGTH;
+	private static final int HASH_OFFSET = 0;
+	private static final int MEMBER_OFFSET = HASH_SIZE;
+	private static final int PREVIOUS_OFFSET = MEMBER_OFFSET
+			+ LongCodec.LONG_LENGTH;
+
+	private static final long EMPTY_SLOT = 0;
+	private static final long DELETED_SLOT = -1;
+
+	private static long getSpaceSize(long capacity) {
+		return SLOTS_POS + capacity * SLOT_SIZE;
+	}
+
+	private static int hash(String name) {
+		int hash = name.hashCode();
+		return hash ^ (hash >>> 16);
+	}
+
+	private final IVirtualDisk disk;
+	private final IVirtualDiskSpace space;
+	private final byte[] slot = new byte[SLOT_SIZE];
+	private final ByteBuffer slotBuffer = ByteBuffer.wrap(slot);
+
+	private DirectoryIndex(IVirtualDisk disk, IVirtualDiskSpace space) {
+		this.disk = disk;
+		this.space = space;
+	}
+
+	/**
+	 * Returns the offset position of the index on the disk.
+	 * 
+	 * @return the offset position of the index
+	 */
+	long getPosition() {
+		return space.getVirtualDiskPosition();
+	}
+
+	/**
+	 * Returns the number of members in the index.
+	 * 
+	 * @return the number of members
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	long getMemberCount() throws IOException {
+		return space.readLong(MEMBER_COUNT_POS);
+	}
+
+	/**
+	 * Returns the member with the given name.
+	 * 
+	 * @param name
+	 *            the name of the member
+	 * @return the member or null if the directory has no member with the given
+	 *         name
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	IVirtualDiskEntry get(String name) throws IOException {
+		int hash = hash(name);
+		long capacity = space.readLong(CAPACITY_POS);
+		for (long i = hash & (capacity - 1);; i = (i + 1) & (capacity - 1)) {
+			long member = readSlot(i);
+			if (member == EMPTY_SLOT) {
+				return null;
+			}
+			if (member != DELETED_SLOT && slotBuffer.getInt(HASH_OFFSET) == hash) {
+				IVirtualDiskEntry entry = VirtualDiskEntry.load(disk, member);
+				if (entry.getName().equals(name)) {
+					return entry;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds a member to the index.
+	 * 
+	 * @param name
+	 *            the name of the member
+	 * @param member
+	 *            the offset position of the member
+	 * @param previous
+	 *            the offset position of the previous member in the member
+	 *            list or 0 if it is the first member
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	void add(String name, long member, long previous) throws IOException {
+		long capacity = space.readLong(CAPACITY_POS);
+		long memberCount = space.readLong(MEMBER_COUNT_POS);
+		long usedCount = space.readLong(USED_COUNT_POS);
+		if ((usedCount + 1) * 4 > capacity * 3) {
+			// Grow the table if it is mostly used by members, otherwise it's
+			// enough to remove the deleted slots
+			capacity = ((memberCount + 1) * 2 > capacity) ? capacity * 2
+					: capacity;
+			rehash(capacity);
+			usedCount = memberCount;
+		}
+		int hash = hash(name);
+		long i = hash & (capacity - 1);
+		long slotMember = readSlot(i);
+		while (slotMember != EMPTY_SLOT && slotMember != DELETED_SLOT) {
+			i = (i + 1) & (capacity - 1);
+			slotMember = readSlot(i);
+		}
+		if (slotMember == EMPTY_SLOT) {
+			usedCount++;
+		}
+		writeSlot(i, hash, member, previous);
+		space.writeLong(MEMBER_COUNT_POS, memberCount + 1);
+		space.writeLong(USED_COUNT_POS, usedCount);
+	}
+
+	/**
+	 * Removes a member from the index.
+	 * 
+	 * @param name
+	 *            the name of the member
+	 * @param member
+	 *            the offset position of the member
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	void remove(String name, long member) throws IOException {
+		long i = findSlot(name, member);
+		if (i >= 0) {
+			writeSlot(i, 0, DELETED_SLOT, 0);
+			space.writeLong(MEMBER_COUNT_POS, getMemberCount() - 1);
+		}
+	}
+
+	/**
+	 * Returns the offset position of the member which is in front of the given
+	 * member in the member list.
+	 * 
+	 * @param name
+	 *            the name of the member
+	 * @param member
+	 *            the offset position of the member
+	 * @return the offset position of the previous member or 0 if the member is
+	 *         the first member
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	long getPrevious(String name, long member) throws IOException {
+		long i = findSlot(name, member);
+		return (i >= 0) ? slotBuffer.getLong(PREVIOUS_OFFSET) : 0;
+	}
+
+	/**
+	 * Sets the offset position of the member which is in front of the given
+	 * member in the member list.
+	 * 
+	 * @param name
+	 *            the name of the member
+	 * @param member
+	 *            the offset position of the member
+	 * @param previous
+	 *            the offset position of the previous member or 0 if the member
+	 *            is the first member
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	void setPrevious(String name, long member, long previous)
+			throws IOException {
+		long i = findSlot(name, member);
+		if (i >= 0) {
+			writeSlot(i, hash(name), member, previous);
+		}
+	}
+
+	/**
+	 * Frees the space used by the index.
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	void free() throws IOException {
+		space.free();
+	}
+
+	/**
+	 * Returns the index of the slot of the given member or -1 if the member is
+	 * not in the index. The slot is read into the slot buffer.
+	 */
+	private long findSlot(String name, long member) throws IOException {
+		int hash = hash(name);
+		long capacity = space.readLong(CAPACITY_POS);
+		for (long i = hash & (capacity - 1);; i = (i + 1) & (capacity - 1)) {
+			long slotMember = readSlot(i);
+			if (slotMember == EMPTY_SLOT) {
+				return -1;
+			}
+			if (slotMember == member) {
+				return i;
+			}
+		}
+	}
+
+	private long readSlot(long i) throws IOException {
+		space.read(SLOTS_POS + i * SLOT_SIZE, slot);
+		return slotBuffer.getLong(MEMBER_OFFSET);
+	}
+
+	private void writeSlot(long i, int hash, long member, long previous)
+			throws IOException {
+		slotBuffer.putInt(HASH_OFFSET, hash);
+		slotBuffer.putLong(MEMBER_OFFSET, member);
+		slotBuffer.putLong(PREVIOUS_OFFSET, previous);
+		space.write(SLOTS_POS + i * SLOT_SIZE, slot);
+	}
+
+	private void clear(long capacity) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(SLOTS_POS);
+		header.putLong(CAPACITY_POS, capacity);
+		space.write(0, header.array());
+		space.write(SLOTS_POS, new byte[(int) (capacity * SLOT_SIZE)]);
+	}
+
+	/**
+	 * Rebuilds the table with the given capacity. The whole table is read
+	 * and written with a single access.
+	 */
+	private void rehash(long newCapacity) throws IOException {
+		long capacity = space.readLong(CAPACITY_POS);
+		ByteBuffer oldSlots = ByteBuffer.allocate((int) (capacity * SLOT_SIZE));
+		space.read(SLOTS_POS, oldSlots.array());
+		ByteBuffer newSlots = ByteBuffer
+				.allocate((int) (newCapacity * SLOT_SIZE));
+		long memberCount = 0;
+		for (int i = 0; i < capacity; i++) {
+			int offset = i * SLOT_SIZE;
+			long member = oldSlots.getLong(offset + MEMBER_OFFSET);
+			if (member != EMPTY_SLOT && member != DELETED_SLOT) {
+				int hash = oldSlots.getInt(offset + HASH_OFFSET);
+				long j = hash & (newCapacity - 1);
+				while (newSlots.getLong((int) (j * SLOT_SIZE) + MEMBER_OFFSET) != EMPTY_SLOT) {
+					j = (j + 1) & (newCapacity - 1);
+				}
+				newSlots.position((int) (j * SLOT_SIZE));
+				newSlots.put(oldSlots.array(), offset, SLOT_SIZE);
+				memberCount++;
+			}
+		}
+		space.changeSize(getSpaceSize(newCapacity));
+		space.write(SLOTS_POS, newSlots.array());
+		space.writeLong(CAPACITY_POS, newCapacity);
+		space.writeLong(MEMBER_COUNT_POS, memberCount);
+		space.writeLong(USED_COUNT_POS, memberCount);
+	}
+
+}
@@ -0,0 +1,92 @@
+package ch.se.inf.ethz.jcd.batman.vdisk.impl;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.Map;
+
+import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDiskEntry;
+
+/**
+ * Identity map of the loaded entries of a {@link VirtualDisk}.
+ * 
+ * The entries are registered by their offset position when they are loaded or
+ * created, so an entry on the disk is represented by a single object, which
+ * keeps its name, time stamp and links loaded. The objects are held by soft
+ * references, so entries which are not used anymore can still be collected.
+ */
+final class EntryCache {
+
+	/**
+	 * Soft reference to an entry which remembers the position of the entry,
+	 * so it can be removed from the map after the entry has been collected.
+	 */
+	private static final class EntryReference extends
+			SoftReference<IVirtualDiskEntry> {
+		private final long position;
+
+		private EntryReference(IVirtualDiskEntry entry, long position,
+				ReferenceQueue<IVirtualDiskEntry> queue) {
+			super(entry, queue);
+			this.position = position;
+		}
+	}
+
+	private final Map<Long, EntryReference> entries = new HashMap<Long, EntryReference>();
+	private final ReferenceQueue<IVirtualDiskEntry> queue = new ReferenceQueue<IVirtualDiskEntry>();
+
+	/**
+	 * Returns the loaded entry at the given position.
+	 * 
+	 * @param position
+	 *            the offset position of the entry
+	 * @return the entry or null if no entry is loaded at the given position
+	 */
+	synchronized IVirtualDiskEntry get(long position) {
+		removeCollectedEntries();
+		EntryReference reference = entries.get(position);
+		if (reference != null) {
+			IVirtualDiskEntry entry = reference.get();
+			if (entry != null && entry.exists()) {
+				return entry;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Registers a loaded or created entry.
+	 * 
+	 * @param entry
+	 *            the entry to register
+	 */
+	synchronized void put(IVirtualDiskEntry entry) {
+		removeCollectedEntries();
+		long position = entry.getPosition();
+		entries.put(position, new EntryReference(entry, position, queue));
+	}
+
+	/**
+	 * Removes the given entry, e.g. because it is deleted.
+	 * 
+	 * @param entry
+	 *            the entry to remove
+	 */
+	synchronized void remove(IVirtualDiskEntry entry) {
+		long position = entry.getPosition();
+		EntryReference reference = entries.get(position);
+		if (reference != null && reference.get() == entry) {
+			entries.remove(position);
+		}
+	}
+
+	private void removeCollectedEntries() {
+		EntryReference reference;
+		while ((reference = (EntryReference) queue.poll()) != null) {
+			if (entries.get(reference.position) == reference) {
+				entries.remove(reference.position);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,21 @@
+package ch.se.inf.ethz.jcd.batman.vdisk.impl;
+
+/**
+ * Represents the strategies a {@link PageCache} can use to decide which page
+ * is removed if the cache is full.
+ * 
+ * @see PageCache
+ */
+public enum EvictionPolicy {
+	/**
+	 * The least recently used page is removed.
+	 */
+	LRU,
+
+	/**
+	 * The pages are arranged in a ring which is swept by a clock hand. A page
+	 * which was accessed since the last sweep gets a second chance, the first
+	 * page without access is removed.
+	 */
+	CLOCK;
+}
@@ -0,0 +1,167 @@
+package ch.se.inf.ethz.jcd.batman.vdisk.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDiskStorage;
+
+/**
+ * Implementation of {@link IVirtualDiskStorage} backed by a {@link FileChannel}
+ * on the host system.
+ * 
+ * All reads and writes use the positional methods of the channel, therefore
+ * no seek is needed and the channel can be used by multiple threads at the
+ * same time. Transfers from and to other channels are passed on to the
+ * channel, which lets the operating system copy the data without moving it
+ * through the Java heap.
+ * 
+ * A file left behind by a {@link MappedStorage} is trimmed to the length of
+ * the storage when it is opened.
+ */
+public final class FileChannelStorage implements IVirtualDiskStorage {
+
+	/**
+	 * Opens the given host file as storage. The file is created if it does not
+	 * exist yet.
+	 * 
+	 * @param file
+	 *            the host file to open
+	 * @return the opened storage
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public static IVirtualDiskStorage open(File file) throws IOException {
+		return new FileChannelStorage(new RandomAccessFile(file, "rw"));
+	}
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private volatile long length;
+
+	private FileChannelStorage(RandomAccessFile file) throws IOException {
+		this.file = file;
+		this.channel = file.getChannel();
+		this.length = MappedStorage.readLength(channel);
+		if (length < channel.size()) {
+			file.setLength(length);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized void setLength(long newLength) throws IOException {
+		file.setLength(newLength);
+		length = newLength;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int read(long pos, ByteBuffer dst) throws IOException {
+		int totalRead = 0;
+		while (dst.hasRemaining()) {
+			int read = channel.read(dst, pos + totalRead);
+			if (read < 0) {
+				break;
+			}
+			totalRead += read;
+		}
+		return (totalRead == 0 && dst.hasRemaining()) ? -1 : totalRead;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void write(long pos, ByteBuffer src) throws IOException {
+		long currentPosition = pos;
+		while (src.hasRemaining()) {
+			currentPosition += channel.write(src, currentPosition);
+		}
+		updateLength(currentPosition);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long transferFrom(ReadableByteChannel src, long pos, long count)
+			throws IOException {
+		// The channel transfers nothing to a position behind its end
+		ensureLength(pos);
+		long transferred = 0;
+		while (transferred < count) {
+			long n = channel.transferFrom(src, pos + transferred, count
+					- transferred);
+			if (n <= 0) {
+				break;
+			}
+			transferred += n;
+		}
+		updateLength(pos + transferred);
+		return transferred;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long transferTo(long pos, long count, WritableByteChannel target)
+			throws IOException {
+		long transferred = 0;
+		while (transferred < count) {
+			long n = channel.transferTo(pos + transferred, count - transferred,
+					target);
+			if (n <= 0) {
+				break;
+			}
+			transferred += n;
+		}
+		return transferred;
+	}
+
+	private synchronized void ensureLength(long minLength) throws IOException {
+		if (minLength > length) {
+			setLength(minLength);
+		}
+	}
+
+	private synchronized void updateLength(long end) {
+		if (end > length) {
+			length = end;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void flush() throws IOException {
+		channel.force(false);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+
+}
@@ -0,0 +1,78 @@
+package ch.se.inf.ethz.jcd.batman.vdisk.impl;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDisk;
+
+/**
+ * Encodes and decodes the longs stored on a {@link IVirtualDisk}. All longs
+ * are stored in big-endian byte order.
+ * 
+ * The methods which read or write a long on the disk use a thread-local
+ * buffer, so they don't allocate any objects.
+ */
+final class LongCodec {
+
+	/**
+	 * The number of bytes needed to store a long.
+	 */
+	static final int LONG_LENGTH = 8;
+
+	private static final ThreadLocal<byte[]> BUFFER = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[LONG_LENGTH];
+		}
+	};
+
+	private LongCodec() {
+	}
+
+	/**
+	 * Reads the long stored at the given position on the disk. Missing bytes
+	 * at the end of the disk are read as 0.
+	 */
+	static long read(IVirtualDisk disk, long pos) throws IOException {
+		byte[] buffer = BUFFER.get();
+		int bytesRead = disk.read(pos, buffer);
+		fillMissing(buffer, bytesRead);
+		return decode(buffer, 0);
+	}
+
+	/**
+	 * Writes the given long at the given position on the disk.
+	 */
+	static void write(IVirtualDisk disk, long pos, long value)
+			throws IOException {
+		byte[] buffer = BUFFER.get();
+		encode(value, buffer, 0);
+		disk.write(pos, buffer);
+	}
+
+	/**
+	 * Sets the bytes of the buffer which were not filled by a read to 0.
+	 */
+	static void fillMissing(byte[] buffer, int bytesRead) {
+		if (bytesRead < buffer.length) {
+			Arrays.fill(buffer, Math.max(0, bytesRead), buffer.length, (byte) 0);
+		}
+	}
+
+	static long decode(byte[] b, int offset) {
+		long value = 0;
+		for (int i = 0; i < LONG_LENGTH; i++) {
+			value = (value << 8) | (b[offset + i] & 0xFF);
+		}
+		return value;
+	}
+
+	static void encode(long value, byte[] b, int offset) {
+		long remaining = value;
+		for (int i = LONG_LENGTH - 1; i >= 0; i--) {
+			b[offset + i] = (byte) remaining;
+			remaining >>>= 8;
+		}
+	}
+
+}
@@ -0,0 +1,313 @@
+package ch.se.inf.ethz.jcd.batman.vdisk.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDiskStorage;
+
+/**
+ * Implementation of {@link IVirtualDiskStorage} which maps the host file into
+ * memory.
+ * 
+ * The file is mapped as a list of segments of a fixed size, because a single
+ * {@link MappedByteBuffer} can't be bigger than 2 GiB. Only the last segment
+ * may be smaller than the segment size. The file is grown by whole segments,
+ * so the existing segments stay mapped and only the new ones are added. A
+ * mapping is only released by the garbage collector, therefore the file is
+ * never shrunk, not even when the storage is closed: readers may still access
+ * the pages of an old segment, which would fail if the file was truncated
+ * underneath them. A smaller length only moves the end of the storage.
+ * 
+ * The end of the storage is kept in a trailer in the last bytes of the file,
+ * behind the data. A storage opened on the file later on reads its length from
+ * there, {@link FileChannelStorage} trims the file to it.
+ * 
+ * Reads and writes are plain memory accesses and don't need a system call.
+ * Transfers from and to other channels read into and write from the mapped
+ * segments directly. A transfer from a channel maps the file one segment
+ * ahead of the data and moves the end of the storage only behind the bytes
+ * which have arrived.
+ */
+public final class MappedStorage implements IVirtualDiskStorage {
+
+	/**
+	 * Opens the given host file as mapped storage. The file is created if it
+	 * does not exist yet.
+	 * 
+	 * @param file
+	 *            the host file to open
+	 * @param segmentSize
+	 *            the size in bytes of a single mapped segment
+	 * @return the opened storage
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public static IVirtualDiskStorage open(File file, int segmentSize)
+			throws IOException {
+		if (segmentSize <= 0) {
+			throw new IllegalArgumentException(
+					"Segment size has to be positive");
+		}
+		MappedStorage storage = new MappedStorage(new RandomAccessFile(file,
+				"rw"), segmentSize);
+		storage.remap(storage.channel.size());
+		storage.setLength(readLength(storage.channel));
+		return storage;
+	}
+
+	/**
+	 * Returns the length of the storage in the given host file. This is the
+	 * length written to the trailer by a mapped storage or the size of the
+	 * file if it has no trailer.
+	 * 
+	 * @param channel
+	 *            the channel of the host file
+	 * @return the length of the storage
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	static long readLength(FileChannel channel) throws IOException {
+		long fileLength = channel.size();
+		if (fileLength >= TRAILER_SIZE) {
+			ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+			channel.read(trailer, fileLength - TRAILER_SIZE);
+			trailer.flip();
+			if (trailer.remaining() == TRAILER_SIZE) {
+				long length = trailer.getLong();
+				if (trailer.getLong() == TRAILER_MAGIC && length >= 0
+						&& length <= fileLength - TRAILER_SIZE) {
+					return length;
+				}
+			}
+		}
+		return fileLength;
+	}
+
+	private static final MappedByteBuffer[] NO_SEGMENTS = new MappedByteBuffer[0];
+	/**
+	 * Size of the trailer, which consists of the length of the storage
+	 * followed by {@link #TRAILER_MAGIC}.
+	 */
+	private static final int TRAILER_SIZE = 16;
+	private static final long TRAILER_MAGIC = 0x4241544D41504C4EL;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final int segmentSize;
+	private volatile MappedByteBuffer[] segments = NO_SEGMENTS;
+	/**
+	 * The length of the mapped part of the file, which is the length of the
+	 * file. It leaves room for the trailer behind the end of the storage.
+	 */
+	private volatile long mappedLength;
+	private volatile long length;
+
+	private MappedStorage(RandomAccessFile file, int segmentSize) {
+		this.file = file;
+		this.channel = file.getChannel();
+		this.segmentSize = segmentSize;
+	}
+
+	private void remap(long newLength) throws IOException {
+		MappedByteBuffer[] oldSegments = segments;
+		int segmentCount = (int) ((newLength + segmentSize - 1) / segmentSize);
+		MappedByteBuffer[] newSegments = new MappedByteBuffer[segmentCount];
+		for (int i = 0; i < segmentCount; i++) {
+			long segmentStart = (long) i * segmentSize;
+			long mappedSize = Math.min(segmentSize, newLength - segmentStart);
+			if (i < oldSegments.length
+					&& oldSegments[i].capacity() == mappedSize) {
+				// Segment is not affected by the length change
+				newSegments[i] = oldSegments[i];
+			} else {
+				newSegments[i] = channel.map(MapMode.READ_WRITE, segmentStart,
+						mappedSize);
+			}
+		}
+		segments = newSegments;
+		mappedLength = newLength;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized void setLength(long newLength) throws IOException {
+		ensureMapped(newLength);
+		// The segments are set before the length, so a reader which reads the
+		// length first always finds it inside the segments
+		length = newLength;
+		ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+		trailer.putLong(newLength).putLong(TRAILER_MAGIC).flip();
+		put(segments, mappedLength - TRAILER_SIZE, trailer);
+	}
+
+	private synchronized void ensureLength(long minLength) throws IOException {
+		if (minLength > length) {
+			setLength(minLength);
+		}
+	}
+
+	/**
+	 * Makes sure the file is mapped up to the given length and the trailer
+	 * behind it without moving the end of the storage. The file is grown to
+	 * the next segment border.
+	 * 
+	 * @return the segments which contain the given length
+	 */
+	private synchronized MappedByteBuffer[] ensureMapped(long minLength)
+			throws IOException {
+		if (minLength + TRAILER_SIZE > mappedLength) {
+			long newLength = (minLength + TRAILER_SIZE + segmentSize - 1)
+					/ segmentSize * segmentSize;
+			file.setLength(newLength);
+			remap(newLength);
+		}
+		return segments;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int read(long pos, ByteBuffer dst) throws IOException {
+		long available = length - pos;
+		MappedByteBuffer[] currentSegments = segments;
+		if (available <= 0) {
+			return -1;
+		}
+		int readLength = (int) Math.min(dst.remaining(), available);
+		int bytesRead = 0;
+		while (bytesRead < readLength) {
+			ByteBuffer segment = getSegment(currentSegments, pos + bytesRead,
+					readLength - bytesRead);
+			bytesRead += segment.remaining();
+			dst.put(segment);
+		}
+		return bytesRead;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void write(long pos, ByteBuffer src) throws IOException {
+		ensureLength(pos + src.remaining());
+		put(segments, pos, src);
+	}
+
+	/**
+	 * Writes the remaining bytes of the buffer to the given segments, starting
+	 * at the given position.
+	 */
+	private void put(MappedByteBuffer[] currentSegments, long pos,
+			ByteBuffer src) {
+		int writeLength = src.remaining();
+		int bytesWritten = 0;
+		int srcLimit = src.limit();
+		while (bytesWritten < writeLength) {
+			ByteBuffer segment = getSegment(currentSegments, pos
+					+ bytesWritten, writeLength - bytesWritten);
+			int chunkLength = segment.remaining();
+			src.limit(src.position() + chunkLength);
+			segment.put(src);
+			src.limit(srcLimit);
+			bytesWritten += chunkLength;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long transferFrom(ReadableByteChannel src, long pos, long count)
+			throws IOException {
+		long transferred = 0;
+		while (transferred < count) {
+			// The file is grown by one segment at a time, the count is only an
+			// upper bound of the data the channel delivers
+			long current = pos + transferred;
+			int chunkLength = (int) Math.min(count - transferred, segmentSize
+					- current % segmentSize);
+			ByteBuffer segment = getSegment(
+					ensureMapped(current + chunkLength), current, chunkLength);
+			int read = src.read(segment);
+			if (read <= 0) {
+				break;
+			}
+			transferred += read;
+			ensureLength(pos + transferred);
+		}
+		return transferred;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long transferTo(long pos, long count, WritableByteChannel target)
+			throws IOException {
+		long end = Math.min(pos + count, length);
+		MappedByteBuffer[] currentSegments = segments;
+		long transferred = 0;
+		while (pos + transferred < end) {
+			ByteBuffer segment = getSegment(currentSegments, pos + transferred,
+					(int) Math.min(Integer.MAX_VALUE, end - pos - transferred));
+			int written = target.write(segment);
+			if (written <= 0) {
+				break;
+			}
+			transferred += written;
+		}
+		return transferred;
+	}
+
+	/**
+	 * Returns a view of the segment containing the given position. The view
+	 * starts at the position and contains at most maxLength bytes.
+	 */
+	private ByteBuffer getSegment(MappedByteBuffer[] currentSegments,
+			long pos, int maxLength) {
+		int index = (int) (pos / segmentSize);
+		int offset = (int) (pos % segmentSize);
+		ByteBuffer segment = currentSegments[index].duplicate();
+		segment.position(offset);
+		segment.limit(offset + Math.min(maxLength, segment.remaining()));
+		return segment;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void flush() throws IOException {
+		for (MappedByteBuffer segment : segments) {
+			segment.force();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		segments = NO_SEGMENTS;
+		file.close();
+	}
+
+}
@@ -0,0 +1,871 @@
+package ch.se.inf.ethz.jcd.batman.vdisk.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import ch.se.inf.ethz.jcd.batman.vdisk.INameIndex;
+import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDirectory;
+import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDisk;
+import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDiskSpace;
+import ch.se.inf.ethz.jcd.batman.vdisk.VirtualDiskEntryInfo;
+import ch.se.inf.ethz.jcd.batman.vdisk.VirtualDiskException;
+
+/**
+ * Implementation of {@link INameIndex}.
+ * 
+ * The index stores a record for every entry which is a member of a directory
+ * in its own {@link IVirtualDiskSpace}. The structure of the data is as
+ * follows:
+ * 
+ * 0x00 8 End of the records 0x08 8 Number of removed records 0x10 n Records
+ * 
+ * Each record has the following structure:
+ * 
+ * 0x00 8 Offset position of the entry (0 if the record is removed) 0x08 8
+ * Offset position of the parent directory 0x10 1 Entry type (1 directory, 2
+ * file) 0x11 8 Time stamp 0x19 8 Size of the file (0 for directories) 0x21 4
+ * Length of the name 0x25 n Name
+ * 
+ * A record is appended when an entry is added to a directory or renamed and
+ * marked as removed when the entry is removed from its directory. The space
+ * grows geometrically. Once most of its records are removed, the remaining
+ * records are written to a new space. The position of the index in the
+ * superblock is switched to the new space with a single write before the old
+ * space is freed, so the disk always contains a complete index.
+ * 
+ * When the index is loaded, the records are read in chunks. The inverted index
+ * of the trigrams of the names is built in memory by the first search for a
+ * name. The posting list of a trigram is a sorted array of the entry
+ * positions, so it needs 8 byte per entry and posting lists are intersected by
+ * merging. A search only checks the names which contain all trigrams of the
+ * term, or of the literal parts of a pattern. The trigrams are built from the
+ * names converted to lower case character by character, so they can be used
+ * for case sensitive and case insensitive searches. If the names contain more
+ * than {@link #MAX_TRIGRAM_COUNT} trigrams, no posting lists are kept and a
+ * search checks all names.
+ * 
+ * The time stamps and sizes are updated in place whenever they change. Besides
+ * the trigrams, the records are indexed by time stamp in a sorted map and by
+ * size in buckets of powers of two, so entries can be searched by their meta
+ * data without reading their headers.
+ */
+final class NameIndex implements INameIndex {
+
+	/**
+	 * Creates the index of all entries below the given root directory.
+	 * 
+	 * @param disk
+	 *            the disk on which the index is stored
+	 * @param root
+	 *            the root directory of the disk
+	 * @return the created index
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	static NameIndex create(VirtualDisk disk, IVirtualDirectory root)
+			throws IOException {
+		NameIndex index = new NameIndex(disk, root.getPosition());
+		LinkedList<IVirtualDirectory> directories = new LinkedList<IVirtualDirectory>();
+		directories.add(root);
+		while (!directories.isEmpty()) {
+			IVirtualDirectory directory = directories.removeFirst();
+			for (VirtualDiskEntryInfo member : directory.listMembers()) {
+				index.addRecord(new Record(member.getPosition(), directory
+						.getPosition(), member.isDirectory(), member.getName(),
+						member.getTimestamp(), member.getSize()));
+				if (member.isDirectory()) {
+					directories.add(VirtualDirectory.load(disk,
+							member.getPosition()));
+				}
+			}
+		}
+		index.space = index.writeRecords();
+		return index;
+	}
+
+	/**
+	 * Loads the index stored at the given position.
+	 * 
+	 * @param disk
+	 *            the disk on which the index is stored
+	 * @param position
+	 *            the offset position of the index
+	 * @param rootPosition
+	 *            the offset position of the root directory of the disk
+	 * @return the loaded index
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	static NameIndex load(VirtualDisk disk, long position, long rootPosition)
+			throws IOException {
+		NameIndex index = new NameIndex(disk, rootPosition);
+		index.space = VirtualDiskSpace.load(disk, position);
+		index.loadRecords();
+		return index;
+	}
+
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+
+	private static final int END_POS = 0;
+	private static final int REMOVED_COUNT_POS = 8;
+	private static final int RECORDS_POS = 16;
+
+	private static final int ENTRY_OFFSET = 0;
+	private static final int PARENT_OFFSET = 8;
+	private static final int TYPE_OFFSET = 16;
+	private static final int TIMESTAMP_OFFSET = 17;
+	private static final int SIZE_OFFSET = 25;
+	private static final int NAME_LENGTH_OFFSET = 33;
+	private static final int NAME_OFFSET = 37;
+
+	private static final byte DIRECTORY_ENTRY = 1;
+	private static final byte FILE_ENTRY = 2;
+
+	/**
+	 * Number of removed records from which on the records are rewritten, if
+	 * there are more removed than indexed records.
+	 */
+	private static final int MIN_REMOVED_RECORDS = 64;
+
+	private static final int TRIGRAM_LENGTH = 3;
+
+	/**
+	 * Maximum number of trigrams of all names for which posting lists are
+	 * kept in memory, about 32 MiB of positions.
+	 */
+	private static final long MAX_TRIGRAM_COUNT = 4 * 1024 * 1024;
+
+	/**
+	 * Size of the buffer used to read and write the records.
+	 */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Number of size buckets, bucket n contains the files with a size of at
+	 * least 2^(n-1) and less than 2^n bytes, bucket 0 the empty files.
+	 */
+	private static final int SIZE_BUCKETS = 64;
+
+	/**
+	 * Indexed name of an entry.
+	 */
+	private static final class Record {
+		private final long position;
+		private final long parent;
+		private final boolean directory;
+		private final String name;
+		private final String foldedName;
+		private long timestamp;
+		private long size;
+		private long offset;
+
+		private Record(long position, long parent, boolean directory,
+				String name, long timestamp, long size) {
+			this.position = position;
+			this.parent = parent;
+			this.directory = directory;
+			this.name = name;
+			this.foldedName = fold(name);
+			this.timestamp = timestamp;
+			this.size = size;
+		}
+
+		private VirtualDiskEntryInfo toInfo() {
+			return new VirtualDiskEntryInfo(name, directory, size, timestamp,
+					position);
+		}
+
+		private byte[] encode() {
+			byte[] encodedName = name.getBytes(CHARSET);
+			ByteBuffer record = ByteBuffer.allocate(NAME_OFFSET
+					+ encodedName.length);
+			record.putLong(ENTRY_OFFSET, position);
+			record.putLong(PARENT_OFFSET, parent);
+			record.put(TYPE_OFFSET, directory ? DIRECTORY_ENTRY : FILE_ENTRY);
+			record.putLong(TIMESTAMP_OFFSET, timestamp);
+			record.putLong(SIZE_OFFSET, size);
+			record.putInt(NAME_LENGTH_OFFSET, encodedName.length);
+			record.position(NAME_OFFSET);
+			record.put(encodedName);
+			return record.array();
+		}
+	}
+
+	/**
+	 * Sorted list of the positions of the entries whose names contain a
+	 * trigram. While the index is built, positions are appended unsorted and
+	 * the list is sorted before it is used the first time.
+	 */
+	private static final class PostingList {
+		private long[] positions = new long[2];
+		private int size;
+		private boolean sorted = true;
+
+		private void append(long position) {
+			if (size == positions.length) {
+				positions = Arrays.copyOf(positions, size * 2);
+			}
+			if (size > 0 && positions[size - 1] >= position) {
+				sorted = false;
+			}
+			positions[size++] = position;
+		}
+
+		private void add(long position) {
+			sort();
+			int i = Arrays.binarySearch(positions, 0, size, position);
+			if (i < 0) {
+				i = -(i + 1);
+				if (size == positions.length) {
+					positions = Arrays.copyOf(positions, size * 2);
+				}
+				System.arraycopy(positions, i, positions, i + 1, size - i);
+				positions[i] = position;
+				size++;
+			}
+		}
+
+		private void remove(long position) {
+			sort();
+			int i = Arrays.binarySearch(positions, 0, size, position);
+			if (i >= 0) {
+				System.arraycopy(positions, i + 1, positions, i, size - i - 1);
+				size--;
+				if (size > 0 && size * 4 < positions.length) {
+					positions = Arrays.copyOf(positions, size * 2);
+				}
+			}
+		}
+
+		/**
+		 * Sorts the appended positions and removes duplicates.
+		 */
+		private void sort() {
+			if (!sorted) {
+				Arrays.sort(positions, 0, size);
+				int newSize = 0;
+				for (int i = 0; i < size; i++) {
+					if (newSize == 0 || positions[newSize - 1] != positions[i]) {
+						positions[newSize++] = positions[i];
+					}
+				}
+				size = newSize;
+				sorted = true;
+			}
+		}
+	}
+
+	/**
+	 * Converts every character of the given string to lower case. In contrast
+	 * to {@link String#toLowerCase()} the length of the string never changes.
+	 */
+	static String fold(String string) {
+		char[] chars = string.toCharArray();
+		for (int i = 0; i < chars.length; i++) {
+			chars[i] = Character.toLowerCase(chars[i]);
+		}
+		return new String(chars);
+	}
+
+	private static int getSizeBucket(long size) {
+		return Math.min(SIZE_BUCKETS - Long.numberOfLeadingZeros(size),
+				SIZE_BUCKETS - 1);
+	}
+
+	private static long getTrigram(String string, int index) {
+		return ((long) string.charAt(index) << 32)
+				| ((long) string.charAt(index + 1) << 16)
+				| string.charAt(index + 2);
+	}
+
+	private final VirtualDisk disk;
+	private IVirtualDiskSpace space;
+	private final long rootPosition;
+	private final Map<Long, Record> records = new HashMap<Long, Record>();
+	private final Map<Long, PostingList> trigrams = new HashMap<Long, PostingList>();
+	/**
+	 * True if the posting lists contain the trigrams of all records.
+	 */
+	private boolean trigramsBuilt;
+	/**
+	 * The number of trigrams of the names of all records.
+	 */
+	private long trigramCount;
+	private final NavigableMap<Long, Set<Long>> timestamps = new TreeMap<Long, Set<Long>>();
+	private final List<Set<Long>> sizes = new ArrayList<Set<Long>>(
+			SIZE_BUCKETS);
+	private long end = RECORDS_POS;
+	private long removedCount;
+
+	private NameIndex(VirtualDisk disk, long rootPosition) {
+		this.disk = disk;
+		this.rootPosition = rootPosition;
+		for (int i = 0; i < SIZE_BUCKETS; i++) {
+			sizes.add(new HashSet<Long>());
+		}
+	}
+
+	/**
+	 * Returns the offset position of the index on the disk.
+	 * 
+	 * @return the offset position of the index
+	 */
+	long getPosition() {
+		return space.getVirtualDiskPosition();
+	}
+
+	/**
+	 * Adds an entry to the index, after it has been added to a directory. If
+	 * the entry is already indexed, e.g. because it has been moved, the
+	 * record of the entry is replaced.
+	 * 
+	 * @param position
+	 *            the offset position of the entry
+	 * @param parent
+	 *            the offset position of the directory of the entry
+	 * @param directory
+	 *            true if the entry is a directory, false if it is a file
+	 * @param name
+	 *            the name of the entry
+	 * @param timestamp
+	 *            the time stamp of the entry
+	 * @param size
+	 *            the size of the file, 0 for a directory
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	synchronized void add(long position, long parent, boolean directory,
+			String name, long timestamp, long size) throws IOException {
+		if (records.containsKey(position)) {
+			remove(position);
+		}
+		Record record = new Record(position, parent, directory, name,
+				timestamp, size);
+		byte[] encodedRecord = record.encode();
+		if (end + encodedRecord.length > space.getSize()) {
+			space.changeSize(Math.max(end + encodedRecord.length,
+					space.getSize() * 2));
+		}
+		space.write(end, encodedRecord);
+		record.offset = end;
+		end += encodedRecord.length;
+		space.writeLong(END_POS, end);
+		addRecord(record);
+	}
+
+	/**
+	 * Updates the name of an entry after it has been renamed.
+	 * 
+	 * @param position
+	 *            the offset position of the entry
+	 * @param name
+	 *            the new name of the entry
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	synchronized void rename(long position, String name) throws IOException {
+		Record record = records.get(position);
+		if (record != null) {
+			add(position, record.parent, record.directory, name,
+					record.timestamp, record.size);
+		}
+	}
+
+	/**
+	 * Updates the time stamp of an entry.
+	 * 
+	 * @param position
+	 *            the offset position of the entry
+	 * @param timestamp
+	 *            the new time stamp of the entry
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	synchronized void setTimestamp(long position, long timestamp)
+			throws IOException {
+		Record record = records.get(position);
+		if (record != null && record.timestamp != timestamp) {
+			removeMetadata(record);
+			record.timestamp = timestamp;
+			addMetadata(record);
+			space.writeLong(record.offset + TIMESTAMP_OFFSET, timestamp);
+		}
+	}
+
+	/**
+	 * Updates the size of a file.
+	 * 
+	 * @param position
+	 *            the offset position of the file
+	 * @param size
+	 *            the new size of the file
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	synchronized void setSize(long position, long size) throws IOException {
+		Record record = records.get(position);
+		if (record != null && record.size != size) {
+			removeMetadata(record);
+			record.size = size;
+			addMetadata(record);
+			space.writeLong(record.offset + SIZE_OFFSET, size);
+		}
+	}
+
+	/**
+	 * Removes an entry from the index, after it has been removed from its
+	 * directory.
+	 * 
+	 * @param position
+	 *            the offset position of the entry
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	synchronized void remove(long position) throws IOException {
+		Record record = records.remove(position);
+		if (record != null) {
+			trigramCount -= getTrigramCount(record);
+			if (trigramsBuilt) {
+				removeTrigrams(record);
+			}
+			removeMetadata(record);
+			space.writeLong(record.offset + ENTRY_OFFSET, 0);
+			removedCount++;
+			if (removedCount >= MIN_REMOVED_RECORDS
+					&& removedCount > records.size()) {
+				rewrite();
+			} else {
+				space.writeLong(REMOVED_COUNT_POS, removedCount);
+			}
+		}
+	}
+
+	/**
+	 * Frees the space used by the index.
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	synchronized void free() throws IOException {
+		space.free();
+		records.clear();
+		trigrams.clear();
+		trigramsBuilt = false;
+		trigramCount = 0;
+		timestamps.clear();
+		for (Set<Long> bucket : sizes) {
+			bucket.clear();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized List<String> search(String term,
+			boolean caseSensitive, boolean files, boolean directories)
+			throws IOException {
+		String foldedTerm = fold(term);
+		List<String> paths = new ArrayList<String>();
+		for (Record record : getCandidates(Collections
+				.singletonList(foldedTerm))) {
+			if (isSearched(record, files, directories)
+					&& (caseSensitive ? record.name.contains(term)
+							: record.foldedName.contains(foldedTerm))) {
+				addPath(paths, record);
+			}
+		}
+		Collections.sort(paths);
+		return paths;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized List<String> search(Pattern pattern, boolean files,
+			boolean directories) throws IOException {
+		List<String> paths = new ArrayList<String>();
+		for (Record record : getCandidates(PatternLiterals
+				.getRequiredLiterals(pattern))) {
+			if (isSearched(record, files, directories)
+					&& pattern.matcher(record.name).find()) {
+				addPath(paths, record);
+			}
+		}
+		Collections.sort(paths);
+		return paths;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized SortedMap<String, VirtualDiskEntryInfo> search(
+			long minTimestamp, long maxTimestamp, long minSize, long maxSize,
+			boolean files, boolean directories) throws IOException {
+		boolean sizeLimited = minSize > 0 || maxSize < Long.MAX_VALUE;
+		Collection<Long> candidates;
+		if (minTimestamp > Long.MIN_VALUE || maxTimestamp < Long.MAX_VALUE
+				|| !sizeLimited) {
+			candidates = new ArrayList<Long>();
+			if (minTimestamp <= maxTimestamp) {
+				for (Set<Long> positions : timestamps.subMap(minTimestamp,
+						true, maxTimestamp, true).values()) {
+					candidates.addAll(positions);
+				}
+			}
+		} else {
+			candidates = new ArrayList<Long>();
+			for (int i = getSizeBucket(Math.max(minSize, 0)); minSize <= maxSize
+					&& i <= getSizeBucket(maxSize); i++) {
+				candidates.addAll(sizes.get(i));
+			}
+		}
+		SortedMap<String, VirtualDiskEntryInfo> entries = new TreeMap<String, VirtualDiskEntryInfo>();
+		for (Long position : candidates) {
+			Record record = records.get(position);
+			if (isSearched(record, files, directories)
+					&& record.timestamp >= minTimestamp
+					&& record.timestamp <= maxTimestamp
+					&& (!sizeLimited || (!record.directory
+							&& record.size >= minSize && record.size <= maxSize))) {
+				String path = getPath(record);
+				if (path != null) {
+					entries.put(path, record.toInfo());
+				}
+			}
+		}
+		return entries;
+	}
+
+	private static boolean isSearched(Record record, boolean files,
+			boolean directories) {
+		return record.directory ? directories : files;
+	}
+
+	private void addPath(List<String> paths, Record record) {
+		String path = getPath(record);
+		if (path != null) {
+			paths.add(path);
+		}
+	}
+
+	/**
+	 * Returns the records whose folded names contain all trigrams of the given
+	 * folded literals.
+	 */
+	private Collection<Record> getCandidates(List<String> literals) {
+		List<PostingList> postings = new ArrayList<PostingList>();
+		for (String literal : literals) {
+			if (literal.length() >= TRIGRAM_LENGTH && !buildTrigrams()) {
+				// Too many names to keep their trigrams
+				return records.values();
+			}
+			for (int i = 0; i + TRIGRAM_LENGTH <= literal.length(); i++) {
+				PostingList posting = trigrams.get(getTrigram(literal, i));
+				if (posting == null) {
+					return Collections.emptyList();
+				}
+				posting.sort();
+				postings.add(posting);
+			}
+		}
+		if (postings.isEmpty()) {
+			return records.values();
+		}
+		Collections.sort(postings, new Comparator<PostingList>() {
+			@Override
+			public int compare(PostingList o1, PostingList o2) {
+				return Integer.compare(o1.size, o2.size);
+			}
+		});
+		// intersect the sorted posting lists, starting with the shortest
+		long[] positions = Arrays.copyOf(postings.get(0).positions,
+				postings.get(0).size);
+		int size = positions.length;
+		for (int i = 1; i < postings.size() && size > 0; i++) {
+			PostingList posting = postings.get(i);
+			int newSize = 0;
+			int j = 0;
+			for (int k = 0; k < size && j < posting.size; k++) {
+				while (j < posting.size && posting.positions[j] < positions[k]) {
+					j++;
+				}
+				if (j < posting.size && posting.positions[j] == positions[k]) {
+					positions[newSize++] = positions[k];
+				}
+			}
+			size = newSize;
+		}
+		List<Record> candidates = new ArrayList<Record>(size);
+		for (int i = 0; i < size; i++) {
+			candidates.add(records.get(positions[i]));
+		}
+		return candidates;
+	}
+
+	/**
+	 * Returns the absolute path of the given record, which is built from the
+	 * records of its parent directories. Null is returned if a parent is not
+	 * indexed, so the entry can't be reached from the root directory.
+	 */
+	private String getPath(Record record) {
+		LinkedList<String> names = new LinkedList<String>();
+		Record current = record;
+		while (current != null && names.size() <= records.size()) {
+			names.addFirst(current.name);
+			if (current.parent == rootPosition) {
+				StringBuilder path = new StringBuilder();
+				for (String name : names) {
+					path.append(IVirtualDisk.PATH_SEPARATOR).append(name);
+				}
+				return path.toString();
+			}
+			current = records.get(current.parent);
+		}
+		return null;
+	}
+
+	/**
+	 * Builds the posting lists of the trigrams of all records if they are not
+	 * built yet. The positions are appended without keeping the lists sorted.
+	 * 
+	 * @return false if the names contain too many trigrams
+	 */
+	private boolean buildTrigrams() {
+		if (!trigramsBuilt && trigramCount <= MAX_TRIGRAM_COUNT) {
+			for (Record record : records.values()) {
+				addTrigrams(record, true);
+			}
+			trigramsBuilt = true;
+		}
+		return trigramsBuilt;
+	}
+
+	private static long getTrigramCount(Record record) {
+		return Math.max(0, record.foldedName.length() - TRIGRAM_LENGTH + 1);
+	}
+
+	/**
+	 * Adds the record to the in memory indexes. The posting lists are only
+	 * updated if they are built, they are dropped if the names contain too
+	 * many trigrams.
+	 */
+	private void addRecord(Record record) {
+		records.put(record.position, record);
+		addMetadata(record);
+		trigramCount += getTrigramCount(record);
+		if (trigramsBuilt) {
+			if (trigramCount > MAX_TRIGRAM_COUNT) {
+				trigrams.clear();
+				trigramsBuilt = false;
+			} else {
+				addTrigrams(record, false);
+			}
+		}
+	}
+
+	private void addTrigrams(Record record, boolean building) {
+		String name = record.foldedName;
+		for (int i = 0; i + TRIGRAM_LENGTH <= name.length(); i++) {
+			long trigram = getTrigram(name, i);
+			PostingList posting = trigrams.get(trigram);
+			if (posting == null) {
+				posting = new PostingList();
+				trigrams.put(trigram, posting);
+			}
+			if (building) {
+				posting.append(record.position);
+			} else {
+				posting.add(record.position);
+			}
+		}
+	}
+
+	private void removeTrigrams(Record record) {
+		String name = record.foldedName;
+		for (int i = 0; i + TRIGRAM_LENGTH <= name.length(); i++) {
+			long trigram = getTrigram(name, i);
+			PostingList posting = trigrams.get(trigram);
+			if (posting != null) {
+				posting.remove(record.position);
+				if (posting.size == 0) {
+					trigrams.remove(trigram);
+				}
+			}
+		}
+	}
+
+	private void addMetadata(Record record) {
+		Set<Long> positions = timestamps.get(record.timestamp);
+		if (positions == null) {
+			positions = new HashSet<Long>();
+			timestamps.put(record.timestamp, positions);
+		}
+		positions.add(record.position);
+		if (!record.directory) {
+			sizes.get(getSizeBucket(record.size)).add(record.position);
+		}
+	}
+
+	private void removeMetadata(Record record) {
+		Set<Long> positions = timestamps.get(record.timestamp);
+		if (positions != null) {
+			positions.remove(record.position);
+			if (positions.isEmpty()) {
+				timestamps.remove(record.timestamp);
+			}
+		}
+		if (!record.directory) {
+			sizes.get(getSizeBucket(record.size)).remove(record.position);
+		}
+	}
+
+	/**
+	 * Reads the records in chunks of {@link #BUFFER_SIZE} byte.
+	 */
+	private void loadRecords() throws IOException {
+		end = space.readLong(END_POS);
+		removedCount = space.readLong(REMOVED_COUNT_POS);
+		ByteBuffer data = ByteBuffer.allocate(BUFFER_SIZE);
+		data.limit(0);
+		long dataOffset = RECORDS_POS;
+		long offset = RECORDS_POS;
+		while (offset < end) {
+			int start = (int) (offset - dataOffset);
+			int recordLength = NAME_OFFSET;
+			if (start + NAME_OFFSET <= data.limit()) {
+				recordLength += data.getInt(start + NAME_LENGTH_OFFSET);
+			}
+			if (start + recordLength > data.limit()) {
+				// the record is not completely in the buffer
+				if (start == 0 && data.limit() > 0
+						&& recordLength <= data.capacity()) {
+					throw new VirtualDiskException("Corrupt name index");
+				}
+				if (recordLength > data.capacity()) {
+					data = ByteBuffer.allocate(recordLength);
+				}
+				dataOffset = offset;
+				data.clear();
+				data.limit((int) Math.min(data.capacity(), end - offset));
+				readFully(offset, data);
+				continue;
+			}
+			long position = data.getLong(start + ENTRY_OFFSET);
+			if (position != 0) {
+				Record record = new Record(position, data.getLong(start
+						+ PARENT_OFFSET),
+						data.get(start + TYPE_OFFSET) == DIRECTORY_ENTRY,
+						new String(data.array(), start + NAME_OFFSET,
+								recordLength - NAME_OFFSET, CHARSET),
+						data.getLong(start + TIMESTAMP_OFFSET), data.getLong(start
+								+ SIZE_OFFSET));
+				record.offset = offset;
+				addRecord(record);
+			}
+			offset += recordLength;
+		}
+	}
+
+	private void readFully(long offset, ByteBuffer data) throws IOException {
+		while (data.hasRemaining()) {
+			if (space.read(offset + data.position(), data) <= 0) {
+				throw new VirtualDiskException("Corrupt name index");
+			}
+		}
+	}
+
+	/**
+	 * Writes the records without the removed records to a new space and
+	 * switches the index to it. The old space is only freed after the disk
+	 * refers to the new one.
+	 */
+	private void rewrite() throws IOException {
+		IVirtualDiskSpace newSpace = writeRecords();
+		disk.setNameIndexPosition(newSpace.getVirtualDiskPosition());
+		IVirtualDiskSpace oldSpace = space;
+		space = newSpace;
+		oldSpace.free();
+	}
+
+	/**
+	 * Writes all records without the removed records to a new space, in
+	 * chunks of {@link #BUFFER_SIZE} byte. The offsets of the records are only
+	 * changed after all records have been written.
+	 */
+	private IVirtualDiskSpace writeRecords() throws IOException {
+		List<Record> writtenRecords = new ArrayList<Record>(records.values());
+		long[] offsets = new long[writtenRecords.size()];
+		long newEnd = RECORDS_POS;
+		for (int i = 0; i < offsets.length; i++) {
+			offsets[i] = newEnd;
+			newEnd += NAME_OFFSET
+					+ writtenRecords.get(i).name.getBytes(CHARSET).length;
+		}
+		IVirtualDiskSpace newSpace = VirtualDiskSpace.create(disk, newEnd);
+		try {
+			ByteBuffer data = ByteBuffer.allocate(BUFFER_SIZE);
+			data.putLong(END_POS, newEnd);
+			data.putLong(REMOVED_COUNT_POS, 0);
+			data.position(RECORDS_POS);
+			long dataOffset = 0;
+			for (Record record : writtenRecords) {
+				byte[] encodedRecord = record.encode();
+				if (encodedRecord.length > data.remaining()) {
+					dataOffset = writeRecords(newSpace, dataOffset, data);
+				}
+				if (encodedRecord.length > data.remaining()) {
+					// The record is larger than the buffer
+					newSpace.write(dataOffset, encodedRecord);
+					dataOffset += encodedRecord.length;
+				} else {
+					data.put(encodedRecord);
+				}
+			}
+			writeRecords(newSpace, dataOffset, data);
+		} catch (IOException e) {
+			newSpace.free();
+			throw e;
+		}
+		for (int i = 0; i < offsets.length; i++) {
+			writtenRecords.get(i).offset = offsets[i];
+		}
+		end = newEnd;
+		removedCount = 0;
+		return newSpace;
+	}
+
+	/**
+	 * Writes the records in the given buffer to the given offset of the space
+	 * and clears the buffer.
+	 * 
+	 * @return the offset behind the written records
+	 */
+	private static long writeRecords(IVirtualDiskSpace target, long offset,
+			ByteBuffer data) throws IOException {
+		data.flip();
+		int length = data.remaining();
+		target.write(offset, data);
+		data.clear();
+		return offset + length;
+	}
+
+}
@@ -0,0 +1,278 @@
+package ch.se.inf.ethz.jcd.batman.vdisk.impl;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size-bounded map from page index to page. If a page is added to a full
+ * cache another page is evicted as defined by the {@link EvictionPolicy}.
+ * 
+ * The cache is not thread safe, the user has to synchronize the accesses.
+ * 
+ * @param <T>
+ *            the type of the cached pages
+ */
+public abstract class PageCache<T> {
+
+	/**
+	 * Creates a page cache which uses the given eviction policy.
+	 * 
+	 * @param policy
+	 *            the policy used to select the page which is evicted
+	 * @param capacity
+	 *            the maximum number of pages in the cache
+	 * @return the created page cache
+	 */
+	public static <T> PageCache<T> create(EvictionPolicy policy, int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException(
+					"Page cache capacity has to be positive");
+		}
+		switch (policy) {
+		case LRU:
+			return new LruPageCache<T>(capacity);
+		case CLOCK:
+			return new ClockPageCache<T>(capacity);
+		default:
+			throw new IllegalArgumentException("Unsupported eviction policy "
+					+ policy);
+		}
+	}
+
+	private final int capacity;
+	private long evictionCount;
+
+	protected PageCache(int capacity) {
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Returns the page with the given index and marks it as accessed.
+	 * 
+	 * @param index
+	 *            the index of the page
+	 * @return the page or null if the page is not cached
+	 */
+	public abstract T get(long index);
+
+	/**
+	 * Adds the page with the given index to the cache. If the cache is full
+	 * another page is evicted.
+	 * 
+	 * @param index
+	 *            the index of the page
+	 * @param page
+	 *            the page
+	 */
+	public abstract void put(long index, T page);
+
+	/**
+	 * Removes the page with the given index from the cache.
+	 * 
+	 * @param index
+	 *            the index of the page
+	 */
+	public abstract void remove(long index);
+
+	/**
+	 * Removes all pages whose index is at least the given index.
+	 * 
+	 * @param firstIndex
+	 *            the index of the first page to remove
+	 */
+	public abstract void removeFrom(long firstIndex);
+
+	/**
+	 * Removes all pages from the cache.
+	 */
+	public abstract void clear();
+
+	/**
+	 * Returns the number of pages in the cache.
+	 * 
+	 * @return the number of pages in the cache
+	 */
+	public abstract int size();
+
+	/**
+	 * Returns the maximum number of pages the cache can hold.
+	 * 
+	 * @return the maximum number of pages
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Returns how many pages were evicted to make room for new pages.
+	 * 
+	 * @return the number of evicted pages
+	 */
+	public long getEvictionCount() {
+		return evictionCount;
+	}
+
+	protected void pageEvicted() {
+		evictionCount++;
+	}
+
+	/**
+	 * {@link PageCache} which evicts the least recently used page.
+	 */
+	private static final class LruPageCache<T> extends PageCache<T> {
+
+		private final LinkedHashMap<Long, T> pages;
+
+		private LruPageCache(int capacity) {
+			super(capacity);
+			pages = new LinkedHashMap<Long, T>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Long, T> eldest) {
+					if (size() > getCapacity()) {
+						pageEvicted();
+						return true;
+					}
+					return false;
+				}
+			};
+		}
+
+		@Override
+		public T get(long index) {
+			return pages.get(index);
+		}
+
+		@Override
+		public void put(long index, T page) {
+			pages.put(index, page);
+		}
+
+		@Override
+		public void remove(long index) {
+			pages.remove(index);
+		}
+
+		@Override
+		public void removeFrom(long firstIndex) {
+			for (Iterator<Long> it = pages.keySet().iterator(); it.hasNext();) {
+				if (it.next() >= firstIndex) {
+					it.remove();
+				}
+			}
+		}
+
+		@Override
+		public void clear() {
+			pages.clear();
+		}
+
+		@Override
+		public int size() {
+			return pages.size();
+		}
+	}
+
+	/**
+	 * {@link PageCache} which uses the CLOCK (second chance) algorithm.
+	 */
+	private static final class ClockPageCache<T> extends PageCache<T> {
+
+		private final Map<Long, Integer> slots = new HashMap<Long, Integer>();
+		private final long[] indices;
+		private final Object[] pages;
+		private final boolean[] referenced;
+		private final Deque<Integer> freeSlots = new ArrayDeque<Integer>();
+		private int hand;
+
+		private ClockPageCache(int capacity) {
+			super(capacity);
+			indices = new long[capacity];
+			pages = new Object[capacity];
+			referenced = new boolean[capacity];
+			for (int i = 0; i < capacity; i++) {
+				freeSlots.add(i);
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public T get(long index) {
+			Integer slot = slots.get(index);
+			if (slot == null) {
+				return null;
+			}
+			referenced[slot] = true;
+			return (T) pages[slot];
+		}
+
+		@Override
+		public void put(long index, T page) {
+			Integer slot = slots.get(index);
+			if (slot == null) {
+				slot = freeSlots.isEmpty() ? evict() : freeSlots.poll();
+				slots.put(index, slot);
+				indices[slot] = index;
+			}
+			pages[slot] = page;
+			referenced[slot] = true;
+		}
+
+		private int evict() {
+			while (referenced[hand]) {
+				referenced[hand] = false;
+				hand = (hand + 1) % pages.length;
+			}
+			int victim = hand;
+			hand = (hand + 1) % pages.length;
+			slots.remove(indices[victim]);
+			pages[victim] = null;
+			pageEvicted();
+			return victim;
+		}
+
+		@Override
+		public void remove(long index) {
+			Integer slot = slots.remove(index);
+			if (slot != null) {
+				freeSlot(slot);
+			}
+		}
+
+		private void freeSlot(int slot) {
+			pages[slot] = null;
+			referenced[slot] = false;
+			freeSlots.add(slot);
+		}
+
+		@Override
+		public void removeFrom(long firstIndex) {
+			for (Iterator<Map.Entry<Long, Integer>> it = slots.entrySet()
+					.iterator(); it.hasNext();) {
+				Map.Entry<Long, Integer> entry = it.next();
+				if (entry.getKey() >= firstIndex) {
+					freeSlot(entry.getValue());
+					it.remove();
+				}
+			}
+		}
+
+		@Override
+		public void clear() {
+			for (Integer slot : slots.values()) {
+				freeSlot(slot);
+			}
+			slots.clear();
+		}
+
+		@Override
+		public int size() {
+			return slots.size();
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package ch.se.inf.ethz.jcd.batman.vdisk.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Extracts the literal parts of a regular expression, which every match of
+ * the expression has to contain. The extraction is conservative: parts which
+ * are inside groups, optional or not understood are ignored and if the
+ * expression has an alternative at the top level, no literal is returned.
+ */
+final class PatternLiterals {
+
+	private static final String SINGLE_CHARACTER_ESCAPES = "dDwWsShHvVbBAzZGR";
+
+	/**
+	 * Returns the literals of the given pattern, converted to lower case
+	 * character by character.
+	 * 
+	 * @param pattern
+	 *            the pattern to analyze
+	 * @return the literals every match has to contain, an empty list if the
+	 *         pattern has no such literal
+	 */
+	static List<String> getRequiredLiterals(Pattern pattern) {
+		int flags = pattern.flags();
+		String regex = pattern.pattern();
+		if ((flags & Pattern.COMMENTS) != 0) {
+			return Collections.emptyList();
+		}
+		if ((flags & Pattern.LITERAL) != 0) {
+			return Collections.singletonList(NameIndex.fold(regex));
+		}
+		List<String> literals = new ArrayList<String>();
+		StringBuilder literal = new StringBuilder();
+		int depth = 0;
+		for (int i = 0; i < regex.length(); i++) {
+			char c = regex.charAt(i);
+			if (depth > 0 && c != '(' && c != ')' && c != '\\' && c != '[') {
+				continue;
+			}
+			switch (c) {
+			case '\\':
+				if (i + 1 >= regex.length()) {
+					return Collections.emptyList();
+				}
+				char escaped = regex.charAt(++i);
+				if (escaped == 'Q') {
+					int quoteEnd = regex.indexOf("\\E", i + 1);
+					String quoted = regex.substring(i + 1,
+							(quoteEnd < 0) ? regex.length() : quoteEnd);
+					if (depth == 0) {
+						literal.append(quoted);
+					}
+					i = (quoteEnd < 0) ? regex.length() : quoteEnd + 1;
+				} else if (!Character.isLetterOrDigit(escaped)) {
+					if (depth == 0) {
+						literal.append(escaped);
+					}
+				} else if (SINGLE_CHARACTER_ESCAPES.indexOf(escaped) >= 0) {
+					addLiteral(literals, literal);
+				} else {
+					// Escapes with arguments are not analyzed
+					return Collections.emptyList();
+				}
+				break;
+			case '[':
+				addLiteral(literals, literal);
+				i = skipCharacterClass(regex, i);
+				break;
+			case '(':
+				addLiteral(literals, literal);
+				depth++;
+				break;
+			case ')':
+				depth--;
+				break;
+			case '|':
+				return Collections.emptyList();
+			case '?':
+			case '*':
+			case '{':
+				// The preceding character is optional
+				if (literal.length() > 0) {
+					literal.setLength(literal.length() - 1);
+				}
+				addLiteral(literals, literal);
+				if (c == '{') {
+					int quantifierEnd = regex.indexOf('}', i);
+					i = (quantifierEnd < 0) ? regex.length() : quantifierEnd;
+				}
+				break;
+			case '+':
+			case '.':
+			case '^':
+			case '$':
+				addLiteral(literals, literal);
+				break;
+			default:
+				literal.append(c);
+			}
+		}
+		addLiteral(literals, literal);
+		if ((flags & (Pattern.CASE_INSENSITIVE | Pattern.CANON_EQ)) != 0
+				|| regex.contains("(?")) {
+			// Only ASCII characters are compared by lower case, other
+			// characters can match in a way which is not covered by folding
+			for (int i = literals.size() - 1; i >= 0; i--) {
+				if (!isAscii(literals.get(i))) {
+					literals.remove(i);
+				}
+			}
+		}
+		return literals;
+	}
+
+	private static void addLiteral(List<String> literals, StringBuilder literal) {
+		if (literal.length() > 0) {
+			literals.add(NameIndex.fold(literal.toString()));
+			literal.setLength(0);
+		}
+	}
+
+	/**
+	 * Returns the index of the closing bracket of the character class which
+	 * starts at the given index.
+	 */
+	private static int skipCharacterClass(String regex, int start) {
+		int i = start + 1;
+		if (i < regex.length() && regex.charAt(i) == '^') {
+			i++;
+		}
+		if (i < regex.length() && regex.charAt(i) == ']') {
+			i++;
+		}
+		int depth = 1;
+		for (; i < regex.length(); i++) {
+			char c = regex.charAt(i);
+			if (c == '\\') {
+				i++;
+			} else if (c == '[') {
+				depth++;
+			} else if (c == ']' && --depth == 0) {
+				return i;
+			}
+		}
+		return regex.length();
+	}
+
+	private static boolean isAscii(String string) {
+		for (int i = 0; i < string.length(); i++) {
+			if (string.charAt(i) > 0x7F) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private PatternLiterals() {
+	}
+
+}
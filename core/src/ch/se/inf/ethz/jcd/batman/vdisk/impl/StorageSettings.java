@@ -0,0 +1,163 @@
+package ch.se.inf.ethz.jcd.batman.vdisk.impl;
+
+import java.io.File;
+import java.io.IOException;
+
+import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDiskStorage;
+
+/**
+ * Wrapper for all available settings of the storage used by a
+ * {@link VirtualDisk}.
+ * 
+ */
+public class StorageSettings {
+	private static final int DEFAULT_SEGMENT_SIZE = 256 * 1024 * 1024; // 256 MiB
+	private static final long DEFAULT_CACHE_SIZE = 16 * 1024 * 1024; // 16 MiB
+	private static final long CACHE_SIZE_OF_TYPE = -1;
+	private static final int DEFAULT_WRITE_BACK_THRESHOLD = 4 * 1024 * 1024; // 4 MiB
+
+	private StorageType type;
+	private int segmentSize;
+	private long cacheSize;
+	private int cachePageSize;
+	private EvictionPolicy evictionPolicy;
+	private WriteMode writeMode;
+	private int writeBackThreshold;
+
+	public StorageSettings() {
+		type = StorageType.FILE_CHANNEL;
+		segmentSize = DEFAULT_SEGMENT_SIZE;
+		cacheSize = CACHE_SIZE_OF_TYPE;
+		cachePageSize = CachedStorage.MIN_PAGE_SIZE;
+		evictionPolicy = EvictionPolicy.LRU;
+		writeMode = WriteMode.WRITE_THROUGH;
+		writeBackThreshold = DEFAULT_WRITE_BACK_THRESHOLD;
+	}
+
+	public StorageType getType() {
+		return type;
+	}
+
+	public void setType(StorageType type) {
+		this.type = type;
+	}
+
+	/**
+	 * Returns the size in bytes of a single segment, if the storage type is
+	 * {@link StorageType#MEMORY_MAPPED}.
+	 * 
+	 * @return the segment size in bytes
+	 */
+	public int getSegmentSize() {
+		return segmentSize;
+	}
+
+	public void setSegmentSize(int segmentSize) {
+		this.segmentSize = segmentSize;
+	}
+
+	/**
+	 * Returns the memory budget in bytes of the page cache. A size of 0 means
+	 * that no page cache is used. Unless a size is set, a storage of type
+	 * {@link StorageType#FILE_CHANNEL} is cached and a storage of type
+	 * {@link StorageType#MEMORY_MAPPED} is not, because its pages are in
+	 * memory already.
+	 * 
+	 * @return the size of the page cache in bytes
+	 */
+	public long getCacheSize() {
+		if (cacheSize == CACHE_SIZE_OF_TYPE) {
+			return (type == StorageType.MEMORY_MAPPED) ? 0 : DEFAULT_CACHE_SIZE;
+		}
+		return cacheSize;
+	}
+
+	public void setCacheSize(long cacheSize) {
+		if (cacheSize < 0) {
+			throw new IllegalArgumentException(
+					"Cache size can't be negative");
+		}
+		this.cacheSize = cacheSize;
+	}
+
+	public int getCachePageSize() {
+		return cachePageSize;
+	}
+
+	public void setCachePageSize(int cachePageSize) {
+		this.cachePageSize = cachePageSize;
+	}
+
+	public EvictionPolicy getEvictionPolicy() {
+		return evictionPolicy;
+	}
+
+	public void setEvictionPolicy(EvictionPolicy evictionPolicy) {
+		this.evictionPolicy = evictionPolicy;
+	}
+
+	/**
+	 * Returns when the written data is passed on to the host file. The default
+	 * is {@link WriteMode#WRITE_THROUGH}, so the host file always contains the
+	 * written data. With {@link WriteMode#WRITE_BACK} the data only reaches
+	 * the host file when the disk is flushed or closed, or the threshold is
+	 * exceeded.
+	 * 
+	 * @return the write mode
+	 */
+	public WriteMode getWriteMode() {
+		return writeMode;
+	}
+
+	public void setWriteMode(WriteMode writeMode) {
+		this.writeMode = writeMode;
+	}
+
+	/**
+	 * Returns the number of buffered bytes after which the buffer is written
+	 * to the host file, if the write mode is {@link WriteMode#WRITE_BACK}.
+	 * 
+	 * @return the write back threshold in bytes
+	 */
+	public int getWriteBackThreshold() {
+		return writeBackThreshold;
+	}
+
+	public void setWriteBackThreshold(int writeBackThreshold) {
+		this.writeBackThreshold = writeBackThreshold;
+	}
+
+	/**
+	 * Opens the given host file as {@link IVirtualDiskStorage} as described by
+	 * the settings.
+	 * 
+	 * @param file
+	 *            the host file to open
+	 * @return the opened storage
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public IVirtualDiskStorage openStorage(File file) throws IOException {
+		IVirtualDiskStorage storage;
+		switch (type) {
+		case FILE_CHANNEL:
+			storage = FileChannelStorage.open(file);
+			break;
+		case MEMORY_MAPPED:
+			storage = MappedStorage.open(file, segmentSize);
+			break;
+		default:
+			throw new IllegalArgumentException("Unsupported storage type "
+					+ type);
+		}
+		if (writeMode == WriteMode.WRITE_BACK) {
+			storage = WriteBackStorage.wrap(storage, writeBackThreshold);
+		}
+		long effectiveCacheSize = getCacheSize();
+		if (effectiveCacheSize > 0) {
+			storage = CachedStorage.wrap(storage, cachePageSize,
+					effectiveCacheSize, evictionPolicy);
+		}
+		return storage;
+	}
+}
@@ -0,0 +1,26 @@
+package ch.se.inf.ethz.jcd.batman.vdisk.impl;
+
+import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDiskStorage;
+
+/**
+ * Represents the kinds of {@link IVirtualDiskStorage} a {@link VirtualDisk}
+ * can be stored on.
+ * 
+ * @see StorageSettings
+ */
+public enum StorageType {
+	/**
+	 * The host file is accessed with positional reads and writes through a
+	 * {@link java.nio.channels.FileChannel}.
+	 * 
+	 * @see FileChannelStorage
+	 */
+	FILE_CHANNEL,
+
+	/**
+	 * The host file is mapped into memory as a list of fixed size segments.
+	 * 
+	 * @see MappedStorage
+	 */
+	MEMORY_MAPPED;
+}
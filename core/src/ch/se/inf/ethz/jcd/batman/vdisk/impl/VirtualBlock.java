@@ -142,9 +142,7 @@ public abstract class VirtualBlock implements IVirtualBlock {
 
 	private static final long readLong(IVirtualDisk disk, long pos)
 			throws IOException {
-		byte[] longInBytes = new byte[LONG_LENGTH];
-		disk.read(pos, longInBytes);
-		return ByteBuffer.wrap(longInBytes).getLong();
+		return LongCodec.read(disk, pos);
 	}
 
 	protected static final long setAllocatedFlag(long l, boolean allocated) {
@@ -155,7 +153,7 @@ public abstract class VirtualBlock implements IVirtualBlock {
 		}
 	}
 
-	private static final long removeMetaFlagFromSize(long l) {
+	static final long removeMetaFlagFromSize(long l) {
 		return l & ~IN_USE_MASK;
 	}
 
@@ -223,14 +221,11 @@ public abstract class VirtualBlock implements IVirtualBlock {
 	}
 
 	protected long readLongRealPosition(long pos) throws IOException {
-		byte[] longInBytes = new byte[LONG_LENGTH];
-		disk.read(blockPosition + pos, longInBytes);
-		return ByteBuffer.wrap(longInBytes).getLong();
+		return LongCodec.read(disk, blockPosition + pos);
 	}
 
 	protected void writeRealPosition(long pos, long l) throws IOException {
-		disk.write(blockPosition + pos, ByteBuffer.allocate(8).putLong(l)
-				.array());
+		LongCodec.write(disk, blockPosition + pos, l);
 	}
 
 	protected void writeRealPosition(long pos, byte b) throws IOException {
@@ -246,6 +241,11 @@ public abstract class VirtualBlock implements IVirtualBlock {
 		disk.write(blockPosition + pos, b, offset, length);
 	}
 
+	protected void writeRealPosition(long pos, ByteBuffer src)
+			throws IOException {
+		disk.write(blockPosition + pos, src);
+	}
+
 	protected byte readRealPosition(long pos) throws IOException {
 		return disk.read(blockPosition + pos);
 	}
@@ -259,4 +259,9 @@ public abstract class VirtualBlock implements IVirtualBlock {
 		return disk.read(blockPosition + pos, b, offset, length);
 	}
 
+	protected int readRealPosition(long pos, ByteBuffer dst)
+			throws IOException {
+		return disk.read(blockPosition + pos, dst);
+	}
+
 }
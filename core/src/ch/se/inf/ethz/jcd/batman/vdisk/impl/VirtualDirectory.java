@@ -1,11 +1,18 @@
 package ch.se.inf.ethz.jcd.batman.vdisk.impl;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDirectory;
 import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDisk;
 import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDiskEntry;
 import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDiskSpace;
+import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualFile;
+import ch.se.inf.ethz.jcd.batman.vdisk.VirtualDiskEntryInfo;
 import ch.se.inf.ethz.jcd.batman.vdisk.VirtualDiskException;
 import ch.se.inf.ethz.jcd.batman.vdisk.util.VirtualDiskUtil;
 
@@ -18,6 +25,14 @@ import ch.se.inf.ethz.jcd.batman.vdisk.util.VirtualDiskUtil;
  * 0x00 1 Entry Type 0x01 8 Time stamp 0x09 8 Offset position of the next
  * directory/file which is stored in the same directory as this directory 0x11 8
  * Offset position of the first member of this directory 0x19 n Directory name
+ * 
+ * Small directories are searched linearly. As soon as a directory has more
+ * than 16 members, it is converted to an indexed
+ * directory which has a different entry type and the following structure:
+ * 
+ * 0x00 1 Entry Type 0x01 8 Time stamp 0x09 8 Offset position of the next
+ * directory/file 0x11 8 Offset position of the first member 0x19 8 Offset
+ * position of the {@link DirectoryIndex} of the members 0x21 n Directory name
  */
 public final class VirtualDirectory extends VirtualDiskEntry implements
 		IVirtualDirectory {
@@ -35,8 +50,15 @@ public final class VirtualDirectory extends VirtualDiskEntry implements
 	 */
 	public static IVirtualDirectory load(IVirtualDisk disk, long position)
 			throws IOException {
+		EntryCache entryCache = getEntryCache(disk);
+		IVirtualDiskEntry entry = entryCache.get(position);
+		if (entry instanceof IVirtualDirectory) {
+			return (IVirtualDirectory) entry;
+		}
 		VirtualDirectory virtualDirectory = new VirtualDirectory(disk);
-		virtualDirectory.load(VirtualDiskSpace.load(disk, position));
+		IVirtualDiskSpace space = VirtualDiskSpace.load(disk, position);
+		virtualDirectory.load(space, readRecord(space));
+		entryCache.put(virtualDirectory);
 		return virtualDirectory;
 	}
 
@@ -48,14 +70,16 @@ public final class VirtualDirectory extends VirtualDiskEntry implements
 	 *            the disk on which the directory is stored
 	 * @param space
 	 *            contains the data of the directory
+	 * @param record
+	 *            the data of the directory read from the space
 	 * @return the loaded directory
 	 * @throws IOException
 	 *             if an I/O error occurs
 	 */
 	protected static IVirtualDirectory load(IVirtualDisk disk,
-			IVirtualDiskSpace space) throws IOException {
+			IVirtualDiskSpace space, ByteBuffer record) throws IOException {
 		VirtualDirectory virtualDirectory = new VirtualDirectory(disk);
-		virtualDirectory.load(space);
+		virtualDirectory.load(space, record);
 		return virtualDirectory;
 	}
 
@@ -74,18 +98,72 @@ public final class VirtualDirectory extends VirtualDiskEntry implements
 			throws IOException {
 		VirtualDirectory virtualDirectory = new VirtualDirectory(disk);
 		virtualDirectory.create(name);
+		getEntryCache(disk).put(virtualDirectory);
 		return virtualDirectory;
 	}
 
-	protected static boolean isDirectory(IVirtualDiskSpace space)
-			throws IOException {
-		return space.read(ENTRY_TYPE_POS) == DIRECTORY_ENTRY;
+	/**
+	 * Reads the members of the directory stored at the given position. In
+	 * contrast to {@link #listMembers()} the loaded entries of the disk are not
+	 * used, every record is read with its own space. Therefore directories can
+	 * be read by several threads at the same time, as long as the disk is not
+	 * modified. The size of the files is only read if it is requested,
+	 * otherwise it is returned as -1.
+	 * 
+	 * @param disk
+	 *            the disk on which the directory is stored
+	 * @param position
+	 *            the offset position of the directory
+	 * @param readSizes
+	 *            true if the size of the files should be read
+	 * @return the meta data of the members of the directory
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	static List<VirtualDiskEntryInfo> readMembers(IVirtualDisk disk,
+			long position, boolean readSizes) throws IOException {
+		ByteBuffer record = readRecord(VirtualDiskSpace.load(disk, position));
+		if (!isDirectory(record)) {
+			throw new VirtualDiskException("Entry at " + position
+					+ " is not a directory");
+		}
+		List<VirtualDiskEntryInfo> members = new ArrayList<VirtualDiskEntryInfo>();
+		long member = record.getLong(FIRST_MEMBER_POS);
+		while (member != 0) {
+			ByteBuffer memberRecord = readRecord(VirtualDiskSpace.load(disk,
+					member));
+			if (isDirectory(memberRecord)) {
+				members.add(new VirtualDiskEntryInfo(readName(memberRecord),
+						true, 0, memberRecord.getLong(TIMESTAMP_POS), member));
+				member = memberRecord.getLong(NEXT_ENTRY_POS);
+			} else if (VirtualFile.isFile(memberRecord)) {
+				VirtualDiskEntryInfo info = VirtualFile.readInfo(member,
+						memberRecord);
+				if (readSizes) {
+					info = new VirtualDiskEntryInfo(info.getName(), false,
+							VirtualFile.readSize(disk, memberRecord),
+							info.getTimestamp(), member);
+				}
+				members.add(info);
+				member = VirtualFile.readNextEntryPosition(memberRecord);
+			} else {
+				throw new VirtualDiskException("Unsupported disk entry");
+			}
+		}
+		return members;
+	}
+
+	protected static boolean isDirectory(ByteBuffer record) {
+		byte entryType = record.get(ENTRY_TYPE_POS);
+		return entryType == DIRECTORY_ENTRY
+				|| entryType == INDEXED_DIRECTORY_ENTRY;
 	}
 
 	private static final int ENTRY_TYP_SIZE = 1;
 	private static final int TIMESTAMP_SIZE = 8;
 	private static final int NEXT_ENTRY_SIZE = 8;
 	private static final int FIRST_MEMBER_SIZE = 8;
+	private static final int INDEX_SIZE = 8;
 
 	private static final int ENTRY_TYPE_POS = 0;
 	private static final int TIMESTAMP_POS = ENTRY_TYP_SIZE;
@@ -93,47 +171,73 @@ public final class VirtualDirectory extends VirtualDiskEntry implements
 	private static final int FIRST_MEMBER_POS = NEXT_ENTRY_POS
 			+ NEXT_ENTRY_SIZE;
 	private static final int NAME_POS = FIRST_MEMBER_POS + FIRST_MEMBER_SIZE;
+	private static final int INDEX_POS = FIRST_MEMBER_POS + FIRST_MEMBER_SIZE;
+	private static final int INDEXED_NAME_POS = INDEX_POS + INDEX_SIZE;
 
 	private static final int DEFAULT_SIZE = NAME_POS;
 
 	private static final byte DIRECTORY_ENTRY = 1;
+	private static final byte INDEXED_DIRECTORY_ENTRY = 3;
+
+	/**
+	 * Number of members up to which a directory is searched linearly.
+	 */
+	private static final int INDEX_THRESHOLD = 16;
+
+	/**
+	 * Maximum number of removed members which are remembered to resume a
+	 * listing at a removed cursor member.
+	 */
+	private static final int MAX_REMOVED_MEMBERS = 1024;
 
 	private IVirtualDiskSpace space;
 	private IVirtualDiskEntry firstMember;
 	private boolean firstMemberLoaded = false;
+	private volatile long modificationCount;
+	/**
+	 * Maps the positions of recently removed members to the position of the
+	 * member which followed them in the member list (0 for the end of the
+	 * list).
+	 */
+	private final Map<Long, Long> removedMembers = new LinkedHashMap<Long, Long>() {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+			return size() > MAX_REMOVED_MEMBERS;
+		}
+	};
 
 	private VirtualDirectory(IVirtualDisk disk) throws IOException {
 		super(disk);
 	}
 
 	protected void create(String name) throws IOException {
-		space = VirtualDiskSpace.create(getDisk(), calculateSize(name));
+		space = VirtualDiskSpace.create(getDisk(),
+				calculateSize(DEFAULT_SIZE, name));
 		super.create(name);
 		firstMemberLoaded = true;
 		updateAll();
 	}
 
-	protected void load(IVirtualDiskSpace space) throws IOException {
+	protected void load(IVirtualDiskSpace space, ByteBuffer record)
+			throws IOException {
 		this.space = space;
-		checkEntryType();
-		super.load();
-		loadTimestamp();
-		loadName();
+		checkEntryType(record);
+		super.load(record);
 		firstMemberLoaded = false;
 	}
 
-	protected void checkEntryType() throws IOException {
-		space.seek(ENTRY_TYPE_POS);
-		byte directoryEntry = space.read();
-		if (directoryEntry != DIRECTORY_ENTRY) {
+	protected void checkEntryType(ByteBuffer record)
+			throws VirtualDiskException {
+		if (!isDirectory(record)) {
 			throw new VirtualDiskException(
 					"Can't load directory, invalid entry type");
 		}
 	}
 
-	protected void loadTimestamp() throws IOException {
-		space.seek(TIMESTAMP_POS);
-		setTimestamp(space.readLong());
+	protected long loadTimestamp(ByteBuffer record) {
+		return record.getLong(TIMESTAMP_POS);
 	}
 
 	protected IVirtualDiskEntry loadNextEntry() throws IOException {
@@ -152,12 +256,79 @@ public final class VirtualDirectory extends VirtualDiskEntry implements
 		if (firstMemberPos != 0) {
 			firstMember = VirtualDiskEntry.load(getDisk(), firstMemberPos);
 			firstMember.setParent(this);
-			firstMemberLoaded = true;
+		} else {
+			firstMember = null;
 		}
+		firstMemberLoaded = true;
+	}
+
+	protected String loadName(ByteBuffer record) throws IOException {
+		return readName(record);
+	}
+
+	private static String readName(ByteBuffer record) throws IOException {
+		boolean indexed = record.get(ENTRY_TYPE_POS) == INDEXED_DIRECTORY_ENTRY;
+		return loadString(record, indexed ? INDEXED_NAME_POS : NAME_POS);
+	}
+
+	/**
+	 * Returns true if the directory has the format with an index. The entry
+	 * type is read from the disk, as another instance of this directory might
+	 * have converted it.
+	 */
+	private boolean isIndexed() throws IOException {
+		return space.read(ENTRY_TYPE_POS) == INDEXED_DIRECTORY_ENTRY;
 	}
 
-	protected String loadName() throws IOException {
-		return loadString(space, NAME_POS);
+	private int getNamePosition() throws IOException {
+		return isIndexed() ? INDEXED_NAME_POS : NAME_POS;
+	}
+
+	/**
+	 * Returns the index of the members or null if the directory is not
+	 * indexed.
+	 */
+	private DirectoryIndex loadIndex() throws IOException {
+		if (isIndexed()) {
+			return DirectoryIndex.load(getDisk(), space.readLong(INDEX_POS));
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the index of the members, if the directory is indexed or has
+	 * reached the size from which on it is indexed. Otherwise null is
+	 * returned.
+	 */
+	private DirectoryIndex getIndex() throws IOException {
+		DirectoryIndex index = loadIndex();
+		if (index == null && hasMembers(INDEX_THRESHOLD)) {
+			index = DirectoryIndex.create(getDisk());
+			long previous = 0;
+			for (IVirtualDiskEntry member : VirtualDiskUtil
+					.getDirectoryMembers(this)) {
+				index.add(member.getName(), member.getPosition(), previous);
+				previous = member.getPosition();
+			}
+			space.write(ENTRY_TYPE_POS, INDEXED_DIRECTORY_ENTRY);
+			space.writeLong(INDEX_POS, index.getPosition());
+			updateName();
+		}
+		return index;
+	}
+
+	/**
+	 * Returns true if the directory has at least the given amount of members.
+	 */
+	private boolean hasMembers(int count) throws IOException {
+		IVirtualDiskEntry member = getFirstMember();
+		for (int i = 0; i < count; i++) {
+			if (member == null) {
+				return false;
+			}
+			member = member.getNextEntry();
+		}
+		return true;
 	}
 
 	private void updateAll() throws IOException {
@@ -191,8 +362,9 @@ public final class VirtualDirectory extends VirtualDiskEntry implements
 	}
 
 	protected void updateName() throws IOException {
-		space.changeSize(calculateSize(getName()));
-		saveString(space, NAME_POS, getName());
+		int namePosition = getNamePosition();
+		space.changeSize(calculateSize(namePosition, getName()));
+		saveString(space, namePosition, getName());
 	}
 
 	/**
@@ -210,6 +382,10 @@ public final class VirtualDirectory extends VirtualDiskEntry implements
 		if (getParent() != null) {
 			getParent().removeMember(this);
 		}
+		DirectoryIndex index = loadIndex();
+		if (index != null) {
+			index.free();
+		}
 		space.free();
 	}
 
@@ -222,13 +398,31 @@ public final class VirtualDirectory extends VirtualDiskEntry implements
 		if (member.getParent() != null) {
 			member.getParent().removeMember(member);
 		}
+		DirectoryIndex index = getIndex();
+		IVirtualDiskEntry first = getFirstMember();
 		member.setParent(this);
-		member.setNextEntry(getFirstMember());
+		member.setNextEntry(first);
 		member.setPreviousEntry(null);
-		if (getFirstMember() != null) {
-			getFirstMember().setPreviousEntry(member);
+		if (first != null) {
+			first.setPreviousEntry(member);
+		}
+		if (index != null) {
+			index.add(member.getName(), member.getPosition(), 0);
+			if (first != null) {
+				index.setPrevious(first.getName(), first.getPosition(),
+						member.getPosition());
+			}
 		}
 		setFirstMember(member);
+		modificationCount++;
+		removedMembers.remove(member.getPosition());
+		NameIndex nameIndex = getNameIndex();
+		if (nameIndex != null) {
+			boolean directory = member instanceof IVirtualDirectory;
+			nameIndex.add(member.getPosition(), getPosition(), directory,
+					member.getName(), member.getTimestamp(),
+					directory ? 0 : ((IVirtualFile) member).getSize());
+		}
 	}
 
 	/**
@@ -236,8 +430,11 @@ public final class VirtualDirectory extends VirtualDiskEntry implements
 	 */
 	@Override
 	public void removeMember(IVirtualDiskEntry member) throws IOException {
-		if (member.getParent() == this) {
-			if (member.getPreviousEntry() == null) {
+		if (isThisDirectory(member.getParent())) {
+			DirectoryIndex index = loadIndex();
+			if (index != null) {
+				removeIndexedMember(index, member);
+			} else if (member.getPreviousEntry() == null) {
 				setFirstMember(member.getNextEntry());
 				if (getFirstMember() != null) {
 					getFirstMember().setPreviousEntry(null);
@@ -249,9 +446,17 @@ public final class VirtualDirectory extends VirtualDiskEntry implements
 							member.getPreviousEntry());
 				}
 			}
+			IVirtualDiskEntry next = member.getNextEntry();
+			removedMembers.put(member.getPosition(),
+					(next == null) ? 0 : next.getPosition());
 			member.setParent(null);
 			member.setNextEntry(null);
 			member.setPreviousEntry(null);
+			modificationCount++;
+			NameIndex nameIndex = getNameIndex();
+			if (nameIndex != null) {
+				nameIndex.remove(member.getPosition());
+			}
 		} else {
 			throw new VirtualDiskException("Unable to remove "
 					+ member.getName() + " from " + this.getName() + ". "
@@ -260,6 +465,160 @@ public final class VirtualDirectory extends VirtualDiskEntry implements
 		}
 	}
 
+	/**
+	 * Returns true if the given directory is this directory. Several instances
+	 * of a directory can be loaded, so the position is compared.
+	 */
+	private boolean isThisDirectory(IVirtualDirectory directory) {
+		return directory == this
+				|| (directory != null && directory.getPosition() == getPosition());
+	}
+
+	/**
+	 * Removes the member from the member list. The previous member is taken
+	 * from the index, so the member doesn't have to be reached by iterating
+	 * over the list.
+	 */
+	private void removeIndexedMember(DirectoryIndex index,
+			IVirtualDiskEntry member) throws IOException {
+		long previousPosition = index.getPrevious(member.getName(),
+				member.getPosition());
+		IVirtualDiskEntry previous = member.getPreviousEntry();
+		if (previousPosition == 0) {
+			previous = null;
+		} else if (previous == null
+				|| previous.getPosition() != previousPosition) {
+			previous = VirtualDiskEntry.load(getDisk(), previousPosition);
+			previous.setParent(this);
+		}
+		IVirtualDiskEntry next = member.getNextEntry();
+		if (previous == null) {
+			setFirstMember(next);
+		} else {
+			previous.setNextEntry(next);
+		}
+		if (next != null) {
+			next.setPreviousEntry(previous);
+			index.setPrevious(next.getName(), next.getPosition(),
+					previousPosition);
+		}
+		index.remove(member.getName(), member.getPosition());
+	}
+
+	/**
+	 * Updates the indexes after a member has been renamed.
+	 * 
+	 * @param member
+	 *            the renamed member
+	 * @param oldName
+	 *            the name of the member before it was renamed
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	void memberRenamed(IVirtualDiskEntry member, String oldName)
+			throws IOException {
+		modificationCount++;
+		DirectoryIndex index = loadIndex();
+		if (index != null) {
+			long previous = index.getPrevious(oldName, member.getPosition());
+			index.remove(oldName, member.getPosition());
+			index.add(member.getName(), member.getPosition(), previous);
+		}
+		NameIndex nameIndex = getNameIndex();
+		if (nameIndex != null) {
+			nameIndex.rename(member.getPosition(), member.getName());
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public IVirtualDiskEntry getMember(String name) throws IOException {
+		IVirtualDiskEntry member = null;
+		DirectoryIndex index = loadIndex();
+		if (index != null) {
+			member = index.get(name);
+		} else {
+			for (IVirtualDiskEntry entry : VirtualDiskUtil
+					.getDirectoryMembers(this)) {
+				if (entry.getName().equals(name)) {
+					return entry;
+				}
+			}
+		}
+		if (member != null) {
+			member.setParent(this);
+		}
+		return member;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public List<VirtualDiskEntryInfo> listMembers() throws IOException {
+		return listMembers(0, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public List<VirtualDiskEntryInfo> listMembers(long cursor, int maxMembers)
+			throws IOException {
+		if (maxMembers < 0) {
+			throw new IllegalArgumentException(
+					"Maximum number of members must not be negative.");
+		}
+		List<VirtualDiskEntryInfo> members = new ArrayList<VirtualDiskEntryInfo>();
+		IVirtualDiskEntry member = (cursor == 0) ? getFirstMember()
+				: getMemberAfterCursor(cursor);
+		while (member != null && members.size() < maxMembers) {
+			boolean directory = member instanceof IVirtualDirectory;
+			long size = directory ? 0 : ((IVirtualFile) member).getSize();
+			members.add(new VirtualDiskEntryInfo(member.getName(), directory,
+					size, member.getTimestamp(), member.getPosition()));
+			member = member.getNextEntry();
+		}
+		return members;
+	}
+
+	/**
+	 * Returns the member with which a listing after the given cursor position
+	 * continues. If the cursor member has been removed from this directory
+	 * (deleted or moved away) the listing continues with the member which
+	 * followed it in the member list.
+	 */
+	private IVirtualDiskEntry getMemberAfterCursor(long cursor)
+			throws IOException {
+		Long next = removedMembers.get(cursor);
+		if (next == null) {
+			return getCursorMember(cursor).getNextEntry();
+		}
+		// the following member may have been removed as well
+		for (int i = 0; i < removedMembers.size()
+				&& removedMembers.containsKey(next); i++) {
+			next = removedMembers.get(next);
+		}
+		return (next == 0) ? null : getCursorMember(next);
+	}
+
+	/**
+	 * Returns the member at the given cursor position. The member is looked up
+	 * by its name, so the cursor is validated with the index of the directory
+	 * instead of iterating over the member list.
+	 */
+	private IVirtualDiskEntry getCursorMember(long cursor) throws IOException {
+		IVirtualDiskEntry member = getMember(VirtualDiskEntry.load(getDisk(),
+				cursor).getName());
+		if (member == null || member.getPosition() != cursor) {
+			throw new VirtualDiskException("Invalid cursor " + cursor
+					+ ", entry is not a member of directory " + getName());
+		}
+		return member;
+	}
+
 	private void setFirstMember(IVirtualDiskEntry firstMember)
 			throws IOException {
 		this.firstMember = firstMember;
@@ -278,8 +637,9 @@ public final class VirtualDirectory extends VirtualDiskEntry implements
 		return firstMember;
 	}
 
-	private long calculateSize(String name) throws IOException {
-		return DEFAULT_SIZE + calculateStringSpace(name);
+	private long calculateSize(int namePosition, String name)
+			throws IOException {
+		return namePosition + calculateStringSpace(name);
 	}
 
 	/**
@@ -298,4 +658,12 @@ public final class VirtualDirectory extends VirtualDiskEntry implements
 		return space.getDiskSize();
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getModificationCount() {
+		return modificationCount;
+	}
+
 }
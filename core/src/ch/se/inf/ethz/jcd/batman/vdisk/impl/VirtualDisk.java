@@ -1,13 +1,22 @@
 package ch.se.inf.ethz.jcd.batman.vdisk.impl;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.logging.Logger;
 
 import ch.se.inf.ethz.jcd.batman.vdisk.IDataBlock;
@@ -16,16 +25,24 @@ import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualBlock;
 import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDirectory;
 import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDisk;
 import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDiskSpace;
+import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDiskStorage;
 import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualFile;
+import ch.se.inf.ethz.jcd.batman.vdisk.VirtualDiskEntryInfo;
+import ch.se.inf.ethz.jcd.batman.vdisk.VirtualDiskException;
 
 /**
  * Implementation of {@link IVirtualDisk}
  * 
- * The VirtualDisk needs at least 192(superblock) + 128(root directory entry)
- * byte to store its meta data. The first 192 byte are structured as follows:
+ * The VirtualDisk needs at least 200(superblock) + 128(root directory entry)
+ * byte to store its meta data. The first 200 byte are structured as follows:
  * 
  * 0x00 8byte MagicNumber 0x08 8byte Root Directory offset 0x10 8byte Position
- * of additional disk information 0x18 168byte FreeLists
+ * of additional disk information 0x18 168byte FreeLists 0xC0 8byte Position
+ * of the optional {@link NameIndex} (0 if the disk has no name index)
+ * 
+ * Disks created before the name index was introduced have a superblock of 192
+ * byte, which is directly followed by the root directory. They are recognized
+ * by the offset of their root directory and can't have a name index.
  * 
  * The first entry after the free lists is usually the root directory. But
  * because there is an offset saved in the superblock which gives the offset of
@@ -34,17 +51,37 @@ import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualFile;
  * The VirtualDisk will dynamically increase the underlying file and add the new
  * space to the free lists. Which are used when new {@link IDataBlock} need to
  * be allocated.
+ * 
+ * The free lists are only used to persist the free blocks. When the disk is
+ * loaded they are read once into an index of the free blocks ordered by size,
+ * which is used to find the best fitting free block on allocation, and the
+ * total free space is kept in a counter.
+ * 
+ * The underlying file is accessed through a {@link IVirtualDiskStorage}. Which
+ * storage is used is defined by the {@link StorageSettings} given on load or
+ * create. If the storage buffers the writes, the changes are only guaranteed
+ * to be in the host file after {@link #flush()} or {@link #close()}.
  */
 public final class VirtualDisk implements IVirtualDisk {
 
 	public static IVirtualDisk load(String path) throws IOException {
-		VirtualDisk virtualDisk = new VirtualDisk(path);
+		return load(path, new StorageSettings());
+	}
+
+	public static IVirtualDisk load(String path, StorageSettings settings)
+			throws IOException {
+		VirtualDisk virtualDisk = new VirtualDisk(path, settings);
 		virtualDisk.loadDisk();
 		return virtualDisk;
 	}
 
 	public static IVirtualDisk create(String path) throws IOException {
-		VirtualDisk virtualDisk = new VirtualDisk(path);
+		return create(path, new StorageSettings());
+	}
+
+	public static IVirtualDisk create(String path, StorageSettings settings)
+			throws IOException {
+		VirtualDisk virtualDisk = new VirtualDisk(path, settings);
 		virtualDisk.createDisk();
 		return virtualDisk;
 	}
@@ -52,7 +89,18 @@ public final class VirtualDisk implements IVirtualDisk {
 	private final static Logger LOGGER = Logger.getLogger(VirtualDisk.class
 			.getName());
 
-	private static final int SUPERBLOCK_SIZE = 192;
+	/**
+	 * Buffer used to read and write single bytes without allocating a new
+	 * buffer for every access.
+	 */
+	private static final ThreadLocal<ByteBuffer> BYTE_BUFFER = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocate(1);
+		}
+	};
+
+	private static final int SUPERBLOCK_SIZE = 200;
 	private static final int FREE_LISTS_POSITION = 24;
 	private static final int POSITION_SIZE = 8;
 	private static final int NR_FREE_LISTS = 21;
@@ -60,8 +108,9 @@ public final class VirtualDisk implements IVirtualDisk {
 	private static final long MIN_BLOCK_SIZE = 128;
 	private static final long ROOT_DIRECTORY_POSITION = 8;
 	private static final long ADDITIONAL_DISK_INFORMATION_POSITION = 16;
+	private static final long NAME_INDEX_POSITION = 192;
 
-	private RandomAccessFile file;
+	private IVirtualDiskStorage storage;
 	private IVirtualDirectory rootDirectory;
 	/**
 	 * Holds the offset position of the start of each free list. The free lists
@@ -69,10 +118,26 @@ public final class VirtualDisk implements IVirtualDisk {
 	 * : 128*2^0-128*2^1 - 1 2 : 128*2^1-128*2^2 - 1 ... 21 : 128*2^21-infinity
 	 */
 	private final List<Long> freeLists = new ArrayList<Long>();
+	/**
+	 * Offset positions of all free blocks in the free lists, ordered by the
+	 * size of the blocks.
+	 */
+	private final NavigableMap<Long, Set<Long>> freeBlocksBySize = new TreeMap<Long, Set<Long>>();
+	private long freeSpace = 0;
 	private final String path;
+	private final StorageSettings settings;
+	private final EntryCache entryCache = new EntryCache();
+	private NameIndex nameIndex;
+	private boolean nameIndexLoaded = false;
+	/**
+	 * The sizes of the files which changed since the name index has been
+	 * updated, by the offset position of the file. Guarded by its own monitor.
+	 */
+	private final Map<Long, Long> changedSizes = new HashMap<Long, Long>();
 
-	private VirtualDisk(String path) {
+	private VirtualDisk(String path, StorageSettings settings) {
 		this.path = path;
+		this.settings = settings;
 	}
 
 	private void loadDisk() throws IOException {
@@ -81,13 +146,13 @@ public final class VirtualDisk implements IVirtualDisk {
 			throw new IllegalArgumentException("Can't load Virtual Disk at "
 					+ path + ". File does not exist.");
 		}
-		file = new RandomAccessFile(f, "rw");
-		if (file.length() < SUPERBLOCK_SIZE) {
+		storage = settings.openStorage(f);
+		if (storage.getLength() < SUPERBLOCK_SIZE) {
 			throw new IllegalArgumentException("Can't load Virtual Dsik "
 					+ path + ". Corrupt data.");
 		}
 		byte[] magicNumber = new byte[MAGIC_NUMBER.length];
-		file.read(magicNumber);
+		read(0, magicNumber);
 		if (!Arrays.equals(MAGIC_NUMBER, magicNumber)) {
 			throw new IllegalArgumentException("Can't load Virtual Dsik "
 					+ path + ". Wrong file type.");
@@ -97,8 +162,7 @@ public final class VirtualDisk implements IVirtualDisk {
 	}
 
 	private void loadRootDirectory() throws IOException {
-		file.seek(ROOT_DIRECTORY_POSITION);
-		long rootDirectoryPosition = file.readLong();
+		long rootDirectoryPosition = readSuperblockLong(ROOT_DIRECTORY_POSITION);
 		rootDirectory = VirtualDirectory.load(this, rootDirectoryPosition);
 	}
 
@@ -108,15 +172,16 @@ public final class VirtualDisk implements IVirtualDisk {
 			throw new IllegalArgumentException("Can't create Virtual Disk at "
 					+ path + ". File already exists.");
 		}
-		file = new RandomAccessFile(f, "rw");
-		file.write(MAGIC_NUMBER);
+		storage = settings.openStorage(f);
+		write(0, MAGIC_NUMBER);
 		initializeFreeList();
+		writeSuperblockLong(NAME_INDEX_POSITION, 0);
 		createRootDirectory();
 	}
 
 	private IFreeBlock extend(long amount) throws IOException {
-		long freeBlockPosition = file.length();
-		file.setLength(freeBlockPosition + amount);
+		long freeBlockPosition = storage.getLength();
+		storage.setLength(freeBlockPosition + amount);
 		IFreeBlock newSpace = FreeBlock.create(this, freeBlockPosition, amount,
 				0, 0);
 		addFreeBlockToList(newSpace);
@@ -124,22 +189,24 @@ public final class VirtualDisk implements IVirtualDisk {
 	}
 
 	private void shrink(long amount) throws IOException {
-		long previousSize = file.length();
-		file.setLength(previousSize - amount);
+		long previousSize = storage.getLength();
+		storage.setLength(previousSize - amount);
 	}
 
 	private void initializeFreeList() throws IOException {
-		file.seek(FREE_LISTS_POSITION);
+		ByteBuffer buffer = ByteBuffer.allocate(NR_FREE_LISTS * POSITION_SIZE);
 		for (int i = 0; i < NR_FREE_LISTS; i++) {
-			file.writeLong(0);
+			buffer.putLong(0);
 			freeLists.add(Long.valueOf(0));
 		}
+		buffer.flip();
+		storage.write(FREE_LISTS_POSITION, buffer);
 	}
 
 	private void createRootDirectory() throws IOException {
 		rootDirectory = createDirectory(null, ROOT_DIRECTORY_NAME);
-		file.seek(ROOT_DIRECTORY_POSITION);
-		file.writeLong(rootDirectory.getPosition());
+		writeSuperblockLong(ROOT_DIRECTORY_POSITION,
+				rootDirectory.getPosition());
 	}
 
 	@Override
@@ -148,13 +215,26 @@ public final class VirtualDisk implements IVirtualDisk {
 		super.finalize();
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void flush() throws IOException {
+		writeChangedSizes();
+		storage.flush();
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
 	public void close() throws IOException {
-		if (file != null) {
-			file.close();
+		if (storage != null) {
+			try {
+				writeChangedSizes();
+			} finally {
+				storage.close();
+			}
 		}
 	}
 
@@ -163,7 +243,25 @@ public final class VirtualDisk implements IVirtualDisk {
 	 */
 	@Override
 	public long getSize() throws IOException {
-		return file.length();
+		return storage.getLength();
+	}
+
+	/**
+	 * Returns the storage on which the virtual disk is stored.
+	 * 
+	 * @return the storage of the virtual disk
+	 */
+	public IVirtualDiskStorage getStorage() {
+		return storage;
+	}
+
+	/**
+	 * Returns the identity map of the loaded entries of this disk.
+	 * 
+	 * @return the loaded entries
+	 */
+	EntryCache getEntryCache() {
+		return entryCache;
 	}
 
 	/**
@@ -174,6 +272,141 @@ public final class VirtualDisk implements IVirtualDisk {
 		return rootDirectory;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public List<VirtualDiskEntryInfo> readMembers(long directoryPosition)
+			throws IOException {
+		return readMembers(directoryPosition, false);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public List<VirtualDiskEntryInfo> readMembers(long directoryPosition,
+			boolean readSizes) throws IOException {
+		return VirtualDirectory.readMembers(this, directoryPosition,
+				readSizes);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public IVirtualDiskSpace loadFileData(long filePosition)
+			throws IOException {
+		return VirtualFile.loadData(this, filePosition);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public NameIndex getNameIndex() throws IOException {
+		if (!nameIndexLoaded) {
+			long position = 0;
+			if (hasNameIndexPosition()) {
+				position = readSuperblockLong(NAME_INDEX_POSITION);
+			}
+			nameIndex = (position == 0) ? null : NameIndex.load(this, position,
+					rootDirectory.getPosition());
+			nameIndexLoaded = true;
+		}
+		Map<Long, Long> sizes;
+		synchronized (changedSizes) {
+			sizes = new HashMap<Long, Long>(changedSizes);
+			changedSizes.clear();
+		}
+		if (nameIndex != null) {
+			for (Map.Entry<Long, Long> size : sizes.entrySet()) {
+				nameIndex.setSize(size.getKey(), size.getValue());
+			}
+		}
+		return nameIndex;
+	}
+
+	/**
+	 * Notes the changed size of a file for the name index. The sizes are
+	 * written to the index in a batch the next time it is used, or when the
+	 * disk is flushed or closed, so a write doesn't need to load the index.
+	 * 
+	 * @param position
+	 *            the offset position of the file
+	 * @param size
+	 *            the new size of the file
+	 */
+	void sizeChanged(long position, long size) {
+		synchronized (changedSizes) {
+			if (!nameIndexLoaded || nameIndex != null) {
+				changedSizes.put(position, size);
+			}
+		}
+	}
+
+	private void writeChangedSizes() throws IOException {
+		boolean changed;
+		synchronized (changedSizes) {
+			changed = !changedSizes.isEmpty();
+		}
+		if (changed) {
+			getNameIndex();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public NameIndex createNameIndex() throws IOException {
+		if (getNameIndex() == null) {
+			if (!hasNameIndexPosition()) {
+				throw new VirtualDiskException("Can't create name index. The "
+						+ "disk has been created without space for a name index.");
+			}
+			nameIndex = NameIndex.create(this, rootDirectory);
+			setNameIndexPosition(nameIndex.getPosition());
+		}
+		return nameIndex;
+	}
+
+	/**
+	 * Stores the position of the name index in the superblock. The index
+	 * calls it after it has been written to a new space.
+	 * 
+	 * @param position
+	 *            the offset position of the name index
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	void setNameIndexPosition(long position) throws IOException {
+		writeSuperblockLong(NAME_INDEX_POSITION, position);
+	}
+
+	/**
+	 * Returns true if the superblock contains the position of the name index,
+	 * which is not the case for disks created before the name index was
+	 * introduced. The root directory of those disks directly follows the
+	 * shorter superblock.
+	 */
+	private boolean hasNameIndexPosition() {
+		return rootDirectory != null
+				&& rootDirectory.getPosition() >= SUPERBLOCK_SIZE;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void deleteNameIndex() throws IOException {
+		if (getNameIndex() != null) {
+			writeSuperblockLong(NAME_INDEX_POSITION, 0);
+			nameIndex.free();
+			nameIndex = null;
+		}
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -200,13 +433,28 @@ public final class VirtualDisk implements IVirtualDisk {
 		return file;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public IVirtualFile createFileCopy(IVirtualDirectory parent, String name,
+			IVirtualFile source) throws IOException {
+		IVirtualFile file = VirtualFile.createCopy(this, name, source);
+		if (parent != null) {
+			parent.addMember(file);
+		}
+		return file;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
 	public void write(long pos, byte b) throws IOException {
-		file.seek(pos);
-		file.write(b);
+		ByteBuffer buffer = BYTE_BUFFER.get();
+		buffer.clear();
+		buffer.put(0, b);
+		storage.write(pos, buffer);
 	}
 
 	/**
@@ -214,8 +462,7 @@ public final class VirtualDisk implements IVirtualDisk {
 	 */
 	@Override
 	public void write(long pos, byte[] b) throws IOException {
-		file.seek(pos);
-		file.write(b);
+		storage.write(pos, ByteBuffer.wrap(b));
 	}
 
 	/**
@@ -223,8 +470,12 @@ public final class VirtualDisk implements IVirtualDisk {
 	 */
 	@Override
 	public byte read(long pos) throws IOException {
-		file.seek(pos);
-		return file.readByte();
+		ByteBuffer buffer = BYTE_BUFFER.get();
+		buffer.clear();
+		if (storage.read(pos, buffer) < 1) {
+			throw new EOFException();
+		}
+		return buffer.get(0);
 	}
 
 	/**
@@ -232,8 +483,7 @@ public final class VirtualDisk implements IVirtualDisk {
 	 */
 	@Override
 	public int read(long pos, byte[] b) throws IOException {
-		file.seek(pos);
-		return file.read(b);
+		return storage.read(pos, ByteBuffer.wrap(b));
 	}
 
 	/**
@@ -242,8 +492,7 @@ public final class VirtualDisk implements IVirtualDisk {
 	@Override
 	public void write(long pos, byte[] b, int offset, int length)
 			throws IOException {
-		file.seek(pos);
-		file.write(b, offset, length);
+		storage.write(pos, ByteBuffer.wrap(b, offset, length));
 	}
 
 	/**
@@ -252,8 +501,41 @@ public final class VirtualDisk implements IVirtualDisk {
 	@Override
 	public int read(long pos, byte[] b, int offset, int length)
 			throws IOException {
-		file.seek(pos);
-		return file.read(b, offset, length);
+		return storage.read(pos, ByteBuffer.wrap(b, offset, length));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void write(long pos, ByteBuffer src) throws IOException {
+		storage.write(pos, src);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int read(long pos, ByteBuffer dst) throws IOException {
+		return storage.read(pos, dst);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long transferFrom(ReadableByteChannel src, long pos, long count)
+			throws IOException {
+		return storage.transferFrom(src, pos, count);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long transferTo(long pos, long count, WritableByteChannel target)
+			throws IOException {
+		return storage.transferTo(pos, count, target);
 	}
 
 	/**
@@ -262,7 +544,13 @@ public final class VirtualDisk implements IVirtualDisk {
 	@Override
 	public void freeBlock(IDataBlock block) throws IOException {
 		if (block.isValid()) {
-			freeRange(block.getBlockPosition(), block.getDiskSize());
+			int referenceCount = block.getReferenceCount();
+			if (referenceCount > 1) {
+				// The block is still used by a copy
+				block.setReferenceCount(referenceCount - 1);
+			} else {
+				freeRange(block.getBlockPosition(), block.getDiskSize());
+			}
 		}
 	}
 
@@ -277,11 +565,12 @@ public final class VirtualDisk implements IVirtualDisk {
 	private void setFirstBlockFreeList(int index, long position)
 			throws IOException {
 		freeLists.set(index, position);
-		file.seek(FREE_LISTS_POSITION + index * POSITION_SIZE);
-		file.writeLong(position);
+		writeSuperblockLong(FREE_LISTS_POSITION + index * POSITION_SIZE,
+				position);
 	}
 
 	private void removeFreeBlockFromList(IFreeBlock block) throws IOException {
+		removeFreeBlockFromIndex(block.getBlockPosition(), block.getDiskSize());
 		if (block.getPreviousBlock() == 0) {
 			// First block in the list
 			int freeListIndex = getFreeListIndex(block.getDiskSize());
@@ -319,6 +608,27 @@ public final class VirtualDisk implements IVirtualDisk {
 				block.setNextBlock(previousFirstBlock.getBlockPosition());
 			}
 			setFirstBlockFreeList(freeListIndex, block.getBlockPosition());
+			addFreeBlockToIndex(block.getBlockPosition(), block.getDiskSize());
+		}
+	}
+
+	private void addFreeBlockToIndex(long position, long size) {
+		Set<Long> positions = freeBlocksBySize.get(size);
+		if (positions == null) {
+			positions = new TreeSet<Long>();
+			freeBlocksBySize.put(size, positions);
+		}
+		positions.add(position);
+		freeSpace += size;
+	}
+
+	private void removeFreeBlockFromIndex(long position, long size) {
+		Set<Long> positions = freeBlocksBySize.get(size);
+		if (positions != null && positions.remove(position)) {
+			if (positions.isEmpty()) {
+				freeBlocksBySize.remove(size);
+			}
+			freeSpace -= size;
 		}
 	}
 
@@ -385,9 +695,9 @@ public final class VirtualDisk implements IVirtualDisk {
 		if (getRootDirectory() != null) {
 			long position = getRootDirectory().getPosition();
 			IVirtualBlock block = VirtualBlock.loadBlock(this, position);
-			while (position + block.getDiskSize() != file.length()) {
+			while (position + block.getDiskSize() != storage.getLength()) {
 				position += block.getDiskSize();
-				if (position > file.length()) {
+				if (position > storage.getLength()) {
 					throw new IllegalStateException("Block structure invalid!");
 				}
 				block = VirtualBlock.loadBlock(this, position);
@@ -440,47 +750,50 @@ public final class VirtualDisk implements IVirtualDisk {
 		long remainingDataSize = dataSize;
 		// Search the usable free blocks and extend the disk if necessary
 		List<IFreeBlock> usableFreeBlocks = new LinkedList<IFreeBlock>();
-		// First search through the big blocks and try to find a continuous
-		// block
-		for (int index = getFreeListIndex(remainingDataSize + metaDataSize); index < freeLists
-				.size() && remainingDataSize > 0; index++) {
-			IFreeBlock freeBlock = null;
-			for (long nextEntry = freeLists.get(index); nextEntry != 0; nextEntry = freeBlock
-					.getNextBlock()) {
-				freeBlock = FreeBlock.load(this, nextEntry);
-				if (freeBlock.getDiskSize() >= dataSize + metaDataSize) {
-					remainingDataSize -= freeBlock.getDiskSize() - metaDataSize;
-					usableFreeBlocks.add(freeBlock);
+		// First search the smallest free block which can hold all the data
+		Map.Entry<Long, Set<Long>> bestFit = freeBlocksBySize
+				.ceilingEntry(dataSize + metaDataSize);
+		if (remainingDataSize > 0 && bestFit != null) {
+			usableFreeBlocks.add(FreeBlock.load(this, bestFit.getValue()
+					.iterator().next()));
+			remainingDataSize = 0;
+		}
+		// If no continuous block was found try to fit the biggest blocks
+		// together
+		for (Map.Entry<Long, Set<Long>> blocks : freeBlocksBySize
+				.descendingMap().entrySet()) {
+			for (Long position : blocks.getValue()) {
+				if (remainingDataSize <= 0) {
 					break;
 				}
+				remainingDataSize -= blocks.getKey() - metaDataSize;
+				usableFreeBlocks.add(FreeBlock.load(this, position));
 			}
-		}
-		// If no continuous block was found try to fit some smaller blocks
-		// together
-		for (int index = freeLists.size() - 1; index >= 0
-				&& remainingDataSize > 0; index--) {
-			IFreeBlock freeBlock = null;
-			for (long nextEntry = freeLists.get(index); nextEntry != 0
-					&& remainingDataSize > 0; nextEntry = freeBlock
-					.getNextBlock()) {
-				freeBlock = FreeBlock.load(this, nextEntry);
-				remainingDataSize -= freeBlock.getDiskSize() - metaDataSize;
-				usableFreeBlocks.add(freeBlock);
+			if (remainingDataSize <= 0) {
+				break;
 			}
 		}
+		IFreeBlock newFreeBlock = null;
 		if (remainingDataSize > 0) {
-			IFreeBlock newFreeBlock = extend(Math.max(MIN_BLOCK_SIZE,
-					remainingDataSize + metaDataSize));
+			newFreeBlock = extend(Math.max(MIN_BLOCK_SIZE, remainingDataSize
+					+ metaDataSize));
 			usableFreeBlocks.add(0, newFreeBlock);
 		}
 		// Allocate the freeBlocks and return them
 		LinkedList<IDataBlock> allocatedDataBlocks = new LinkedList<IDataBlock>();
 		long remainingDataSizeToAllocate = dataSize;
-		for (IFreeBlock freeBlock : usableFreeBlocks) {
+		for (IFreeBlock usableFreeBlock : usableFreeBlocks) {
 			long remainingSizeToAllocate = remainingDataSizeToAllocate
 					+ metaDataSize;
 			IDataBlock allocatedBlock;
-			removeFreeBlockFromList(freeBlock);
+			IFreeBlock freeBlock = usableFreeBlock;
+			// The block at the end of the disk is not in a free list
+			if (freeBlock != newFreeBlock) {
+				// The links of the block may have been changed by removing the
+				// previous blocks from the free lists
+				freeBlock = FreeBlock.load(this, freeBlock.getBlockPosition());
+				removeFreeBlockFromList(freeBlock);
+			}
 			if (freeBlock.getDiskSize() > remainingSizeToAllocate) {
 				if (isBlockSplittable(freeBlock, remainingSizeToAllocate)) {
 					allocatedBlock = splitBlock(freeBlock,
@@ -511,27 +824,46 @@ public final class VirtualDisk implements IVirtualDisk {
 	}
 
 	private void readFreeLists() throws IOException {
-		file.seek(FREE_LISTS_POSITION);
+		ByteBuffer buffer = ByteBuffer.allocate(NR_FREE_LISTS * POSITION_SIZE);
+		storage.read(FREE_LISTS_POSITION, buffer);
+		buffer.flip();
 		freeLists.clear();
 		for (int i = 0; i < NR_FREE_LISTS; i++) {
-			freeLists.add(file.readLong());
+			freeLists.add(buffer.getLong());
 		}
+		buildFreeBlockIndex();
 	}
 
 	/**
-	 * {@inheritDoc}
+	 * Reads all free blocks from the free lists into the index.
 	 */
-	@Override
-	public long getFreeSpace() throws IOException {
-		long freeSpace = 0;
+	private void buildFreeBlockIndex() throws IOException {
+		freeBlocksBySize.clear();
+		freeSpace = 0;
 		for (Long freeListPosition : freeLists) {
 			IFreeBlock freeBlock = null;
 			for (long nextEntry = freeListPosition; nextEntry != 0; nextEntry = freeBlock
 					.getNextBlock()) {
 				freeBlock = FreeBlock.load(this, nextEntry);
-				freeSpace += freeBlock.getDiskSize();
+				addFreeBlockToIndex(nextEntry, freeBlock.getDiskSize());
 			}
 		}
+	}
+
+	private long readSuperblockLong(long position) throws IOException {
+		return LongCodec.read(this, position);
+	}
+
+	private void writeSuperblockLong(long position, long value)
+			throws IOException {
+		LongCodec.write(this, position, value);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getFreeSpace() throws IOException {
 		return freeSpace;
 	}
 
@@ -545,8 +877,7 @@ public final class VirtualDisk implements IVirtualDisk {
 
 	@Override
 	public byte[] getAdditionalDiskInformation() throws IOException {
-		file.seek(ADDITIONAL_DISK_INFORMATION_POSITION);
-		long addInformationPosition = file.readLong();
+		long addInformationPosition = readSuperblockLong(ADDITIONAL_DISK_INFORMATION_POSITION);
 		if (addInformationPosition == 0) {
 			return new byte[0];
 		} else {
@@ -562,24 +893,22 @@ public final class VirtualDisk implements IVirtualDisk {
 	@Override
 	public void saveAdditionalDiskInformation(byte[] information)
 			throws IOException {
-		file.seek(ADDITIONAL_DISK_INFORMATION_POSITION);
-		long addInformationPosition = file.readLong();
+		long addInformationPosition = readSuperblockLong(ADDITIONAL_DISK_INFORMATION_POSITION);
 		if (addInformationPosition == 0) {
 			if (information.length != 0) {
 				IVirtualDiskSpace addInformationSpace = VirtualDiskSpace
 						.create(this, information.length);
 				addInformationSpace.seek(0);
 				addInformationSpace.write(information);
-				file.seek(ADDITIONAL_DISK_INFORMATION_POSITION);
-				file.writeLong(addInformationSpace.getVirtualDiskPosition());
+				writeSuperblockLong(ADDITIONAL_DISK_INFORMATION_POSITION,
+						addInformationSpace.getVirtualDiskPosition());
 			}
 		} else {
 			IVirtualDiskSpace addInformationSpace = VirtualDiskSpace.load(this,
 					addInformationPosition);
 			if (information.length == 0) {
 				addInformationSpace.free();
-				file.seek(ADDITIONAL_DISK_INFORMATION_POSITION);
-				file.writeLong(0);
+				writeSuperblockLong(ADDITIONAL_DISK_INFORMATION_POSITION, 0);
 			} else {
 				addInformationSpace.changeSize(information.length);
 				addInformationSpace.seek(0);
@@ -1,8 +1,8 @@
 package ch.se.inf.ethz.jcd.batman.vdisk.impl;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.Collection;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Iterator;
 
 import ch.se.inf.ethz.jcd.batman.vdisk.FileAlreadyExistsException;
@@ -13,7 +13,6 @@ import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDiskEntry;
 import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDiskSpace;
 import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualFile;
 import ch.se.inf.ethz.jcd.batman.vdisk.VirtualDiskException;
-import ch.se.inf.ethz.jcd.batman.vdisk.util.VirtualDiskUtil;
 import ch.se.inf.ethz.jcd.batman.vdisk.util.VirtualEntryIterator;
 
 /**
@@ -36,17 +35,58 @@ public abstract class VirtualDiskEntry implements IVirtualDiskEntry {
 	 */
 	public static IVirtualDiskEntry load(IVirtualDisk disk, long position)
 			throws IOException {
-		IVirtualDiskSpace space = VirtualDiskSpace.load(disk, position);
-		if (VirtualDirectory.isDirectory(space)) {
-			return VirtualDirectory.load(disk, space);
-		} else if (VirtualFile.isFile(space)) {
-			return VirtualFile.load(disk, space);
-		} else {
-			throw new VirtualDiskException("Unsupported disk entry");
+		EntryCache entryCache = getEntryCache(disk);
+		IVirtualDiskEntry entry = entryCache.get(position);
+		if (entry == null) {
+			IVirtualDiskSpace space = VirtualDiskSpace.load(disk, position);
+			ByteBuffer record = readRecord(space);
+			if (VirtualDirectory.isDirectory(record)) {
+				entry = VirtualDirectory.load(disk, space, record);
+			} else if (VirtualFile.isFile(record)) {
+				entry = VirtualFile.load(disk, space, record);
+			} else {
+				throw new VirtualDiskException("Unsupported disk entry");
+			}
+			entryCache.put(entry);
 		}
+		return entry;
+	}
+
+	/**
+	 * Returns the identity map of the loaded entries of the given disk. Disks
+	 * other than {@link VirtualDisk} get a new, empty map, so their entries are
+	 * loaded every time.
+	 * 
+	 * @param disk
+	 *            the disk of the entries
+	 * @return the identity map of the entries
+	 */
+	static EntryCache getEntryCache(IVirtualDisk disk) {
+		if (disk instanceof VirtualDisk) {
+			return ((VirtualDisk) disk).getEntryCache();
+		}
+		return new EntryCache();
+	}
+
+	/**
+	 * Reads all data of an entry with a single read, so the entry can be
+	 * decoded from the returned buffer.
+	 * 
+	 * @param space
+	 *            the space containing the data of the entry
+	 * @return the data of the entry
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	protected static ByteBuffer readRecord(IVirtualDiskSpace space)
+			throws IOException {
+		byte[] record = new byte[(int) space.getSize()];
+		space.read(0, record);
+		return ByteBuffer.wrap(record);
 	}
 
 	private static final String CHARSET_NAME = "UTF-8";
+	private static final byte STRING_TERMINATOR = '\0';
 
 	private final IVirtualDisk disk;
 	private IVirtualDirectory parent;
@@ -68,12 +108,15 @@ public abstract class VirtualDiskEntry implements IVirtualDiskEntry {
 		nextEntryLoaded = true;
 	}
 
-	protected void load() throws IOException {
-		this.name = loadName();
+	protected void load(ByteBuffer record) throws IOException {
+		this.name = loadName(record);
+		this.timestamp = loadTimestamp(record);
 		nextEntryLoaded = false;
 	}
 
-	protected abstract String loadName() throws IOException;
+	protected abstract String loadName(ByteBuffer record) throws IOException;
+
+	protected abstract long loadTimestamp(ByteBuffer record);
 
 	protected void checkNameValid(String name) throws VirtualDiskException {
 		if (name == null || name.contains("" + IVirtualDisk.PATH_SEPARATOR)) {
@@ -94,14 +137,8 @@ public abstract class VirtualDiskEntry implements IVirtualDiskEntry {
 	 */
 	protected void checkNameFree(IVirtualDirectory parent, String name)
 			throws IOException {
-		if (parent != null) {
-			Collection<IVirtualDiskEntry> directoryEntrys = VirtualDiskUtil
-					.getDirectoryMembers(parent);
-			for (IVirtualDiskEntry entry : directoryEntrys) {
-				if (entry.getName().equals(name)) {
-					throw new FileAlreadyExistsException();
-				}
-			}
+		if (parent != null && parent.getMember(name) != null) {
+			throw new FileAlreadyExistsException();
 		}
 	}
 
@@ -112,8 +149,12 @@ public abstract class VirtualDiskEntry implements IVirtualDiskEntry {
 	public void setName(String name) throws IOException {
 		checkNameValid(name);
 		checkNameFree(parent, name);
+		String oldName = this.name;
 		this.name = name;
 		updateName();
+		if (parent instanceof VirtualDirectory) {
+			((VirtualDirectory) parent).memberRenamed(this, oldName);
+		}
 	}
 
 	protected abstract void updateName() throws IOException;
@@ -203,6 +244,10 @@ public abstract class VirtualDiskEntry implements IVirtualDiskEntry {
 	public void setTimestamp(long timestamp) throws IOException {
 		this.timestamp = timestamp;
 		updateTimestamp();
+		NameIndex nameIndex = getNameIndex();
+		if (nameIndex != null) {
+			nameIndex.setTimestamp(getPosition(), timestamp);
+		}
 	}
 
 	protected abstract void updateTimestamp() throws IOException;
@@ -216,11 +261,23 @@ public abstract class VirtualDiskEntry implements IVirtualDiskEntry {
 		return disk;
 	}
 
+	/**
+	 * Returns the name index of the disk or null if the disk has no name
+	 * index.
+	 */
+	protected NameIndex getNameIndex() throws IOException {
+		if (getDisk() instanceof VirtualDisk) {
+			return ((VirtualDisk) getDisk()).getNameIndex();
+		}
+		return null;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
 	public void delete() throws IOException {
+		getEntryCache(disk).remove(this);
 		state = FileState.DELETED;
 	}
 
@@ -243,20 +300,20 @@ public abstract class VirtualDiskEntry implements IVirtualDiskEntry {
 	protected void saveString(IVirtualDiskSpace space, long position,
 			String string) throws IOException {
 		byte[] encodedString = string.getBytes(CHARSET_NAME);
-		space.write(position, encodedString);
-		space.write(position + encodedString.length, String.valueOf('\0')
-				.getBytes(CHARSET_NAME));
+		byte[] terminatedString = Arrays.copyOf(encodedString,
+				encodedString.length + 1);
+		terminatedString[encodedString.length] = STRING_TERMINATOR;
+		space.write(position, terminatedString);
 	}
 
-	protected String loadString(IVirtualDiskSpace space, long position)
+	protected static String loadString(ByteBuffer record, int position)
 			throws IOException {
-		ByteArrayOutputStream byteArray = new ByteArrayOutputStream();
-		byte lastByteRead;
-		long currentPosition = position;
-		while ((lastByteRead = space.read(currentPosition++)) != '\0') {
-			byteArray.write(lastByteRead);
+		byte[] data = record.array();
+		int end = position;
+		while (end < record.limit() && data[end] != STRING_TERMINATOR) {
+			end++;
 		}
-		return new String(byteArray.toByteArray(), CHARSET_NAME);
+		return new String(data, position, end - position, CHARSET_NAME);
 	}
 
 	protected long calculateStringSpace(String string) throws IOException {
@@ -2,8 +2,9 @@ package ch.se.inf.ethz.jcd.batman.vdisk.impl;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
 
 import ch.se.inf.ethz.jcd.batman.vdisk.IDataBlock;
 import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDisk;
@@ -12,6 +13,33 @@ import ch.se.inf.ethz.jcd.batman.vdisk.VirtualDiskException;
 
 /**
  * Implementation of {@link IVirtualDiskSpace}.
+ * 
+ * The chain of {@link IDataBlock} is kept as an extent table of primitive
+ * arrays with the position and the accumulated data and disk sizes of the
+ * blocks. The block containing an offset is found with a binary search in the
+ * table and the total sizes are available without iterating over the blocks.
+ * 
+ * The chain is loaded lazily: only the blocks up to the highest accessed
+ * offset are read from the disk. {@link IDataBlock} objects are only created
+ * to change the meta data of a block, the data is accessed directly on the
+ * disk.
+ * 
+ * A copy of the space shares the chain of blocks by adding a reference to the
+ * first block (see {@link #createCopy()}). Because the chain is only linked
+ * forwards, all blocks behind a block with more than one reference are shared
+ * as well. Before a shared block is changed, it is copied together with the
+ * shared blocks in front of it and the copies are linked to the rest of the
+ * shared chain (copy-on-write). The blocks in front of it have to be copied,
+ * because the link to the copy can't be stored in a block which is still
+ * used by the other spaces. The data which is overwritten or cut off by the
+ * change is not copied.
+ * 
+ * The reads of ranges at a given offset, the transfers to a channel and the
+ * sizes can be used by several threads at once. They only lock the space
+ * while they locate the blocks and read the data from the disk without
+ * holding the lock. All other methods change the space without locking, so
+ * the owner of the space has to make sure that no other thread uses the space
+ * while they are called.
  */
 public class VirtualDiskSpace implements IVirtualDiskSpace {
 
@@ -91,16 +119,59 @@ public class VirtualDiskSpace implements IVirtualDiskSpace {
 
 	}
 
+
 	private static final int BYTE_LENGTH = 1;
 	private static final int LONG_LENGTH = 8;
+	private static final int INITIAL_EXTENT_CAPACITY = 1;
+	private static final int COPY_BUFFER_SIZE = 64 * 1024;
+	/**
+	 * Marks that no loaded block is shared.
+	 */
+	private static final int NOT_SHARED = Integer.MAX_VALUE;
 
 	private final IVirtualDisk disk;
-	private final List<IDataBlock> blocks = new ArrayList<IDataBlock>();
-	private VirtualDiskSpacePosition position;
+	private int blockCount;
+	/**
+	 * Holds the offset position of each loaded block.
+	 */
+	private long[] blockPositions = new long[INITIAL_EXTENT_CAPACITY];
+	/**
+	 * Holds for each loaded block the sum of the data sizes of the block and
+	 * all blocks before it.
+	 */
+	private long[] dataEnds = new long[INITIAL_EXTENT_CAPACITY];
+	/**
+	 * Holds for each loaded block the sum of the disk sizes of the block and
+	 * all blocks before it.
+	 */
+	private long[] diskEnds = new long[INITIAL_EXTENT_CAPACITY];
+	private long size;
+	private long diskSize;
+	/**
+	 * The offset position of the first block of the chain which is not loaded
+	 * yet or 0 if the whole chain is loaded.
+	 */
+	private long nextUnloadedBlock;
+	/**
+	 * The index of the first block which may be shared with a copy of the
+	 * space or {@link #NOT_SHARED}. All blocks in front of it are only used by
+	 * this space.
+	 */
+	private int sharedIndex = NOT_SHARED;
+	private boolean valid = true;
+	/**
+	 * The current offset, which is moved by the reads and writes.
+	 */
+	private final VirtualDiskSpacePosition position = new VirtualDiskSpacePosition();
+	/**
+	 * Reused for the reads and writes at a given offset. The concurrent reads
+	 * only use it while holding the lock of the space.
+	 */
+	private final VirtualDiskSpacePosition accessPosition = new VirtualDiskSpacePosition();
+	private final byte[] longBuffer = new byte[LONG_LENGTH];
 
 	private VirtualDiskSpace(IVirtualDisk disk) throws IOException {
 		this.disk = disk;
-		this.position = new VirtualDiskSpacePosition();
 	}
 
 	private void create(long size) throws IOException {
@@ -108,49 +179,175 @@ public class VirtualDiskSpace implements IVirtualDiskSpace {
 	}
 
 	private void load(long position) throws IOException {
-		IDataBlock block;
-		for (block = DataBlock.load(disk, position); block.getNextBlock() != 0; block = DataBlock
-				.load(disk, block.getNextBlock())) {
-			blocks.add(block);
+		nextUnloadedBlock = position;
+		loadNextBlock();
+	}
+
+	private void loadNextBlock() throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(DataBlock.HEADER_SIZE);
+		disk.read(nextUnloadedBlock, header.array());
+		if (sharedIndex == NOT_SHARED
+				&& DataBlock.getReferenceCount(header) > 1) {
+			sharedIndex = blockCount;
+		}
+		addBlock(nextUnloadedBlock, DataBlock.getDiskSize(header),
+				DataBlock.getDataSize(header));
+		nextUnloadedBlock = DataBlock.getNextBlock(header);
+	}
+
+	/**
+	 * Loads the blocks of the chain until the block containing the given
+	 * offset is loaded or the end of the chain is reached.
+	 */
+	private void ensureLoaded(long offset) throws IOException {
+		while (nextUnloadedBlock != 0 && size <= offset) {
+			loadNextBlock();
 		}
-		blocks.add(block);
 	}
 
-	private VirtualDiskSpacePosition calculatePosition(long position) {
-		VirtualDiskSpacePosition vDiskPosition = new VirtualDiskSpacePosition();
+	private void loadAll() throws IOException {
+		while (nextUnloadedBlock != 0) {
+			loadNextBlock();
+		}
+	}
+
+	private void addBlock(long blockPosition, long blockDiskSize,
+			long blockDataSize) {
+		if (blockPositions.length == blockCount) {
+			int capacity = 2 * blockCount;
+			blockPositions = Arrays.copyOf(blockPositions, capacity);
+			dataEnds = Arrays.copyOf(dataEnds, capacity);
+			diskEnds = Arrays.copyOf(diskEnds, capacity);
+		}
+		size += blockDataSize;
+		diskSize += blockDiskSize;
+		blockPositions[blockCount] = blockPosition;
+		dataEnds[blockCount] = size;
+		diskEnds[blockCount] = diskSize;
+		blockCount++;
+	}
+
+	private void removeLastBlock() {
+		blockCount--;
+		size = (blockCount == 0) ? 0 : dataEnds[blockCount - 1];
+		diskSize = (blockCount == 0) ? 0 : diskEnds[blockCount - 1];
+	}
+
+	private long getDataSize(int index) {
+		return dataEnds[index] - ((index == 0) ? 0 : dataEnds[index - 1]);
+	}
+
+	private long getBlockDiskSize(int index) {
+		return diskEnds[index] - ((index == 0) ? 0 : diskEnds[index - 1]);
+	}
+
+	private long getNextBlock(int index) {
+		return (index + 1 < blockCount) ? blockPositions[index + 1]
+				: nextUnloadedBlock;
+	}
+
+	/**
+	 * Returns the {@link IDataBlock} at the given index. The block is created
+	 * from the extent table and is only needed to change the meta data of the
+	 * block, therefore the block must not be shared.
+	 */
+	private IDataBlock getDataBlock(int index) throws IOException {
+		return DataBlock.open(disk, blockPositions[index],
+				getBlockDiskSize(index), getDataSize(index),
+				getNextBlock(index));
+	}
+
+	/**
+	 * Changes the data size of the last block in the chain.
+	 */
+	private void setLastDataSize(long dataSize) throws IOException {
+		int index = blockCount - 1;
+		getDataBlock(index).setDataSize(dataSize);
+		size += dataSize - getDataSize(index);
+		dataEnds[index] = size;
+	}
+
+	/**
+	 * Sets the given position to the block index and offset of the given
+	 * offset in the space.
+	 */
+	private void calculatePosition(long position,
+			VirtualDiskSpacePosition vDiskPosition) {
 		vDiskPosition.setPosition(position);
-		long blockPosition = position;
-		int index = 0;
-		for (; index < blocks.size(); index++) {
-			IDataBlock block = blocks.get(index);
-			if (block.getDataSize() <= blockPosition) {
-				blockPosition -= block.getDataSize();
+		int index = findBlockIndex(position);
+		vDiskPosition.setBlockIndex(index);
+		vDiskPosition.setBlockPosition(position
+				- ((index == 0) ? 0 : dataEnds[index - 1]));
+	}
+
+	/**
+	 * Returns the index of the first loaded block which ends after the given
+	 * offset or the number of loaded blocks if there is no such block.
+	 */
+	private int findBlockIndex(long position) {
+		int low = 0;
+		int high = blockCount;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (dataEnds[middle] <= position) {
+				low = middle + 1;
 			} else {
-				break;
+				high = middle;
 			}
 		}
-		vDiskPosition.setBlockIndex(index);
-		vDiskPosition.setBlockPosition(blockPosition);
-		return vDiskPosition;
-	}
-
-	private VirtualDiskSpacePosition addPosition(VirtualDiskSpacePosition base,
-			long add) {
-		VirtualDiskSpacePosition newPosition = new VirtualDiskSpacePosition();
-		newPosition.setPosition(base.getPosition() + add);
-		int index = base.getBlockIndex();
-		long blockPosition = base.getBlockPosition() + add;
-		for (; index < blocks.size(); index++) {
-			IDataBlock block = blocks.get(index);
-			if (block.getDataSize() <= blockPosition) {
-				blockPosition -= block.getDataSize();
+		return low;
+	}
+
+	private VirtualDiskSpacePosition getAccessPosition(long position) {
+		calculatePosition(position, accessPosition);
+		return accessPosition;
+	}
+
+	/**
+	 * Moves the access position to the given offset and returns the offset
+	 * position on the disk of it, or -1 if the offset is not inside the space.
+	 * Has to be called while holding the lock of the space.
+	 */
+	private long locate(long offset) throws IOException {
+		calculatePosition(offset, accessPosition);
+		resolve(accessPosition);
+		if (getRemainingSpaceInBlock(accessPosition) <= 0) {
+			return -1;
+		}
+		return getDiskPosition(accessPosition);
+	}
+
+	/**
+	 * Moves the given position forward by the given amount of bytes.
+	 */
+	private void addPosition(VirtualDiskSpacePosition pos, long add) {
+		pos.setPosition(pos.getPosition() + add);
+		int index = pos.getBlockIndex();
+		long blockPosition = pos.getBlockPosition() + add;
+		for (; index < blockCount; index++) {
+			long dataSize = getDataSize(index);
+			if (dataSize <= blockPosition) {
+				blockPosition -= dataSize;
 			} else {
 				break;
 			}
 		}
-		newPosition.setBlockIndex(index);
-		newPosition.setBlockPosition(blockPosition);
-		return newPosition;
+		pos.setBlockIndex(index);
+		pos.setBlockPosition(blockPosition);
+	}
+
+	/**
+	 * Makes sure the given position points into a loaded block, if the offset
+	 * of the position is inside the space. Positions are calculated with the
+	 * blocks loaded at that time, so they have to be resolved before they are
+	 * used.
+	 */
+	private void resolve(VirtualDiskSpacePosition pos) throws IOException {
+		int index = pos.getBlockIndex();
+		if (index >= blockCount || pos.getBlockPosition() >= getDataSize(index)) {
+			ensureLoaded(pos.getPosition());
+			calculatePosition(pos.getPosition(), pos);
+		}
 	}
 
 	/**
@@ -158,7 +355,7 @@ public class VirtualDiskSpace implements IVirtualDiskSpace {
 	 */
 	@Override
 	public long getVirtualDiskPosition() {
-		return blocks.isEmpty() ? 0 : blocks.get(0).getBlockPosition();
+		return (blockCount == 0) ? 0 : blockPositions[0];
 	}
 
 	/**
@@ -170,6 +367,7 @@ public class VirtualDiskSpace implements IVirtualDiskSpace {
 			throw new IllegalArgumentException(
 					"Virtual space can't be negativ size");
 		}
+		checkValid();
 		long currentSize = getSize();
 		if (currentSize < newSize) {
 			extend(newSize - currentSize);
@@ -179,73 +377,250 @@ public class VirtualDiskSpace implements IVirtualDiskSpace {
 	}
 
 	private void truncate(long amount) throws IOException {
-		long truncateAmount = amount;
-		for (int i = blocks.size() - 1; truncateAmount > 0 && i >= 0; i--) {
-			IDataBlock block = blocks.get(i);
-			long dataSize = block.getDataSize();
-			if (truncateAmount > dataSize) {
-				IDataBlock remove = blocks.remove(i);
-				remove.free();
-				truncateAmount -= dataSize;
-			} else {
-				block.setDataSize(dataSize - truncateAmount);
-				truncateAmount = 0;
+		long newSize = size - amount;
+		// The last remaining block is changed, so it must not be shared
+		int lastIndex = getBlockIndex(newSize);
+		unshare(lastIndex, newSize, size);
+		lastIndex = getBlockIndex(newSize);
+		if (lastIndex < blockCount - 1) {
+			long firstRemovedBlock = blockPositions[lastIndex + 1];
+			// The last block must not point to a freed block
+			getDataBlock(lastIndex).setNextBlock(0);
+			while (blockCount - 1 > lastIndex) {
+				removeLastBlock();
+			}
+			sharedIndex = NOT_SHARED;
+			release(firstRemovedBlock);
+		}
+		setLastDataSize(newSize - getDataStart(lastIndex));
+	}
+
+	/**
+	 * Returns the index of the block containing the given offset. For an
+	 * offset at the end of the space the index of the last block is returned.
+	 * Only the loaded blocks are considered.
+	 */
+	private int getBlockIndex(long offset) {
+		return Math.min(findBlockIndex(offset), blockCount - 1);
+	}
+
+	private long getDataStart(int index) {
+		return (index == 0) ? 0 : dataEnds[index - 1];
+	}
+
+	/**
+	 * Releases the chain of blocks starting at the given position. The blocks
+	 * are freed until a block is reached which is still referenced by a copy,
+	 * because the rest of the chain is used by this copy.
+	 */
+	private void release(long blockPosition) throws IOException {
+		long nextBlock = blockPosition;
+		while (nextBlock != 0) {
+			IDataBlock block = DataBlock.load(disk, nextBlock);
+			boolean shared = block.getReferenceCount() > 1;
+			nextBlock = block.getNextBlock();
+			block.free();
+			if (shared) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Makes sure the blocks up to the block containing the given offset are
+	 * not shared, so they can be written.
+	 */
+	private void unshareUpTo(long offset) throws IOException {
+		unshareUpTo(offset, 0, 0);
+	}
+
+	/**
+	 * Makes sure the blocks up to the block containing the given offset are
+	 * not shared, so they can be written. The data between skipStart and
+	 * skipEnd is about to be overwritten and is not copied.
+	 */
+	private void unshareUpTo(long offset, long skipStart, long skipEnd)
+			throws IOException {
+		if (sharedIndex != NOT_SHARED && offset >= 0) {
+			ensureLoaded(offset);
+			unshare(getBlockIndex(offset), skipStart, skipEnd);
+		}
+	}
+
+	private void unshare(int index) throws IOException {
+		unshare(index, 0, 0);
+	}
+
+	/**
+	 * Makes sure the blocks up to the given index are not shared by copying
+	 * the shared blocks. The copies are linked to the block after the given
+	 * index, which gets an additional reference. The data between skipStart
+	 * and skipEnd is not copied.
+	 */
+	private void unshare(int index, long skipStart, long skipEnd)
+			throws IOException {
+		if (index < sharedIndex) {
+			return;
+		}
+		// A copy may have released its reference in the meantime
+		int firstShared = sharedIndex;
+		while (firstShared <= index
+				&& DataBlock.load(disk, blockPositions[firstShared])
+						.getReferenceCount() == 1) {
+			firstShared++;
+		}
+		sharedIndex = firstShared;
+		if (firstShared > index) {
+			return;
+		}
+		long dataStart = getDataStart(firstShared);
+		long dataLength = dataEnds[index] - dataStart;
+		long nextBlock = getNextBlock(index);
+		IDataBlock[] copies = disk.allocateBlock(Math.max(dataLength, 1));
+		if (dataLength == 0) {
+			copies[0].setDataSize(0);
+		}
+		copyData(firstShared, copies, skipStart, skipEnd);
+		copies[copies.length - 1].setNextBlock(nextBlock);
+		if (nextBlock != 0) {
+			IDataBlock next = DataBlock.load(disk, nextBlock);
+			next.setReferenceCount(next.getReferenceCount() + 1);
+		}
+		DataBlock.load(disk, blockPositions[firstShared]).free();
+		if (firstShared > 0) {
+			getDataBlock(firstShared - 1).setNextBlock(
+					copies[0].getBlockPosition());
+		}
+		replaceBlocks(firstShared, index, copies);
+		sharedIndex = (nextBlock == 0) ? NOT_SHARED : firstShared
+				+ copies.length;
+	}
+
+	/**
+	 * Copies the data of the blocks starting at the given index into the
+	 * given blocks, until the blocks are filled. The data between the offsets
+	 * skipStart and skipEnd of the space is skipped.
+	 */
+	private void copyData(int firstIndex, IDataBlock[] copies,
+			long skipStart, long skipEnd) throws IOException {
+		byte[] buffer = null;
+		int sourceIndex = firstIndex;
+		long sourceOffset = 0;
+		long offset = getDataStart(firstIndex);
+		for (IDataBlock copy : copies) {
+			long copyOffset = 0;
+			while (copyOffset < copy.getDataSize()) {
+				if (sourceOffset == getDataSize(sourceIndex)) {
+					sourceIndex++;
+					sourceOffset = 0;
+					continue;
+				}
+				long length = Math.min(copy.getDataSize() - copyOffset,
+						getDataSize(sourceIndex) - sourceOffset);
+				if (offset >= skipStart && offset < skipEnd) {
+					length = Math.min(length, skipEnd - offset);
+				} else {
+					if (offset < skipStart) {
+						length = Math.min(length, skipStart - offset);
+					}
+					if (buffer == null) {
+						buffer = new byte[COPY_BUFFER_SIZE];
+					}
+					length = Math.min(length, buffer.length);
+					disk.read(blockPositions[sourceIndex]
+							+ DataBlock.DATA_OFFSET + sourceOffset, buffer, 0,
+							(int) length);
+					disk.write(copy.getBlockPosition() + DataBlock.DATA_OFFSET
+							+ copyOffset, buffer, 0, (int) length);
+				}
+				sourceOffset += length;
+				copyOffset += length;
+				offset += length;
 			}
 		}
 	}
 
+	/**
+	 * Replaces the blocks from the first to the last index in the extent
+	 * table with the given blocks, which contain the same data.
+	 */
+	private void replaceBlocks(int firstIndex, int lastIndex,
+			IDataBlock[] blocks) {
+		int tailCount = blockCount - lastIndex - 1;
+		long[] tailPositions = new long[tailCount];
+		long[] tailDiskSizes = new long[tailCount];
+		long[] tailDataSizes = new long[tailCount];
+		for (int i = 0; i < tailCount; i++) {
+			tailPositions[i] = blockPositions[lastIndex + 1 + i];
+			tailDiskSizes[i] = getBlockDiskSize(lastIndex + 1 + i);
+			tailDataSizes[i] = getDataSize(lastIndex + 1 + i);
+		}
+		while (blockCount > firstIndex) {
+			removeLastBlock();
+		}
+		for (IDataBlock block : blocks) {
+			addBlock(block.getBlockPosition(), block.getDiskSize(),
+					block.getDataSize());
+		}
+		for (int i = 0; i < tailCount; i++) {
+			addBlock(tailPositions[i], tailDiskSizes[i], tailDataSizes[i]);
+		}
+		// The block indices of the offsets have changed
+		calculatePosition(position.getPosition(), position);
+	}
+
 	private void extend(long amount) throws IOException {
 		// Use the the last block if there is still some free space
-		IDataBlock lastBlock = getLastBlock();
 		long extendAmount = amount;
-		if (lastBlock != null) {
-			long freeSize = lastBlock.getFreeSize();
+		if (blockCount > 0) {
+			// The last block is changed, so it must not be shared
+			unshare(blockCount - 1);
+			int lastIndex = blockCount - 1;
+			long freeSize = getBlockDiskSize(lastIndex)
+					- DataBlock.METADATA_SIZE - getDataSize(lastIndex);
 			if (freeSize >= 0) {
 				long extendSize = Math.min(extendAmount, freeSize);
-				lastBlock.setDataSize(lastBlock.getDataSize() + extendSize);
+				setLastDataSize(getDataSize(lastIndex) + extendSize);
 				extendAmount -= extendSize;
 			}
 		}
 		// Request the rest from the disk and add it to the list
 		if (extendAmount > 0) {
 			IDataBlock[] allocatetBlocks = disk.allocateBlock(extendAmount);
-			if (lastBlock != null
+			int lastIndex = blockCount - 1;
+			if (blockCount > 0
 					&& allocatetBlocks.length == 1
-					&& lastBlock.getBlockPosition() + lastBlock.getDiskSize() == allocatetBlocks[0]
+					&& blockPositions[lastIndex]
+							+ getBlockDiskSize(lastIndex) == allocatetBlocks[0]
 							.getBlockPosition()) {
-				IDataBlock newLastBlock = DataBlock.create(
-						disk,
-						lastBlock.getBlockPosition(),
-						lastBlock.getDiskSize()
-								+ allocatetBlocks[0].getDiskSize(),
-						lastBlock.getDataSize()
-								+ allocatetBlocks[0].getDataSize(), 0);
-				blocks.set(blocks.size() - 1, newLastBlock);
+				long lastPosition = blockPositions[lastIndex];
+				long lastDiskSize = getBlockDiskSize(lastIndex)
+						+ allocatetBlocks[0].getDiskSize();
+				long lastDataSize = getDataSize(lastIndex)
+						+ allocatetBlocks[0].getDataSize();
+				DataBlock.create(disk, lastPosition, lastDiskSize,
+						lastDataSize, 0);
+				removeLastBlock();
+				addBlock(lastPosition, lastDiskSize, lastDataSize);
 			} else {
-				if (lastBlock != null) {
-					lastBlock.setNextBlock(allocatetBlocks[0]
-							.getBlockPosition());
+				if (blockCount > 0) {
+					getDataBlock(lastIndex).setNextBlock(
+							allocatetBlocks[0].getBlockPosition());
 				}
-				for (int i = 0; i < allocatetBlocks.length; i++) {
-					blocks.add(allocatetBlocks[i]);
+				for (IDataBlock block : allocatetBlocks) {
+					addBlock(block.getBlockPosition(), block.getDiskSize(),
+							block.getDataSize());
 				}
 			}
 		}
 	}
 
-	private IDataBlock getLastBlock() {
-		return blocks.isEmpty() ? null : blocks.get(blocks.size() - 1);
-	}
-
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
-	public long getSize() {
-		long size = 0;
-		for (IDataBlock block : blocks) {
-			size += block.getDataSize();
-		}
+	public synchronized long getSize() throws IOException {
+		loadAll();
 		return size;
 	}
 
@@ -253,11 +628,8 @@ public class VirtualDiskSpace implements IVirtualDiskSpace {
 	 * {@inheritDoc}
 	 */
 	@Override
-	public long getDiskSize() {
-		long diskSize = 0;
-		for (IDataBlock block : blocks) {
-			diskSize += block.getDiskSize();
-		}
+	public synchronized long getDiskSize() throws IOException {
+		loadAll();
 		return diskSize;
 	}
 
@@ -274,7 +646,7 @@ public class VirtualDiskSpace implements IVirtualDiskSpace {
 	 */
 	@Override
 	public void seek(long pos) {
-		position = calculatePosition(pos);
+		calculatePosition(pos, position);
 	}
 
 	/**
@@ -283,7 +655,6 @@ public class VirtualDiskSpace implements IVirtualDiskSpace {
 	@Override
 	public void write(byte b) throws IOException {
 		write(position, b);
-		position = addPosition(position, BYTE_LENGTH);
 	}
 
 	/**
@@ -292,7 +663,6 @@ public class VirtualDiskSpace implements IVirtualDiskSpace {
 	@Override
 	public void writeLong(long l) throws IOException {
 		write(position, l);
-		position = addPosition(position, LONG_LENGTH);
 	}
 
 	/**
@@ -301,7 +671,6 @@ public class VirtualDiskSpace implements IVirtualDiskSpace {
 	@Override
 	public void write(byte[] b) throws IOException {
 		write(position, b);
-		position = addPosition(position, b.length);
 	}
 
 	/**
@@ -309,7 +678,7 @@ public class VirtualDiskSpace implements IVirtualDiskSpace {
 	 */
 	@Override
 	public void write(long pos, byte b) throws IOException {
-		write(calculatePosition(pos), b);
+		write(getAccessPosition(pos), b);
 	}
 
 	/**
@@ -317,7 +686,7 @@ public class VirtualDiskSpace implements IVirtualDiskSpace {
 	 */
 	@Override
 	public void writeLong(long pos, long l) throws IOException {
-		write(calculatePosition(pos), l);
+		write(getAccessPosition(pos), l);
 	}
 
 	/**
@@ -325,7 +694,26 @@ public class VirtualDiskSpace implements IVirtualDiskSpace {
 	 */
 	@Override
 	public void write(long pos, byte[] b) throws IOException {
-		write(calculatePosition(pos), b);
+		write(getAccessPosition(pos), b);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void write(long pos, byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || len > b.length - off) {
+			throw new IndexOutOfBoundsException();
+		}
+		write(getAccessPosition(pos), b, off, len);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void write(long pos, ByteBuffer src) throws IOException {
+		write(getAccessPosition(pos), src);
 	}
 
 	/**
@@ -333,9 +721,7 @@ public class VirtualDiskSpace implements IVirtualDiskSpace {
 	 */
 	@Override
 	public byte read() throws IOException {
-		byte b = read(position);
-		position = addPosition(position, BYTE_LENGTH);
-		return b;
+		return read(position);
 	}
 
 	/**
@@ -343,9 +729,7 @@ public class VirtualDiskSpace implements IVirtualDiskSpace {
 	 */
 	@Override
 	public int read(byte[] b) throws IOException {
-		int l = read(position, b);
-		position = addPosition(position, b.length);
-		return l;
+		return read(position, b);
 	}
 
 	/**
@@ -353,9 +737,7 @@ public class VirtualDiskSpace implements IVirtualDiskSpace {
 	 */
 	@Override
 	public long readLong() throws IOException {
-		long l = readLong(position);
-		position = addPosition(position, LONG_LENGTH);
-		return l;
+		return readLong(position);
 	}
 
 	/**
@@ -363,7 +745,15 @@ public class VirtualDiskSpace implements IVirtualDiskSpace {
 	 */
 	@Override
 	public byte read(long pos) throws IOException {
-		return read(calculatePosition(pos));
+		checkValid();
+		long diskPosition;
+		synchronized (this) {
+			diskPosition = locate(pos);
+		}
+		if (diskPosition < 0) {
+			throw new VirtualDiskException("End of VirtualSpace reached.");
+		}
+		return disk.read(diskPosition);
 	}
 
 	/**
@@ -371,7 +761,26 @@ public class VirtualDiskSpace implements IVirtualDiskSpace {
 	 */
 	@Override
 	public int read(long pos, byte[] b) throws IOException {
-		return read(calculatePosition(pos), b);
+		return readAt(pos, b, 0, b.length);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int read(long pos, byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || len > b.length - off) {
+			throw new IndexOutOfBoundsException();
+		}
+		return readAt(pos, b, off, len);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int read(long pos, ByteBuffer dst) throws IOException {
+		return readAt(pos, dst);
 	}
 
 	/**
@@ -379,126 +788,317 @@ public class VirtualDiskSpace implements IVirtualDiskSpace {
 	 */
 	@Override
 	public long readLong(long pos) throws IOException {
-		return readLong(calculatePosition(pos));
+		return readLong(getAccessPosition(pos));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long transferFrom(ReadableByteChannel src, long pos, long count)
+			throws IOException {
+		if (count < 0) {
+			throw new IllegalArgumentException("Negative transfer count");
+		}
+		return transferFrom(getAccessPosition(pos), src, count);
 	}
 
-	private long getRemainingSpace(IDataBlock block, long blockPosition) {
-		return block.getDataSize() - blockPosition;
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long transferTo(long pos, long count, WritableByteChannel target)
+			throws IOException {
+		if (count < 0) {
+			throw new IllegalArgumentException("Negative transfer count");
+		}
+		return transferToAt(pos, count, target);
 	}
 
 	private long getRemainingSpaceInBlock(VirtualDiskSpacePosition pos) {
-		if (pos.getBlockIndex() < blocks.size()) {
-			return getRemainingSpace(blocks.get(pos.getBlockIndex()),
-					pos.getBlockPosition());
+		if (pos.getBlockIndex() < blockCount) {
+			return getDataSize(pos.getBlockIndex()) - pos.getBlockPosition();
 		} else {
 			return 0;
 		}
 	}
 
-	private long getRemainingSpace(VirtualDiskSpacePosition pos) {
-		long remainingSpace = getRemainingSpaceInBlock(pos);
-		for (int index = pos.getBlockIndex() + 1; index < blocks.size(); index++) {
-			remainingSpace += getDataBlock(index).getDataSize();
-		}
-		return remainingSpace;
+	/**
+	 * Returns the offset position on the disk of the given position.
+	 */
+	private long getDiskPosition(VirtualDiskSpacePosition pos) {
+		return blockPositions[pos.getBlockIndex()] + DataBlock.DATA_OFFSET
+				+ pos.getBlockPosition();
 	}
 
-	private IDataBlock getDataBlock(VirtualDiskSpacePosition pos) {
-		return blocks.get(pos.getBlockIndex());
+	private void checkValid() throws VirtualDiskException {
+		if (!valid) {
+			throw new VirtualDiskException("Virtual space is not valid.");
+		}
 	}
 
-	private IDataBlock getDataBlock(int index) {
-		return blocks.get(index);
-	}
+	/*
+	 * The following methods move the given position behind the accessed
+	 * bytes.
+	 */
 
 	private void write(VirtualDiskSpacePosition pos, long l) throws IOException {
-		write(pos, ByteBuffer.allocate(8).putLong(l).array());
+		LongCodec.encode(l, longBuffer, 0);
+		write(pos, longBuffer);
 	}
 
-	private boolean allocateSpace(VirtualDiskSpacePosition pos, long length)
+	/**
+	 * Makes sure the space is large enough for the given amount of bytes at
+	 * the given position and that the blocks for them are not shared, so they
+	 * can be written.
+	 */
+	private void allocateSpace(VirtualDiskSpacePosition pos, long length)
 			throws IOException {
-		long currentSize = getSize();
 		long sizeNeeded = pos.getPosition() + length;
-		if (currentSize < sizeNeeded) {
-			extend(sizeNeeded - currentSize);
-			return true;
+		ensureLoaded(sizeNeeded - 1);
+		// The written data doesn't need to be copied. If the space is too
+		// small the whole chain is loaded and unshared before it is extended.
+		unshareUpTo(sizeNeeded - 1, pos.getPosition(), sizeNeeded);
+		if (size < sizeNeeded) {
+			extend(sizeNeeded - size);
 		}
-		return false;
+		// The blocks may have been replaced by their copies
+		calculatePosition(pos.getPosition(), pos);
 	}
 
 	private void write(VirtualDiskSpacePosition pos, byte b) throws IOException {
-		VirtualDiskSpacePosition currentPos = pos;
-		if (allocateSpace(currentPos, BYTE_LENGTH)) {
-			// If the disk space changed, the position needs to be recalculated
-			currentPos = calculatePosition(currentPos.getPosition());
-		}
-		getDataBlock(currentPos).write(currentPos.getBlockPosition(), b);
+		checkValid();
+		allocateSpace(pos, BYTE_LENGTH);
+		resolve(pos);
+		disk.write(getDiskPosition(pos), b);
+		addPosition(pos, BYTE_LENGTH);
 	}
 
 	private void write(VirtualDiskSpacePosition pos, byte[] b)
 			throws IOException {
-		VirtualDiskSpacePosition currentPos = pos;
-		if (allocateSpace(pos, b.length)) {
-			// If the disk space changed, the position needs to be recalculated
-			currentPos = calculatePosition(currentPos.getPosition());
+		write(pos, b, 0, b.length);
+	}
+
+	private void write(VirtualDiskSpacePosition pos, byte[] b, int off,
+			int len) throws IOException {
+		checkValid();
+		if (len == 0) {
+			return;
 		}
+		allocateSpace(pos, len);
 		int bytesWritten = 0;
-		while (bytesWritten != b.length) {
-			long remainingSpace = getRemainingSpaceInBlock(currentPos);
+		while (bytesWritten != len) {
+			resolve(pos);
+			long remainingSpace = getRemainingSpaceInBlock(pos);
 			if (remainingSpace == 0) {
 				throw new VirtualDiskException("DiskSpace too small!");
 			}
-			int bytesToWrite = b.length - bytesWritten;
-			int currentBytesWritten = 0;
-			if (bytesToWrite <= remainingSpace) {
-				getDataBlock(currentPos).write(currentPos.getBlockPosition(),
-						b, bytesWritten, bytesToWrite);
-				currentBytesWritten = bytesToWrite;
-			} else {
-				getDataBlock(currentPos).write(currentPos.getBlockPosition(),
-						b, bytesWritten, (int) remainingSpace);
-				currentBytesWritten = (int) remainingSpace;
-			}
+			int currentBytesWritten = (int) Math.min(len - bytesWritten,
+					remainingSpace);
+			disk.write(getDiskPosition(pos), b, off + bytesWritten,
+					currentBytesWritten);
 			bytesWritten += currentBytesWritten;
-			currentPos = addPosition(currentPos, currentBytesWritten);
+			addPosition(pos, currentBytesWritten);
+		}
+	}
+
+	private void write(VirtualDiskSpacePosition pos, ByteBuffer src)
+			throws IOException {
+		checkValid();
+		int len = src.remaining();
+		if (len == 0) {
+			return;
+		}
+		allocateSpace(pos, len);
+		int limit = src.limit();
+		try {
+			while (src.hasRemaining()) {
+				resolve(pos);
+				long remainingSpace = getRemainingSpaceInBlock(pos);
+				if (remainingSpace == 0) {
+					throw new VirtualDiskException("DiskSpace too small!");
+				}
+				int currentBytesWritten = (int) Math.min(src.remaining(),
+						remainingSpace);
+				src.limit(src.position() + currentBytesWritten);
+				disk.write(getDiskPosition(pos), src);
+				src.limit(limit);
+				addPosition(pos, currentBytesWritten);
+			}
+		} finally {
+			src.limit(limit);
 		}
 	}
 
 	private byte read(VirtualDiskSpacePosition pos) throws IOException {
+		checkValid();
+		resolve(pos);
 		if (getRemainingSpaceInBlock(pos) <= 0) {
 			throw new VirtualDiskException("End of VirtualSpace reached.");
 		}
-		return getDataBlock(pos).read(pos.getBlockPosition());
+		byte b = disk.read(getDiskPosition(pos));
+		addPosition(pos, BYTE_LENGTH);
+		return b;
 	}
 
 	private int read(VirtualDiskSpacePosition pos, byte[] b) throws IOException {
-		VirtualDiskSpacePosition currentPos = pos;
-		long readableBytes = getRemainingSpace(currentPos);
-		int readLength = (int) Math.min(b.length, readableBytes);
+		return read(pos, b, 0, b.length);
+	}
+
+	private int read(VirtualDiskSpacePosition pos, byte[] b, int off, int len)
+			throws IOException {
+		checkValid();
 		int bytesRead = 0;
-		while (bytesRead < readLength) {
-			long remainingSpace = getRemainingSpaceInBlock(currentPos);
-			int bytesToRead = readLength - bytesRead;
-			int currentBytesRead = 0;
-			if (bytesToRead <= remainingSpace) {
-				getDataBlock(currentPos).read(currentPos.getBlockPosition(), b,
-						bytesRead, bytesToRead);
-				currentBytesRead = bytesToRead;
-			} else {
-				getDataBlock(currentPos).read(currentPos.getBlockPosition(), b,
-						bytesRead, (int) remainingSpace);
-				currentBytesRead = (int) remainingSpace;
+		while (bytesRead < len) {
+			resolve(pos);
+			long remainingSpace = getRemainingSpaceInBlock(pos);
+			if (remainingSpace <= 0) {
+				// End of the space reached
+				break;
 			}
+			int currentBytesRead = (int) Math.min(len - bytesRead,
+					remainingSpace);
+			disk.read(getDiskPosition(pos), b, off + bytesRead,
+					currentBytesRead);
 			bytesRead += currentBytesRead;
-			currentPos = addPosition(currentPos, currentBytesRead);
+			addPosition(pos, currentBytesRead);
 		}
+		// The position is moved by len, even if less was read
+		addPosition(pos, len - bytesRead);
 		return bytesRead;
 	}
 
+	private long transferFrom(VirtualDiskSpacePosition pos,
+			ReadableByteChannel src, long count) throws IOException {
+		checkValid();
+		if (count == 0) {
+			return 0;
+		}
+		long start = pos.getPosition();
+		long sizeNeeded = start + count;
+		ensureLoaded(sizeNeeded - 1);
+		// If the space is still too small the whole chain is loaded
+		long oldSize = size;
+		if (oldSize < sizeNeeded) {
+			extend(sizeNeeded - oldSize);
+		}
+		unshareUpTo(sizeNeeded - 1);
+		// The blocks may have been replaced by their copies
+		calculatePosition(start, pos);
+		long transferred = 0;
+		while (transferred < count) {
+			resolve(pos);
+			long remainingSpace = getRemainingSpaceInBlock(pos);
+			if (remainingSpace == 0) {
+				throw new VirtualDiskException("DiskSpace too small!");
+			}
+			long currentCount = Math.min(count - transferred, remainingSpace);
+			long currentTransferred = disk.transferFrom(src,
+					getDiskPosition(pos), currentCount);
+			transferred += currentTransferred;
+			addPosition(pos, currentTransferred);
+			if (currentTransferred < currentCount) {
+				// End of the channel reached
+				break;
+			}
+		}
+		if (transferred < count && oldSize < sizeNeeded) {
+			changeSize(Math.max(oldSize, start + transferred));
+		}
+		return transferred;
+	}
+
 	private long readLong(VirtualDiskSpacePosition pos) throws IOException {
-		byte[] longInBytes = new byte[LONG_LENGTH];
-		read(pos, longInBytes);
-		return ByteBuffer.wrap(longInBytes).getLong();
+		LongCodec.fillMissing(longBuffer, read(pos, longBuffer));
+		return LongCodec.decode(longBuffer, 0);
+	}
+
+	/*
+	 * The following methods read at a given offset and can be used by several
+	 * threads at once. The blocks are located while holding the lock of the
+	 * space, the data is read without it.
+	 */
+
+	private int readAt(long offset, byte[] b, int off, int len)
+			throws IOException {
+		checkValid();
+		int bytesRead = 0;
+		while (bytesRead < len) {
+			long diskPosition;
+			long remainingSpace;
+			synchronized (this) {
+				diskPosition = locate(offset + bytesRead);
+				remainingSpace = getRemainingSpaceInBlock(accessPosition);
+			}
+			if (diskPosition < 0) {
+				// End of the space reached
+				break;
+			}
+			int currentBytesRead = (int) Math.min(len - bytesRead,
+					remainingSpace);
+			disk.read(diskPosition, b, off + bytesRead, currentBytesRead);
+			bytesRead += currentBytesRead;
+		}
+		return bytesRead;
+	}
+
+	private int readAt(long offset, ByteBuffer dst) throws IOException {
+		checkValid();
+		int bytesRead = 0;
+		int limit = dst.limit();
+		try {
+			while (dst.hasRemaining()) {
+				long diskPosition;
+				long remainingSpace;
+				synchronized (this) {
+					diskPosition = locate(offset + bytesRead);
+					remainingSpace = getRemainingSpaceInBlock(accessPosition);
+				}
+				if (diskPosition < 0) {
+					// End of the space reached
+					break;
+				}
+				int currentCount = (int) Math.min(dst.remaining(),
+						remainingSpace);
+				dst.limit(dst.position() + currentCount);
+				int currentBytesRead = disk.read(diskPosition, dst);
+				dst.limit(limit);
+				if (currentBytesRead <= 0) {
+					// End of the disk reached
+					break;
+				}
+				bytesRead += currentBytesRead;
+			}
+		} finally {
+			dst.limit(limit);
+		}
+		return bytesRead;
+	}
+
+	private long transferToAt(long offset, long count,
+			WritableByteChannel target) throws IOException {
+		checkValid();
+		long transferred = 0;
+		while (transferred < count) {
+			long diskPosition;
+			long remainingSpace;
+			synchronized (this) {
+				diskPosition = locate(offset + transferred);
+				remainingSpace = getRemainingSpaceInBlock(accessPosition);
+			}
+			if (diskPosition < 0) {
+				// End of the space reached
+				break;
+			}
+			long currentCount = Math.min(count - transferred, remainingSpace);
+			long currentTransferred = disk.transferTo(diskPosition,
+					currentCount, target);
+			transferred += currentTransferred;
+			if (currentTransferred < currentCount) {
+				break;
+			}
+		}
+		return transferred;
 	}
 
 	/**
@@ -506,9 +1106,30 @@ public class VirtualDiskSpace implements IVirtualDiskSpace {
 	 */
 	@Override
 	public void free() throws IOException {
-		for (IDataBlock block : blocks) {
-			block.free();
+		if (valid) {
+			if (blockCount > 0) {
+				release(blockPositions[0]);
+			}
+			valid = false;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public IVirtualDiskSpace createCopy() throws IOException {
+		checkValid();
+		if (blockCount == 0) {
+			return create(disk, 0);
+		}
+		IDataBlock firstBlock = DataBlock.load(disk, blockPositions[0]);
+		if (firstBlock.getReferenceCount() == DataBlock.MAX_REFERENCE_COUNT) {
+			throw new VirtualDiskException("Too many copies of the space.");
 		}
+		firstBlock.setReferenceCount(firstBlock.getReferenceCount() + 1);
+		sharedIndex = 0;
+		return load(disk, blockPositions[0]);
 	}
 
 }
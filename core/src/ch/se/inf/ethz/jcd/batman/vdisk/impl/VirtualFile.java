@@ -1,11 +1,18 @@
 package ch.se.inf.ethz.jcd.batman.vdisk.impl;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDisk;
 import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDiskEntry;
 import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDiskSpace;
 import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualFile;
+import ch.se.inf.ethz.jcd.batman.vdisk.VirtualDiskEntryInfo;
 import ch.se.inf.ethz.jcd.batman.vdisk.VirtualDiskException;
 
 /**
@@ -20,6 +27,11 @@ import ch.se.inf.ethz.jcd.batman.vdisk.VirtualDiskException;
  * 0x00 1 Entry Type 0x01 8 Time stamp 0x09 8 Offset position of the next
  * directory/file which is stored in the same directory as this directory 0x11 8
  * Offset position of the {@link IVirtualDiskSpace} of the data 0x19 n File name
+ * 
+ * The reads at a given offset, the transfers to a channel and the sizes share
+ * a lock of the file, so several streams and channels can read the same file
+ * at once. Writes, size changes and the accesses at the current offset lock
+ * the file exclusively.
  */
 public final class VirtualFile extends VirtualDiskEntry implements IVirtualFile {
 
@@ -36,8 +48,15 @@ public final class VirtualFile extends VirtualDiskEntry implements IVirtualFile
 	 */
 	public static IVirtualFile load(IVirtualDisk disk, long position)
 			throws IOException {
+		EntryCache entryCache = getEntryCache(disk);
+		IVirtualDiskEntry entry = entryCache.get(position);
+		if (entry instanceof IVirtualFile) {
+			return (IVirtualFile) entry;
+		}
 		VirtualFile virtualFile = new VirtualFile(disk);
-		virtualFile.load(VirtualDiskSpace.load(disk, position));
+		IVirtualDiskSpace space = VirtualDiskSpace.load(disk, position);
+		virtualFile.load(space, readRecord(space));
+		entryCache.put(virtualFile);
 		return virtualFile;
 	}
 
@@ -49,14 +68,16 @@ public final class VirtualFile extends VirtualDiskEntry implements IVirtualFile
 	 *            the disk on which the file is stored
 	 * @param space
 	 *            contains the meta data of the file
+	 * @param record
+	 *            the meta data of the file read from the space
 	 * @return the loaded File
 	 * @throws IOException
 	 *             if an I/O error occurs
 	 */
 	protected static IVirtualFile load(IVirtualDisk disk,
-			IVirtualDiskSpace space) throws IOException {
+			IVirtualDiskSpace space, ByteBuffer record) throws IOException {
 		VirtualFile virtualFile = new VirtualFile(disk);
-		virtualFile.load(space);
+		virtualFile.load(space, record);
 		return virtualFile;
 	}
 
@@ -77,11 +98,115 @@ public final class VirtualFile extends VirtualDiskEntry implements IVirtualFile
 			throws IOException {
 		VirtualFile virtualFile = new VirtualFile(disk);
 		virtualFile.create(name, size);
+		getEntryCache(disk).put(virtualFile);
+		return virtualFile;
+	}
+
+	/**
+	 * Creates a copy of the given file with the given name on the
+	 * {@link IVirtualDisk}. The copy shares the data blocks of the source,
+	 * they are only copied when one of the files writes to them.
+	 * 
+	 * @param disk
+	 *            the disk on which the file should be stored
+	 * @param name
+	 *            the name of the newly created file
+	 * @param source
+	 *            the file to copy, which has to be stored on the same disk
+	 * @return the newly created file
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public static IVirtualFile createCopy(IVirtualDisk disk, String name,
+			IVirtualFile source) throws IOException {
+		if (!(source instanceof VirtualFile)
+				|| ((VirtualFile) source).getDisk() != disk) {
+			throw new IllegalArgumentException(
+					"Source must be a file on the same disk.");
+		}
+		VirtualFile virtualFile = new VirtualFile(disk);
+		virtualFile.createCopy(name, (VirtualFile) source);
+		getEntryCache(disk).put(virtualFile);
 		return virtualFile;
 	}
 
-	protected static boolean isFile(IVirtualDiskSpace space) throws IOException {
-		return space.read(ENTRY_TYPE_POS) == FILE_ENTRY;
+	protected static boolean isFile(ByteBuffer record) {
+		return record.get(ENTRY_TYPE_POS) == FILE_ENTRY;
+	}
+
+	/**
+	 * Decodes the meta data of a file from its record without loading the
+	 * file. The size of the file is not read, it is returned as -1.
+	 * 
+	 * @param position
+	 *            the offset position of the file
+	 * @param record
+	 *            the data of the file read from its space
+	 * @return the meta data of the file
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	static VirtualDiskEntryInfo readInfo(long position, ByteBuffer record)
+			throws IOException {
+		return new VirtualDiskEntryInfo(loadString(record, NAME_POS), false,
+				-1, record.getLong(TIMESTAMP_POS), position);
+	}
+
+	/**
+	 * Returns the offset position of the next member of the directory, which
+	 * is stored in the given record.
+	 * 
+	 * @param record
+	 *            the data of the file read from its space
+	 * @return the offset position of the next member or 0 if it is the last
+	 *         member
+	 */
+	static long readNextEntryPosition(ByteBuffer record) {
+		return record.getLong(NEXT_ENTRY_POS);
+	}
+
+	/**
+	 * Reads the size of a file, whose record has been read without loading
+	 * the file.
+	 * 
+	 * @param disk
+	 *            the disk on which the file is stored
+	 * @param record
+	 *            the data of the file read from its space
+	 * @return the size of the file
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	static long readSize(IVirtualDisk disk, ByteBuffer record)
+			throws IOException {
+		long dataPosition = record.getLong(DATA_LOC_POS);
+		return (dataPosition == 0) ? 0 : VirtualDiskSpace.load(disk,
+				dataPosition).getSize();
+	}
+
+	/**
+	 * Loads the data of the file stored at the given position with its own
+	 * space, without loading the file.
+	 * 
+	 * @param disk
+	 *            the disk on which the file is stored
+	 * @param position
+	 *            the offset position of the file
+	 * @return the space containing the data or null if the file has no data
+	 * @throws IOException
+	 *             if the entry at the position is no file or if an I/O error
+	 *             occurs
+	 */
+	static IVirtualDiskSpace loadData(IVirtualDisk disk, long position)
+			throws IOException {
+		ByteBuffer record = readRecord(VirtualDiskSpace.load(disk, position));
+		if (!isFile(record)) {
+			throw new VirtualDiskException("Entry at " + position
+					+ " is no file");
+		}
+		long dataPosition = record.getLong(DATA_LOC_POS);
+		return (dataPosition == 0) ? null : VirtualDiskSpace.load(disk,
+				dataPosition);
 	}
 
 	private static final int ENTRY_TYP_SIZE = 1;
@@ -101,7 +226,17 @@ public final class VirtualFile extends VirtualDiskEntry implements IVirtualFile
 
 	private IVirtualDiskSpace space;
 	private IVirtualDiskSpace dataSpace;
-	private boolean dataSpaceLoaded;
+	private volatile boolean dataSpaceLoaded;
+	/**
+	 * Shared by the reads of the data, exclusive for all other accesses of the
+	 * data.
+	 */
+	private final ReadWriteLock dataLock = new ReentrantReadWriteLock();
+	/**
+	 * The offset position of the data which is stored in the meta data. The
+	 * position changes if the first block of the data is copied on a write.
+	 */
+	private long dataPosition;
 
 	private VirtualFile(IVirtualDisk disk) throws IOException {
 		super(disk);
@@ -115,6 +250,21 @@ public final class VirtualFile extends VirtualDiskEntry implements IVirtualFile
 		updateAll();
 	}
 
+	private void createCopy(String name, VirtualFile source)
+			throws IOException {
+		space = VirtualDiskSpace.create(getDisk(), calculateSize(name));
+		super.create(name);
+		Lock lock = source.dataLock.writeLock();
+		lock.lock();
+		try {
+			dataSpace = source.getDataSpace().createCopy();
+		} finally {
+			lock.unlock();
+		}
+		dataSpaceLoaded = true;
+		updateAll();
+	}
+
 	private void updateAll() throws IOException {
 		updateEntryType();
 		updateTimestamp();
@@ -129,22 +279,45 @@ public final class VirtualFile extends VirtualDiskEntry implements IVirtualFile
 	}
 
 	protected void updateDataPosition() throws IOException {
+		dataPosition = getDataPosition();
 		space.seek(DATA_LOC_POS);
-		space.writeLong(getDataPosition());
+		space.writeLong(dataPosition);
+	}
+
+	/**
+	 * Stores the offset position of the data if it has been changed by a
+	 * write.
+	 */
+	private void checkDataPosition() throws IOException {
+		if (dataSpace.getVirtualDiskPosition() != dataPosition) {
+			updateDataPosition();
+		}
 	}
 
-	protected void load(IVirtualDiskSpace space) throws IOException {
+	/**
+	 * Stores the changed offset position of the data and notes the size for
+	 * the name index after the data has been changed.
+	 */
+	private void dataChanged() throws IOException {
+		checkDataPosition();
+		if (getDisk() instanceof VirtualDisk) {
+			((VirtualDisk) getDisk()).sizeChanged(getPosition(),
+					dataSpace.getSize());
+		}
+	}
+
+	protected void load(IVirtualDiskSpace space, ByteBuffer record)
+			throws IOException {
 		this.space = space;
-		checkEntryType();
-		super.load();
-		loadTimestamp();
-		loadName();
+		checkEntryType(record);
+		super.load(record);
 		dataSpaceLoaded = false;
 	}
 
 	protected void loadDataSpace() throws IOException {
 		space.seek(DATA_LOC_POS);
 		long dataLocPos = space.readLong();
+		dataPosition = dataLocPos;
 		if (dataLocPos == 0) {
 			dataSpace = VirtualDiskSpace.create(getDisk(), 0);
 		} else {
@@ -153,10 +326,9 @@ public final class VirtualFile extends VirtualDiskEntry implements IVirtualFile
 		dataSpaceLoaded = true;
 	}
 
-	protected void checkEntryType() throws IOException {
-		space.seek(ENTRY_TYPE_POS);
-		byte directoryEntry = space.read();
-		if (directoryEntry != FILE_ENTRY) {
+	protected void checkEntryType(ByteBuffer record)
+			throws VirtualDiskException {
+		if (!isFile(record)) {
 			throw new VirtualDiskException(
 					"Can't load file, invalid entry type");
 		}
@@ -167,17 +339,22 @@ public final class VirtualFile extends VirtualDiskEntry implements IVirtualFile
 	 */
 	@Override
 	public void delete() throws IOException {
-		super.delete();
-		if (getParent() != null) {
-			getParent().removeMember(this);
+		Lock lock = dataLock.writeLock();
+		lock.lock();
+		try {
+			super.delete();
+			if (getParent() != null) {
+				getParent().removeMember(this);
+			}
+			getDataSpace().free();
+			space.free();
+		} finally {
+			lock.unlock();
 		}
-		getDataSpace().free();
-		space.free();
 	}
 
-	protected void loadTimestamp() throws IOException {
-		space.seek(TIMESTAMP_POS);
-		setTimestamp(space.readLong());
+	protected long loadTimestamp(ByteBuffer record) {
+		return record.getLong(TIMESTAMP_POS);
 	}
 
 	protected IVirtualDiskEntry loadNextEntry() throws IOException {
@@ -207,7 +384,13 @@ public final class VirtualFile extends VirtualDiskEntry implements IVirtualFile
 	 */
 	@Override
 	public long getDataPosition() throws IOException {
-		return getDataSpace().getVirtualDiskPosition();
+		Lock lock = dataLock.readLock();
+		lock.lock();
+		try {
+			return getDataSpace().getVirtualDiskPosition();
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/**
@@ -215,7 +398,13 @@ public final class VirtualFile extends VirtualDiskEntry implements IVirtualFile
 	 */
 	@Override
 	public void seek(long position) throws IOException {
-		getDataSpace().seek(position);
+		Lock lock = dataLock.writeLock();
+		lock.lock();
+		try {
+			getDataSpace().seek(position);
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/**
@@ -223,7 +412,42 @@ public final class VirtualFile extends VirtualDiskEntry implements IVirtualFile
 	 */
 	@Override
 	public int read(byte[] b) throws IOException {
-		return getDataSpace().read(b);
+		Lock lock = dataLock.writeLock();
+		lock.lock();
+		try {
+			return getDataSpace().read(b);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int read(long position, byte[] b, int off, int len)
+			throws IOException {
+		Lock lock = dataLock.readLock();
+		lock.lock();
+		try {
+			return getDataSpace().read(position, b, off, len);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int read(long position, ByteBuffer dst) throws IOException {
+		Lock lock = dataLock.readLock();
+		lock.lock();
+		try {
+			return getDataSpace().read(position, dst);
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/**
@@ -231,7 +455,13 @@ public final class VirtualFile extends VirtualDiskEntry implements IVirtualFile
 	 */
 	@Override
 	public byte read() throws IOException {
-		return getDataSpace().read();
+		Lock lock = dataLock.writeLock();
+		lock.lock();
+		try {
+			return getDataSpace().read();
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/**
@@ -239,7 +469,14 @@ public final class VirtualFile extends VirtualDiskEntry implements IVirtualFile
 	 */
 	@Override
 	public void write(byte b) throws IOException {
-		getDataSpace().write(b);
+		Lock lock = dataLock.writeLock();
+		lock.lock();
+		try {
+			getDataSpace().write(b);
+			dataChanged();
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/**
@@ -247,7 +484,78 @@ public final class VirtualFile extends VirtualDiskEntry implements IVirtualFile
 	 */
 	@Override
 	public void write(byte[] b) throws IOException {
-		getDataSpace().write(b);
+		Lock lock = dataLock.writeLock();
+		lock.lock();
+		try {
+			getDataSpace().write(b);
+			dataChanged();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void write(long position, byte[] b, int off, int len)
+			throws IOException {
+		Lock lock = dataLock.writeLock();
+		lock.lock();
+		try {
+			getDataSpace().write(position, b, off, len);
+			dataChanged();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void write(long position, ByteBuffer src) throws IOException {
+		Lock lock = dataLock.writeLock();
+		lock.lock();
+		try {
+			getDataSpace().write(position, src);
+			dataChanged();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long transferFrom(ReadableByteChannel src, long position,
+			long count) throws IOException {
+		Lock lock = dataLock.writeLock();
+		lock.lock();
+		try {
+			long transferred = getDataSpace().transferFrom(src, position,
+					count);
+			dataChanged();
+			return transferred;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long transferTo(long position, long count,
+			WritableByteChannel target) throws IOException {
+		Lock lock = dataLock.readLock();
+		lock.lock();
+		try {
+			return getDataSpace().transferTo(position, count, target);
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/**
@@ -255,7 +563,14 @@ public final class VirtualFile extends VirtualDiskEntry implements IVirtualFile
 	 */
 	@Override
 	public void setSize(long size) throws IOException {
-		getDataSpace().changeSize(size);
+		Lock lock = dataLock.writeLock();
+		lock.lock();
+		try {
+			getDataSpace().changeSize(size);
+			dataChanged();
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/**
@@ -263,12 +578,18 @@ public final class VirtualFile extends VirtualDiskEntry implements IVirtualFile
 	 */
 	@Override
 	public long getSize() throws IOException {
-		return getDataSpace().getSize();
+		Lock lock = dataLock.readLock();
+		lock.lock();
+		try {
+			return getDataSpace().getSize();
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	@Override
-	protected String loadName() throws IOException {
-		return loadString(space, NAME_POS);
+	protected String loadName(ByteBuffer record) throws IOException {
+		return loadString(record, NAME_POS);
 	}
 
 	@Override
@@ -292,7 +613,12 @@ public final class VirtualFile extends VirtualDiskEntry implements IVirtualFile
 
 	private IVirtualDiskSpace getDataSpace() throws IOException {
 		if (!dataSpaceLoaded) {
-			loadDataSpace();
+			// Readers may load the data space at the same time
+			synchronized (dataLock) {
+				if (!dataSpaceLoaded) {
+					loadDataSpace();
+				}
+			}
 		}
 		return dataSpace;
 	}
@@ -302,7 +628,13 @@ public final class VirtualFile extends VirtualDiskEntry implements IVirtualFile
 	 */
 	@Override
 	public long getDataDiskSize() throws IOException {
-		return getDataSpace().getDiskSize();
+		Lock lock = dataLock.readLock();
+		lock.lock();
+		try {
+			return getDataSpace().getDiskSize();
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/**
@@ -310,7 +642,13 @@ public final class VirtualFile extends VirtualDiskEntry implements IVirtualFile
 	 */
 	@Override
 	public long getTotalSize() throws IOException {
-		return getDataSpace().getDiskSize() + space.getDiskSize();
+		Lock lock = dataLock.readLock();
+		lock.lock();
+		try {
+			return getDataSpace().getDiskSize() + space.getDiskSize();
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/**
@@ -318,7 +656,13 @@ public final class VirtualFile extends VirtualDiskEntry implements IVirtualFile
 	 */
 	@Override
 	public long getFilePointer() throws IOException {
-		return getDataSpace().getPosition();
+		Lock lock = dataLock.readLock();
+		lock.lock();
+		try {
+			return getDataSpace().getPosition();
+		} finally {
+			lock.unlock();
+		}
 	}
 
 }
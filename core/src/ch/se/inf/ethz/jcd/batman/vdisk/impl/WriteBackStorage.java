@@ -0,0 +1,272 @@
+package ch.se.inf.ethz.jcd.batman.vdisk.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDiskStorage;
+
+/**
+ * Implementation of {@link IVirtualDiskStorage} which buffers the writes to
+ * another storage in memory (write back).
+ * 
+ * Written data is kept as a set of dirty ranges ordered by their position.
+ * Overlapping and adjacent ranges are merged, so the many small writes of the
+ * block headers and footers end up in a few large ranges. The dirty ranges are
+ * written to the underlying storage in ascending order as soon as the
+ * buffered data exceeds the threshold, or if the storage is flushed or
+ * closed. Changes of the length are deferred in the same way.
+ * 
+ * Reads see all buffered writes. Writes which are bigger than the threshold
+ * are not buffered. Transfers from and to channels write the buffered data
+ * first and are then passed on to the underlying storage.
+ */
+public final class WriteBackStorage implements IVirtualDiskStorage {
+
+	/**
+	 * Wraps the given storage with a write back buffer.
+	 * 
+	 * @param storage
+	 *            the storage to which the buffered data is written
+	 * @param threshold
+	 *            the number of buffered bytes after which the buffer is
+	 *            written to the storage
+	 * @return the write back storage
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public static WriteBackStorage wrap(IVirtualDiskStorage storage,
+			int threshold) throws IOException {
+		if (threshold <= 0) {
+			throw new IllegalArgumentException(
+					"Write back threshold has to be positive");
+		}
+		return new WriteBackStorage(storage, threshold);
+	}
+
+	private static final int MIN_RANGE_CAPACITY = 64;
+
+	/**
+	 * A continuous range of buffered data.
+	 */
+	private static final class DirtyRange {
+		private final long start;
+		private byte[] data;
+		private int length;
+
+		private DirtyRange(long start, int capacity) {
+			this.start = start;
+			this.data = new byte[Math.max(MIN_RANGE_CAPACITY, capacity)];
+		}
+
+		private long getEnd() {
+			return start + length;
+		}
+
+		private void put(long pos, ByteBuffer src) {
+			int offset = (int) (pos - start);
+			int srcLength = src.remaining();
+			ensureCapacity(offset + srcLength);
+			src.get(data, offset, srcLength);
+			length = Math.max(length, offset + srcLength);
+		}
+
+		private void ensureCapacity(int capacity) {
+			if (capacity > data.length) {
+				data = Arrays.copyOf(data, Math.max(capacity, 2 * data.length));
+			}
+		}
+	}
+
+	private final IVirtualDiskStorage storage;
+	private final int threshold;
+	private final NavigableMap<Long, DirtyRange> dirtyRanges = new TreeMap<Long, DirtyRange>();
+	private long dirtyBytes;
+	private long length;
+
+	private WriteBackStorage(IVirtualDiskStorage storage, int threshold)
+			throws IOException {
+		this.storage = storage;
+		this.threshold = threshold;
+		this.length = storage.getLength();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized long getLength() {
+		return length;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized void setLength(long newLength) {
+		if (newLength < length) {
+			// Drop the buffered data beyond the new end
+			Map<Long, DirtyRange> removed = dirtyRanges.tailMap(newLength,
+					true);
+			for (DirtyRange range : removed.values()) {
+				dirtyBytes -= range.length;
+			}
+			removed.clear();
+			Map.Entry<Long, DirtyRange> last = dirtyRanges.lowerEntry(newLength);
+			if (last != null && last.getValue().getEnd() > newLength) {
+				DirtyRange range = last.getValue();
+				dirtyBytes -= range.getEnd() - newLength;
+				range.length = (int) (newLength - range.start);
+			}
+		}
+		length = newLength;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized int read(long pos, ByteBuffer dst) throws IOException {
+		if (pos >= length) {
+			return -1;
+		}
+		int readLength = (int) Math.min(dst.remaining(), length - pos);
+		int start = dst.position();
+		ByteBuffer view = dst.duplicate();
+		view.limit(start + readLength);
+		int bytesRead = Math.max(0, storage.read(pos, view));
+		// Extended part which is not yet written to the storage
+		for (int i = start + bytesRead; i < start + readLength; i++) {
+			dst.put(i, (byte) 0);
+		}
+		long end = pos + readLength;
+		Long first = dirtyRanges.floorKey(pos);
+		for (DirtyRange range : dirtyRanges.subMap(
+				first == null ? pos : first, true, end, false).values()) {
+			long from = Math.max(pos, range.start);
+			long to = Math.min(end, range.getEnd());
+			if (from < to) {
+				view.clear();
+				view.position(start + (int) (from - pos));
+				view.put(range.data, (int) (from - range.start),
+						(int) (to - from));
+			}
+		}
+		dst.position(start + readLength);
+		return readLength;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized void write(long pos, ByteBuffer src) throws IOException {
+		int writeLength = src.remaining();
+		long end = pos + writeLength;
+		if (writeLength >= threshold) {
+			writeDirtyRanges();
+			storage.write(pos, src);
+			length = Math.max(length, end);
+			return;
+		}
+		Map.Entry<Long, DirtyRange> floor = dirtyRanges.floorEntry(pos);
+		DirtyRange range;
+		if (floor != null && floor.getValue().getEnd() >= pos) {
+			range = floor.getValue();
+		} else {
+			range = new DirtyRange(pos, writeLength);
+			dirtyRanges.put(pos, range);
+		}
+		dirtyBytes -= range.length;
+		// Merge the following ranges which overlap or touch the written data
+		for (Iterator<DirtyRange> it = dirtyRanges
+				.subMap(range.start, false, end, true).values().iterator(); it
+				.hasNext();) {
+			DirtyRange next = it.next();
+			if (next.getEnd() > end) {
+				range.put(end, ByteBuffer.wrap(next.data,
+						(int) (end - next.start), (int) (next.getEnd() - end)));
+			}
+			dirtyBytes -= next.length;
+			it.remove();
+		}
+		range.put(pos, src);
+		dirtyBytes += range.length;
+		length = Math.max(length, end);
+		if (dirtyBytes >= threshold) {
+			writeDirtyRanges();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized long transferFrom(ReadableByteChannel src, long pos,
+			long count) throws IOException {
+		writeDirtyRanges();
+		long transferred = storage.transferFrom(src, pos, count);
+		length = Math.max(length, pos + transferred);
+		return transferred;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized long transferTo(long pos, long count,
+			WritableByteChannel target) throws IOException {
+		writeDirtyRanges();
+		return storage.transferTo(pos, count, target);
+	}
+
+	private void writeDirtyRanges() throws IOException {
+		for (DirtyRange range : dirtyRanges.values()) {
+			storage.write(range.start,
+					ByteBuffer.wrap(range.data, 0, range.length));
+		}
+		dirtyRanges.clear();
+		dirtyBytes = 0;
+		if (storage.getLength() != length) {
+			storage.setLength(length);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized void flush() throws IOException {
+		writeDirtyRanges();
+		storage.flush();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			writeDirtyRanges();
+		} finally {
+			storage.close();
+		}
+	}
+
+	/**
+	 * Returns the number of bytes which are buffered and not yet written to
+	 * the underlying storage.
+	 * 
+	 * @return the number of buffered bytes
+	 */
+	public synchronized long getDirtyByteCount() {
+		return dirtyBytes;
+	}
+
+}
@@ -0,0 +1,20 @@
+package ch.se.inf.ethz.jcd.batman.vdisk.impl;
+
+/**
+ * Defines when the data written to a {@link VirtualDisk} is passed on to the
+ * host file.
+ */
+public enum WriteMode {
+	/**
+	 * Every write is passed on to the host file immediately.
+	 */
+	WRITE_THROUGH,
+	/**
+	 * Writes are buffered in memory and passed on to the host file in large
+	 * batches, either when the buffered data exceeds a threshold or when the
+	 * disk is flushed or closed.
+	 * 
+	 * @see WriteBackStorage
+	 */
+	WRITE_BACK
+}
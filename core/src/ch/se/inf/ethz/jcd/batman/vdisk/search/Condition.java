@@ -0,0 +1,285 @@
+package ch.se.inf.ethz.jcd.batman.vdisk.search;
+
+import java.util.Arrays;
+import java.util.List;
+
+import ch.se.inf.ethz.jcd.batman.vdisk.VirtualDiskEntryInfo;
+
+/**
+ * Condition on the meta data of an entry, which is checked by a search in
+ * addition to the name. Conditions on the size, the time stamp and the depth
+ * of an entry can be combined with {@link #and(Condition...)} and
+ * {@link #or(Condition...)}.
+ * 
+ * The depth of an entry is counted from the directory where the search
+ * starts, the members of this directory have a depth of 1. A condition which
+ * limits the size is only fulfilled by files.
+ * 
+ * Every condition describes the ranges of sizes, time stamps and depths
+ * outside of which it can't be fulfilled. These ranges are used to look up the
+ * entries in the index of the disk and to stop walking the directories below
+ * the maximal depth.
+ * 
+ */
+public abstract class Condition {
+
+	/**
+	 * Returns a condition which is fulfilled by files with a size inside the
+	 * given range.
+	 * 
+	 * @param minSize
+	 *            the minimal size in bytes, inclusive
+	 * @param maxSize
+	 *            the maximal size in bytes, inclusive
+	 * @return the created condition
+	 */
+	public static Condition sizeBetween(long minSize, long maxSize) {
+		return new RangeCondition(Long.MIN_VALUE, Long.MAX_VALUE, minSize,
+				maxSize, 0, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Returns a condition which is fulfilled by files with at least the given
+	 * size.
+	 * 
+	 * @param minSize
+	 *            the minimal size in bytes, inclusive
+	 * @return the created condition
+	 */
+	public static Condition sizeAtLeast(long minSize) {
+		return sizeBetween(minSize, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Returns a condition which is fulfilled by entries with a time stamp
+	 * inside the given range.
+	 * 
+	 * @param minTimestamp
+	 *            the minimal time stamp, inclusive
+	 * @param maxTimestamp
+	 *            the maximal time stamp, inclusive
+	 * @return the created condition
+	 */
+	public static Condition modifiedBetween(long minTimestamp,
+			long maxTimestamp) {
+		return new RangeCondition(minTimestamp, maxTimestamp, 0,
+				Long.MAX_VALUE, 0, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Returns a condition which is fulfilled by entries modified after the
+	 * given time stamp.
+	 * 
+	 * @param timestamp
+	 *            the time stamp, exclusive
+	 * @return the created condition
+	 */
+	public static Condition modifiedAfter(long timestamp) {
+		return modifiedBetween(
+				timestamp == Long.MAX_VALUE ? timestamp : timestamp + 1,
+				Long.MAX_VALUE);
+	}
+
+	/**
+	 * Returns a condition which is fulfilled by entries with a depth inside
+	 * the given range.
+	 * 
+	 * @param minDepth
+	 *            the minimal depth, inclusive
+	 * @param maxDepth
+	 *            the maximal depth, inclusive
+	 * @return the created condition
+	 */
+	public static Condition depthBetween(int minDepth, int maxDepth) {
+		return new RangeCondition(Long.MIN_VALUE, Long.MAX_VALUE, 0,
+				Long.MAX_VALUE, minDepth, maxDepth);
+	}
+
+	/**
+	 * Returns a condition which is fulfilled if all given conditions are
+	 * fulfilled.
+	 * 
+	 * @param conditions
+	 *            the combined conditions, at least one
+	 * @return the created condition
+	 */
+	public static Condition and(Condition... conditions) {
+		return new CombinedCondition(true, conditions);
+	}
+
+	/**
+	 * Returns a condition which is fulfilled if at least one of the given
+	 * conditions is fulfilled.
+	 * 
+	 * @param conditions
+	 *            the combined conditions, at least one
+	 * @return the created condition
+	 */
+	public static Condition or(Condition... conditions) {
+		return new CombinedCondition(false, conditions);
+	}
+
+	private long minTimestamp;
+	private long maxTimestamp;
+	private long minSize;
+	private long maxSize;
+	private int minDepth;
+	private int maxDepth;
+
+	private Condition(long minTimestamp, long maxTimestamp, long minSize,
+			long maxSize, int minDepth, int maxDepth) {
+		this.minTimestamp = minTimestamp;
+		this.maxTimestamp = maxTimestamp;
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.minDepth = minDepth;
+		this.maxDepth = maxDepth;
+	}
+
+	/**
+	 * Returns true if the entry fulfills the condition.
+	 * 
+	 * @param entry
+	 *            the meta data of the entry, including the size if it is a
+	 *            file
+	 * @param depth
+	 *            the depth of the entry
+	 * @return true if the condition is fulfilled
+	 */
+	public abstract boolean matches(VirtualDiskEntryInfo entry, int depth);
+
+	/**
+	 * Returns true if the size of the files is needed to check the condition.
+	 */
+	abstract boolean usesSize();
+
+	long getMinTimestamp() {
+		return minTimestamp;
+	}
+
+	long getMaxTimestamp() {
+		return maxTimestamp;
+	}
+
+	long getMinSize() {
+		return minSize;
+	}
+
+	long getMaxSize() {
+		return maxSize;
+	}
+
+	int getMinDepth() {
+		return minDepth;
+	}
+
+	int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * Returns true if only files can fulfill the condition.
+	 */
+	boolean isSizeLimited() {
+		return minSize > 0 || maxSize < Long.MAX_VALUE;
+	}
+
+	void intersect(Condition condition) {
+		minTimestamp = Math.max(minTimestamp, condition.minTimestamp);
+		maxTimestamp = Math.min(maxTimestamp, condition.maxTimestamp);
+		minSize = Math.max(minSize, condition.minSize);
+		maxSize = Math.min(maxSize, condition.maxSize);
+		minDepth = Math.max(minDepth, condition.minDepth);
+		maxDepth = Math.min(maxDepth, condition.maxDepth);
+	}
+
+	void unite(Condition condition) {
+		minTimestamp = Math.min(minTimestamp, condition.minTimestamp);
+		maxTimestamp = Math.max(maxTimestamp, condition.maxTimestamp);
+		minSize = Math.min(minSize, condition.minSize);
+		maxSize = Math.max(maxSize, condition.maxSize);
+		minDepth = Math.min(minDepth, condition.minDepth);
+		maxDepth = Math.max(maxDepth, condition.maxDepth);
+	}
+
+	/**
+	 * Condition on the ranges of the meta data.
+	 */
+	private static final class RangeCondition extends Condition {
+
+		private RangeCondition(long minTimestamp, long maxTimestamp,
+				long minSize, long maxSize, int minDepth, int maxDepth) {
+			super(minTimestamp, maxTimestamp, minSize, maxSize, minDepth,
+					maxDepth);
+		}
+
+		@Override
+		public boolean matches(VirtualDiskEntryInfo entry, int depth) {
+			return entry.getTimestamp() >= getMinTimestamp()
+					&& entry.getTimestamp() <= getMaxTimestamp()
+					&& depth >= getMinDepth()
+					&& depth <= getMaxDepth()
+					&& (!isSizeLimited() || (entry.isFile()
+							&& entry.getSize() >= getMinSize() && entry
+							.getSize() <= getMaxSize()));
+		}
+
+		@Override
+		boolean usesSize() {
+			return isSizeLimited();
+		}
+	}
+
+	/**
+	 * Combination of conditions. The ranges are the intersection of the ranges
+	 * of the conditions if all of them must be fulfilled, otherwise they
+	 * contain the ranges of all conditions.
+	 */
+	private static final class CombinedCondition extends Condition {
+		private final boolean all;
+		private final List<Condition> conditions;
+
+		private CombinedCondition(boolean all, Condition... conditions) {
+			super(first(conditions).minTimestamp,
+					first(conditions).maxTimestamp, first(conditions).minSize,
+					first(conditions).maxSize, first(conditions).minDepth,
+					first(conditions).maxDepth);
+			this.all = all;
+			this.conditions = Arrays.asList(conditions);
+			for (Condition condition : conditions) {
+				if (all) {
+					intersect(condition);
+				} else {
+					unite(condition);
+				}
+			}
+		}
+
+		private static Condition first(Condition... conditions) {
+			if (conditions.length == 0) {
+				throw new IllegalArgumentException("No conditions to combine");
+			}
+			return conditions[0];
+		}
+
+		@Override
+		public boolean matches(VirtualDiskEntryInfo entry, int depth) {
+			for (Condition condition : conditions) {
+				if (condition.matches(entry, depth) != all) {
+					return !all;
+				}
+			}
+			return all;
+		}
+
+		@Override
+		boolean usesSize() {
+			for (Condition condition : conditions) {
+				if (condition.usesSize()) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+}
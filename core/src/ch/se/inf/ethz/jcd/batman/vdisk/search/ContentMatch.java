@@ -0,0 +1,30 @@
+package ch.se.inf.ethz.jcd.batman.vdisk.search;
+
+import ch.se.inf.ethz.jcd.batman.io.VDiskFile;
+
+/**
+ * Match found by a content search.
+ * 
+ */
+public class ContentMatch {
+	private final VDiskFile file;
+	private final long offset;
+
+	public ContentMatch(VDiskFile file, long offset) {
+		this.file = file;
+		this.offset = offset;
+	}
+
+	public VDiskFile getFile() {
+		return file;
+	}
+
+	/**
+	 * Returns the offset of the start of the match inside the file.
+	 * 
+	 * @return the offset in bytes
+	 */
+	public long getOffset() {
+		return offset;
+	}
+}
@@ -0,0 +1,268 @@
+package ch.se.inf.ethz.jcd.batman.vdisk.search;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDiskSpace;
+
+/**
+ * Finds a literal or a pattern inside the data of a file.
+ * 
+ * The data is read in chunks of {@value #CHUNK_SIZE} bytes. Consecutive chunks
+ * overlap, so matches which span the end of a chunk are found in the next
+ * chunk. Literals are searched with the Boyer-Moore-Horspool algorithm on
+ * their UTF-8 encoded bytes, if the search is case insensitive only the ASCII
+ * letters are folded. Patterns are matched against the data decoded as
+ * ISO-8859-1, so every byte is one character.
+ * 
+ * A pattern is matched against a region of the chunk which starts after the
+ * last {@value #MAX_PATTERN_MATCH_LENGTH} bytes of the previous chunk. The
+ * bounds of the region are transparent and not anchoring, so {@code ^},
+ * {@code \b} and look-behinds see the preceding data and only the start and
+ * the end of the file are anchors. Matches of a pattern must not be longer
+ * than {@value #MAX_PATTERN_MATCH_LENGTH} bytes and look-arounds must not reach
+ * further than {@value #MAX_PATTERN_MATCH_LENGTH} bytes, longer matches may be
+ * cut or missed at the end of a chunk.
+ */
+abstract class ContentMatcher {
+
+	/**
+	 * Receives the offsets of the matches in the data of a file.
+	 */
+	interface MatchHandler {
+
+		/**
+		 * Called for every match.
+		 * 
+		 * @param offset
+		 *            the offset of the start of the match inside the file
+		 * @return true if the search should continue, false to stop it
+		 */
+		boolean matchFound(long offset);
+	}
+
+	static final int CHUNK_SIZE = 256 * 1024;
+
+	/**
+	 * Maximum length of a pattern match which is found at any position of
+	 * the data, and number of bytes a look-around or boundary of a pattern
+	 * can see.
+	 */
+	static final int MAX_PATTERN_MATCH_LENGTH = 4096;
+
+	private static final Charset TERM_CHARSET = Charset.forName("UTF-8");
+	private static final Charset DATA_CHARSET = Charset.forName("ISO-8859-1");
+
+	/**
+	 * Returns a matcher which finds the given literal.
+	 * 
+	 * @param term
+	 *            the literal to find, must not be empty
+	 * @param caseSensitive
+	 *            true if the case of the ASCII letters has to match
+	 * @return the created matcher
+	 */
+	static ContentMatcher literal(String term, boolean caseSensitive) {
+		if (term.isEmpty()) {
+			throw new IllegalArgumentException("Search term must not be empty");
+		}
+		return new LiteralMatcher(term.getBytes(TERM_CHARSET), caseSensitive);
+	}
+
+	/**
+	 * Returns a matcher which finds the given pattern.
+	 * 
+	 * @param pattern
+	 *            the pattern to find
+	 * @return the created matcher
+	 */
+	static ContentMatcher pattern(Pattern pattern) {
+		return new PatternMatcher(pattern);
+	}
+
+	/**
+	 * Searches the data and passes the offsets of the matches to the handler,
+	 * until all data has been searched or the handler stops the search.
+	 * 
+	 * @param data
+	 *            the data of the file
+	 * @param handler
+	 *            the handler which receives the matches
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	void search(IVirtualDiskSpace data, MatchHandler handler)
+			throws IOException {
+		long size = data.getSize();
+		int overlap = getOverlap();
+		int context = getContext();
+		byte[] chunk = new byte[(int) Math.min(
+				Math.max(CHUNK_SIZE, 2 * (overlap + context)), size)];
+		long start = 0;
+		while (start < size) {
+			// the chunk starts with the context before the searched data
+			int from = (int) Math.min(context, start);
+			long chunkStart = start - from;
+			int length = (int) Math.min(chunk.length, size - chunkStart);
+			if (length < chunk.length) {
+				chunk = new byte[length];
+			}
+			data.read(chunkStart, chunk);
+			boolean last = chunkStart + length >= size;
+			int limit = last ? length : length - overlap;
+			if (!search(chunk, from, length, limit, chunkStart, handler)) {
+				return;
+			}
+			start = chunkStart + limit;
+		}
+	}
+
+	/**
+	 * Returns the number of bytes at the end of a chunk which are searched
+	 * again at the start of the next chunk.
+	 */
+	protected abstract int getOverlap();
+
+	/**
+	 * Returns the number of bytes before the searched data which are read
+	 * with a chunk, as context of the matches at the start of the chunk.
+	 */
+	protected abstract int getContext();
+
+	/**
+	 * Searches the matches which start at or after from and before the limit
+	 * in the chunk. The bytes before from are only context.
+	 * 
+	 * @return false if the handler stopped the search
+	 */
+	protected abstract boolean search(byte[] chunk, int from, int length,
+			int limit, long offset, MatchHandler handler);
+
+	/**
+	 * Boyer-Moore-Horspool search of a literal.
+	 */
+	private static final class LiteralMatcher extends ContentMatcher {
+		private final byte[] term;
+		private final boolean caseSensitive;
+		private final int[] shifts = new int[256];
+
+		private LiteralMatcher(byte[] term, boolean caseSensitive) {
+			this.caseSensitive = caseSensitive;
+			this.term = new byte[term.length];
+			for (int i = 0; i < term.length; i++) {
+				this.term[i] = fold(term[i]);
+			}
+			Arrays.fill(shifts, term.length);
+			for (int i = 0; i < term.length - 1; i++) {
+				shifts[this.term[i] & 0xff] = term.length - 1 - i;
+			}
+		}
+
+		private byte fold(byte b) {
+			return (!caseSensitive && b >= 'A' && b <= 'Z') ? (byte) (b
+					+ 'a' - 'A') : b;
+		}
+
+		@Override
+		protected int getOverlap() {
+			return term.length - 1;
+		}
+
+		@Override
+		protected int getContext() {
+			return 0;
+		}
+
+		@Override
+		protected boolean search(byte[] chunk, int from, int length,
+				int limit, long offset, MatchHandler handler) {
+			int last = term.length - 1;
+			for (int i = from; i < limit && i + last < length; i += shifts[fold(chunk[i
+					+ last]) & 0xff]) {
+				int j = last;
+				while (j >= 0 && fold(chunk[i + j]) == term[j]) {
+					j--;
+				}
+				if (j < 0 && !handler.matchFound(offset + i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Search of a regular expression.
+	 */
+	private static final class PatternMatcher extends ContentMatcher {
+		private final Pattern pattern;
+
+		private PatternMatcher(Pattern pattern) {
+			this.pattern = pattern;
+		}
+
+		@Override
+		protected int getOverlap() {
+			return MAX_PATTERN_MATCH_LENGTH;
+		}
+
+		@Override
+		protected int getContext() {
+			return MAX_PATTERN_MATCH_LENGTH;
+		}
+
+		@Override
+		protected boolean search(byte[] chunk, int from, int length,
+				int limit, long offset, MatchHandler handler) {
+			Matcher matcher = pattern.matcher(new ByteSequence(chunk, 0,
+					length));
+			matcher.region(from, length);
+			matcher.useTransparentBounds(true);
+			matcher.useAnchoringBounds(false);
+			while (matcher.find() && matcher.start() < limit) {
+				if (!handler.matchFound(offset + matcher.start())) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Bytes seen as ISO-8859-1 characters, without copying them.
+	 */
+	private static final class ByteSequence implements CharSequence {
+		private final byte[] bytes;
+		private final int start;
+		private final int end;
+
+		private ByteSequence(byte[] bytes, int start, int end) {
+			this.bytes = bytes;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public int length() {
+			return end - start;
+		}
+
+		@Override
+		public char charAt(int index) {
+			return (char) (bytes[start + index] & 0xff);
+		}
+
+		@Override
+		public CharSequence subSequence(int from, int to) {
+			return new ByteSequence(bytes, start + from, start + to);
+		}
+
+		@Override
+		public String toString() {
+			return new String(bytes, start, end - start, DATA_CHARSET);
+		}
+	}
+}
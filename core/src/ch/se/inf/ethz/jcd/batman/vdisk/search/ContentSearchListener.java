@@ -0,0 +1,32 @@
+package ch.se.inf.ethz.jcd.batman.vdisk.search;
+
+import java.io.IOException;
+
+import ch.se.inf.ethz.jcd.batman.io.VDiskFile;
+
+/**
+ * Receives the matches found by a content search while the search is running.
+ * 
+ * @see VirtualDiskSearch#searchContent(Settings, String,
+ *      ContentSearchListener, VDiskFile...)
+ */
+public interface ContentSearchListener {
+
+	/**
+	 * Called for every match inside the data of a file. The listener is always
+	 * called by the thread which started the search. The matches of a file
+	 * are passed in ascending order, but the matches of different files may
+	 * be interleaved.
+	 * 
+	 * @param file
+	 *            the file which contains the match
+	 * @param offset
+	 *            the offset in bytes of the start of the match inside the
+	 *            file
+	 * @return true if the search should continue, false to stop the search
+	 * @throws IOException
+	 *             if an I/O error occurs, which stops the search
+	 */
+	boolean matchFound(VDiskFile file, long offset) throws IOException;
+
+}
@@ -0,0 +1,24 @@
+package ch.se.inf.ethz.jcd.batman.vdisk.search;
+
+import java.io.IOException;
+
+/**
+ * Can be implemented by a {@link SearchResultListener} or
+ * {@link ContentSearchListener} which has to be called regularly while the
+ * directories are walked, also if nothing is found. The listener can use it to
+ * pass on collected results or to stop a search which has been cancelled.
+ */
+public interface SearchProgressListener {
+
+	/**
+	 * Called at least every {@link VirtualDiskSearch#PROGRESS_INTERVAL}
+	 * milliseconds while the directories are walked. The listener is always
+	 * called by the thread which started the search.
+	 * 
+	 * @return true if the search should continue, false to stop the search
+	 * @throws IOException
+	 *             if an I/O error occurs, which stops the search
+	 */
+	boolean searchProgressed() throws IOException;
+
+}
@@ -0,0 +1,27 @@
+package ch.se.inf.ethz.jcd.batman.vdisk.search;
+
+import java.io.IOException;
+
+import ch.se.inf.ethz.jcd.batman.io.VDiskFile;
+
+/**
+ * Receives the entries found by a search while the search is running.
+ * 
+ * @see VirtualDiskSearch#searchName(Settings, String, SearchResultListener,
+ *      VDiskFile...)
+ */
+public interface SearchResultListener {
+
+	/**
+	 * Called for every found entry. The listener is always called by the
+	 * thread which started the search.
+	 * 
+	 * @param entry
+	 *            the found entry
+	 * @return true if the search should continue, false to stop the search
+	 * @throws IOException
+	 *             if an I/O error occurs, which stops the search
+	 */
+	boolean entryFound(VDiskFile entry) throws IOException;
+
+}
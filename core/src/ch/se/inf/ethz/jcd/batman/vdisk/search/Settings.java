@@ -9,12 +9,16 @@ public class Settings {
 	private boolean checkFolders;
 	private boolean checkFiles;
 	private boolean checkSubFolders;
+	private int maxResults;
+	private Condition condition;
 
 	public Settings() {
 		caseSensitive = false;
 		checkFolders = false;
 		checkFiles = false;
 		checkSubFolders = false;
+		maxResults = 0;
+		condition = null;
 	}
 
 	public boolean isCaseSensitive() {
@@ -48,4 +52,31 @@ public class Settings {
 	public void setCheckSubFolders(boolean checkSubFolders) {
 		this.checkSubFolders = checkSubFolders;
 	}
+
+	/**
+	 * Returns the number of entries after which the search stops.
+	 * 
+	 * @return the maximum number of results or 0 if the number is not limited
+	 */
+	public int getMaxResults() {
+		return maxResults;
+	}
+
+	public void setMaxResults(int maxResults) {
+		this.maxResults = maxResults;
+	}
+
+	/**
+	 * Returns the condition on the meta data which the found entries have to
+	 * fulfill in addition to the name.
+	 * 
+	 * @return the condition or null if the meta data is not checked
+	 */
+	public Condition getCondition() {
+		return condition;
+	}
+
+	public void setCondition(Condition condition) {
+		this.condition = condition;
+	}
 }
@@ -1,18 +1,98 @@
 package ch.se.inf.ethz.jcd.batman.vdisk.search;
 
 import java.io.IOException;
-import java.util.LinkedList;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 import ch.se.inf.ethz.jcd.batman.io.VDiskFile;
+import ch.se.inf.ethz.jcd.batman.vdisk.INameIndex;
+import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDisk;
+import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDiskSpace;
+import ch.se.inf.ethz.jcd.batman.vdisk.VirtualDiskEntryInfo;
 
 /**
- * Implements a search over file and directory names.
+ * Implements a search over file and directory names and their meta data, and
+ * a search inside the data of the files.
+ * 
+ * If the disk has a name index (see {@link IVirtualDisk#createNameIndex()}),
+ * the found entries are taken from the index instead of walking the
+ * directories below the parents. Otherwise the directories are walked in
+ * parallel by a {@link ForkJoinPool}. A {@link Condition} given by the
+ * {@link Settings} is checked with the time stamps and sizes stored in the
+ * index, or while the directories are walked. The data of the files is
+ * always searched while walking the directories, the files are searched in
+ * parallel.
+ * 
+ * The found entries are either returned as a list or passed to a
+ * {@link SearchResultListener}, or {@link ContentSearchListener}, as soon as
+ * they are found. The search stops as
+ * soon as the listener asks for it or the maximum number of results given by
+ * the {@link Settings} is reached. A listener which implements
+ * {@link SearchProgressListener} is additionally called regularly while the
+ * directories are walked.
  * 
  */
 public class VirtualDiskSearch {
 
+	/**
+	 * Decides whether an entry with the given name is found.
+	 */
+	private interface NameMatcher {
+		boolean matches(String name);
+	}
+
+	/**
+	 * Matcher of the searches which only check the meta data.
+	 */
+	private static final NameMatcher ALL_NAMES = new NameMatcher() {
+		@Override
+		public boolean matches(String name) {
+			return true;
+		}
+	};
+
+	/**
+	 * Pool of the tasks which walk the directories, if the disk has no name
+	 * index.
+	 */
+	private static final ForkJoinPool POOL = new ForkJoinPool();
+
+	/**
+	 * Maximum number of found entries or matches which are queued until the
+	 * calling thread passes them to the listener. The tasks wait while the
+	 * queue is full.
+	 */
+	private static final int QUEUE_CAPACITY = 1024;
+
+	/**
+	 * Milliseconds a task waits for space in the full queue before it checks
+	 * whether the search has been stopped.
+	 */
+	private static final long OFFER_INTERVAL = 10;
+
+	/**
+	 * Milliseconds after which a {@link SearchProgressListener} is called
+	 * while the directories are walked.
+	 */
+	public static final long PROGRESS_INTERVAL = 100;
+
+	/**
+	 * Marks the end of the found entries in the queue of a walk.
+	 */
+	private static final Found DONE = new Found(null, -1);
+
 	/**
 	 * Searches the given term inside entry names.
 	 * 
@@ -27,63 +107,743 @@ public class VirtualDiskSearch {
 	 */
 	public static List<VDiskFile> searchName(Settings settings, String term,
 			VDiskFile... parents) throws IOException {
-		List<VDiskFile> foundEntries = new LinkedList<>();
+		ResultCollector collector = new ResultCollector();
+		searchName(settings, term, collector, parents);
+		return collector.entries;
+	}
+
+	/**
+	 * Searches the given term inside entry names and passes every found entry
+	 * to the given listener.
+	 * 
+	 * @param settings
+	 *            search settings to use
+	 * @param term
+	 *            the term to search
+	 * @param listener
+	 *            the listener which receives the found entries
+	 * @param parents
+	 *            list of parent directories where the search should start
+	 * @throws IOException
+	 */
+	public static void searchName(Settings settings, String term,
+			SearchResultListener listener, VDiskFile... parents)
+			throws IOException {
+		ResultEmitter emitter = new ResultEmitter(settings, listener);
+		INameIndex index = getNameIndex(parents);
+		if (index != null) {
+			emitByParents(settings, index.search(term,
+					settings.isCaseSensitive(), settings.isCheckFiles(),
+					settings.isCheckFolders()), searchMetadata(settings, index),
+					emitter, parents);
+			return;
+		}
+
+		final boolean caseSensitive = settings.isCaseSensitive();
+		final String searchTerm = caseSensitive ? term : term.toLowerCase();
+		walk(settings, new NameMatcher() {
+			@Override
+			public boolean matches(String name) {
+				return caseSensitive ? name.contains(searchTerm) : name
+						.toLowerCase().contains(searchTerm);
+			}
+		}, null, emitter, parents);
+	}
+
+	public static List<VDiskFile> searchName(Settings settings, Pattern term,
+			VDiskFile... parents) throws IOException {
+		ResultCollector collector = new ResultCollector();
+		searchName(settings, term, collector, parents);
+		return collector.entries;
+	}
+
+	/**
+	 * Searches the given pattern inside entry names and passes every found
+	 * entry to the given listener.
+	 * 
+	 * @param settings
+	 *            search settings to use
+	 * @param term
+	 *            the pattern to search
+	 * @param listener
+	 *            the listener which receives the found entries
+	 * @param parents
+	 *            list of parent directories where the search should start
+	 * @throws IOException
+	 */
+	public static void searchName(Settings settings, final Pattern term,
+			SearchResultListener listener, VDiskFile... parents)
+			throws IOException {
+		ResultEmitter emitter = new ResultEmitter(settings, listener);
+		INameIndex index = getNameIndex(parents);
+		if (index != null) {
+			emitByParents(settings, index.search(term,
+					settings.isCheckFiles(), settings.isCheckFolders()),
+					searchMetadata(settings, index), emitter, parents);
+			return;
+		}
+
+		walk(settings, new NameMatcher() {
+			@Override
+			public boolean matches(String name) {
+				return term.matcher(name).find();
+			}
+		}, null, emitter, parents);
+	}
+
+	/**
+	 * Searches the entries which fulfill the condition of the settings,
+	 * regardless of their names. If the settings contain no condition, all
+	 * entries are found.
+	 * 
+	 * @param settings
+	 *            search settings to use
+	 * @param parents
+	 *            list of parent directories where the search should start
+	 * @return list of found disk entries
+	 * @throws IOException
+	 */
+	public static List<VDiskFile> searchMetadata(Settings settings,
+			VDiskFile... parents) throws IOException {
+		ResultCollector collector = new ResultCollector();
+		searchMetadata(settings, collector, parents);
+		return collector.entries;
+	}
+
+	/**
+	 * Searches the entries which fulfill the condition of the settings,
+	 * regardless of their names, and passes every found entry to the given
+	 * listener. If the settings contain no condition, all entries are found.
+	 * 
+	 * @param settings
+	 *            search settings to use
+	 * @param listener
+	 *            the listener which receives the found entries
+	 * @param parents
+	 *            list of parent directories where the search should start
+	 * @throws IOException
+	 */
+	public static void searchMetadata(Settings settings,
+			SearchResultListener listener, VDiskFile... parents)
+			throws IOException {
+		ResultEmitter emitter = new ResultEmitter(settings, listener);
+		INameIndex index = getNameIndex(parents);
+		if (index != null) {
+			SortedMap<String, VirtualDiskEntryInfo> entries = searchMetadata(
+					settings, index);
+			if (entries == null) {
+				entries = index.search(Long.MIN_VALUE, Long.MAX_VALUE, 0,
+						Long.MAX_VALUE, settings.isCheckFiles(),
+						settings.isCheckFolders());
+			}
+			emitByParents(settings, entries.keySet(), entries, emitter,
+					parents);
+			return;
+		}
+
+		walk(settings, ALL_NAMES, null, emitter, parents);
+	}
+
+	/**
+	 * Searches the given literal inside the data of the files.
+	 * 
+	 * @param settings
+	 *            search settings to use
+	 * @param term
+	 *            the literal to search, must not be empty
+	 * @param parents
+	 *            list of parent directories where the search should start
+	 * @return list of found matches
+	 * @throws IOException
+	 */
+	public static List<ContentMatch> searchContent(Settings settings,
+			String term, VDiskFile... parents) throws IOException {
+		MatchCollector collector = new MatchCollector();
+		searchContent(settings, term, collector, parents);
+		return collector.matches;
+	}
+
+	/**
+	 * Searches the given literal inside the data of the files and passes
+	 * every match to the given listener. The case of ASCII letters is ignored
+	 * if the search is not case sensitive.
+	 * 
+	 * @param settings
+	 *            search settings to use
+	 * @param term
+	 *            the literal to search, must not be empty
+	 * @param listener
+	 *            the listener which receives the matches
+	 * @param parents
+	 *            list of parent directories where the search should start
+	 * @throws IOException
+	 */
+	public static void searchContent(Settings settings, String term,
+			ContentSearchListener listener, VDiskFile... parents)
+			throws IOException {
+		walk(settings, ALL_NAMES,
+				ContentMatcher.literal(term, settings.isCaseSensitive()),
+				new ResultEmitter(settings, listener), parents);
+	}
+
+	public static List<ContentMatch> searchContent(Settings settings,
+			Pattern term, VDiskFile... parents) throws IOException {
+		MatchCollector collector = new MatchCollector();
+		searchContent(settings, term, collector, parents);
+		return collector.matches;
+	}
+
+	/**
+	 * Searches the given pattern inside the data of the files and passes
+	 * every match to the given listener. The data is matched as ISO-8859-1
+	 * characters. {@code ^} and {@code $} only match at the start and the end
+	 * of a file. Matches may be at most 4096 bytes long, longer matches can be
+	 * cut or missed, see {@link ContentMatcher}.
+	 * 
+	 * @param settings
+	 *            search settings to use
+	 * @param term
+	 *            the pattern to search
+	 * @param listener
+	 *            the listener which receives the matches
+	 * @param parents
+	 *            list of parent directories where the search should start
+	 * @throws IOException
+	 */
+	public static void searchContent(Settings settings, Pattern term,
+			ContentSearchListener listener, VDiskFile... parents)
+			throws IOException {
+		walk(settings, ALL_NAMES, ContentMatcher.pattern(term),
+				new ResultEmitter(settings, listener), parents);
+	}
+
+	/**
+	 * Looks up the entries inside the ranges of the condition of the settings
+	 * in the index. Returns null if the settings contain no condition.
+	 */
+	private static SortedMap<String, VirtualDiskEntryInfo> searchMetadata(
+			Settings settings, INameIndex index) throws IOException {
+		Condition condition = settings.getCondition();
+		if (condition == null) {
+			return null;
+		}
+		return index.search(condition.getMinTimestamp(),
+				condition.getMaxTimestamp(), condition.getMinSize(),
+				condition.getMaxSize(), settings.isCheckFiles(),
+				settings.isCheckFolders());
+	}
+
+	/**
+	 * Collects the found entries of a search in a list.
+	 */
+	private static final class ResultCollector implements
+			SearchResultListener {
+		private final List<VDiskFile> entries = new ArrayList<>();
+
+		@Override
+		public boolean entryFound(VDiskFile entry) {
+			entries.add(entry);
+			return true;
+		}
+	}
+
+	/**
+	 * Collects the matches of a content search in a list.
+	 */
+	private static final class MatchCollector implements
+			ContentSearchListener {
+		private final List<ContentMatch> matches = new ArrayList<>();
 
-		String searchTerm = term;
-		if (!settings.isCaseSensitive()) {
-			searchTerm = searchTerm.toLowerCase();
+		@Override
+		public boolean matchFound(VDiskFile file, long offset) {
+			matches.add(new ContentMatch(file, offset));
+			return true;
 		}
+	}
+
+	/**
+	 * Entry found by a {@link SearchTask} or match found by a
+	 * {@link ContentTask}.
+	 */
+	private static final class Found {
+		private final String path;
+		private final long offset;
 
+		private Found(String path, long offset) {
+			this.path = path;
+			this.offset = offset;
+		}
+	}
+
+	/**
+	 * Passes the found entries or matches to the listener, until the listener
+	 * stops the search or the maximum number of results is reached.
+	 */
+	private static final class ResultEmitter {
+		private final SearchResultListener listener;
+		private final ContentSearchListener contentListener;
+		private final SearchProgressListener progressListener;
+		private final int maxResults;
+		private int resultCount;
+		private boolean stopped;
+
+		private ResultEmitter(Settings settings, SearchResultListener listener) {
+			this.listener = listener;
+			this.contentListener = null;
+			this.progressListener = getProgressListener(listener);
+			this.maxResults = settings.getMaxResults();
+		}
+
+		private ResultEmitter(Settings settings,
+				ContentSearchListener contentListener) {
+			this.listener = null;
+			this.contentListener = contentListener;
+			this.progressListener = getProgressListener(contentListener);
+			this.maxResults = settings.getMaxResults();
+		}
+
+		private static SearchProgressListener getProgressListener(
+				Object listener) {
+			if (listener instanceof SearchProgressListener) {
+				return (SearchProgressListener) listener;
+			}
+			return null;
+		}
+
+		/**
+		 * Passes the entry to the listener and returns true if the search
+		 * should continue.
+		 */
+		private boolean emit(VDiskFile entry) throws IOException {
+			return emit(entry, -1);
+		}
+
+		/**
+		 * Passes the entry, or the match at the given offset of a content
+		 * search, to the listener and returns true if the search should
+		 * continue.
+		 */
+		private boolean emit(VDiskFile entry, long offset) throws IOException {
+			if (!stopped) {
+				resultCount++;
+				boolean proceed = (contentListener == null) ? listener
+						.entryFound(entry) : contentListener.matchFound(entry,
+						offset);
+				stopped = !proceed
+						|| (maxResults > 0 && resultCount >= maxResults);
+			}
+			return !stopped;
+		}
+
+		/**
+		 * Tells the progress listener, if there is one, that the search is
+		 * still running and returns true if the search should continue.
+		 */
+		private boolean progress() throws IOException {
+			if (!stopped && progressListener != null) {
+				stopped = !progressListener.searchProgressed();
+			}
+			return !stopped;
+		}
+
+		/**
+		 * Returns the number of results which may still be passed to the
+		 * listener, 0 if the number is not limited.
+		 */
+		private int getRemainingResults() {
+			return (maxResults > 0) ? maxResults - resultCount : 0;
+		}
+
+		private boolean isStopped() {
+			return stopped;
+		}
+	}
+
+	/**
+	 * Walks the directories below the parents in parallel, every directory is
+	 * read by its own {@link SearchTask}. If a content matcher is given, the
+	 * data of every file is searched by its own {@link ContentTask}. The found
+	 * entries or matches are passed to the listener in the order in which they
+	 * are found.
+	 */
+	private static void walk(Settings settings, NameMatcher matcher,
+			ContentMatcher contentMatcher, ResultEmitter emitter,
+			VDiskFile... parents) throws IOException {
 		for (VDiskFile parent : parents) {
-			VDiskFile[] children = parent.listFiles();
-			for (VDiskFile child : children) {
-				boolean check = settings.isCheckFiles() && child.isFile()
-						|| settings.isCheckFolders() && child.isDirectory();
-
-				if (check) {
-					if (settings.isCaseSensitive()) {
-						if (child.getName().contains(searchTerm)) {
-							foundEntries.add(child);
-						}
-					} else {
-						if (child.getName().toLowerCase().contains(searchTerm)) {
-							foundEntries.add(child);
-						}
+			if (emitter.isStopped()) {
+				return;
+			}
+			if (parent.isDirectory()) {
+				walk(settings, matcher, contentMatcher, emitter, parent);
+			}
+		}
+	}
+
+	/**
+	 * Walks the directories below the given parent. The tasks put the found
+	 * entries or matches into a bounded queue, from which they are passed to
+	 * the listener by the calling thread. If the listener stops the search,
+	 * the remaining tasks return without reading their directories or files.
+	 * The progress listener is called whenever {@link #PROGRESS_INTERVAL}
+	 * milliseconds have passed, also if nothing is found meanwhile.
+	 */
+	private static void walk(Settings settings, NameMatcher matcher,
+			ContentMatcher contentMatcher, ResultEmitter emitter,
+			VDiskFile parent) throws IOException {
+		WalkResults results = new WalkResults(emitter.getRemainingResults());
+		ForkJoinTask<Void> task = POOL.submit(new WalkTask(new SearchTask(
+				parent.getDisk(), settings, matcher, contentMatcher, results,
+				parent.getDiskEntry().getPosition(), parent.getPath(), 1),
+				results));
+		try {
+			long lastProgress = System.currentTimeMillis();
+			while (!emitter.isStopped()) {
+				Found next = results.poll();
+				if (next == DONE) {
+					break;
+				}
+				if (next != null) {
+					emitter.emit(new VDiskFile(next.path, parent.getDisk()),
+							next.offset);
+				}
+				if (System.currentTimeMillis() - lastProgress >= PROGRESS_INTERVAL) {
+					emitter.progress();
+					lastProgress = System.currentTimeMillis();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Search interrupted");
+		} finally {
+			results.stop();
+		}
+		try {
+			task.join();
+		} catch (SearchException e) {
+			throw (IOException) e.getCause();
+		}
+	}
+
+	/**
+	 * Bounded queue of the entries or matches found by the tasks of a walk.
+	 * The tasks wait while the queue is full. They stop as soon as the
+	 * calling thread stops the walk, or as soon as they have found the
+	 * maximum number of results, so a file with many matches doesn't fill the
+	 * queue with matches which are never used.
+	 */
+	private static final class WalkResults {
+		private final BlockingQueue<Found> queue = new ArrayBlockingQueue<>(
+				QUEUE_CAPACITY);
+		private final AtomicBoolean stopped = new AtomicBoolean(false);
+		private final AtomicInteger remaining;
+
+		/**
+		 * @param maxResults
+		 *            the maximum number of results, 0 if the number is not
+		 *            limited
+		 */
+		private WalkResults(int maxResults) {
+			this.remaining = new AtomicInteger((maxResults > 0) ? maxResults
+					: Integer.MAX_VALUE);
+		}
+
+		/**
+		 * Returns true if the tasks don't have to search any further.
+		 */
+		private boolean isStopped() {
+			return stopped.get() || remaining.get() <= 0;
+		}
+
+		/**
+		 * Puts a found entry or match into the queue, waiting while the queue
+		 * is full. Returns false without putting it, if the walk has been
+		 * stopped or the maximum number of results has already been found.
+		 */
+		private boolean put(Found next) {
+			if (remaining.get() <= 0 || remaining.getAndDecrement() <= 0) {
+				return false;
+			}
+			return offer(next);
+		}
+
+		/**
+		 * Marks the end of the results, after all tasks have finished.
+		 */
+		private void finish() {
+			offer(DONE);
+		}
+
+		private boolean offer(Found next) {
+			try {
+				while (!stopped.get()) {
+					if (queue.offer(next, OFFER_INTERVAL,
+							TimeUnit.MILLISECONDS)) {
+						return true;
 					}
 				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
 			}
+			return false;
+		}
+
+		/**
+		 * Waits at most {@link #PROGRESS_INTERVAL} milliseconds for the next
+		 * result and returns it, or null if there is none yet.
+		 */
+		private Found poll() throws InterruptedException {
+			return queue.poll(PROGRESS_INTERVAL, TimeUnit.MILLISECONDS);
+		}
 
-			if (settings.isCheckSubFolders()) {
-				foundEntries.addAll(searchName(settings, term, children));
+		/**
+		 * Stops the tasks, called by the calling thread once it doesn't take
+		 * any more results.
+		 */
+		private void stop() {
+			stopped.set(true);
+		}
+	}
+
+	/**
+	 * Runs the {@link SearchTask} of a parent and puts {@link #DONE} into the
+	 * queue when it is finished, so the calling thread knows that no more
+	 * entries are found.
+	 */
+	private static final class WalkTask extends RecursiveAction {
+		private static final long serialVersionUID = 2405478151389231095L;
+
+		private final SearchTask task;
+		private final WalkResults results;
+
+		private WalkTask(SearchTask task, WalkResults results) {
+			this.task = task;
+			this.results = results;
+		}
+
+		@Override
+		protected void compute() {
+			try {
+				task.invoke();
+			} finally {
+				results.finish();
 			}
 		}
+	}
+
+	/**
+	 * Wraps an {@link IOException} thrown by a {@link SearchTask}.
+	 */
+	private static final class SearchException extends RuntimeException {
+		private static final long serialVersionUID = -2650617839143284618L;
 
-		return foundEntries;
+		private SearchException(IOException cause) {
+			super(cause);
+		}
 	}
 
-	public static List<VDiskFile> searchName(Settings settings, Pattern term,
-			VDiskFile... parents) throws IOException {
-		List<VDiskFile> foundEntries = new LinkedList<>();
+	/**
+	 * Searches the members of a directory and forks a subtask for every sub
+	 * directory. The members are read with
+	 * {@link IVirtualDisk#readMembers(long, boolean)}, so the tasks don't share
+	 * any loaded entries. The sizes of the files are only read if the
+	 * condition needs them, and no subtasks are forked below the maximal depth
+	 * of the condition. For a content search, a {@link ContentTask} is forked
+	 * for every file instead of checking its name.
+	 */
+	private static final class SearchTask extends RecursiveAction {
+		private static final long serialVersionUID = 4867032718617390283L;
 
-		for (VDiskFile parent : parents) {
-			VDiskFile[] children = parent.listFiles();
-			for (VDiskFile child : children) {
-				boolean check = settings.isCheckFiles() && child.isFile()
-						|| settings.isCheckFolders() && child.isDirectory();
-
-				if (check) {
-					if (term.matcher(child.getName()).find()) {
-						foundEntries.add(child);
+		private final IVirtualDisk disk;
+		private final Settings settings;
+		private final NameMatcher matcher;
+		private final ContentMatcher contentMatcher;
+		private final WalkResults results;
+		private final long position;
+		private final String path;
+		private final int depth;
+
+		private SearchTask(IVirtualDisk disk, Settings settings,
+				NameMatcher matcher, ContentMatcher contentMatcher,
+				WalkResults results, long position, String path, int depth) {
+			this.disk = disk;
+			this.settings = settings;
+			this.matcher = matcher;
+			this.contentMatcher = contentMatcher;
+			this.results = results;
+			this.position = position;
+			this.path = path;
+			this.depth = depth;
+		}
+
+		@Override
+		protected void compute() {
+			if (results.isStopped()) {
+				return;
+			}
+			Condition condition = settings.getCondition();
+			List<VirtualDiskEntryInfo> members;
+			try {
+				members = disk.readMembers(position, condition != null
+						&& condition.usesSize());
+			} catch (IOException e) {
+				throw new SearchException(e);
+			}
+			List<RecursiveAction> subtasks = new ArrayList<>();
+			for (VirtualDiskEntryInfo member : members) {
+				if (results.isStopped()) {
+					return;
+				}
+				String memberPath = getChildPath(path, member.getName());
+				boolean check = (contentMatcher == null) ? settings
+						.isCheckFiles() && member.isFile()
+						|| settings.isCheckFolders() && member.isDirectory()
+						: member.isFile();
+				if (check && matcher.matches(member.getName())
+						&& (condition == null || condition.matches(member,
+								depth))) {
+					if (contentMatcher == null) {
+						if (!results.put(new Found(memberPath, -1))) {
+							return;
+						}
+					} else {
+						subtasks.add(new ContentTask(disk, contentMatcher,
+								results, member.getPosition(), memberPath));
 					}
 				}
+				if (settings.isCheckSubFolders() && member.isDirectory()
+						&& (condition == null || depth < condition
+								.getMaxDepth())) {
+					subtasks.add(new SearchTask(disk, settings, matcher,
+							contentMatcher, results, member.getPosition(),
+							memberPath, depth + 1));
+				}
+			}
+			invokeAll(subtasks);
+		}
+	}
+
+	/**
+	 * Searches the data of a file. The data is loaded with
+	 * {@link IVirtualDisk#loadFileData(long)}, so the files are read in
+	 * parallel without sharing a loaded entry.
+	 */
+	private static final class ContentTask extends RecursiveAction {
+		private static final long serialVersionUID = -3154925768393745720L;
+
+		private final IVirtualDisk disk;
+		private final ContentMatcher contentMatcher;
+		private final WalkResults results;
+		private final long position;
+		private final String path;
+
+		private ContentTask(IVirtualDisk disk, ContentMatcher contentMatcher,
+				WalkResults results, long position, String path) {
+			this.disk = disk;
+			this.contentMatcher = contentMatcher;
+			this.results = results;
+			this.position = position;
+			this.path = path;
+		}
+
+		@Override
+		protected void compute() {
+			if (results.isStopped()) {
+				return;
+			}
+			try {
+				IVirtualDiskSpace data = disk.loadFileData(position);
+				if (data != null) {
+					contentMatcher.search(data,
+							new ContentMatcher.MatchHandler() {
+								@Override
+								public boolean matchFound(long offset) {
+									return results.put(new Found(path,
+											offset));
+								}
+							});
+				}
+			} catch (IOException e) {
+				throw new SearchException(e);
 			}
+		}
+	}
+
+	/**
+	 * Returns the path of a child, built the same way as
+	 * {@link VDiskFile#VDiskFile(VDiskFile, String)} does.
+	 */
+	private static String getChildPath(String parentPath, String name) {
+		String separator = String.valueOf(IVirtualDisk.PATH_SEPARATOR);
+		return parentPath.equals(separator) ? separator + name : parentPath
+				+ separator + name;
+	}
 
-			if (settings.isCheckSubFolders()) {
-				foundEntries.addAll(searchName(settings, term, children));
+	/**
+	 * Returns the name index which contains all given parents or null if the
+	 * parents are not on the same disk or the disk has no name index.
+	 */
+	private static INameIndex getNameIndex(VDiskFile... parents)
+			throws IOException {
+		if (parents.length == 0) {
+			return null;
+		}
+		IVirtualDisk disk = parents[0].getDisk();
+		for (VDiskFile parent : parents) {
+			if (parent.getDisk() != disk) {
+				return null;
+			}
+		}
+		return disk.getNameIndex();
+	}
+
+	/**
+	 * Passes the entries of the given paths which are children of one of the
+	 * parents, or descendants if sub folders are searched, to the emitter. The
+	 * entries are passed in the order of the parents, like the walking search
+	 * does. If the settings contain a condition, only the entries whose meta
+	 * data is given and fulfills the condition are passed.
+	 */
+	private static void emitByParents(Settings settings,
+			Collection<String> paths,
+			SortedMap<String, VirtualDiskEntryInfo> entries,
+			ResultEmitter emitter, VDiskFile... parents) throws IOException {
+		Condition condition = settings.getCondition();
+		for (VDiskFile parent : parents) {
+			if (!parent.isDirectory()) {
+				continue;
+			}
+			String prefix = parent.getPath();
+			while (prefix.endsWith(String.valueOf(IVirtualDisk.PATH_SEPARATOR))) {
+				prefix = prefix.substring(0, prefix.length() - 1);
+			}
+			prefix += IVirtualDisk.PATH_SEPARATOR;
+			for (String path : paths) {
+				if (!path.startsWith(prefix)) {
+					continue;
+				}
+				int depth = getDepth(path, prefix.length());
+				if ((settings.isCheckSubFolders() || depth == 1)
+						&& (condition == null || entries.containsKey(path)
+								&& condition.matches(entries.get(path), depth))
+						&& !emitter.emit(new VDiskFile(parent, path
+								.substring(prefix.length())))) {
+					return;
+				}
 			}
 		}
+	}
 
-		return foundEntries;
+	/**
+	 * Returns the depth of the entry with the given path below the directory
+	 * whose path ends at the given index.
+	 */
+	private static int getDepth(String path, int start) {
+		int depth = 1;
+		for (int i = path.indexOf(IVirtualDisk.PATH_SEPARATOR, start); i >= 0; i = path
+				.indexOf(IVirtualDisk.PATH_SEPARATOR, i + 1)) {
+			depth++;
+		}
+		return depth;
 	}
 
 }
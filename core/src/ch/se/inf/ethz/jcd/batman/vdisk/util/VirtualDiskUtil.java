@@ -64,19 +64,7 @@ public class VirtualDiskUtil {
 	public static IVirtualDiskEntry getDirectoryMember(
 			IVirtualDirectory directory, String name) throws IOException {
 
-		IVirtualDiskEntry firstChild = directory.getFirstMember();
-
-		if (firstChild == null) {
-			return null;
-		} else {
-			for (IVirtualDiskEntry currentMember : firstChild) {
-				if (currentMember.getName().equals(name)) {
-					return currentMember;
-				}
-			}
-
-			return null;
-		}
+		return directory.getMember(name);
 	}
 
 	/**
@@ -0,0 +1,274 @@
+package ch.se.inf.ethz.jcd.batman.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDisk;
+import ch.se.inf.ethz.jcd.batman.vdisk.impl.VirtualDisk;
+
+public class VDiskFileChannelTest {
+	private File diskFile;
+	private IVirtualDisk disk;
+	private VDiskFile virtualFile;
+	private VDiskFileChannel channel;
+
+	@Before
+	public void setUp() throws Exception {
+		diskFile = new File("VDiskFileChannelTest.vdisk");
+		diskFile.delete();
+
+		disk = VirtualDisk.create(diskFile.getAbsolutePath());
+
+		virtualFile = new VDiskFile("/test", disk);
+		virtualFile.createNewFile();
+
+		channel = new VDiskFileChannel(virtualFile, true, true, false);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		channel.close();
+
+		disk.close();
+		diskFile.delete();
+	}
+
+	@Test
+	public void testWriteReadDirectBuffer() throws IOException {
+		// write in pieces between the writes of another file, so the data is
+		// stored in several blocks
+		VDiskFile otherFile = new VDiskFile("/other", disk);
+		otherFile.createNewFile();
+		VDiskFileChannel otherChannel = new VDiskFileChannel(otherFile, false,
+				true, true);
+		byte[] data = new byte[5000];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) (i * 7);
+		}
+		for (int i = 0; i < data.length; i += 1000) {
+			assertEquals(1000, channel.write(ByteBuffer.wrap(data, i, 1000)));
+			otherChannel.write(ByteBuffer.wrap(data, 0, 100));
+		}
+		otherChannel.close();
+		assertEquals(data.length, channel.position());
+		assertEquals(data.length, channel.size());
+
+		ByteBuffer buffer = ByteBuffer.allocateDirect(data.length + 10);
+		channel.position(0);
+		assertEquals(data.length, channel.read(buffer));
+		assertEquals(-1, channel.read(buffer));
+
+		buffer.flip();
+		byte[] readValues = new byte[buffer.remaining()];
+		buffer.get(readValues);
+		assertArrayEquals(data, readValues);
+	}
+
+	@Test
+	public void testPositionalAccess() throws IOException {
+		channel.write(ByteBuffer.wrap(new byte[] { 0x1, 0x2, 0x3, 0x4 }));
+		channel.position(1);
+
+		// positional accesses do not change the position of the channel
+		channel.write(ByteBuffer.wrap(new byte[] { 0xA, 0xB }), 3);
+		ByteBuffer buffer = ByteBuffer.allocate(3);
+		assertEquals(3, channel.read(buffer, 2));
+		assertArrayEquals(new byte[] { 0x3, 0xA, 0xB }, buffer.array());
+		assertEquals(1, channel.position());
+		assertEquals(-1, channel.read(ByteBuffer.allocate(1), 5));
+
+		// a second channel reads the same file independently
+		VDiskFileChannel reader = new VDiskFileChannel(virtualFile);
+		buffer = ByteBuffer.allocate(5);
+		assertEquals(5, reader.read(buffer));
+		assertArrayEquals(new byte[] { 0x1, 0x2, 0x3, 0xA, 0xB },
+				buffer.array());
+		reader.close();
+
+		buffer = ByteBuffer.allocate(2);
+		assertEquals(2, channel.read(buffer));
+		assertArrayEquals(new byte[] { 0x2, 0x3 }, buffer.array());
+	}
+
+	@Test
+	public void testAppendAndTruncate() throws IOException {
+		channel.write(ByteBuffer.wrap(new byte[] { 0x1, 0x2, 0x3 }));
+
+		VDiskFileChannel appender = new VDiskFileChannel(virtualFile, false,
+				true, true);
+		appender.write(ByteBuffer.wrap(new byte[] { 0x4, 0x5 }));
+		assertEquals(5, appender.position());
+		appender.close();
+
+		channel.truncate(2);
+		assertEquals(2, channel.size());
+		assertEquals(2, channel.position());
+		assertEquals(2, virtualFile.getFileSize());
+	}
+
+	@Test
+	public void testConcurrentAccess() throws Exception {
+		// store the data in several blocks
+		VDiskFile otherFile = new VDiskFile("/other", disk);
+		otherFile.createNewFile();
+		VDiskFileChannel otherChannel = new VDiskFileChannel(otherFile, false,
+				true, true);
+		final byte[] data = new byte[20000];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) (i * 7);
+		}
+		for (int i = 0; i < data.length; i += 1000) {
+			channel.write(ByteBuffer.wrap(data, i, 1000));
+			otherChannel.write(ByteBuffer.wrap(data, 0, 100));
+		}
+		otherChannel.close();
+
+		// channels and streams of the same file are used at once, the writes
+		// store the same data again
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 4; t++) {
+			final int offset = t;
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < 200; i++) {
+							int position = ((i * 4 + offset) * 97)
+									% (data.length - 100);
+							if (offset == 0) {
+								channel.write(
+										ByteBuffer.wrap(data, position, 100),
+										position);
+							} else if (offset == 1) {
+								VDiskFileInputStream in;
+								in = new VDiskFileInputStream(virtualFile);
+								in.skip(position);
+								byte[] b = new byte[100];
+								int read = in.read(b);
+								in.close();
+								check(b, read, position);
+							} else {
+								ByteBuffer buffer = ByteBuffer.allocate(100);
+								int read = channel.read(buffer, position);
+								check(buffer.array(), read, position);
+							}
+						}
+					} catch (Throwable e) {
+						failure.compareAndSet(null, e);
+					}
+				}
+
+				private void check(byte[] b, int read, int position) {
+					if (read != b.length) {
+						throw new AssertionError("Short read");
+					}
+					for (int j = 0; j < b.length; j++) {
+						if (b[j] != data[position + j]) {
+							throw new AssertionError("Wrong data at "
+									+ (position + j));
+						}
+					}
+				}
+			};
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		if (failure.get() != null) {
+			throw new AssertionError(failure.get());
+		}
+		assertTrue(channel.isOpen());
+		assertEquals(data.length, channel.size());
+	}
+
+	@Test
+	public void testParallelReads() throws Exception {
+		channel.write(ByteBuffer.wrap(new byte[] { 0x1, 0x2, 0x3, 0x4 }));
+
+		// the transfer waits inside the file until the other read is done
+		final CountDownLatch readDone = new CountDownLatch(1);
+		final AtomicBoolean readInTime = new AtomicBoolean();
+		final WritableByteChannel target = new WritableByteChannel() {
+			@Override
+			public boolean isOpen() {
+				return true;
+			}
+
+			@Override
+			public void close() {
+			}
+
+			@Override
+			public int write(ByteBuffer src) throws IOException {
+				try {
+					readInTime.set(readDone.await(10, TimeUnit.SECONDS));
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+				int count = src.remaining();
+				src.position(src.limit());
+				return count;
+			}
+		};
+		Thread transfer = new Thread() {
+			@Override
+			public void run() {
+				try {
+					channel.transferTo(0, 4, target);
+				} catch (IOException e) {
+					// the result is checked by the main thread
+				}
+			}
+		};
+		transfer.start();
+		Thread.sleep(100);
+
+		VDiskFileChannel reader = new VDiskFileChannel(virtualFile);
+		ByteBuffer buffer = ByteBuffer.allocate(2);
+		assertEquals(2, reader.read(buffer, 2));
+		readDone.countDown();
+		reader.close();
+		transfer.join();
+		assertTrue(readInTime.get());
+		assertArrayEquals(new byte[] { 0x3, 0x4 }, buffer.array());
+	}
+
+	@Test(expected = NonWritableChannelException.class)
+	public void testReadOnlyChannel() throws IOException {
+		VDiskFileChannel reader = new VDiskFileChannel(virtualFile);
+		try {
+			reader.write(ByteBuffer.allocate(1));
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test(expected = ClosedChannelException.class)
+	public void testClosedChannel() throws IOException {
+		channel.close();
+		assertFalse(channel.isOpen());
+		channel.read(ByteBuffer.allocate(1));
+	}
+}
@@ -9,6 +9,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.Files;
 import java.util.Arrays;
 
 import org.junit.After;
@@ -16,7 +17,9 @@ import org.junit.Before;
 import org.junit.Test;
 
 import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDisk;
+import ch.se.inf.ethz.jcd.batman.vdisk.impl.StorageSettings;
 import ch.se.inf.ethz.jcd.batman.vdisk.impl.VirtualDisk;
+import ch.se.inf.ethz.jcd.batman.vdisk.impl.WriteMode;
 
 public class VDiskFileInputOutputStreamsTest {
 	private File diskFile;
@@ -139,6 +142,127 @@ public class VDiskFileInputOutputStreamsTest {
 		assertArrayEquals(expected, readBuffer);
 	}
 
+	@Test
+	public void testReadLargeFile() throws IOException {
+		// larger than the maximal read ahead of the input stream
+		byte[] toWrite = new byte[3 * 1024 * 1024 + 17];
+		for (int i = 0; i < toWrite.length; i++) {
+			toWrite[i] = (byte) (i * 31);
+		}
+		writer.write(toWrite);
+		assertEquals(toWrite.length, reader.available());
+
+		// mix single bytes, small and large reads
+		byte[] readValues = new byte[toWrite.length];
+		int position = 0;
+		int readSize = 1;
+		while (position < readValues.length) {
+			if (readSize == 1) {
+				int value = reader.read();
+				assertTrue(value >= 0);
+				readValues[position++] = (byte) value;
+			} else {
+				int read = reader.read(readValues, position,
+						Math.min(readSize, readValues.length - position));
+				assertTrue(read > 0);
+				position += read;
+			}
+			readSize = (readSize * 7) % 100003;
+		}
+
+		assertArrayEquals(toWrite, readValues);
+		assertEquals(0, reader.available());
+		assertEquals(-1, reader.read());
+	}
+
+	@Test
+	public void testBufferedOutput() throws IOException {
+		int bufferSize = 1024;
+		byte[] toWrite = new byte[10 * bufferSize + 123];
+		for (int i = 0; i < toWrite.length; i++) {
+			toWrite[i] = (byte) (i * 13);
+		}
+
+		writer.close();
+		writer = new VDiskFileOutputStream(virtualFile, false, bufferSize, 0);
+
+		// mix single bytes, small and large writes
+		int position = 0;
+		int writeSize = 1;
+		while (position < toWrite.length) {
+			int length = Math.min(writeSize, toWrite.length - position);
+			if (length == 1) {
+				writer.write(toWrite[position]);
+			} else {
+				writer.write(toWrite, position, length);
+			}
+			position += length;
+			writeSize = (writeSize * 5) % 3001;
+		}
+
+		// the data is only visible after flushing
+		writer.flush();
+		byte[] readValues = new byte[toWrite.length];
+		assertEquals(toWrite.length, reader.read(readValues));
+		assertArrayEquals(toWrite, readValues);
+
+		// the space reserved in advance is released when closing
+		writer.close();
+	}
+
+	@Test
+	public void testBufferedOutputSizeHint() throws IOException {
+		byte[] toWrite = { 0x1, 0x2, 0x3, 0x4, 0x5 };
+
+		writer.close();
+		writer = new VDiskFileOutputStream(virtualFile, false, 2, 100);
+		writer.write(toWrite);
+		writer.flush();
+		assertEquals(100, virtualFile.getFileSize());
+
+		writer.close();
+	}
+
+	@Test
+	public void testFlush() throws IOException {
+		reader.close();
+		writer.close();
+		disk.close();
+		diskFile.delete();
+		StorageSettings settings = new StorageSettings();
+		settings.setWriteMode(WriteMode.WRITE_BACK);
+		disk = VirtualDisk.create(diskFile.getAbsolutePath(), settings);
+		virtualFile = new VDiskFile("/test", disk);
+		virtualFile.createNewFile();
+		reader = new VDiskFileInputStream(virtualFile);
+
+		byte[] toWrite = new byte[10000];
+		Arrays.fill(toWrite, (byte) 0x5A);
+		writer = new VDiskFileOutputStream(virtualFile, false, 1024, 0);
+		writer.write(toWrite);
+		writer.flush();
+
+		// the buffered data is in the file, but not forced to the host file
+		byte[] readData = new byte[toWrite.length];
+		assertEquals(toWrite.length, reader.read(readData));
+		assertArrayEquals(toWrite, readData);
+
+		disk.flush();
+		int count = 0;
+		for (byte b : Files.readAllBytes(diskFile.toPath())) {
+			if (b == 0x5A) {
+				count++;
+			}
+		}
+		assertTrue(count >= toWrite.length);
+	}
+
+	@Test(expected = IOException.class)
+	public void testWriteAfterClose() throws IOException {
+		writer.close();
+		writer.write(0x1);
+	}
+
 	@Test
 	public void testAppendOutput() throws IOException {
 		// test data
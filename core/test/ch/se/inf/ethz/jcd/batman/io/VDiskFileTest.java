@@ -8,13 +8,18 @@ import java.io.File;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Scanner;
+import java.util.Set;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDirectory;
 import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDisk;
+import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualFile;
+import ch.se.inf.ethz.jcd.batman.vdisk.VirtualDiskEntryInfo;
 import ch.se.inf.ethz.jcd.batman.vdisk.VirtualDiskException;
 import ch.se.inf.ethz.jcd.batman.vdisk.impl.VirtualDisk;
 
@@ -176,6 +181,107 @@ public class VDiskFileTest {
 				new VDiskFile("/foo/foo", disk)));
 	}
 
+	@Test
+	public void listEntriesTest() throws IOException {
+		VDiskFile testDirectory = new VDiskFile("/foo", disk);
+		assertEquals(0, testDirectory.listEntries().length);
+		testDirectory.mkdir();
+		assertEquals(0, testDirectory.listEntries().length);
+
+		VDiskFile file = new VDiskFile("/foo/bar", disk);
+		file.createNewFile();
+		VDiskFileOutputStream out = new VDiskFileOutputStream(file, false);
+		out.write(new byte[] { 1, 2, 3 });
+		out.close();
+		file.setLastModified(42);
+		new VDiskFile("/foo/foo", disk).mkdir();
+		assertEquals(0, file.listEntries().length);
+
+		VirtualDiskEntryInfo[] entries = testDirectory.listEntries();
+		assertEquals(2, entries.length);
+		for (VirtualDiskEntryInfo entry : entries) {
+			if (entry.getName().equals("bar")) {
+				assertTrue(entry.isFile());
+				assertEquals(3, entry.getSize());
+				assertEquals(42, entry.getTimestamp());
+			} else {
+				assertEquals("foo", entry.getName());
+				assertTrue(entry.isDirectory());
+				assertEquals(0, entry.getSize());
+			}
+		}
+	}
+
+	@Test
+	public void listEntriesPageTest() throws IOException {
+		VDiskFile testDirectory = new VDiskFile("/foo", disk);
+		testDirectory.mkdir();
+		int count = 50;
+		for (int i = 0; i < count; i++) {
+			new VDiskFile("/foo/file" + i, disk).createNewFile();
+		}
+
+		Set<String> names = new HashSet<String>();
+		long cursor = 0;
+		VirtualDiskEntryInfo[] page;
+		do {
+			page = testDirectory.listEntries(cursor, 7);
+			for (VirtualDiskEntryInfo entry : page) {
+				assertTrue(names.add(entry.getName()));
+				cursor = entry.getPosition();
+			}
+		} while (page.length == 7);
+		assertEquals(count, names.size());
+		assertEquals(0, testDirectory.listEntries(cursor, 7).length);
+	}
+
+	@Test
+	public void listEntriesRemovedCursorTest() throws IOException {
+		VDiskFile testDirectory = new VDiskFile("/foo", disk);
+		testDirectory.mkdir();
+		for (int i = 0; i < 6; i++) {
+			new VDiskFile("/foo/" + i, disk).createNewFile();
+		}
+		VirtualDiskEntryInfo[] page = testDirectory.listEntries(0, 2);
+		String cursorName = page[1].getName();
+		long cursor = page[1].getPosition();
+		VirtualDiskEntryInfo[] expected = testDirectory.listEntries(cursor, 2);
+
+		// renamed cursor
+		assertTrue(new VDiskFile("/foo/" + cursorName, disk)
+				.renameTo(new VDiskFile("/foo/renamed", disk)));
+		assertEquals(expected[0].getName(),
+				testDirectory.listEntries(cursor, 2)[0].getName());
+
+		// deleted cursor
+		assertTrue(new VDiskFile("/foo/renamed", disk).delete());
+		page = testDirectory.listEntries(cursor, 2);
+		assertEquals(2, page.length);
+		assertEquals(expected[0].getName(), page[0].getName());
+		assertEquals(expected[1].getName(), page[1].getName());
+
+		// deleted cursor and following member
+		assertTrue(new VDiskFile("/foo/" + expected[0].getName(), disk)
+				.delete());
+		page = testDirectory.listEntries(cursor, 2);
+		assertEquals(expected[1].getName(), page[0].getName());
+	}
+
+	@Test(expected = VirtualDiskException.class)
+	public void listEntriesInvalidCursorTest() throws IOException {
+		VDiskFile testDirectory = new VDiskFile("/foo", disk);
+		testDirectory.mkdir();
+		new VDiskFile("/foo/bar", disk).createNewFile();
+		VDiskFile other = new VDiskFile("/other", disk);
+		other.createNewFile();
+		for (VirtualDiskEntryInfo entry : new VDiskFile("/", disk)
+				.listEntries()) {
+			if (entry.getName().equals("other")) {
+				testDirectory.listEntries(entry.getPosition(), 1);
+			}
+		}
+	}
+
 	@Test
 	public void totalSpaceTest() throws IOException {
 		VDiskFile testFile = new VDiskFile("/test", disk);
@@ -210,6 +316,47 @@ public class VDiskFileTest {
 		assertEquals(testFile.getPath(), "/bla");
 	}
 
+	@Test
+	public void moveDirectoryTest() throws IOException {
+		VDiskFile dir = new VDiskFile("/dir", disk);
+		VDiskFile file = new VDiskFile("/dir/file", disk);
+		VDiskFile movedFile = new VDiskFile("/moved/file", disk);
+		assertFalse(file.exists());
+		assertFalse(movedFile.exists());
+
+		assertTrue(dir.mkdir());
+		assertTrue(file.createNewFile());
+		assertTrue(new VDiskFile("/dir/file", disk).isFile());
+
+		assertTrue(dir.renameTo(new VDiskFile("/moved", disk)));
+		assertFalse(new VDiskFile("/dir/file", disk).exists());
+		assertTrue(movedFile.isFile());
+		assertTrue(new VDiskFile("/moved/", disk).isDirectory());
+
+		assertTrue(movedFile.delete());
+		assertFalse(new VDiskFile("/moved/file", disk).exists());
+		assertTrue(new VDiskFile("/moved/file", disk).createNewFile());
+		assertTrue(movedFile.exists());
+	}
+
+	@Test
+	public void diskChangeTest() throws IOException {
+		VDiskFile dir = new VDiskFile("/dir", disk);
+		VDiskFile file = new VDiskFile("/dir/file", disk);
+		assertFalse(file.exists());
+
+		IVirtualDirectory directory = disk.createDirectory(
+				disk.getRootDirectory(), "dir");
+		assertTrue(dir.isDirectory());
+		assertFalse(file.exists());
+		IVirtualFile diskFile = disk.createFile(directory, "file", 0);
+		assertTrue(file.isFile());
+		assertTrue(new VDiskFile("/dir//file/", disk).isFile());
+
+		diskFile.delete();
+		assertFalse(file.exists());
+	}
+
 	@Test
 	public void equalsHashTest() throws IOException {
 		VDiskFile testFile = new VDiskFile("/test", disk);
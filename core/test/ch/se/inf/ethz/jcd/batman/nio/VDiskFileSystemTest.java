@@ -0,0 +1,301 @@
+package ch.se.inf.ethz.jcd.batman.nio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class VDiskFileSystemTest {
+	private File diskFile;
+	private VDiskFileSystemProvider provider;
+	private VDiskFileSystem fileSystem;
+
+	@Before
+	public void setUp() throws Exception {
+		diskFile = new File("VDiskFileSystemTest.vdisk");
+		diskFile.delete();
+
+		provider = new VDiskFileSystemProvider();
+		fileSystem = provider.newFileSystem(
+				URI.create("vdisk:" + diskFile.getAbsoluteFile().toURI()),
+				Collections.singletonMap("create", "true"));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		fileSystem.close();
+		diskFile.delete();
+	}
+
+	@Test
+	public void pathTest() {
+		Path path = fileSystem.getPath("/a//b/", "c");
+		assertEquals("/a/b/c", path.toString());
+		assertEquals(3, path.getNameCount());
+		assertEquals("c", path.getFileName().toString());
+		assertEquals("/a/b", path.getParent().toString());
+		assertEquals("/", path.getRoot().toString());
+		assertNull(fileSystem.getPath("/").getParent());
+		assertEquals("b/c", path.subpath(1, 3).toString());
+		assertTrue(path.startsWith("/a"));
+		assertFalse(path.startsWith("a"));
+		assertTrue(path.endsWith("b/c"));
+
+		assertEquals("/a/c", fileSystem.getPath("/a/./b/../c").normalize()
+				.toString());
+		assertEquals("../d", path.getParent().relativize(
+				fileSystem.getPath("/a/d")).toString());
+		assertEquals("/a/b/c/d", path.resolve("d").toString());
+		assertEquals("/d", path.resolve("/d").toString());
+		assertEquals("/x", fileSystem.getPath("x").toAbsolutePath()
+				.toString());
+
+		// the URI contains the path of the disk and of the entry
+		assertEquals(path, provider.getPath(path.toUri()));
+	}
+
+	@Test
+	public void readWriteTest() throws IOException {
+		Path dir = fileSystem.getPath("/dir");
+		Files.createDirectory(dir);
+		Path file = dir.resolve("file");
+		byte[] data = { 0x1, 0x2, 0x3, 0x4, 0x5 };
+		Files.write(file, data);
+
+		assertTrue(Files.isDirectory(dir));
+		assertTrue(Files.isRegularFile(file));
+		assertEquals(data.length, Files.size(file));
+		assertArrayEquals(data, Files.readAllBytes(file));
+
+		// append by a channel and read it at a position
+		Set<StandardOpenOption> options = new HashSet<StandardOpenOption>();
+		options.add(StandardOpenOption.APPEND);
+		SeekableByteChannel channel = Files.newByteChannel(file, options);
+		channel.write(ByteBuffer.wrap(new byte[] { 0x6 }));
+		channel.close();
+		channel = Files.newByteChannel(file);
+		ByteBuffer buffer = ByteBuffer.allocate(2);
+		channel.position(4);
+		assertEquals(2, channel.read(buffer));
+		assertArrayEquals(new byte[] { 0x5, 0x6 }, buffer.array());
+		channel.close();
+
+		// truncated when written again
+		Files.write(file, new byte[] { 0x9 });
+		assertArrayEquals(new byte[] { 0x9 }, Files.readAllBytes(file));
+	}
+
+	@Test(expected = NoSuchFileException.class)
+	public void readMissingFileTest() throws IOException {
+		Files.readAllBytes(fileSystem.getPath("/missing"));
+	}
+
+	@Test
+	public void attributesTest() throws IOException {
+		Path file = fileSystem.getPath("/file");
+		Files.write(file, new byte[10]);
+		FileTime time = FileTime.fromMillis(123456000L);
+		Files.setLastModifiedTime(file, time);
+
+		BasicFileAttributes attributes = Files.readAttributes(file,
+				BasicFileAttributes.class);
+		assertEquals(10, attributes.size());
+		assertTrue(attributes.isRegularFile());
+		assertFalse(attributes.isDirectory());
+		assertEquals(time, attributes.lastModifiedTime());
+
+		Map<String, Object> map = Files.readAttributes(file,
+				"basic:size,isDirectory");
+		assertEquals(2, map.size());
+		assertEquals(10L, map.get("size"));
+		assertEquals(false, map.get("isDirectory"));
+	}
+
+	@Test
+	public void directoryTest() throws IOException {
+		Path dir = fileSystem.getPath("/dir");
+		Files.createDirectories(dir.resolve("sub"));
+		Files.write(dir.resolve("a.txt"), new byte[1]);
+		Files.write(dir.resolve("b.bin"), new byte[1]);
+		Files.write(dir.resolve("sub/c.txt"), new byte[1]);
+
+		Set<String> names = new TreeSet<String>();
+		DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.txt");
+		for (Path entry : stream) {
+			names.add(entry.toString());
+		}
+		stream.close();
+		assertEquals(Collections.singleton("/dir/a.txt"), names);
+
+		final Set<String> visited = new TreeSet<String>();
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file,
+					BasicFileAttributes attrs) throws IOException {
+				visited.add(file.toString());
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		assertEquals(
+				new TreeSet<String>(Arrays.asList("/dir/a.txt",
+						"/dir/b.bin", "/dir/sub/c.txt")), visited);
+	}
+
+	@Test
+	public void listedAttributesTest() throws IOException {
+		Path dir = fileSystem.getPath("/dir");
+		Files.createDirectory(dir);
+		Files.write(dir.resolve("file"), new byte[3]);
+
+		DirectoryStream<Path> stream = Files.newDirectoryStream(dir);
+		Path listed = stream.iterator().next();
+		stream.close();
+		Files.write(dir.resolve("file"), new byte[5]);
+
+		// the first read returns the attributes of the listing
+		BasicFileAttributes attributes = Files.readAttributes(listed,
+				BasicFileAttributes.class);
+		assertEquals(3, attributes.size());
+		assertTrue(attributes.isRegularFile());
+		assertEquals(Files.readAttributes(dir.resolve("file"),
+				BasicFileAttributes.class).fileKey(), attributes.fileKey());
+		assertEquals(5, Files.size(listed));
+	}
+
+	@Test
+	public void copyMoveDeleteTest() throws IOException {
+		Path file = fileSystem.getPath("/file");
+		byte[] data = { 0x1, 0x2, 0x3 };
+		Files.write(file, data);
+
+		Path copy = fileSystem.getPath("/copy");
+		Files.copy(file, copy);
+		assertArrayEquals(data, Files.readAllBytes(copy));
+
+		Path moved = fileSystem.getPath("/moved");
+		Files.move(copy, moved);
+		assertFalse(Files.exists(copy));
+		assertArrayEquals(data, Files.readAllBytes(moved));
+
+		try {
+			Files.copy(file, moved);
+			fail();
+		} catch (FileAlreadyExistsException e) {
+			// expected
+		}
+		Files.write(file, new byte[] { 0x7 });
+		Files.copy(file, moved, StandardCopyOption.REPLACE_EXISTING);
+		assertArrayEquals(new byte[] { 0x7 }, Files.readAllBytes(moved));
+
+		Path dir = fileSystem.getPath("/dir");
+		Files.createDirectory(dir);
+		Files.move(moved, dir.resolve("moved"));
+		try {
+			Files.delete(dir);
+			fail();
+		} catch (DirectoryNotEmptyException e) {
+			// expected
+		}
+		Files.delete(dir.resolve("moved"));
+		Files.delete(dir);
+		assertFalse(Files.exists(dir));
+	}
+
+	@Test
+	public void hostCopyTest() throws IOException {
+		byte[] data = new byte[3 * 1024 * 1024 + 5];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) (i * 11);
+		}
+		File hostFile = File.createTempFile("VDiskFileSystemTest", ".tmp");
+		File exportedFile = File.createTempFile("VDiskFileSystemTest", ".tmp");
+		try {
+			Files.write(hostFile.toPath(), data);
+			Path file = fileSystem.getPath("/imported");
+			Files.copy(hostFile.toPath(), file);
+			assertEquals(data.length, Files.size(file));
+
+			Files.copy(file, exportedFile.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+			assertArrayEquals(data, Files.readAllBytes(exportedFile.toPath()));
+		} finally {
+			hostFile.delete();
+			exportedFile.delete();
+		}
+	}
+
+	@Test
+	public void moveToOtherDiskTest() throws IOException {
+		File otherDiskFile = new File("VDiskFileSystemTest-other.vdisk");
+		otherDiskFile.delete();
+		VDiskFileSystem otherFileSystem = provider.newFileSystem(
+				URI.create("vdisk:" + otherDiskFile.getAbsoluteFile().toURI()),
+				Collections.singletonMap("create", "true"));
+		try {
+			Path dir = fileSystem.getPath("/dir");
+			Files.createDirectory(dir);
+			Files.write(dir.resolve("file"), new byte[] { 0x1 });
+			Path target = otherFileSystem.getPath("/dir");
+			try {
+				Files.move(dir, target);
+				fail();
+			} catch (DirectoryNotEmptyException e) {
+				// expected
+			}
+			assertFalse(Files.exists(target));
+			assertTrue(Files.exists(dir.resolve("file")));
+
+			Files.move(dir.resolve("file"), otherFileSystem.getPath("/file"));
+			Files.move(dir, target);
+			assertFalse(Files.exists(dir));
+			assertTrue(Files.isDirectory(target));
+			assertArrayEquals(new byte[] { 0x1 },
+					Files.readAllBytes(otherFileSystem.getPath("/file")));
+		} finally {
+			otherFileSystem.close();
+			otherDiskFile.delete();
+		}
+	}
+
+	@Test
+	public void reopenTest() throws IOException {
+		Files.write(fileSystem.getPath("/file"), new byte[] { 0x1 });
+		URI uri = fileSystem.getPath("/file").toUri();
+		fileSystem.close();
+
+		fileSystem = provider.newFileSystem(uri,
+				Collections.<String, Object> emptyMap());
+		assertArrayEquals(new byte[] { 0x1 },
+				Files.readAllBytes(provider.getPath(uri)));
+	}
+}
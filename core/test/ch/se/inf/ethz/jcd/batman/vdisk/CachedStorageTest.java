@@ -0,0 +1,292 @@
+package ch.se.inf.ethz.jcd.batman.vdisk;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.se.inf.ethz.jcd.batman.vdisk.impl.CachedStorage;
+import ch.se.inf.ethz.jcd.batman.vdisk.impl.EvictionPolicy;
+import ch.se.inf.ethz.jcd.batman.vdisk.impl.FileChannelStorage;
+import ch.se.inf.ethz.jcd.batman.vdisk.impl.StorageSettings;
+import ch.se.inf.ethz.jcd.batman.vdisk.impl.StorageType;
+
+public class CachedStorageTest {
+
+	private static final String TEST_DISK_DIR = System
+			.getProperty("java.io.tmpdir");
+	private static final int PAGE_SIZE = CachedStorage.MIN_PAGE_SIZE;
+	private static final int PAGE_COUNT = 8;
+
+	private File storageFile;
+	private IVirtualDiskStorage baseStorage;
+	private CachedStorage storage;
+
+	@Before
+	public void setUp() throws Exception {
+		storageFile = new File(TEST_DISK_DIR, "cachedStorageTest.bin");
+		storageFile.delete();
+		baseStorage = FileChannelStorage.open(storageFile);
+		byte[] data = new byte[PAGE_COUNT * PAGE_SIZE];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) (i / PAGE_SIZE);
+		}
+		baseStorage.write(0, ByteBuffer.wrap(data));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (storage != null) {
+			storage.close();
+		} else {
+			baseStorage.close();
+		}
+		storageFile.delete();
+	}
+
+	@Test
+	public void hitMissTest() throws IOException {
+		storage = CachedStorage.wrap(baseStorage, PAGE_SIZE, 2 * PAGE_SIZE,
+				EvictionPolicy.LRU);
+		assertFalse(readPage(0));
+		assertTrue(readPage(0));
+		assertEquals(1, storage.getMissCount());
+		assertEquals(1, storage.getHitCount());
+		assertEquals(0, storage.getEvictionCount());
+
+		// a read spanning two pages looks up both
+		ByteBuffer buffer = ByteBuffer.allocate(2);
+		assertEquals(2, storage.read(PAGE_SIZE - 1, buffer));
+		assertArrayEquals(new byte[] { 0, 1 }, buffer.array());
+		assertEquals(2, storage.getMissCount());
+		assertEquals(2, storage.getHitCount());
+	}
+
+	@Test
+	public void lruEvictionTest() throws IOException {
+		storage = CachedStorage.wrap(baseStorage, PAGE_SIZE, 2 * PAGE_SIZE,
+				EvictionPolicy.LRU);
+		readPage(0);
+		readPage(1);
+		assertTrue(readPage(0));
+		// page 1 is the least recently used page
+		assertFalse(readPage(2));
+		assertEquals(1, storage.getEvictionCount());
+		assertTrue(readPage(0));
+		assertFalse(readPage(1));
+		assertEquals(2, storage.getEvictionCount());
+		assertEquals(2, storage.getCapacity());
+	}
+
+	@Test
+	public void clockEvictionTest() throws IOException {
+		storage = CachedStorage.wrap(baseStorage, PAGE_SIZE, 2 * PAGE_SIZE,
+				EvictionPolicy.CLOCK);
+		readPage(0);
+		readPage(1);
+		assertTrue(readPage(0));
+		// all pages are referenced, so the hand clears them and evicts the
+		// first page, although it was used last
+		assertFalse(readPage(2));
+		assertEquals(1, storage.getEvictionCount());
+		assertTrue(readPage(1));
+		assertFalse(readPage(0));
+		assertEquals(2, storage.getEvictionCount());
+	}
+
+	@Test
+	public void writeThroughTest() throws IOException {
+		storage = CachedStorage.wrap(baseStorage, PAGE_SIZE, 4 * PAGE_SIZE,
+				EvictionPolicy.LRU);
+		readPage(1);
+		storage.write(PAGE_SIZE + 1, ByteBuffer.wrap(new byte[] { 42, 43 }));
+
+		// the cached page and the underlying storage are both updated
+		ByteBuffer buffer = ByteBuffer.allocate(3);
+		storage.read(PAGE_SIZE, buffer);
+		assertArrayEquals(new byte[] { 1, 42, 43 }, buffer.array());
+		assertEquals(1, storage.getMissCount());
+		buffer.clear();
+		baseStorage.read(PAGE_SIZE, buffer);
+		assertArrayEquals(new byte[] { 1, 42, 43 }, buffer.array());
+
+		// extending the storage drops the last page
+		readPage(PAGE_COUNT - 1);
+		storage.write(PAGE_COUNT * PAGE_SIZE + 10,
+				ByteBuffer.wrap(new byte[] { 7 }));
+		buffer = ByteBuffer.allocate(12);
+		assertEquals(12, storage.read(PAGE_COUNT * PAGE_SIZE - 1, buffer));
+		assertEquals(7, buffer.get(11));
+	}
+
+	@Test
+	public void concurrentReadTest() throws Exception {
+		storage = CachedStorage.wrap(baseStorage, PAGE_SIZE, 2 * PAGE_SIZE,
+				EvictionPolicy.CLOCK);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 4; t++) {
+			final int offset = t;
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					try {
+						ByteBuffer buffer = ByteBuffer.allocate(16);
+						for (int i = 0; i < 1000; i++) {
+							int page = (i + offset) % PAGE_COUNT;
+							buffer.clear();
+							storage.read((long) page * PAGE_SIZE + 8, buffer);
+							for (int j = 0; j < buffer.capacity(); j++) {
+								if (buffer.get(j) != page) {
+									throw new AssertionError("Wrong data");
+								}
+							}
+						}
+					} catch (Throwable e) {
+						failure.compareAndSet(null, e);
+					}
+				}
+			};
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		if (failure.get() != null) {
+			throw new AssertionError(failure.get());
+		}
+		assertEquals(4000, storage.getHitCount() + storage.getMissCount());
+	}
+
+	@Test
+	public void overlappingWriteTest() throws Exception {
+		final SlowWriteStorage slowStorage = new SlowWriteStorage(baseStorage);
+		storage = CachedStorage.wrap(slowStorage, PAGE_SIZE, 4 * PAGE_SIZE,
+				EvictionPolicy.LRU);
+		readPage(0);
+		Thread first = new Thread() {
+			@Override
+			public void run() {
+				try {
+					storage.write(8, ByteBuffer.wrap(new byte[] { 1, 1 }));
+				} catch (IOException e) {
+					// detected by the comparison below
+				}
+			}
+		};
+		first.start();
+		// the second write reaches the storage after the first one
+		slowStorage.delayed.await();
+		storage.write(9, ByteBuffer.wrap(new byte[] { 2 }));
+		slowStorage.released.countDown();
+		first.join();
+
+		ByteBuffer cached = ByteBuffer.allocate(2);
+		storage.read(8, cached);
+		ByteBuffer stored = ByteBuffer.allocate(2);
+		baseStorage.read(8, stored);
+		assertArrayEquals(new byte[] { 1, 2 }, stored.array());
+		assertArrayEquals(stored.array(), cached.array());
+	}
+
+	@Test
+	public void defaultCacheSizeTest() {
+		StorageSettings settings = new StorageSettings();
+		assertTrue(settings.getCacheSize() > 0);
+		settings.setType(StorageType.MEMORY_MAPPED);
+		assertEquals(0, settings.getCacheSize());
+		settings.setCacheSize(PAGE_SIZE);
+		assertEquals(PAGE_SIZE, settings.getCacheSize());
+	}
+
+	/**
+	 * Storage which delays the first write after it reached the underlying
+	 * storage, until it is released or a second has passed.
+	 */
+	private static final class SlowWriteStorage implements IVirtualDiskStorage {
+		private final IVirtualDiskStorage storage;
+		private final CountDownLatch delayed = new CountDownLatch(1);
+		private final CountDownLatch released = new CountDownLatch(1);
+
+		private SlowWriteStorage(IVirtualDiskStorage storage) {
+			this.storage = storage;
+		}
+
+		@Override
+		public long getLength() throws IOException {
+			return storage.getLength();
+		}
+
+		@Override
+		public void setLength(long newLength) throws IOException {
+			storage.setLength(newLength);
+		}
+
+		@Override
+		public int read(long pos, ByteBuffer dst) throws IOException {
+			return storage.read(pos, dst);
+		}
+
+		@Override
+		public void write(long pos, ByteBuffer src) throws IOException {
+			storage.write(pos, src);
+			if (delayed.getCount() > 0) {
+				delayed.countDown();
+				try {
+					released.await(1, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+			}
+		}
+
+		@Override
+		public long transferFrom(ReadableByteChannel src, long pos, long count)
+				throws IOException {
+			return storage.transferFrom(src, pos, count);
+		}
+
+		@Override
+		public long transferTo(long pos, long count, WritableByteChannel target)
+				throws IOException {
+			return storage.transferTo(pos, count, target);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			storage.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			storage.close();
+		}
+	}
+
+	/**
+	 * Reads a byte of the given page and returns true if the page was cached.
+	 */
+	private boolean readPage(int page) throws IOException {
+		long hits = storage.getHitCount();
+		ByteBuffer buffer = ByteBuffer.allocate(1);
+		assertEquals(1, storage.read((long) page * PAGE_SIZE, buffer));
+		assertEquals(page, buffer.get(0));
+		return storage.getHitCount() > hits;
+	}
+}
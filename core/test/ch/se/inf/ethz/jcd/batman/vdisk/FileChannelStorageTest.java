@@ -0,0 +1,177 @@
+package ch.se.inf.ethz.jcd.batman.vdisk;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.se.inf.ethz.jcd.batman.vdisk.impl.FileChannelStorage;
+
+public class FileChannelStorageTest {
+
+	private static final String TEST_DISK_DIR = System
+			.getProperty("java.io.tmpdir");
+	/**
+	 * The number of bytes the test channels move per call.
+	 */
+	private static final int CHUNK_SIZE = 3;
+
+	private File storageFile;
+	private IVirtualDiskStorage storage;
+	private byte[] data;
+
+	@Before
+	public void setUp() throws Exception {
+		storageFile = new File(TEST_DISK_DIR, "fileChannelStorageTest.bin");
+		storageFile.delete();
+		storage = FileChannelStorage.open(storageFile);
+		data = new byte[20];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) (i + 1);
+		}
+		storage.write(0, ByteBuffer.wrap(data));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		storage.close();
+		storageFile.delete();
+	}
+
+	@Test
+	public void shortReadTest() throws IOException {
+		// only the bytes up to the end are read
+		ByteBuffer buffer = ByteBuffer.allocate(10);
+		assertEquals(5, storage.read(15, buffer));
+		assertEquals(5, buffer.position());
+		assertArrayEquals(Arrays.copyOfRange(data, 15, 20),
+				Arrays.copyOf(buffer.array(), 5));
+
+		buffer = ByteBuffer.allocate(data.length);
+		assertEquals(data.length, storage.read(0, buffer));
+		assertArrayEquals(data, buffer.array());
+	}
+
+	@Test
+	public void readPastEndTest() throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(4);
+		assertEquals(-1, storage.read(data.length, buffer));
+		assertEquals(-1, storage.read(data.length + 10, buffer));
+		assertEquals(0, buffer.position());
+		// an empty buffer reads nothing, even at the end
+		assertEquals(0, storage.read(0, ByteBuffer.allocate(0)));
+	}
+
+	@Test
+	public void partialTransferFromTest() throws IOException {
+		// the channel ends before the requested count
+		byte[] source = new byte[] { 42, 43, 44, 45, 46, 47, 48 };
+		assertEquals(source.length, storage.transferFrom(
+				new ChunkedReadableChannel(source), 15, 100));
+		assertEquals(15 + source.length, storage.getLength());
+		assertEquals(15 + source.length, storageFile.length());
+		ByteBuffer buffer = ByteBuffer.allocate(source.length);
+		storage.read(15, buffer);
+		assertArrayEquals(source, buffer.array());
+
+		// a transfer behind the end grows the storage up to the data
+		assertEquals(2, storage.transferFrom(Channels
+				.newChannel(new ByteArrayInputStream(new byte[] { 1, 2 })),
+				30, 10));
+		assertEquals(32, storage.getLength());
+
+		// nothing is transferred from an exhausted channel
+		assertEquals(0, storage.transferFrom(new ChunkedReadableChannel(
+				new byte[0]), 40, 10));
+	}
+
+	@Test
+	public void partialTransferToTest() throws IOException {
+		// only the bytes up to the end are transferred
+		ChunkedWritableChannel target = new ChunkedWritableChannel();
+		assertEquals(8, storage.transferTo(12, 100, target));
+		assertArrayEquals(Arrays.copyOfRange(data, 12, 20),
+				target.output.toByteArray());
+
+		target = new ChunkedWritableChannel();
+		assertEquals(data.length, storage.transferTo(0, data.length, target));
+		assertArrayEquals(data, target.output.toByteArray());
+
+		assertEquals(0, storage.transferTo(data.length, 10,
+				new ChunkedWritableChannel()));
+	}
+
+	/**
+	 * Channel which delivers the given data in chunks of
+	 * {@link #CHUNK_SIZE} bytes.
+	 */
+	private static final class ChunkedReadableChannel implements
+			ReadableByteChannel {
+		private final ByteBuffer source;
+
+		private ChunkedReadableChannel(byte[] data) {
+			source = ByteBuffer.wrap(data);
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public void close() {
+		}
+
+		@Override
+		public int read(ByteBuffer dst) {
+			if (!source.hasRemaining()) {
+				return -1;
+			}
+			int length = Math.min(CHUNK_SIZE,
+					Math.min(dst.remaining(), source.remaining()));
+			ByteBuffer chunk = source.duplicate();
+			chunk.limit(chunk.position() + length);
+			dst.put(chunk);
+			source.position(source.position() + length);
+			return length;
+		}
+	}
+
+	/**
+	 * Channel which accepts at most {@link #CHUNK_SIZE} bytes per write.
+	 */
+	private static final class ChunkedWritableChannel implements
+			WritableByteChannel {
+		private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public void close() {
+		}
+
+		@Override
+		public int write(ByteBuffer src) {
+			int length = Math.min(CHUNK_SIZE, src.remaining());
+			byte[] chunk = new byte[length];
+			src.get(chunk);
+			output.write(chunk, 0, length);
+			return length;
+		}
+	}
+}
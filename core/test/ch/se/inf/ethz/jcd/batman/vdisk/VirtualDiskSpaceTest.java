@@ -4,6 +4,10 @@ import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -60,6 +64,11 @@ public class VirtualDiskSpaceTest extends NewDiskPerTest {
 		diskSpace.writeLong(6, 4);
 		assertEquals(4, diskSpace.readLong(6));
 
+		diskSpace.writeLong(30, Long.MIN_VALUE + 0xFF);
+		assertEquals(Long.MIN_VALUE + 0xFF, diskSpace.readLong(30));
+		diskSpace.writeLong(30, -2);
+		assertEquals(-2, diskSpace.readLong(30));
+
 		// Test byte[]
 		byte[] testArray = new byte[] { 0, 1, 2, 3, 4, 5 };
 		byte[] bufferArray = new byte[testArray.length];
@@ -139,6 +148,193 @@ public class VirtualDiskSpaceTest extends NewDiskPerTest {
 		assertEquals(5, diskSpace.getPosition());
 	}
 
+	@Test
+	public void fragmentedTest() throws IOException {
+		// Interleave the allocations, so the space consists of many blocks
+		IVirtualDiskSpace diskSpace = VirtualDiskSpace.create(disk, 100);
+		for (int i = 1; i <= 5; i++) {
+			VirtualDiskSpace.create(disk, 100);
+			diskSpace.changeSize(diskSpace.getSize() + 100);
+		}
+		assertEquals(600, diskSpace.getSize());
+
+		byte[] data = new byte[600];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) i;
+		}
+		diskSpace.write(0, data);
+		for (int i = 0; i < data.length; i += 37) {
+			assertEquals(data[i], diskSpace.read(i));
+		}
+
+		// The chain of the loaded space is read while accessing it
+		IVirtualDiskSpace loadedSpace = VirtualDiskSpace.load(disk,
+				diskSpace.getVirtualDiskPosition());
+		byte[] buffer = new byte[data.length - 150];
+		assertEquals(buffer.length, loadedSpace.read(150, buffer));
+		assertArrayEquals(Arrays.copyOfRange(data, 150, data.length), buffer);
+		assertEquals(diskSpace.getSize(), loadedSpace.getSize());
+		assertEquals(diskSpace.getDiskSize(), loadedSpace.getDiskSize());
+
+		diskSpace.changeSize(250);
+		assertEquals(250, diskSpace.getSize());
+		assertEquals(data[249], diskSpace.read(249));
+		loadedSpace = VirtualDiskSpace.load(disk,
+				diskSpace.getVirtualDiskPosition());
+		assertEquals(250, loadedSpace.getSize());
+	}
+
+	@Test
+	public void copyOnWriteTest() throws IOException {
+		IVirtualDiskSpace diskSpace = VirtualDiskSpace.create(disk, 100);
+		IVirtualDiskSpace otherSpace = VirtualDiskSpace.create(disk, 100);
+		diskSpace.changeSize(300);
+		byte[] data = new byte[300];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) i;
+		}
+		diskSpace.write(0, data);
+		long occupiedSpace = disk.getOccupiedSpace();
+
+		// The copy shares all blocks
+		IVirtualDiskSpace copy = diskSpace.createCopy();
+		assertEquals(occupiedSpace, disk.getOccupiedSpace());
+		assertEquals(diskSpace.getVirtualDiskPosition(),
+				copy.getVirtualDiskPosition());
+		byte[] buffer = new byte[data.length];
+		copy.read(0, buffer);
+		assertArrayEquals(data, buffer);
+
+		// A write into the second block copies the blocks up to it
+		copy.write(250, (byte) -1);
+		assertEquals(data[250], diskSpace.read(250));
+		assertEquals(-1, copy.read(250));
+		Assert.assertTrue(diskSpace.getVirtualDiskPosition() != copy
+				.getVirtualDiskPosition());
+
+		diskSpace.write(0, (byte) -2);
+		assertEquals(data[0], copy.read(0));
+
+		// The blocks of the copy are still valid after the original is freed
+		diskSpace.free();
+		copy.read(0, buffer);
+		data[250] = -1;
+		assertArrayEquals(data, buffer);
+		otherSpace.changeSize(1000);
+		copy.read(0, buffer);
+		assertArrayEquals(data, buffer);
+
+		copy.free();
+		otherSpace.free();
+		assertEquals(disk.getSize(), disk.getOccupiedSpace());
+	}
+
+	@Test
+	public void copyOnWriteOverwriteTest() throws IOException {
+		IVirtualDiskSpace diskSpace = VirtualDiskSpace.create(disk, 100);
+		IVirtualDiskSpace otherSpace = VirtualDiskSpace.create(disk, 100);
+		diskSpace.changeSize(300);
+		byte[] data = new byte[300];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) i;
+		}
+		diskSpace.write(0, data);
+		long occupiedSpace = disk.getOccupiedSpace();
+
+		// The overwritten data is not copied, the rest of the blocks is
+		IVirtualDiskSpace copy = diskSpace.createCopy();
+		byte[] written = new byte[230];
+		Arrays.fill(written, (byte) -1);
+		copy.write(50, written);
+		byte[] expected = data.clone();
+		System.arraycopy(written, 0, expected, 50, written.length);
+		byte[] buffer = new byte[data.length];
+		copy.read(0, buffer);
+		assertArrayEquals(expected, buffer);
+		diskSpace.read(0, buffer);
+		assertArrayEquals(data, buffer);
+
+		// A truncation only copies the remaining data
+		IVirtualDiskSpace truncated = diskSpace.createCopy();
+		truncated.changeSize(20);
+		buffer = new byte[20];
+		truncated.read(0, buffer);
+		assertArrayEquals(Arrays.copyOf(data, 20), buffer);
+		assertEquals(data.length, diskSpace.getSize());
+
+		truncated.free();
+		copy.free();
+		assertEquals(occupiedSpace, disk.getOccupiedSpace());
+		diskSpace.free();
+		otherSpace.free();
+		assertEquals(disk.getSize(), disk.getOccupiedSpace());
+	}
+
+	@Test
+	public void copyOnWriteRandomTest() throws IOException {
+		Random random = new Random(42);
+		long occupiedSpace = disk.getOccupiedSpace();
+		List<IVirtualDiskSpace> spaces = new ArrayList<IVirtualDiskSpace>();
+		List<byte[]> contents = new ArrayList<byte[]>();
+		spaces.add(VirtualDiskSpace.create(disk, 0));
+		contents.add(new byte[0]);
+		for (int i = 0; i < 500; i++) {
+			int index = random.nextInt(spaces.size());
+			IVirtualDiskSpace space = spaces.get(index);
+			byte[] content = contents.get(index);
+			switch (random.nextInt(5)) {
+			case 0:
+				if (spaces.size() < 8) {
+					spaces.add(space.createCopy());
+					contents.add(content.clone());
+				}
+				break;
+			case 1:
+				int newSize = random.nextInt(2000);
+				space.changeSize(newSize);
+				if (newSize > content.length) {
+					// The content of extended space is undefined
+					space.write(content.length, new byte[newSize
+							- content.length]);
+				}
+				contents.set(index, Arrays.copyOf(content, newSize));
+				break;
+			case 2:
+				if (spaces.size() > 1) {
+					space.free();
+					spaces.remove(index);
+					contents.remove(index);
+				}
+				break;
+			default:
+				byte[] data = new byte[random.nextInt(300) + 1];
+				random.nextBytes(data);
+				int pos = random.nextInt(content.length + 1);
+				space.write(pos, data);
+				if (pos + data.length > content.length) {
+					content = Arrays.copyOf(content, pos + data.length);
+				}
+				System.arraycopy(data, 0, content, pos, data.length);
+				contents.set(index, content);
+				break;
+			}
+			for (int j = 0; j < spaces.size(); j++) {
+				byte[] expected = contents.get(j);
+				IVirtualDiskSpace loadedSpace = (expected.length == 0) ? spaces
+						.get(j) : VirtualDiskSpace.load(disk, spaces.get(j)
+						.getVirtualDiskPosition());
+				assertEquals(expected.length, loadedSpace.getSize());
+				byte[] buffer = new byte[expected.length];
+				loadedSpace.read(0, buffer);
+				assertArrayEquals(expected, buffer);
+			}
+		}
+		for (IVirtualDiskSpace space : spaces) {
+			space.free();
+		}
+		assertEquals(occupiedSpace, disk.getOccupiedSpace());
+	}
+
 	@Test
 	public void freeTest() throws IOException {
 		IVirtualDiskSpace diskSpace = VirtualDiskSpace.create(disk, 100);
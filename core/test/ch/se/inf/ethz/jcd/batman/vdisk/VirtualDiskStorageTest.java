@@ -0,0 +1,315 @@
+package ch.se.inf.ethz.jcd.batman.vdisk;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import ch.se.inf.ethz.jcd.batman.vdisk.impl.CachedStorage;
+import ch.se.inf.ethz.jcd.batman.vdisk.impl.EvictionPolicy;
+import ch.se.inf.ethz.jcd.batman.vdisk.impl.FileChannelStorage;
+import ch.se.inf.ethz.jcd.batman.vdisk.impl.StorageSettings;
+import ch.se.inf.ethz.jcd.batman.vdisk.impl.StorageType;
+import ch.se.inf.ethz.jcd.batman.vdisk.impl.VirtualDisk;
+import ch.se.inf.ethz.jcd.batman.vdisk.impl.WriteMode;
+import ch.se.inf.ethz.jcd.batman.vdisk.util.VirtualDiskUtil;
+
+@RunWith(value = Parameterized.class)
+public class VirtualDiskStorageTest {
+
+	private static final String TEST_DISK_DIR = System
+			.getProperty("java.io.tmpdir");
+
+	/**
+	 * Small segment size, so that the tests cross segment borders.
+	 */
+	private static final int SEGMENT_SIZE = 100;
+
+	@Parameters
+	public static Collection<Object[]> getParameters() {
+		StorageSettings fileChannel = new StorageSettings();
+		fileChannel.setType(StorageType.FILE_CHANNEL);
+		fileChannel.setCacheSize(0);
+		fileChannel.setWriteMode(WriteMode.WRITE_THROUGH);
+
+		StorageSettings mapped = new StorageSettings();
+		mapped.setType(StorageType.MEMORY_MAPPED);
+		mapped.setSegmentSize(SEGMENT_SIZE);
+		mapped.setCacheSize(0);
+		mapped.setWriteMode(WriteMode.WRITE_BACK);
+		mapped.setWriteBackThreshold(SEGMENT_SIZE);
+
+		StorageSettings cachedLru = new StorageSettings();
+		cachedLru.setEvictionPolicy(EvictionPolicy.LRU);
+		cachedLru.setWriteMode(WriteMode.WRITE_BACK);
+
+		// Cache with a single page, so that pages are evicted all the time
+		StorageSettings cachedClock = new StorageSettings();
+		cachedClock.setType(StorageType.MEMORY_MAPPED);
+		cachedClock.setSegmentSize(SEGMENT_SIZE);
+		cachedClock.setCacheSize(CachedStorage.MIN_PAGE_SIZE);
+		cachedClock.setEvictionPolicy(EvictionPolicy.CLOCK);
+		cachedClock.setWriteMode(WriteMode.WRITE_THROUGH);
+
+		Object[][] params = new Object[][] { { fileChannel }, { mapped },
+				{ cachedLru }, { cachedClock } };
+		return Arrays.asList(params);
+	}
+
+	private final StorageSettings settings;
+	private File diskFile;
+	private IVirtualDisk disk;
+
+	public VirtualDiskStorageTest(StorageSettings settings) {
+		this.settings = settings;
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		diskFile = new File(TEST_DISK_DIR, "virtualDiskStorageTest.vdisk");
+		if (diskFile.exists()) {
+			diskFile.delete();
+		}
+
+		disk = VirtualDisk.create(diskFile.getPath(), settings);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		disk.close();
+		diskFile.delete();
+	}
+
+	@Test
+	public void readWriteAcrossSegmentsTest() throws IOException {
+		long position = disk.getSize();
+		byte[] data = new byte[3 * SEGMENT_SIZE + 7];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) i;
+		}
+		disk.write(position, data);
+		assertEquals(position + data.length, disk.getSize());
+
+		byte[] buffer = new byte[data.length];
+		assertEquals(data.length, disk.read(position, buffer));
+		assertArrayEquals(data, buffer);
+
+		assertEquals(data[SEGMENT_SIZE], disk.read(position + SEGMENT_SIZE));
+	}
+
+	@Test
+	public void readBeyondEndTest() throws IOException {
+		byte[] buffer = new byte[16];
+		assertEquals(-1, disk.read(disk.getSize(), buffer));
+		assertEquals(8, disk.read(disk.getSize() - 8, buffer));
+	}
+
+	@Test
+	public void storageLengthTest() throws IOException {
+		File storageFile = new File(TEST_DISK_DIR, "storageLengthTest.bin");
+		storageFile.delete();
+		IVirtualDiskStorage storage = settings.openStorage(storageFile);
+		try {
+			storage.setLength(2 * SEGMENT_SIZE + 1);
+			assertEquals(2 * SEGMENT_SIZE + 1, storage.getLength());
+			storage.write(2 * SEGMENT_SIZE, ByteBuffer.wrap(new byte[] { 1 }));
+
+			storage.setLength(SEGMENT_SIZE / 2);
+			assertEquals(SEGMENT_SIZE / 2, storage.getLength());
+			assertEquals(-1,
+					storage.read(SEGMENT_SIZE / 2, ByteBuffer.allocate(1)));
+
+			storage.write(3 * SEGMENT_SIZE, ByteBuffer.wrap(new byte[] { 2 }));
+			assertEquals(3 * SEGMENT_SIZE + 1, storage.getLength());
+		} finally {
+			storage.close();
+			storageFile.delete();
+		}
+	}
+
+	@Test
+	public void shrinkTest() throws IOException {
+		File storageFile = new File(TEST_DISK_DIR, "shrinkTest.bin");
+		storageFile.delete();
+		IVirtualDiskStorage storage = settings.openStorage(storageFile);
+		try {
+			storage.write(0, ByteBuffer.wrap(new byte[3 * SEGMENT_SIZE]));
+			storage.setLength(SEGMENT_SIZE + 1);
+			ByteBuffer buffer = ByteBuffer.allocate(2 * SEGMENT_SIZE);
+			assertEquals(SEGMENT_SIZE + 1, storage.read(0, buffer));
+			assertEquals(-1, storage.read(2 * SEGMENT_SIZE, buffer));
+		} finally {
+			storage.close();
+		}
+		storage = settings.openStorage(storageFile);
+		try {
+			assertEquals(SEGMENT_SIZE + 1, storage.getLength());
+		} finally {
+			storage.close();
+		}
+		// a plain channel trims the file to the length of the storage
+		storage = FileChannelStorage.open(storageFile);
+		try {
+			assertEquals(SEGMENT_SIZE + 1, storage.getLength());
+		} finally {
+			storage.close();
+		}
+		assertEquals(SEGMENT_SIZE + 1, storageFile.length());
+		storageFile.delete();
+	}
+
+	@Test
+	public void growTest() throws IOException {
+		File storageFile = new File(TEST_DISK_DIR, "growTest.bin");
+		storageFile.delete();
+		IVirtualDiskStorage storage = settings.openStorage(storageFile);
+		try {
+			for (int i = 1; i <= 3 * SEGMENT_SIZE; i++) {
+				storage.setLength(i);
+				storage.write(i - 1, ByteBuffer.wrap(new byte[] { (byte) i }));
+			}
+			// the file grows at most one segment ahead of the storage
+			assertTrue(storageFile.length() <= 4 * SEGMENT_SIZE);
+			storage.setLength(SEGMENT_SIZE);
+		} finally {
+			storage.close();
+		}
+		storage = settings.openStorage(storageFile);
+		try {
+			assertEquals(SEGMENT_SIZE, storage.getLength());
+			ByteBuffer buffer = ByteBuffer.allocate(SEGMENT_SIZE);
+			assertEquals(SEGMENT_SIZE, storage.read(0, buffer));
+			for (int i = 1; i <= SEGMENT_SIZE; i++) {
+				assertEquals((byte) i, buffer.get(i - 1));
+			}
+		} finally {
+			storage.close();
+			storageFile.delete();
+		}
+	}
+
+	@Test
+	public void shortTransferTest() throws IOException {
+		File storageFile = new File(TEST_DISK_DIR, "shortTransferTest.bin");
+		storageFile.delete();
+		IVirtualDiskStorage storage = settings.openStorage(storageFile);
+		byte[] data = new byte[SEGMENT_SIZE + 5];
+		Arrays.fill(data, (byte) 7);
+		try {
+			storage.write(0, ByteBuffer.wrap(new byte[10]));
+			// the channel delivers less than the requested count
+			assertEquals(data.length, storage.transferFrom(
+					Channels.newChannel(new ByteArrayInputStream(data)), 10,
+					100 * SEGMENT_SIZE));
+			assertEquals(10 + data.length, storage.getLength());
+			assertTrue(storageFile.length() < 100 * SEGMENT_SIZE);
+			ByteBuffer buffer = ByteBuffer.allocate(data.length + 1);
+			assertEquals(data.length, storage.read(10, buffer));
+			assertArrayEquals(data, Arrays.copyOf(buffer.array(), data.length));
+		} finally {
+			storage.close();
+		}
+		storage = settings.openStorage(storageFile);
+		try {
+			assertEquals(10 + data.length, storage.getLength());
+		} finally {
+			storage.close();
+			storageFile.delete();
+		}
+	}
+
+	@Test
+	public void closeLoadTest() throws IOException {
+		IVirtualDirectory dir = disk.createDirectory(disk.getRootDirectory(),
+				"dir");
+		byte[] data = new byte[5 * SEGMENT_SIZE];
+		IVirtualFile file = disk.createFile(dir, "file", data.length);
+		Arrays.fill(data, (byte) 42);
+		file.write(data);
+
+		disk.close();
+		disk = VirtualDisk.load(diskFile.getPath(), settings);
+
+		IVirtualDirectory loadedDir = (IVirtualDirectory) VirtualDiskUtil
+				.getDirectoryMember(disk.getRootDirectory(), "dir");
+		IVirtualFile loadedFile = (IVirtualFile) VirtualDiskUtil
+				.getDirectoryMember(loadedDir, "file");
+		assertEquals(data.length, loadedFile.getSize());
+
+		byte[] buffer = new byte[data.length];
+		loadedFile.seek(0);
+		loadedFile.read(buffer);
+		assertArrayEquals(data, buffer);
+
+		loadedFile.delete();
+		assertEquals(disk.getSize(), disk.getOccupiedSpace());
+	}
+
+	@Test
+	public void transferTest() throws IOException {
+		IVirtualDirectory root = disk.getRootDirectory();
+		IVirtualFile file = disk.createFile(root, "file", 0);
+		IVirtualFile other = disk.createFile(root, "other", 0);
+		// the old data is read, so it is cached and buffered before the
+		// transfer overwrites it
+		file.write(0, new byte[3 * SEGMENT_SIZE], 0, 3 * SEGMENT_SIZE);
+		file.read(0, new byte[SEGMENT_SIZE], 0, SEGMENT_SIZE);
+		// the transferred data is stored in several blocks
+		other.write(0, new byte[SEGMENT_SIZE], 0, SEGMENT_SIZE);
+
+		byte[] data = new byte[10 * SEGMENT_SIZE + 3];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) (i * 3);
+		}
+		File hostFile = new File(TEST_DISK_DIR, "transferTest.bin");
+		hostFile.delete();
+		RandomAccessFile host = new RandomAccessFile(hostFile, "rw");
+		try {
+			host.write(data);
+			FileChannel channel = host.getChannel();
+
+			channel.position(0);
+			assertEquals(data.length,
+					file.transferFrom(channel, 5, 2 * data.length));
+			assertEquals(data.length + 5, file.getSize());
+			byte[] buffer = new byte[data.length];
+			assertEquals(data.length, file.read(5, buffer, 0, data.length));
+			assertArrayEquals(data, buffer);
+
+			channel.truncate(0);
+			assertEquals(data.length,
+					file.transferTo(5, 2 * data.length, channel));
+			assertEquals(data.length, channel.size());
+			ByteBuffer transferred = ByteBuffer.allocate(data.length);
+			channel.read(transferred, 0);
+			assertArrayEquals(data, transferred.array());
+		} finally {
+			host.close();
+			hostFile.delete();
+		}
+
+		disk.close();
+		disk = VirtualDisk.load(diskFile.getPath(), settings);
+		IVirtualFile loadedFile = (IVirtualFile) VirtualDiskUtil
+				.getDirectoryMember(disk.getRootDirectory(), "file");
+		byte[] buffer = new byte[data.length];
+		loadedFile.read(5, buffer, 0, data.length);
+		assertArrayEquals(data, buffer);
+	}
+}
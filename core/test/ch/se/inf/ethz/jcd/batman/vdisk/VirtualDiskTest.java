@@ -4,6 +4,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
@@ -13,6 +14,7 @@ import java.io.RandomAccessFile;
 import org.junit.Test;
 
 import ch.se.inf.ethz.jcd.batman.vdisk.impl.VirtualDisk;
+import ch.se.inf.ethz.jcd.batman.vdisk.impl.VirtualDiskEntry;
 import ch.se.inf.ethz.jcd.batman.vdisk.util.VirtualDiskUtil;
 
 public class VirtualDiskTest extends NewDiskPerTest {
@@ -52,6 +54,16 @@ public class VirtualDiskTest extends NewDiskPerTest {
 		}
 	}
 
+	@Test()
+	public void writtenBeforeCloseTest() throws IOException {
+		// the default settings pass the data on to the host file immediately
+		File hostFile = new File(disk.getHostLocation());
+		long hostLength = hostFile.length();
+		assertTrue(hostLength > 0);
+		disk.createFile(disk.getRootDirectory(), "foo", 10000);
+		assertTrue(hostFile.length() > hostLength);
+	}
+
 	@Test()
 	public void createFileTest() throws IOException {
 		IVirtualFile file = disk.createFile(null, "foo", 100);
@@ -273,6 +285,89 @@ public class VirtualDiskTest extends NewDiskPerTest {
 		}
 	}
 
+	/**
+	 * Creates a directory with many members and looks them up by name, also
+	 * after some of them were renamed, removed from the middle of the member
+	 * list and after the disk was loaded again.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void manyDirectoryMembersTest() throws IOException {
+		final int memberCount = 300;
+		IVirtualDirectory dir = disk.createDirectory(disk.getRootDirectory(),
+				"many");
+		for (int i = 0; i < memberCount; i++) {
+			disk.createFile(dir, "file" + i, 10);
+		}
+		for (int i = 0; i < memberCount; i++) {
+			IVirtualDiskEntry member = dir.getMember("file" + i);
+			assertNotNull(member);
+			assertEquals("file" + i, member.getName());
+			assertEquals(dir, member.getParent());
+		}
+		assertNull(dir.getMember("file" + memberCount));
+
+		dir.getMember("file7").setName("renamed");
+		assertNull(dir.getMember("file7"));
+		assertNotNull(dir.getMember("renamed"));
+		for (int i = 100; i < 200; i++) {
+			dir.getMember("file" + i).delete();
+		}
+		assertNull(dir.getMember("file150"));
+		assertEquals(memberCount - 100, VirtualDiskUtil
+				.getDirectoryMembers(dir).size());
+
+		disk.close();
+		disk = VirtualDisk.load(diskFile.getPath());
+		IVirtualDirectory loadedDir = (IVirtualDirectory) disk
+				.getRootDirectory().getMember("many");
+		assertEquals(memberCount - 100, VirtualDiskUtil
+				.getDirectoryMembers(loadedDir).size());
+		assertNotNull(loadedDir.getMember("renamed"));
+		assertNotNull(loadedDir.getMember("file99"));
+		assertNotNull(loadedDir.getMember("file200"));
+		assertNull(loadedDir.getMember("file100"));
+		for (IVirtualDiskEntry member : VirtualDiskUtil
+				.getDirectoryMembers(loadedDir)) {
+			member.delete();
+		}
+		assertNull(loadedDir.getFirstMember());
+		assertNull(loadedDir.getMember("file0"));
+	}
+
+	/**
+	 * Checks that an entry is represented by the same object, no matter how it
+	 * is reached, and that deleted entries are not returned anymore.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void loadedEntryIdentityTest() throws IOException {
+		IVirtualDirectory dir = disk.createDirectory(disk.getRootDirectory(),
+				"dir");
+		IVirtualFile file = disk.createFile(dir, "file", 10);
+		assertSame(file, VirtualDiskEntry.load(disk, file.getPosition()));
+		assertSame(file, VirtualDiskUtil.getDirectoryMember(dir, "file"));
+
+		disk.close();
+		disk = VirtualDisk.load(diskFile.getPath());
+		IVirtualDiskEntry loadedDir = VirtualDiskUtil.getDirectoryMember(
+				disk.getRootDirectory(), "dir");
+		IVirtualDiskEntry loadedFile = VirtualDiskUtil.getDirectoryMember(
+				(IVirtualDirectory) loadedDir, "file");
+		assertSame(loadedFile, VirtualDiskEntry.load(disk,
+				loadedFile.getPosition()));
+		assertSame(loadedDir, loadedFile.getParent());
+
+		loadedFile.delete();
+		IVirtualFile newFile = disk.createFile((IVirtualDirectory) loadedDir,
+				"newFile", 10);
+		assertSame(newFile, VirtualDiskEntry.load(disk, newFile.getPosition()));
+		assertNull(VirtualDiskUtil.getDirectoryMember(
+				(IVirtualDirectory) loadedDir, "file"));
+	}
+
 	@Test
 	public void freeOccupiedTest() throws IOException {
 		long diskStartSize = disk.getSize();
@@ -292,4 +387,34 @@ public class VirtualDiskTest extends NewDiskPerTest {
 		assertEquals(diskStartSize, disk.getOccupiedSpace());
 		assertEquals(0, disk.getFreeSpace());
 	}
+
+	/**
+	 * Checks that the free space is counted correctly for fragmented free
+	 * blocks, also after reloading the disk, and that the smallest fitting
+	 * free block is allocated.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void freeBlockIndexTest() throws IOException {
+		IDataBlock[] blocks = new IDataBlock[5];
+		long[] sizes = { 1000, 100, 1000, 500, 100 };
+		for (int i = 0; i < blocks.length; i++) {
+			blocks[i] = disk.allocateBlock(sizes[i])[0];
+		}
+		long smallPosition = blocks[1].getBlockPosition();
+		long freedSize = blocks[1].getDiskSize() + blocks[3].getDiskSize();
+		blocks[1].free();
+		blocks[3].free();
+		assertEquals(freedSize, disk.getFreeSpace());
+
+		disk.close();
+		disk = loadDisk();
+		assertEquals(freedSize, disk.getFreeSpace());
+		IDataBlock[] allocatedBlocks = disk.allocateBlock(50);
+		assertEquals(1, allocatedBlocks.length);
+		assertEquals(smallPosition, allocatedBlocks[0].getBlockPosition());
+		assertEquals(freedSize - allocatedBlocks[0].getDiskSize(),
+				disk.getFreeSpace());
+	}
 }
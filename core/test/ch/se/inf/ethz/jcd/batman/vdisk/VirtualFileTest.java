@@ -70,6 +70,23 @@ public class VirtualFileTest extends NewDiskPerTest {
 		assertEquals(5, file.getTimestamp());
 	}
 
+	@Test
+	public void closeLoadTest() throws IOException {
+		String name = "N\u00e4me with \u00fcml\u00e4uts";
+		IVirtualFile file = disk.createFile(disk.getRootDirectory(), name,
+				100);
+		file.setTimestamp(42);
+		disk.close();
+		disk = loadDisk();
+
+		IVirtualDiskEntry loadedFile = VirtualDiskUtil.getDirectoryMember(
+				disk.getRootDirectory(), name);
+		assertTrue(loadedFile instanceof IVirtualFile);
+		assertEquals(name, loadedFile.getName());
+		assertEquals(42, loadedFile.getTimestamp());
+		assertEquals(100, ((IVirtualFile) loadedFile).getSize());
+	}
+
 	@Test
 	public void sizeTest() throws IOException {
 		IVirtualFile file = disk.createFile(disk.getRootDirectory(), "Test",
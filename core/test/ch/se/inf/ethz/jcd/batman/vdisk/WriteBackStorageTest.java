@@ -0,0 +1,93 @@
+package ch.se.inf.ethz.jcd.batman.vdisk;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.se.inf.ethz.jcd.batman.vdisk.impl.FileChannelStorage;
+import ch.se.inf.ethz.jcd.batman.vdisk.impl.WriteBackStorage;
+
+public class WriteBackStorageTest {
+
+	private static final String TEST_DISK_DIR = System
+			.getProperty("java.io.tmpdir");
+	private static final int THRESHOLD = 64;
+
+	private File storageFile;
+	private IVirtualDiskStorage baseStorage;
+	private WriteBackStorage storage;
+
+	@Before
+	public void setUp() throws Exception {
+		storageFile = new File(TEST_DISK_DIR, "writeBackStorageTest.bin");
+		storageFile.delete();
+		baseStorage = FileChannelStorage.open(storageFile);
+		storage = WriteBackStorage.wrap(baseStorage, THRESHOLD);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		storage.close();
+		storageFile.delete();
+	}
+
+	@Test
+	public void coalesceTest() throws IOException {
+		storage.write(10, ByteBuffer.wrap(new byte[] { 3, 4 }));
+		storage.write(6, ByteBuffer.wrap(new byte[] { 1, 2 }));
+		// Fills the gap between the two ranges
+		storage.write(8, ByteBuffer.wrap(new byte[] { 7, 7 }));
+		// Overwrites parts of the merged range
+		storage.write(7, ByteBuffer.wrap(new byte[] { 5, 6 }));
+		assertEquals(6, storage.getDirtyByteCount());
+		assertEquals(12, storage.getLength());
+		assertEquals(0, baseStorage.getLength());
+
+		byte[] expected = new byte[] { 0, 0, 0, 0, 0, 0, 1, 5, 6, 7, 3, 4 };
+		assertArrayEquals(expected, read(storage, 0, expected.length));
+
+		storage.flush();
+		assertEquals(0, storage.getDirtyByteCount());
+		assertArrayEquals(expected, read(baseStorage, 0, expected.length));
+	}
+
+	@Test
+	public void thresholdTest() throws IOException {
+		byte[] data = new byte[THRESHOLD / 2];
+		storage.write(0, ByteBuffer.wrap(data));
+		assertEquals(data.length, storage.getDirtyByteCount());
+		storage.write(THRESHOLD, ByteBuffer.wrap(data));
+		assertEquals(0, storage.getDirtyByteCount());
+		assertEquals(THRESHOLD + data.length, baseStorage.getLength());
+	}
+
+	@Test
+	public void setLengthTest() throws IOException {
+		storage.write(0, ByteBuffer.wrap(new byte[] { 1, 2, 3, 4 }));
+		storage.write(8, ByteBuffer.wrap(new byte[] { 5, 6 }));
+		storage.setLength(3);
+		assertEquals(3, storage.getDirtyByteCount());
+		assertEquals(-1, storage.read(3, ByteBuffer.allocate(1)));
+
+		storage.setLength(6);
+		assertArrayEquals(new byte[] { 1, 2, 3, 0, 0, 0 },
+				read(storage, 0, 6));
+
+		storage.flush();
+		assertEquals(6, baseStorage.getLength());
+	}
+
+	private static byte[] read(IVirtualDiskStorage storage, long pos,
+			int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		assertEquals(length, storage.read(pos, buffer));
+		return buffer.array();
+	}
+}
@@ -0,0 +1,501 @@
+package ch.se.inf.ethz.jcd.batman.vdisk.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import ch.se.inf.ethz.jcd.batman.io.VDiskFile;
+import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualFile;
+import ch.se.inf.ethz.jcd.batman.vdisk.NewDiskPerTest;
+
+public class VirtualDiskSearchTest extends NewDiskPerTest {
+
+	private static final String[] TERMS = { "rep", "REPORT", "txt", "ort",
+			"re", "b", "missing", "" };
+
+	private static final Pattern[] PATTERNS = { Pattern.compile("rep.*txt"),
+			Pattern.compile("^Rep"), Pattern.compile("(foo|rep)"),
+			Pattern.compile("\\.txt$"), Pattern.compile("port2?\\."),
+			Pattern.compile("re|di"), Pattern.compile("\\Qt.t\\E"),
+			Pattern.compile("REPORT", Pattern.CASE_INSENSITIVE),
+			Pattern.compile("x{2}") };
+
+	private void createTree() throws IOException {
+		new VDiskFile("/a/b/c", disk).mkdirs();
+		new VDiskFile("/dir", disk).mkdir();
+		new VDiskFile("/a/report.txt", disk).createNewFile();
+		new VDiskFile("/a/b/Report2.TXT", disk).createNewFile();
+		new VDiskFile("/a/b/c/reports", disk).mkdir();
+		new VDiskFile("/notes.txt", disk).createNewFile();
+		new VDiskFile("/dir/t.txt", disk).createNewFile();
+		new VDiskFile("/dir/xx", disk).createNewFile();
+	}
+
+	/**
+	 * Returns the results of all searches with different settings and
+	 * parents.
+	 */
+	private List<List<String>> searchAll() throws IOException {
+		List<List<String>> results = new ArrayList<List<String>>();
+		VDiskFile[][] parents = { { new VDiskFile("/", disk) },
+				{ new VDiskFile("/a", disk), new VDiskFile("/dir/", disk) },
+				{ new VDiskFile("/a/b", disk) } };
+		for (boolean caseSensitive : new boolean[] { true, false }) {
+			for (boolean subFolders : new boolean[] { true, false }) {
+				for (int types = 1; types <= 3; types++) {
+					Settings settings = new Settings();
+					settings.setCaseSensitive(caseSensitive);
+					settings.setCheckSubFolders(subFolders);
+					settings.setCheckFiles((types & 1) != 0);
+					settings.setCheckFolders((types & 2) != 0);
+					for (VDiskFile[] parent : parents) {
+						for (String term : TERMS) {
+							results.add(getPaths(VirtualDiskSearch.searchName(
+									settings, term, parent)));
+						}
+						for (Pattern pattern : PATTERNS) {
+							results.add(getPaths(VirtualDiskSearch.searchName(
+									settings, pattern, parent)));
+						}
+					}
+				}
+			}
+		}
+		return results;
+	}
+
+	private List<String> getPaths(List<VDiskFile> files) {
+		List<String> paths = new ArrayList<String>();
+		for (VDiskFile file : files) {
+			paths.add(file.getPath());
+		}
+		Collections.sort(paths);
+		return paths;
+	}
+
+	@Test
+	public void indexedSearchTest() throws IOException {
+		createTree();
+		List<List<String>> expected = searchAll();
+		assertEquals(Arrays.asList("/a/b/Report2.TXT", "/a/b/c/reports",
+				"/a/report.txt"), getPaths(VirtualDiskSearch.searchName(
+				getAllSettings(), "REP", new VDiskFile("/", disk))));
+
+		assertNull(disk.getNameIndex());
+		assertNotNull(disk.createNameIndex());
+		assertEquals(expected, searchAll());
+	}
+
+	@Test
+	public void indexUpdateTest() throws IOException {
+		disk.createNameIndex();
+		createTree();
+		new VDiskFile("/a/report.txt", disk).renameTo(new VDiskFile(
+				"/dir/summary.txt", disk));
+		new VDiskFile("/a/b", disk).renameTo(new VDiskFile("/dir/reports",
+				disk));
+		new VDiskFile("/notes.txt", disk).delete();
+		new VDiskFile("/dir/t.txt", disk).copyTo(new VDiskFile(
+				"/a/report.txt", disk));
+		for (int i = 0; i < 100; i++) {
+			new VDiskFile("/a/report" + i, disk).createNewFile();
+		}
+		for (int i = 0; i < 90; i++) {
+			new VDiskFile("/a/report" + i, disk).delete();
+		}
+		List<List<String>> indexed = searchAll();
+		assertEquals(Arrays.asList("/dir/reports", "/dir/reports/c/reports",
+				"/dir/summary.txt"),
+				getPaths(VirtualDiskSearch.searchName(getAllSettings(), "s",
+						new VDiskFile("/dir", disk))));
+
+		disk.close();
+		disk = loadDisk();
+		assertNotNull(disk.getNameIndex());
+		assertEquals(indexed, searchAll());
+
+		disk.deleteNameIndex();
+		assertNull(disk.getNameIndex());
+		assertEquals(indexed, searchAll());
+	}
+
+	@Test
+	public void indexRewriteTest() throws IOException {
+		createTree();
+		long occupiedSpace = disk.getOccupiedSpace();
+		disk.createNameIndex();
+		new VDiskFile("/tmp", disk).mkdir();
+		for (int i = 0; i < 200; i++) {
+			new VDiskFile("/tmp/report" + i, disk).createNewFile();
+		}
+		// the removed records are compacted into a new space
+		for (int i = 0; i < 200; i++) {
+			new VDiskFile("/tmp/report" + i, disk).delete();
+		}
+		new VDiskFile("/tmp", disk).delete();
+		List<List<String>> indexed = searchAll();
+
+		disk.close();
+		disk = loadDisk();
+		assertEquals(indexed, searchAll());
+		// the old spaces of the index have been freed
+		disk.deleteNameIndex();
+		assertEquals(occupiedSpace, disk.getOccupiedSpace());
+		assertEquals(indexed, searchAll());
+	}
+
+	@Test
+	public void largeIndexTest() throws IOException {
+		// the records need more than one read buffer of the index
+		disk.createNameIndex();
+		new VDiskFile("/dir", disk).mkdir();
+		for (int i = 0; i < 2000; i++) {
+			new VDiskFile("/dir/report-" + i + "-of-a-long-name", disk)
+					.createNewFile();
+		}
+		for (int i = 0; i < 2000; i += 2) {
+			new VDiskFile("/dir/report-" + i + "-of-a-long-name", disk)
+					.delete();
+		}
+		assertEquals(1000, VirtualDiskSearch.searchName(getAllSettings(),
+				"long", new VDiskFile("/", disk)).size());
+		assertEquals(Arrays.asList("/dir/report-1999-of-a-long-name"),
+				getPaths(VirtualDiskSearch.searchName(getAllSettings(), "1999",
+						new VDiskFile("/", disk))));
+
+		disk.close();
+		disk = loadDisk();
+		assertEquals(1000, VirtualDiskSearch.searchName(getAllSettings(),
+				"long", new VDiskFile("/", disk)).size());
+		assertEquals(Arrays.asList("/dir/report-1999-of-a-long-name"),
+				getPaths(VirtualDiskSearch.searchName(getAllSettings(), "1999",
+						new VDiskFile("/", disk))));
+		assertEquals(0, VirtualDiskSearch.searchName(getAllSettings(), "1998",
+				new VDiskFile("/", disk)).size());
+	}
+
+	@Test
+	public void parallelWalkTest() throws IOException {
+		for (int i = 0; i < 8; i++) {
+			for (int j = 0; j < 8; j++) {
+				new VDiskFile("/d" + i + "/d" + j, disk).mkdirs();
+				for (int k = 0; k < 4; k++) {
+					new VDiskFile("/d" + i + "/d" + j + "/f" + k, disk)
+							.createNewFile();
+				}
+			}
+		}
+		List<String> expected = new ArrayList<String>();
+		walk(new VDiskFile("/", disk), expected);
+		Collections.sort(expected);
+
+		List<String> found = getPaths(VirtualDiskSearch.searchName(
+				getAllSettings(), "", new VDiskFile("/", disk)));
+		assertEquals(8 + 8 * 8 + 8 * 8 * 4, found.size());
+		assertEquals(expected, found);
+	}
+
+	@Test
+	public void maxResultsTest() throws IOException {
+		createTree();
+		Settings settings = getAllSettings();
+		settings.setMaxResults(2);
+		assertEquals(2, VirtualDiskSearch.searchName(settings, "t",
+				new VDiskFile("/", disk)).size());
+		settings.setMaxResults(100);
+		assertEquals(5, VirtualDiskSearch.searchName(settings, "t",
+				new VDiskFile("/", disk)).size());
+
+		disk.createNameIndex();
+		settings.setMaxResults(2);
+		assertEquals(2, VirtualDiskSearch.searchName(settings,
+				Pattern.compile("t"), new VDiskFile("/", disk)).size());
+		settings.setMaxResults(0);
+		assertEquals(5, VirtualDiskSearch.searchName(settings,
+				Pattern.compile("t"), new VDiskFile("/", disk)).size());
+	}
+
+	@Test
+	public void stopSearchTest() throws IOException {
+		createTree();
+		assertEquals(1, countUntilStopped());
+		disk.createNameIndex();
+		assertEquals(1, countUntilStopped());
+	}
+
+	/**
+	 * Returns the number of entries passed to a listener, which stops the
+	 * search after the first entry.
+	 */
+	private int countUntilStopped() throws IOException {
+		final List<VDiskFile> found = new ArrayList<VDiskFile>();
+		VirtualDiskSearch.searchName(getAllSettings(), "",
+				new SearchResultListener() {
+					@Override
+					public boolean entryFound(VDiskFile entry) {
+						found.add(entry);
+						return false;
+					}
+				}, new VDiskFile("/", disk), new VDiskFile("/a", disk));
+		return found.size();
+	}
+
+	@Test
+	public void progressListenerTest() throws IOException {
+		createTree();
+		final List<VDiskFile> found = new ArrayList<VDiskFile>();
+		final int[] progressCount = new int[1];
+		class ProgressListener implements SearchResultListener,
+				SearchProgressListener {
+			@Override
+			public boolean entryFound(VDiskFile entry) throws IOException {
+				found.add(entry);
+				try {
+					Thread.sleep(2 * VirtualDiskSearch.PROGRESS_INTERVAL);
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+				return true;
+			}
+
+			@Override
+			public boolean searchProgressed() {
+				progressCount[0]++;
+				return false;
+			}
+		}
+		VirtualDiskSearch.searchName(getAllSettings(), "",
+				new ProgressListener(), new VDiskFile("/", disk));
+		assertEquals(1, found.size());
+		assertEquals(1, progressCount[0]);
+	}
+
+	@Test
+	public void fullQueueTest() throws IOException {
+		// more entries than the queue of the walk holds
+		new VDiskFile("/dir", disk).mkdir();
+		for (int i = 0; i < 1500; i++) {
+			new VDiskFile("/dir/" + i, disk).createNewFile();
+		}
+		assertEquals(1501, VirtualDiskSearch.searchName(getAllSettings(), "",
+				new VDiskFile("/", disk)).size());
+		Settings settings = getAllSettings();
+		settings.setMaxResults(1100);
+		assertEquals(1100, VirtualDiskSearch.searchName(settings, "",
+				new VDiskFile("/", disk)).size());
+	}
+
+	private static final Condition[] CONDITIONS = {
+			Condition.modifiedAfter(1000), Condition.sizeAtLeast(100),
+			Condition.modifiedBetween(500, 2500),
+			Condition.or(Condition.sizeAtLeast(500),
+					Condition.modifiedBetween(0, 100)),
+			Condition.and(Condition.depthBetween(2, 2),
+					Condition.sizeBetween(0, 200)),
+			Condition.and(Condition.depthBetween(1, 1),
+					Condition.modifiedBetween(0, 1000)) };
+
+	/**
+	 * Creates a tree with files of different sizes and time stamps.
+	 */
+	private void createMetadataTree() throws IOException {
+		createTree();
+		new VDiskFile("/a/large.bin", disk).createNewFile(1000);
+		new VDiskFile("/a/b/medium.bin", disk).createNewFile(150);
+		String[] paths = { "/a", "/a/b", "/a/b/c", "/dir", "/a/report.txt",
+				"/a/b/Report2.TXT", "/a/b/c/reports", "/notes.txt",
+				"/dir/t.txt", "/dir/xx", "/a/large.bin", "/a/b/medium.bin" };
+		for (int i = 0; i < paths.length; i++) {
+			new VDiskFile(paths[i], disk).setLastModified(i * 250);
+		}
+	}
+
+	/**
+	 * Returns the results of all meta data searches, with and without names.
+	 */
+	private List<List<String>> searchAllMetadata() throws IOException {
+		List<List<String>> results = new ArrayList<List<String>>();
+		for (Condition condition : CONDITIONS) {
+			Settings settings = getAllSettings();
+			settings.setCondition(condition);
+			results.add(getPaths(VirtualDiskSearch.searchMetadata(settings,
+					new VDiskFile("/", disk))));
+			results.add(getPaths(VirtualDiskSearch.searchMetadata(settings,
+					new VDiskFile("/a", disk))));
+			results.add(getPaths(VirtualDiskSearch.searchName(settings, "r",
+					new VDiskFile("/", disk))));
+			settings.setCheckFolders(false);
+			settings.setCheckSubFolders(false);
+			results.add(getPaths(VirtualDiskSearch.searchMetadata(settings,
+					new VDiskFile("/dir", disk))));
+		}
+		return results;
+	}
+
+	@Test
+	public void metadataSearchTest() throws IOException {
+		createMetadataTree();
+		List<List<String>> expected = searchAllMetadata();
+		Settings settings = getAllSettings();
+		settings.setCondition(Condition.sizeAtLeast(100));
+		assertEquals(Arrays.asList("/a/b/medium.bin", "/a/large.bin"),
+				getPaths(VirtualDiskSearch.searchMetadata(settings,
+						new VDiskFile("/", disk))));
+		settings.setCondition(Condition.modifiedAfter(2000));
+		assertEquals(Arrays.asList("/a/b/medium.bin", "/a/large.bin",
+				"/dir/xx"),
+				getPaths(VirtualDiskSearch.searchMetadata(settings,
+						new VDiskFile("/", disk))));
+
+		disk.createNameIndex();
+		assertEquals(expected, searchAllMetadata());
+		disk.close();
+		disk = loadDisk();
+		assertEquals(expected, searchAllMetadata());
+	}
+
+	@Test
+	public void metadataIndexUpdateTest() throws IOException {
+		disk.createNameIndex();
+		createMetadataTree();
+		new VDiskFile("/notes.txt", disk).setLastModified(5000);
+		((IVirtualFile) new VDiskFile("/a/large.bin", disk).getDiskEntry())
+				.setSize(50);
+		((IVirtualFile) new VDiskFile("/dir/xx", disk).getDiskEntry())
+				.write(new byte[300]);
+		List<List<String>> indexed = searchAllMetadata();
+		Settings settings = getAllSettings();
+		settings.setCondition(Condition.sizeAtLeast(100));
+		assertEquals(Arrays.asList("/a/b/medium.bin", "/dir/xx"),
+				getPaths(VirtualDiskSearch.searchMetadata(settings,
+						new VDiskFile("/", disk))));
+
+		disk.close();
+		disk = loadDisk();
+		assertEquals(indexed, searchAllMetadata());
+
+		// the changed size is written to the index when the disk is closed
+		((IVirtualFile) new VDiskFile("/notes.txt", disk).getDiskEntry())
+				.write(new byte[200]);
+		disk.close();
+		disk = loadDisk();
+		assertEquals(Arrays.asList("/a/b/medium.bin", "/dir/xx",
+				"/notes.txt"), getPaths(VirtualDiskSearch.searchMetadata(
+				settings, new VDiskFile("/", disk))));
+		indexed = searchAllMetadata();
+		disk.deleteNameIndex();
+		assertEquals(indexed, searchAllMetadata());
+	}
+
+	private void writeFile(String path, byte[] data) throws IOException {
+		VDiskFile file = new VDiskFile(path, disk);
+		file.createNewFile();
+		((IVirtualFile) file.getDiskEntry()).write(data);
+	}
+
+	private List<String> getMatches(List<ContentMatch> matches) {
+		List<String> results = new ArrayList<String>();
+		for (ContentMatch match : matches) {
+			results.add(match.getFile().getPath() + ":" + match.getOffset());
+		}
+		Collections.sort(results);
+		return results;
+	}
+
+	@Test
+	public void contentSearchTest() throws IOException {
+		createTree();
+		writeFile("/a/report.txt", "Needle in a needle stack".getBytes());
+		writeFile("/dir/t.txt", "no match here, NEEDLE".getBytes());
+		byte[] large = new byte[ContentMatcher.CHUNK_SIZE * 2 + 10];
+		int boundary = ContentMatcher.CHUNK_SIZE - 3;
+		System.arraycopy("needle".getBytes(), 0, large, boundary, 6);
+		System.arraycopy("needle".getBytes(), 0, large, large.length - 6, 6);
+		writeFile("/a/b/large.bin", large);
+
+		Settings settings = getAllSettings();
+		VDiskFile root = new VDiskFile("/", disk);
+		assertEquals(Arrays.asList("/a/b/large.bin:" + boundary,
+				"/a/b/large.bin:" + (large.length - 6), "/a/report.txt:0",
+				"/a/report.txt:12", "/dir/t.txt:15"),
+				getMatches(VirtualDiskSearch.searchContent(settings,
+						"needle", root)));
+		settings.setCaseSensitive(true);
+		assertEquals(Arrays.asList("/a/b/large.bin:" + boundary,
+				"/a/b/large.bin:" + (large.length - 6), "/a/report.txt:12"),
+				getMatches(VirtualDiskSearch.searchContent(settings,
+						"needle", root)));
+		assertEquals(Arrays.asList("/a/b/large.bin:" + boundary,
+				"/a/b/large.bin:" + (large.length - 6), "/a/report.txt:0",
+				"/a/report.txt:12"), getMatches(VirtualDiskSearch
+				.searchContent(settings, Pattern.compile("[Nn]eed"),
+						new VDiskFile("/a", disk))));
+		assertEquals(Arrays.asList("/a/b/large.bin:" + (boundary - 1)),
+				getMatches(VirtualDiskSearch.searchContent(settings,
+						Pattern.compile("\\x00needle\\x00"), root)));
+		settings.setCheckSubFolders(false);
+		assertEquals(Arrays.asList("/a/report.txt:12"),
+				getMatches(VirtualDiskSearch.searchContent(settings,
+						"needle", new VDiskFile("/a", disk))));
+		settings.setCheckSubFolders(true);
+		settings.setMaxResults(2);
+		assertEquals(2, VirtualDiskSearch.searchContent(settings, "needle",
+				root).size());
+	}
+
+	@Test
+	public void contentPatternBoundsTest() throws IOException {
+		byte[] large = new byte[ContentMatcher.CHUNK_SIZE * 2 + 10];
+		Arrays.fill(large, (byte) 'x');
+		// the second chunk is searched from here on
+		int chunkStart = ContentMatcher.CHUNK_SIZE
+				- ContentMatcher.MAX_PATTERN_MATCH_LENGTH;
+		System.arraycopy("word".getBytes(), 0, large, chunkStart, 4);
+		System.arraycopy("word".getBytes(), 0, large, 0, 4);
+		writeFile("/large.bin", large);
+
+		Settings settings = getAllSettings();
+		VDiskFile root = new VDiskFile("/", disk);
+		assertEquals(Arrays.asList("/large.bin:0"),
+				getMatches(VirtualDiskSearch.searchContent(settings,
+						Pattern.compile("^word"), root)));
+		assertEquals(Arrays.asList("/large.bin:0"),
+				getMatches(VirtualDiskSearch.searchContent(settings,
+						Pattern.compile("\\bword"), root)));
+		assertEquals(Arrays.asList("/large.bin:" + chunkStart),
+				getMatches(VirtualDiskSearch.searchContent(settings,
+						Pattern.compile("(?<=x)word"), root)));
+		assertEquals(Arrays.asList("/large.bin:" + (large.length - 1)),
+				getMatches(VirtualDiskSearch.searchContent(settings,
+						Pattern.compile("x$"), root)));
+	}
+
+	/**
+	 * Adds the paths below the given directory.
+	 */
+	private void walk(VDiskFile directory, List<String> paths)
+			throws IOException {
+		for (VDiskFile child : directory.listFiles()) {
+			paths.add(child.getPath());
+			walk(child, paths);
+		}
+	}
+
+	private Settings getAllSettings() {
+		Settings settings = new Settings();
+		settings.setCheckFiles(true);
+		settings.setCheckFolders(true);
+		settings.setCheckSubFolders(true);
+		return settings;
+	}
+
+}
@@ -15,6 +15,7 @@ public class SearchDialog extends ModalDialog {
 	private final CheckBox foldersCheckBox;
 	private final CheckBox caseSensitiveCheckBox;
 	private final CheckBox subFoldersCheckBox;
+	private final TextField maxResultsField;
 
 	public SearchDialog() {
 		super();
@@ -45,6 +46,13 @@ public class SearchDialog extends ModalDialog {
 		subFoldersCheckBox.setSelected(true);
 		getContainer().add(subFoldersCheckBox, 1, 5);
 
+		Label maxResultsLabel = new Label("Maximum results");
+		getContainer().add(maxResultsLabel, 0, 6);
+
+		maxResultsField = new TextField();
+		maxResultsField.setPromptText("no limit");
+		getContainer().add(maxResultsField, 1, 6);
+
 		Button searchButton = new Button("Search");
 		searchButton.setDefaultButton(true);
 		searchButton.setOnMouseClicked(new EventHandler<MouseEvent>() {
@@ -54,7 +62,7 @@ public class SearchDialog extends ModalDialog {
 				close();
 			}
 		});
-		getContainer().add(searchButton, 0, 6);
+		getContainer().add(searchButton, 0, 7);
 
 		Button cancelButton = new Button("Cancel");
 		cancelButton.setCancelButton(true);
@@ -65,7 +73,7 @@ public class SearchDialog extends ModalDialog {
 				close();
 			}
 		});
-		getContainer().add(cancelButton, 1, 6);
+		getContainer().add(cancelButton, 1, 7);
 	}
 
 	public String getSearchTerm() {
@@ -91,4 +99,17 @@ public class SearchDialog extends ModalDialog {
 	public boolean checkSubFolders() {
 		return subFoldersCheckBox.isSelected();
 	}
+
+	/**
+	 * @return the entered maximum number of results, 0 if the field is empty
+	 *         or does not contain a positive number
+	 */
+	public int getMaxResults() {
+		try {
+			return Math.max(Integer.parseInt(maxResultsField.getText().trim()),
+					0);
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
 }
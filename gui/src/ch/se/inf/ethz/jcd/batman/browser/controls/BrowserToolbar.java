@@ -303,7 +303,7 @@ public class BrowserToolbar extends ToolBar implements StateListener,
 				if (event.getCode() == KeyCode.ENTER) {
 					event.consume();
 					search(searchField.getText(), false, true, true, false,
-							true);
+							true, 0);
 				}
 			}
 		});
@@ -639,16 +639,18 @@ public class BrowserToolbar extends ToolBar implements StateListener,
 		if (dialog.getCloseReason() == CloseReason.OK) {
 			search(dialog.getSearchTerm(), dialog.isRegex(),
 					dialog.checkFiles(), dialog.checkFolders(),
-					dialog.isCaseSensitive(), dialog.checkSubFolders());
+					dialog.isCaseSensitive(), dialog.checkSubFolders(),
+					dialog.getMaxResults());
 		}
 	}
 
 	protected void search(final String term, final boolean isRegex,
 			final boolean checkFiles, final boolean checkFolders,
-			final boolean isCaseSensitive, final boolean checkChildren) {
+			final boolean isCaseSensitive, final boolean checkChildren,
+			final int maxResults) {
 		SearchDirectory search = new SearchDirectory(guiState
 				.getCurrentDirectory().getPath(), term, isRegex, checkFiles,
-				checkFolders, isCaseSensitive, checkChildren);
+				checkFolders, isCaseSensitive, checkChildren, maxResults);
 		guiState.setCurrentDirectory(search);
 	}
 
@@ -1,10 +1,19 @@
 package ch.se.inf.ethz.jcd.batman.browser.controls;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 import javafx.beans.property.SimpleObjectProperty;
+import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.collections.ObservableList;
 import javafx.concurrent.WorkerStateEvent;
 import javafx.event.EventHandler;
+import javafx.geometry.Orientation;
+import javafx.scene.Node;
+import javafx.scene.control.ScrollBar;
 import javafx.scene.control.SelectionMode;
 import javafx.scene.control.TableCell;
 import javafx.scene.control.TableColumn;
@@ -21,9 +30,11 @@ import ch.se.inf.ethz.jcd.batman.browser.DiskEntryListener;
 import ch.se.inf.ethz.jcd.batman.browser.GuiState;
 import ch.se.inf.ethz.jcd.batman.browser.TaskDialog;
 import ch.se.inf.ethz.jcd.batman.browser.util.HostUtil;
+import ch.se.inf.ethz.jcd.batman.controller.SearchResultHandler;
 import ch.se.inf.ethz.jcd.batman.controller.UpdateableTask;
 import ch.se.inf.ethz.jcd.batman.model.Directory;
 import ch.se.inf.ethz.jcd.batman.model.Entry;
+import ch.se.inf.ethz.jcd.batman.model.EntryPage;
 import ch.se.inf.ethz.jcd.batman.model.File;
 import ch.se.inf.ethz.jcd.batman.model.SearchDirectory;
 import ch.se.inf.ethz.jcd.batman.model.util.EntryNameComperator;
@@ -34,9 +45,18 @@ public class EntryView extends TableView<Entry> implements DirectoryListener,
 	private static final Text NO_DISK_LOADED_TEXT = new Text("No Disk Loaded.");
 	private static final Text NO_ENTRIES_TEXT = new Text("Is Empty.");
 
+	/**
+	 * Number of entries which are retrieved at once. The next page is
+	 * retrieved when the user scrolls to the end of the table.
+	 */
+	private static final int PAGE_SIZE = 500;
+
 	private final TableColumn<Entry, Entry> nameColumn;
 	private final GuiState guiState;
 	private Directory directory;
+	private ScrollBar verticalScrollBar;
+	private EntryPage lastPage;
+	private UpdateableTask<EntryPage> pageTask;
 
 	public EntryView(final GuiState guiState) {
 		this.guiState = guiState;
@@ -177,6 +197,80 @@ public class EntryView extends TableView<Entry> implements DirectoryListener,
 
 	protected void clear() {
 		getItems().clear();
+		lastPage = null;
+		pageTask = null;
+	}
+
+	@Override
+	protected void layoutChildren() {
+		super.layoutChildren();
+		// The scroll bar is created by the skin, therefore it's only available
+		// after the table has been layouted
+		if (verticalScrollBar == null) {
+			for (Node node : lookupAll(".scroll-bar")) {
+				if (node instanceof ScrollBar
+						&& ((ScrollBar) node).getOrientation() == Orientation.VERTICAL) {
+					verticalScrollBar = (ScrollBar) node;
+					verticalScrollBar.valueProperty().addListener(
+							new ChangeListener<Number>() {
+
+								@Override
+								public void changed(
+										ObservableValue<? extends Number> observable,
+										Number oldValue, Number newValue) {
+									if (newValue.doubleValue() >= verticalScrollBar
+											.getMax()) {
+										loadNextPage();
+									}
+								}
+							});
+				}
+			}
+		}
+	}
+
+	private void loadNextPage() {
+		if (lastPage != null && lastPage.hasMore() && pageTask == null) {
+			loadPage(directory, lastPage.getNextCursor());
+		}
+	}
+
+	private void loadPage(Directory pageDirectory, long cursor) {
+		final UpdateableTask<EntryPage> entriesTask = guiState.getController()
+				.createDirectoryEntriesTask(pageDirectory, cursor, PAGE_SIZE);
+		pageTask = entriesTask;
+		new TaskDialog(guiState, entriesTask) {
+			protected void succeeded(WorkerStateEvent event) {
+				// Ignore the page if the directory changed in the meantime
+				if (pageTask == entriesTask) {
+					pageTask = null;
+					lastPage = entriesTask.getValue();
+					addPage(lastPage);
+				}
+			}
+
+			protected void failed(WorkerStateEvent event) {
+				if (pageTask == entriesTask) {
+					pageTask = null;
+				}
+				super.failed(event);
+			}
+		};
+	}
+
+	/**
+	 * Adds the entries of a page which are not shown yet. An entry of a later
+	 * page may already have been added by {@link #entryAdded(Entry)}.
+	 */
+	private void addPage(EntryPage page) {
+		Set<Entry> shownEntries = new HashSet<Entry>(getItems());
+		List<Entry> newEntries = new ArrayList<Entry>();
+		for (Entry entry : page.getEntries()) {
+			if (!shownEntries.contains(entry)) {
+				newEntries.add(entry);
+			}
+		}
+		setEntries(newEntries.toArray(new Entry[newEntries.size()]));
 	}
 
 	protected void setEntries(Entry[] entries) {
@@ -204,27 +298,26 @@ public class EntryView extends TableView<Entry> implements DirectoryListener,
 		clear();
 		if (directory != null) {
 			if (directory instanceof SearchDirectory) {
-				SearchDirectory search = (SearchDirectory) directory;
-				final UpdateableTask<Entry[]> searchTask = guiState
-						.getController().createSearchTask(search.getTerm(),
-								search.isRegex(), search.isCheckFiles(),
-								search.isCheckFolders(),
+				final SearchDirectory search = (SearchDirectory) directory;
+				UpdateableTask<Integer> searchTask = guiState.getController()
+						.createSearchTask(search.getTerm(), search.isRegex(),
+								search.isCheckFiles(), search.isCheckFolders(),
 								search.isCaseSensitive(),
 								search.isCheckChildren(),
-								new Directory(search.getPath()));
-				new TaskDialog(guiState, searchTask) {
-					protected void succeeded(WorkerStateEvent event) {
-						setEntries(searchTask.getValue());
-					}
-				};
+								search.getMaxResults(),
+								new SearchResultHandler() {
+									@Override
+									public void entriesFound(Entry[] entries) {
+										// ignore results of a search which is
+										// no longer shown
+										if (getDirectory() == search) {
+											setEntries(entries);
+										}
+									}
+								}, new Directory(search.getPath()));
+				new TaskDialog(guiState, searchTask);
 			} else {
-				final UpdateableTask<Entry[]> entriesTask = guiState
-						.getController().createDirectoryEntriesTask(directory);
-				new TaskDialog(guiState, entriesTask) {
-					protected void succeeded(WorkerStateEvent event) {
-						setEntries(entriesTask.getValue());
-					}
-				};
+				loadPage(directory, 0);
 			}
 		}
 	}
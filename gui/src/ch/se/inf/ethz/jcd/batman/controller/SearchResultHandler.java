@@ -0,0 +1,22 @@
+package ch.se.inf.ethz.jcd.batman.controller;
+
+import ch.se.inf.ethz.jcd.batman.model.Entry;
+
+/**
+ * Receives the entries found by a search task while the search is still
+ * running. The handler is called on the JavaFX application thread.
+ * 
+ * @see TaskController#createSearchTask(String, boolean, boolean, boolean,
+ *      boolean, boolean, int, SearchResultHandler, Entry...)
+ */
+public interface SearchResultHandler {
+
+	/**
+	 * Called with the next batch of found entries.
+	 * 
+	 * @param entries
+	 *            the found entries
+	 */
+	void entriesFound(Entry[] entries);
+
+}
@@ -3,6 +3,7 @@ package ch.se.inf.ethz.jcd.batman.controller;
 import ch.se.inf.ethz.jcd.batman.browser.DiskEntryListener;
 import ch.se.inf.ethz.jcd.batman.model.Directory;
 import ch.se.inf.ethz.jcd.batman.model.Entry;
+import ch.se.inf.ethz.jcd.batman.model.EntryPage;
 import ch.se.inf.ethz.jcd.batman.model.File;
 import ch.se.inf.ethz.jcd.batman.model.Path;
 
@@ -128,6 +129,21 @@ public interface TaskController {
 	 */
 	UpdateableTask<Entry[]> createDirectoryEntriesTask(Directory directory);
 
+	/**
+	 * Creates a task to get a page of the children of a directory.
+	 * 
+	 * @param directory
+	 *            the parent of the returned child entries
+	 * @param cursor
+	 *            the cursor of the page, 0 for the first page or
+	 *            {@link EntryPage#getNextCursor()} of the previous page
+	 * @param maxEntries
+	 *            the maximum number of entries of the page
+	 * @return task to execute the query
+	 */
+	UpdateableTask<EntryPage> createDirectoryEntriesTask(Directory directory,
+			long cursor, int maxEntries);
+
 	/**
 	 * Creates a task to retrieve the amount of free space.
 	 * 
@@ -169,6 +185,8 @@ public interface TaskController {
 
 	/**
 	 * Creates a task to search for the given term inside the given parents.
+	 * The found entries are passed to the handler while the search is
+	 * running, the search stops when the task is cancelled.
 	 * 
 	 * @param term
 	 *            the search term
@@ -182,13 +200,19 @@ public interface TaskController {
 	 *            true if term is case sensitive
 	 * @param checkChildren
 	 *            true if children and subfolders should be checked
+	 * @param maxResults
+	 *            maximum number of found entries, 0 if not limited
+	 * @param handler
+	 *            the handler which receives the found entries
 	 * @param parents
 	 *            list of parents to search in
-	 * @return task to execute the search
+	 * @return task to execute the search, its value is the number of found
+	 *         entries
 	 */
-	UpdateableTask<Entry[]> createSearchTask(String term, boolean isRegex,
+	UpdateableTask<Integer> createSearchTask(String term, boolean isRegex,
 			boolean checkFiles, boolean checkFolders, boolean isCaseSensitive,
-			boolean checkChildren, Entry... parents);
+			boolean checkChildren, int maxResults,
+			SearchResultHandler handler, Entry... parents);
 
 	UpdateableTask<Void> createDeleteDiskTask();
 }
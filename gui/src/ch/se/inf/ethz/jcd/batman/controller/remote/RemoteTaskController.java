@@ -21,15 +21,18 @@ import java.util.TreeSet;
 import javafx.application.Platform;
 import ch.se.inf.ethz.jcd.batman.browser.DiskEntryListener;
 import ch.se.inf.ethz.jcd.batman.controller.ConnectionException;
+import ch.se.inf.ethz.jcd.batman.controller.SearchResultHandler;
 import ch.se.inf.ethz.jcd.batman.controller.TaskController;
 import ch.se.inf.ethz.jcd.batman.controller.UpdateableTask;
 import ch.se.inf.ethz.jcd.batman.model.Directory;
 import ch.se.inf.ethz.jcd.batman.model.Entry;
+import ch.se.inf.ethz.jcd.batman.model.EntryPage;
 import ch.se.inf.ethz.jcd.batman.model.File;
 import ch.se.inf.ethz.jcd.batman.model.Path;
 import ch.se.inf.ethz.jcd.batman.model.util.FileBeforeDirectoryComparator;
 import ch.se.inf.ethz.jcd.batman.server.AuthenticationException;
 import ch.se.inf.ethz.jcd.batman.server.IRemoteDiskClient;
+import ch.se.inf.ethz.jcd.batman.server.IRemoteSearchClient;
 import ch.se.inf.ethz.jcd.batman.server.IRemoteVirtualDisk;
 import ch.se.inf.ethz.jcd.batman.server.ISimpleVirtualDisk;
 import ch.se.inf.ethz.jcd.batman.server.ISynchronizeServer;
@@ -88,6 +91,46 @@ public class RemoteTaskController implements TaskController {
 
 	}
 
+	/**
+	 * Passes the entries found by a remote search to a
+	 * {@link SearchResultHandler} and stops the search when its task is
+	 * cancelled.
+	 */
+	protected static class RemoteSearchClient implements IRemoteSearchClient {
+		private final UpdateableTask<?> task;
+		private final SearchResultHandler handler;
+
+		public RemoteSearchClient(UpdateableTask<?> task,
+				SearchResultHandler handler) throws RemoteException {
+			this.task = task;
+			this.handler = handler;
+			UnicastRemoteObject.exportObject(this, 0);
+		}
+
+		@Override
+		public boolean entriesFound(final Entry[] entries)
+				throws RemoteException {
+			Platform.runLater(new Runnable() {
+
+				@Override
+				public void run() {
+					handler.entriesFound(entries);
+				}
+			});
+			return !task.isCancelled();
+		}
+
+		@Override
+		public boolean isCancelled() throws RemoteException {
+			return task.isCancelled();
+		}
+
+		public void unexportRmiObject() throws NoSuchObjectException {
+			UnicastRemoteObject.unexportObject(this, true);
+		}
+
+	}
+
 	private static final String ACQUIRE_LOCK = "Acquiring lock...";
 	private static final String RELEASE_LOCK = "Releasing lock...";
 	private static final String TASK_DISCOVER_ITEMS = "Discover items";
@@ -385,6 +428,25 @@ public class RemoteTaskController implements TaskController {
 		};
 	}
 
+	@Override
+	public UpdateableTask<EntryPage> createDirectoryEntriesTask(
+			final Directory directory, final long cursor, final int maxEntries) {
+		checkIsConnected();
+		return new UpdateableTask<EntryPage>() {
+
+			@Override
+			protected EntryPage callImpl() throws RemoteException,
+					VirtualDiskException {
+				checkIsConnected();
+				updateTitle("Retrieve directory entries");
+				updateMessage("Retrieving directory entries...");
+				return getRemoteDisk().getChildren(getDiskId(), directory,
+						cursor, maxEntries);
+			}
+
+		};
+	}
+
 	@Override
 	public UpdateableTask<Long> createFreeSpaceTask() {
 		checkIsConnected();
@@ -834,23 +896,29 @@ public class RemoteTaskController implements TaskController {
 	}
 
 	@Override
-	public UpdateableTask<Entry[]> createSearchTask(final String term,
+	public UpdateableTask<Integer> createSearchTask(final String term,
 			final boolean isRegex, final boolean checkFiles,
 			final boolean checkFolders, final boolean isCaseSensitive,
-			final boolean checkChildren, final Entry... parents) {
-		return new UpdateableTask<Entry[]>() {
+			final boolean checkChildren, final int maxResults,
+			final SearchResultHandler handler, final Entry... parents) {
+		return new UpdateableTask<Integer>() {
 			@Override
-			protected Entry[] callImpl() throws RemoteException,
+			protected Integer callImpl() throws RemoteException,
 					VirtualDiskException {
 				checkIsConnected();
 
 				updateTitle(String.format("Searching for '%s'", term));
 				updateMessage("searching...");
 
-				return getRemoteDisk().search(getDiskId(), term, isRegex,
-						checkFiles, checkFolders, isCaseSensitive,
-						checkChildren, parents);
-
+				RemoteSearchClient client = new RemoteSearchClient(this,
+						handler);
+				try {
+					return getRemoteDisk().search(getDiskId(), term, isRegex,
+							checkFiles, checkFolders, isCaseSensitive,
+							checkChildren, maxResults, parents, client);
+				} finally {
+					client.unexportRmiObject();
+				}
 			}
 		};
 	}
@@ -0,0 +1,51 @@
+package ch.se.inf.ethz.jcd.batman.model;
+
+import java.io.Serializable;
+
+/**
+ * A page of the child entries of a directory, as returned by a paginated
+ * directory listing.
+ * 
+ */
+public class EntryPage implements Serializable {
+
+	private static final long serialVersionUID = 3619265047382713405L;
+
+	private final Entry[] entries;
+	private final long nextCursor;
+	private final boolean hasMore;
+
+	public EntryPage(Entry[] entries, long nextCursor, boolean hasMore) {
+		this.entries = entries;
+		this.nextCursor = nextCursor;
+		this.hasMore = hasMore;
+	}
+
+	/**
+	 * Returns the entries of the page.
+	 * 
+	 * @return the entries of the page
+	 */
+	public Entry[] getEntries() {
+		return entries;
+	}
+
+	/**
+	 * Returns the cursor which has to be passed to retrieve the next page.
+	 * 
+	 * @return the cursor of the next page
+	 */
+	public long getNextCursor() {
+		return nextCursor;
+	}
+
+	/**
+	 * Returns whether there are entries after this page.
+	 * 
+	 * @return true if there is a next page, false otherwise
+	 */
+	public boolean hasMore() {
+		return hasMore;
+	}
+
+}
@@ -9,11 +9,12 @@ public class SearchDirectory extends Directory implements Cloneable {
 	private final boolean checkFolders;
 	private final boolean caseSensitive;
 	private final boolean checkChildren;
+	private final int maxResults;
 
 	public SearchDirectory(final Path path, final String term,
 			final boolean regex, final boolean checkFiles,
 			final boolean checkFolders, final boolean caseSensitive,
-			final boolean checkChildren) {
+			final boolean checkChildren, final int maxResults) {
 		super(path);
 		this.term = term;
 		this.regex = regex;
@@ -21,6 +22,7 @@ public class SearchDirectory extends Directory implements Cloneable {
 		this.checkFolders = checkFolders;
 		this.caseSensitive = caseSensitive;
 		this.checkChildren = checkChildren;
+		this.maxResults = maxResults;
 	}
 
 	public String getTerm() {
@@ -47,6 +49,13 @@ public class SearchDirectory extends Directory implements Cloneable {
 		return checkChildren;
 	}
 
+	/**
+	 * @return maximum number of found entries, 0 if not limited
+	 */
+	public int getMaxResults() {
+		return maxResults;
+	}
+
 	@Override
 	public Object clone() throws CloneNotSupportedException {
 		return super.clone();
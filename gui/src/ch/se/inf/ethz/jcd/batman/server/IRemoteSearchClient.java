@@ -0,0 +1,35 @@
+package ch.se.inf.ethz.jcd.batman.server;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+import ch.se.inf.ethz.jcd.batman.model.Entry;
+
+/**
+ * Receives the results of a search while the search is still running.
+ * 
+ * @see IRemoteVirtualDisk#search(int, String, boolean, boolean, boolean,
+ *      boolean, boolean, int, Entry[], IRemoteSearchClient)
+ */
+public interface IRemoteSearchClient extends Remote {
+
+	/**
+	 * Called with the next batch of found entries.
+	 * 
+	 * @param entries
+	 *            the found entries
+	 * @return true if the search should continue, false to stop it
+	 * @throws RemoteException
+	 */
+	boolean entriesFound(Entry[] entries) throws RemoteException;
+
+	/**
+	 * Called regularly while the search is running, also if no entries are
+	 * found.
+	 * 
+	 * @return true if the search has been cancelled and should be stopped
+	 * @throws RemoteException
+	 */
+	boolean isCancelled() throws RemoteException;
+
+}
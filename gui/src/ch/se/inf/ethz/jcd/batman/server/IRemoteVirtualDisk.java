@@ -5,6 +5,7 @@ import java.rmi.RemoteException;
 
 import ch.se.inf.ethz.jcd.batman.model.Directory;
 import ch.se.inf.ethz.jcd.batman.model.Entry;
+import ch.se.inf.ethz.jcd.batman.model.EntryPage;
 import ch.se.inf.ethz.jcd.batman.model.File;
 import ch.se.inf.ethz.jcd.batman.model.Path;
 import ch.se.inf.ethz.jcd.batman.vdisk.VirtualDiskException;
@@ -157,6 +158,28 @@ public interface IRemoteVirtualDisk extends Remote {
 	Entry[] getChildren(int id, Entry entry) throws RemoteException,
 			VirtualDiskException;
 
+	/**
+	 * Returns a page of at most maxEntries child entries for the given entry.
+	 * 
+	 * The first page is requested with the cursor 0, each following page with
+	 * the cursor returned by {@link EntryPage#getNextCursor()} of the previous
+	 * page, until {@link EntryPage#hasMore()} returns false.
+	 * 
+	 * @param id
+	 *            the ID representing a loaded virtual disk
+	 * @param entry
+	 *            the parent entry of the returned children
+	 * @param cursor
+	 *            the cursor of the requested page
+	 * @param maxEntries
+	 *            the maximum number of entries of the page
+	 * @return page of children of the given parent entry
+	 * @throws RemoteException
+	 * @throws VirtualDiskException
+	 */
+	EntryPage getChildren(int id, Entry entry, long cursor, int maxEntries)
+			throws RemoteException, VirtualDiskException;
+
 	/**
 	 * Returns all entries below the given entry in the virtual disk entries
 	 * tree.
@@ -260,6 +283,40 @@ public interface IRemoteVirtualDisk extends Remote {
 			boolean checkChildren, Entry[] parents) throws RemoteException,
 			VirtualDiskException;
 
+	/**
+	 * Searches for the given term inside the given parents and passes the
+	 * found entries in batches to the given client, while the search is still
+	 * running.
+	 * 
+	 * @param id
+	 *            the ID representing a loaded virtual disk
+	 * @param term
+	 *            the search term
+	 * @param isRegex
+	 *            true if term is a regex, otherwise false
+	 * @param checkFiles
+	 *            true if files should be checked
+	 * @param checkFolders
+	 *            true if folders should be checked
+	 * @param isCaseSensitive
+	 *            true if term is case sensitive
+	 * @param checkChildren
+	 *            true if children and subfolders should be checked
+	 * @param maxResults
+	 *            maximum number of found entries, 0 if not limited
+	 * @param parents
+	 *            list of parents to search in
+	 * @param client
+	 *            the client which receives the found entries and may stop the
+	 *            search
+	 * @return number of found entries
+	 */
+	int search(int id, String term, boolean isRegex, boolean checkFiles,
+			boolean checkFolders, boolean isCaseSensitive,
+			boolean checkChildren, int maxResults, Entry[] parents,
+			IRemoteSearchClient client) throws RemoteException,
+			VirtualDiskException;
+
 	byte[] getAdditionalDiskInformation(int id) throws RemoteException,
 			VirtualDiskException;
 
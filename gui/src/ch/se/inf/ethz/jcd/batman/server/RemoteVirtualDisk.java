@@ -16,12 +16,16 @@ import java.util.regex.Pattern;
 import ch.se.inf.ethz.jcd.batman.io.VDiskFile;
 import ch.se.inf.ethz.jcd.batman.model.Directory;
 import ch.se.inf.ethz.jcd.batman.model.Entry;
+import ch.se.inf.ethz.jcd.batman.model.EntryPage;
 import ch.se.inf.ethz.jcd.batman.model.File;
 import ch.se.inf.ethz.jcd.batman.model.Path;
 import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualDisk;
 import ch.se.inf.ethz.jcd.batman.vdisk.IVirtualFile;
+import ch.se.inf.ethz.jcd.batman.vdisk.VirtualDiskEntryInfo;
 import ch.se.inf.ethz.jcd.batman.vdisk.VirtualDiskException;
 import ch.se.inf.ethz.jcd.batman.vdisk.impl.VirtualDisk;
+import ch.se.inf.ethz.jcd.batman.vdisk.search.SearchProgressListener;
+import ch.se.inf.ethz.jcd.batman.vdisk.search.SearchResultListener;
 import ch.se.inf.ethz.jcd.batman.vdisk.search.Settings;
 import ch.se.inf.ethz.jcd.batman.vdisk.search.VirtualDiskSearch;
 
@@ -274,12 +278,38 @@ public abstract class RemoteVirtualDisk implements IRemoteVirtualDisk {
 		try {
 			VDiskFile directoryEntry = new VDiskFile(entry.getPath().getPath(),
 					getDisk(id));
-			VDiskFile[] diskEntrys = directoryEntry.listFiles();
-			List<Entry> entryList = new LinkedList<Entry>();
-			for (VDiskFile diskEntry : diskEntrys) {
-				entryList.add(createModel(diskEntry));
+			VirtualDiskEntryInfo[] diskEntrys = directoryEntry.listEntries();
+			Entry[] entries = new Entry[diskEntrys.length];
+			for (int i = 0; i < diskEntrys.length; i++) {
+				entries[i] = createModel(entry.getPath(), diskEntrys[i]);
 			}
-			return entryList.toArray(new Entry[entryList.size()]);
+			return entries;
+		} catch (IOException | IllegalArgumentException e) {
+			throw new VirtualDiskException("Could not query entrys for entry "
+					+ entry.getPath(), e);
+		}
+	}
+
+	@Override
+	public EntryPage getChildren(int id, Entry entry, long cursor,
+			int maxEntries) throws RemoteException, VirtualDiskException {
+		try {
+			VDiskFile directoryEntry = new VDiskFile(entry.getPath().getPath(),
+					getDisk(id));
+			// Query one entry more than requested to know if there is a next
+			// page
+			VirtualDiskEntryInfo[] diskEntrys = directoryEntry.listEntries(
+					cursor, (maxEntries == Integer.MAX_VALUE) ? maxEntries
+							: maxEntries + 1);
+			boolean hasMore = diskEntrys.length > maxEntries;
+			int pageSize = Math.min(diskEntrys.length, maxEntries);
+			Entry[] entries = new Entry[pageSize];
+			long nextCursor = cursor;
+			for (int i = 0; i < pageSize; i++) {
+				entries[i] = createModel(entry.getPath(), diskEntrys[i]);
+				nextCursor = diskEntrys[i].getPosition();
+			}
+			return new EntryPage(entries, nextCursor, hasMore);
 		} catch (IOException | IllegalArgumentException e) {
 			throw new VirtualDiskException("Could not query entrys for entry "
 					+ entry.getPath(), e);
@@ -293,7 +323,7 @@ public abstract class RemoteVirtualDisk implements IRemoteVirtualDisk {
 			List<Entry> subEntrys = new LinkedList<Entry>();
 			VDiskFile directoryEntry = new VDiskFile(entry.getPath().getPath(),
 					getDisk(id));
-			addAllSubEntrysToList(directoryEntry, subEntrys);
+			addAllSubEntrysToList(directoryEntry, entry.getPath(), subEntrys);
 			return subEntrys.toArray(new Entry[subEntrys.size()]);
 		} catch (IOException | IllegalArgumentException e) {
 			throw new VirtualDiskException(
@@ -360,6 +390,99 @@ public abstract class RemoteVirtualDisk implements IRemoteVirtualDisk {
 			boolean checkFiles, boolean checkFolders, boolean isCaseSensitive,
 			boolean checkChildren, Entry[] parents) throws RemoteException,
 			VirtualDiskException {
+		final List<Entry> resultEntries = new LinkedList<>();
+		search(id, term, isRegex, checkFiles, checkFolders, isCaseSensitive,
+				checkChildren, 0, parents, new SearchResultListener() {
+					@Override
+					public boolean entryFound(VDiskFile entry)
+							throws IOException {
+						resultEntries.add(createModel(entry));
+						return true;
+					}
+				});
+		return resultEntries.toArray(new Entry[0]);
+	}
+
+	@Override
+	public int search(int id, String term, boolean isRegex,
+			boolean checkFiles, boolean checkFolders, boolean isCaseSensitive,
+			boolean checkChildren, int maxResults, Entry[] parents,
+			IRemoteSearchClient client) throws RemoteException,
+			VirtualDiskException {
+		SearchBatcher batcher = new SearchBatcher(client);
+		search(id, term, isRegex, checkFiles, checkFolders, isCaseSensitive,
+				checkChildren, maxResults, parents, batcher);
+		batcher.flush();
+		return batcher.getCount();
+	}
+
+	/**
+	 * Collects the found entries of a search and passes them to the client,
+	 * as soon as {@link #BATCH_SIZE} entries are collected or
+	 * {@link #BATCH_INTERVAL} milliseconds have passed since the last batch.
+	 * The first found entry is passed immediately, so the client can show it
+	 * without waiting for a full batch. The collected entries are also passed
+	 * while the search is walking the directories without finding anything,
+	 * and if there are none, the client is asked whether the search has been
+	 * cancelled.
+	 */
+	private final class SearchBatcher implements SearchResultListener,
+			SearchProgressListener {
+		private static final int BATCH_SIZE = 100;
+		private static final long BATCH_INTERVAL = 200;
+
+		private final IRemoteSearchClient client;
+		private final List<Entry> batch = new LinkedList<>();
+		private long lastFlush;
+		private int count;
+		private boolean stopped;
+
+		private SearchBatcher(IRemoteSearchClient client) {
+			this.client = client;
+		}
+
+		@Override
+		public boolean entryFound(VDiskFile entry) throws IOException {
+			batch.add(createModel(entry));
+			count++;
+			if (batch.size() >= BATCH_SIZE
+					|| System.currentTimeMillis() - lastFlush >= BATCH_INTERVAL) {
+				flush();
+			}
+			return !stopped;
+		}
+
+		@Override
+		public boolean searchProgressed() throws IOException {
+			if (System.currentTimeMillis() - lastFlush >= BATCH_INTERVAL) {
+				if (batch.isEmpty()) {
+					stopped = client.isCancelled();
+					lastFlush = System.currentTimeMillis();
+				} else {
+					flush();
+				}
+			}
+			return !stopped;
+		}
+
+		private void flush() throws RemoteException {
+			if (!batch.isEmpty() && !stopped) {
+				stopped = !client.entriesFound(batch.toArray(new Entry[0]));
+				batch.clear();
+				lastFlush = System.currentTimeMillis();
+			}
+		}
+
+		private int getCount() {
+			return count;
+		}
+	}
+
+	private void search(int id, String term, boolean isRegex,
+			boolean checkFiles, boolean checkFolders, boolean isCaseSensitive,
+			boolean checkChildren, int maxResults, Entry[] parents,
+			SearchResultListener listener) throws RemoteException,
+			VirtualDiskException {
 		IVirtualDisk disk = getDisk(id);
 
 		try {
@@ -374,29 +497,17 @@ public abstract class RemoteVirtualDisk implements IRemoteVirtualDisk {
 			settings.setCheckFiles(checkFiles);
 			settings.setCheckFolders(checkFolders);
 			settings.setCheckSubFolders(checkChildren);
+			settings.setMaxResults(maxResults);
 
-			List<VDiskFile> results = null;
 			if (isRegex) {
-				results = VirtualDiskSearch.searchName(settings,
-						Pattern.compile(term),
-						parentFiles.toArray(new VDiskFile[0]));
+				VirtualDiskSearch.searchName(settings, Pattern.compile(term),
+						listener, parentFiles.toArray(new VDiskFile[0]));
 			} else {
-				results = VirtualDiskSearch.searchName(settings, term,
+				VirtualDiskSearch.searchName(settings, term, listener,
 						parentFiles.toArray(new VDiskFile[0]));
 			}
-
-			List<Entry> resultEntries = new LinkedList<>();
-			for (VDiskFile result : results) {
-				if (result.isFile()) {
-					resultEntries.add(new File(new Path(result.getPath()),
-							result.lastModified(), result.getFileSize()));
-				} else if (result.isDirectory()) {
-					resultEntries.add(new Directory(new Path(result.getPath()),
-							result.lastModified()));
-				}
-			}
-
-			return resultEntries.toArray(new Entry[0]);
+		} catch (RemoteException e) {
+			throw e;
 		} catch (IOException | IllegalArgumentException e) {
 			throw new VirtualDiskException("Could not execute search", e);
 		}
@@ -485,12 +596,14 @@ public abstract class RemoteVirtualDisk implements IRemoteVirtualDisk {
 		return Arrays.equals(IVirtualDisk.MAGIC_NUMBER, readMagicNumber);
 	}
 
-	private void addAllSubEntrysToList(VDiskFile directory,
+	private void addAllSubEntrysToList(VDiskFile directory, Path path,
 			List<Entry> entryList) throws IOException {
-		for (VDiskFile entry : directory.listFiles()) {
-			entryList.add(createModel(entry));
-			if (entry.isDirectory()) {
-				addAllSubEntrysToList(entry, entryList);
+		for (VirtualDiskEntryInfo info : directory.listEntries()) {
+			Entry entry = createModel(path, info);
+			entryList.add(entry);
+			if (info.isDirectory()) {
+				addAllSubEntrysToList(new VDiskFile(directory, info.getName()),
+						entry.getPath(), entryList);
 			}
 		}
 	}
@@ -520,6 +633,15 @@ public abstract class RemoteVirtualDisk implements IRemoteVirtualDisk {
 		}
 	}
 
+	private Entry createModel(Path parent, VirtualDiskEntryInfo info) {
+		Path path = new Path(parent, info.getName());
+		if (info.isFile()) {
+			return new File(path, info.getTimestamp(), info.getSize());
+		} else {
+			return new Directory(path, info.getTimestamp());
+		}
+	}
+
 	public Entry updateLastModified(int id, Entry entry, long newTimestamp)
 			throws RemoteException, VirtualDiskException {
 		try {